@@ -0,0 +1,84 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.AuditLog;
+import com.bastiaanjansen.otp.TOTPGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares {@link TOTPGenerator#verify(String, int)} without a verification listener to verify with an
+ * {@link AuditLog} listener, from 4 threads. Half of the codes are valid and half are invalid.
+ * <p>
+ * The audit log writes to a temporary directory, which is deleted after the benchmark. With the drop policy, the
+ * amount of dropped records is printed after each iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class AuditLogBenchmark {
+
+    private static final String SECRET = "VV3KOX7UQJ4KYAKOHMZPPH3US4CJIMH6F3ZKNB5C2OOBQ6V2KIYHM27Q";
+
+    @Param({ "none", "DROP", "BLOCK" })
+    private String audit;
+
+    private Path directory;
+
+    private AuditLog auditLog;
+
+    private TOTPGenerator generator;
+
+    private String code;
+
+    @Setup
+    public void setUp() throws IOException {
+        TOTPGenerator.Builder builder = new TOTPGenerator.Builder(SECRET);
+
+        if (!audit.equals("none")) {
+            directory = Files.createTempDirectory("otp-audit");
+            auditLog = new AuditLog.Builder(directory)
+                    .withOverflowPolicy(AuditLog.OverflowPolicy.valueOf(audit))
+                    .withMaxFiles(2)
+                    .build();
+            builder.withVerificationListener(auditLog.forIdentifier("user"));
+        }
+
+        generator = builder.build();
+        code = generator.now();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printDropped() {
+        if (auditLog != null) System.out.printf("%ndropped %d, written %d%n", auditLog.getDropped(), auditLog.getWritten());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (auditLog == null) return;
+
+        auditLog.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+    }
+
+    @Benchmark
+    public boolean verify(Cursor cursor) {
+        return generator.verify(++cursor.index % 2 == 0 ? code : "000000", 1);
+    }
+}
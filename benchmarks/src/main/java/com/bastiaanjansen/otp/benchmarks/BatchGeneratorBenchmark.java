@@ -0,0 +1,81 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.BatchGenerator;
+import com.bastiaanjansen.otp.HMACAlgorithm;
+import com.bastiaanjansen.otp.HOTPGenerator;
+import com.bastiaanjansen.otp.helpers.Base32;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares generating a batch of codes with the vectorized and scalar {@link BatchGenerator} and with a loop over
+ * {@link HOTPGenerator#generate(long)}. Scores are per batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class BatchGeneratorBenchmark {
+
+    @Param({ "SHA1", "SHA256" })
+    private HMACAlgorithm algorithm;
+
+    @Param({ "1024" })
+    private int size;
+
+    private HOTPGenerator[] generators;
+
+    private long[] counters;
+
+    private int[] codes;
+
+    private BatchGenerator vectorized;
+
+    private BatchGenerator scalar;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        generators = new HOTPGenerator[size];
+        counters = new long[size];
+        codes = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            byte[] key = new byte[20];
+            random.nextBytes(key);
+            generators[i] = new HOTPGenerator.Builder(Base32.encode(key)).withAlgorithm(algorithm).build();
+            counters[i] = random.nextInt(1_000_000);
+        }
+
+        vectorized = BatchGenerator.create();
+        scalar = BatchGenerator.scalar();
+
+        if (!vectorized.isVectorized())
+            throw new IllegalStateException("jdk.incubator.vector is not available");
+    }
+
+    @Benchmark
+    public int[] vectorized() {
+        vectorized.generate(generators, counters, codes);
+        return codes;
+    }
+
+    @Benchmark
+    public int[] scalar() {
+        scalar.generate(generators, counters, codes);
+        return codes;
+    }
+
+    @Benchmark
+    public String[] generatorLoop() {
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = generators[i].generate(counters[i]);
+        }
+        return result;
+    }
+}
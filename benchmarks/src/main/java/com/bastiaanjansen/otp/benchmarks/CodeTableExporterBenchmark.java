@@ -0,0 +1,84 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.CodeTableExporter;
+import com.bastiaanjansen.otp.HOTPGenerator;
+import com.bastiaanjansen.otp.SecretGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Compares exporting a CSV code table with {@link CodeTableExporter} to a loop over {@link HOTPGenerator#generate(long)}
+ * writing the same rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodeTableExporterBenchmark {
+
+    @Param({ "100" })
+    private int secrets;
+
+    @Param({ "1000" })
+    private int counters;
+
+    private Map<String, HOTPGenerator> generators;
+
+    private CodeTableExporter exporter;
+
+    private Path path;
+
+    @Setup
+    public void setUp() throws IOException {
+        generators = new LinkedHashMap<>();
+        for (int i = 0; i < secrets; i++) {
+            generators.put("token-" + i, new HOTPGenerator.Builder(SecretGenerator.generate()).build());
+        }
+
+        exporter = new CodeTableExporter.Builder().build();
+        path = Files.createTempFile("codes", ".csv");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(path);
+    }
+
+    @Benchmark
+    public long exporter() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            return exporter.exportHOTP(channel, generators, 0, counters);
+        }
+    }
+
+    @Benchmark
+    public long generateLoop() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, WRITE, CREATE, TRUNCATE_EXISTING);
+             BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, UTF_8))) {
+            writer.write("identifier,counter,code\n");
+            for (Map.Entry<String, HOTPGenerator> generator : generators.entrySet()) {
+                for (long counter = 0; counter < counters; counter++) {
+                    writer.write(generator.getKey() + "," + counter + "," + generator.getValue().generate(counter) + "\n");
+                }
+            }
+            writer.flush();
+            return channel.position();
+        }
+    }
+}
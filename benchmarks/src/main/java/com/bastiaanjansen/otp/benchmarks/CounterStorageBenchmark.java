@@ -0,0 +1,98 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.BloomFilterCounterStorage;
+import com.bastiaanjansen.otp.CounterStorage;
+import com.bastiaanjansen.otp.InMemoryCounterStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares the throughput of {@link CounterStorage#markAsUsed(long)} for the counter storage backends, with many
+ * identities each using a code once per time step.
+ * <p>
+ * Run {@link #main(String[])} to compare the memory the backends retain for a given amount of identities.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CounterStorageBenchmark {
+
+    private static final int TIME_STEPS = 4;
+
+    @Param({ "in-memory", "bloom-filter" })
+    private String backend;
+
+    @Param({ "1000000" })
+    private int identities;
+
+    private Function<String, CounterStorage> storage;
+
+    private String[] identifiers;
+
+    @Setup
+    public void setUp() {
+        storage = create(backend, identities);
+        identifiers = new String[identities];
+        for (int i = 0; i < identities; i++) {
+            identifiers[i] = "user-" + i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+        long counter;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean markAsUsed(Cursor cursor) {
+        if (++cursor.index == identifiers.length) {
+            cursor.index = 0;
+            cursor.counter++;
+        }
+
+        return storage.apply(identifiers[cursor.index]).markAsUsed(cursor.counter);
+    }
+
+    static Function<String, CounterStorage> create(String backend, int identities) {
+        switch (backend) {
+            case "in-memory":
+                return new InMemoryCounterStorage()::forIdentifier;
+            case "bloom-filter":
+                return new BloomFilterCounterStorage(TIME_STEPS, identities, 0.0001)::forIdentifier;
+            default:
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+    }
+
+    public static void main(String[] args) {
+        int identities = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        for (String backend : new String[] { "in-memory", "bloom-filter" }) {
+            long before = usedHeap();
+            Function<String, CounterStorage> storage = create(backend, identities);
+
+            for (long counter = 0; counter < TIME_STEPS; counter++) {
+                for (int i = 0; i < identities; i++) {
+                    storage.apply("user-" + i).markAsUsed(counter);
+                }
+            }
+
+            long retained = usedHeap() - before;
+            System.out.printf("%s: %d identities retain %.1f MB%n", backend, identities, retained / 1e6);
+            if (storage.apply("user-0").markAsUsed(0)) throw new IllegalStateException("Replay was accepted");
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
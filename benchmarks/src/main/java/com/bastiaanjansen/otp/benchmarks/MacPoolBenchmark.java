@@ -0,0 +1,75 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.HOTPGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares generating and verifying codes with the pooled Macs of a generator to creating a Mac for every call, on
+ * platform threads and on virtual threads. Every operation runs a batch of tasks, each on its own virtual thread or on
+ * a fixed pool of as many platform threads as there are processors, and waits for all of them.
+ * <p>
+ * Virtual threads need Java 21 or later: on older JVMs the virtual thread runs fail in their setup, run the platform
+ * threads only with {@code -p threads=platform}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MacPoolBenchmark {
+
+    private static final String SECRET = "VV3KOX7UQJ4KYAKOHMZPPH3US4CJIMH6F3ZKNB5C2OOBQ6V2KIYHM27Q";
+
+    private static final int TASKS = 1024;
+
+    @Param({ "platform", "virtual" })
+    private String threads;
+
+    @Param({ "pooled", "unpooled" })
+    private String macs;
+
+    private ExecutorService executor;
+
+    private HOTPGenerator generator;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        if (threads.equals("virtual")) {
+            // Java 21+, looked up reflectively so the benchmarks still compile for Java 17
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } else {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+
+        HOTPGenerator.Builder builder = new HOTPGenerator.Builder(SECRET);
+        if (macs.equals("unpooled")) builder.withMacPoolSize(0);
+        generator = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void generateAndVerify() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(TASKS);
+
+        for (int i = 0; i < TASKS; i++) {
+            long counter = i;
+            executor.execute(() -> {
+                generator.verify(generator.generate(counter), counter, 1);
+                done.countDown();
+            });
+        }
+
+        done.await();
+    }
+}
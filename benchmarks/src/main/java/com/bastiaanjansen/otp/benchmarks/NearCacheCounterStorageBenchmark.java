@@ -0,0 +1,68 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.CounterStorage;
+import com.bastiaanjansen.otp.FakeRespServer;
+import com.bastiaanjansen.otp.NearCacheCounterStorage;
+import com.bastiaanjansen.otp.RespCounterStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares {@link RespCounterStorage} against the in-process stand-in server with and without a
+ * {@link NearCacheCounterStorage} in front of it, from 16 threads. Every other call replays the previous counter of
+ * the thread, which the near cache rejects without a call to the server.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NearCacheCounterStorageBenchmark {
+
+    @Param({ "remote", "near-cache" })
+    private String storage;
+
+    private FakeRespServer server;
+
+    private RespCounterStorage remote;
+
+    private Function<String, CounterStorage> counterStorages;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeRespServer();
+        remote = new RespCounterStorage.Builder(server.address())
+                .withKeyPrefix("otp:benchmark:" + System.nanoTime() + ":")
+                .build();
+
+        counterStorages = storage.equals("remote")
+                ? remote::forIdentifier
+                : new NearCacheCounterStorage.Builder(remote::forIdentifier).build()::forIdentifier;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        remote.close();
+        server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final String identifier = "user-" + Thread.currentThread().getId();
+        long counter;
+        boolean replay = true;
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean markAsUsed(Cursor cursor) {
+        cursor.replay = !cursor.replay;
+        long counter = cursor.replay ? cursor.counter - 1 : cursor.counter++;
+
+        return counterStorages.apply(cursor.identifier).markAsUsed(counter);
+    }
+}
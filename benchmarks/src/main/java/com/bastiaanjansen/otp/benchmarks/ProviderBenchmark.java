@@ -0,0 +1,76 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.HMACAlgorithm;
+import com.bastiaanjansen.otp.HOTPGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JCA providers which support the HMAC algorithms with the default provider lookup.
+ * <p>
+ * Run {@link #main(String[])} to benchmark every installed provider, or pass {@code -p provider=NAME} to JMH.
+ * Combinations of a provider and an algorithm it does not support fail during setup and are skipped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProviderBenchmark {
+
+    static final String DEFAULT_PROVIDER = "default";
+
+    private static final String SECRET = "VV3KOX7UQJ4KYAKOHMZPPH3US4CJIMH6F3ZKNB5C2OOBQ6V2KIYHM27Q";
+
+    @Param({ "SHA1", "SHA256", "SHA512" })
+    private HMACAlgorithm algorithm;
+
+    @Param({ DEFAULT_PROVIDER, "SunJCE" })
+    private String provider;
+
+    private HOTPGenerator generator;
+
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        HOTPGenerator.Builder builder = new HOTPGenerator.Builder(SECRET).withAlgorithm(algorithm);
+        if (!provider.equals(DEFAULT_PROVIDER)) builder.withProvider(provider);
+
+        generator = builder.build();
+    }
+
+    @Benchmark
+    public String generate() {
+        return generator.generate(counter++);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String[] providers = Arrays.stream(Security.getProviders())
+                .filter(ProviderBenchmark::supportsHMAC)
+                .map(Provider::getName)
+                .toArray(String[]::new);
+
+        String[] params = new String[providers.length + 1];
+        params[0] = DEFAULT_PROVIDER;
+        System.arraycopy(providers, 0, params, 1, providers.length);
+
+        new Runner(new OptionsBuilder()
+                .include(ProviderBenchmark.class.getSimpleName())
+                .param("provider", params)
+                .build()).run();
+    }
+
+    private static boolean supportsHMAC(Provider provider) {
+        return Arrays.stream(HMACAlgorithm.values())
+                .anyMatch(algorithm -> provider.getService("Mac", algorithm.getHMACName()) != null);
+    }
+}
@@ -0,0 +1,68 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.FakeRespServer;
+import com.bastiaanjansen.otp.RespCounterStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link RespCounterStorage} against the in-process stand-in server, with many threads
+ * marking counters as used concurrently, to compare the amount of connections calls are pipelined over.
+ * <p>
+ * Set the system property {@code resp.address} to {@code host:port} to run against a real Redis server instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RespCounterStorageBenchmark {
+
+    @Param({ "1", "4" })
+    private int connections;
+
+    private FakeRespServer server;
+
+    private RespCounterStorage storage;
+
+    @Setup
+    public void setUp() throws IOException {
+        String address = System.getProperty("resp.address");
+        InetSocketAddress socketAddress;
+
+        if (address == null) {
+            server = new FakeRespServer();
+            socketAddress = server.address();
+        } else {
+            String[] parts = address.split(":");
+            socketAddress = new InetSocketAddress(parts[0], Integer.parseInt(parts[1]));
+        }
+
+        storage = new RespCounterStorage.Builder(socketAddress)
+                .withConnections(connections)
+                .withKeyPrefix("otp:benchmark:" + System.nanoTime() + ":")
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        if (server != null) server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final String identifier = "user-" + Thread.currentThread().getId();
+        long counter;
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean markAsUsed(Cursor cursor) {
+        return storage.forIdentifier(cursor.identifier).markAsUsed(cursor.counter++);
+    }
+}
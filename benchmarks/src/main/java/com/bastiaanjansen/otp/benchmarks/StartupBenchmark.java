@@ -0,0 +1,42 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.HMACAlgorithm;
+import com.bastiaanjansen.otp.Preloader;
+import com.bastiaanjansen.otp.TOTPGenerator;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Measures the time from process start to the first verified code.
+ * <p>
+ * Run it once per process, see {@code startup.sh} to compare a regular JVM, AppCDS and a native image. Pass
+ * {@code --preload} to call {@link Preloader#preload(HMACAlgorithm...)} before generating the first code.
+ */
+public final class StartupBenchmark {
+
+    private static final String SECRET = "VV3KOX7UQJ4KYAKOHMZPPH3US4CJIMH6F3ZKNB5C2OOBQ6V2KIYHM27Q";
+
+    private StartupBenchmark() {}
+
+    public static void main(String[] args) {
+        long mainStarted = System.nanoTime();
+        boolean preload = args.length > 0 && args[0].equals("--preload");
+
+        if (preload) Preloader.preload(HMACAlgorithm.SHA1);
+        long preloaded = System.nanoTime();
+
+        TOTPGenerator generator = new TOTPGenerator.Builder(SECRET).build();
+        if (!generator.verify(generator.now()))
+            throw new IllegalStateException("Code could not be verified");
+        long verified = System.nanoTime();
+
+        Duration sinceProcessStart = ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()))
+                .orElse(Duration.ZERO);
+
+        System.out.printf("process start to first verified code: %d ms%n", sinceProcessStart.toMillis());
+        System.out.printf("main to first verified code: %.3f ms%n", (verified - mainStarted) / 1e6);
+        if (preload) System.out.printf("of which preload: %.3f ms%n", (preloaded - mainStarted) / 1e6);
+    }
+}
@@ -0,0 +1,48 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.TOTPGenerator;
+import com.bastiaanjansen.otp.TimeStepSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link TOTPGenerator#now()} and {@link TOTPGenerator#verify(String)} reading the clock with the same calls
+ * reading the shared {@link TimeStepSource} of the period.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeStepSourceBenchmark {
+
+    private static final String SECRET = "VV3KOX7UQJ4KYAKOHMZPPH3US4CJIMH6F3ZKNB5C2OOBQ6V2KIYHM27Q";
+
+    @Param({ "clock", "source" })
+    private String time;
+
+    private TOTPGenerator generator;
+
+    @Setup
+    public void setUp() {
+        TOTPGenerator.Builder builder = new TOTPGenerator.Builder(SECRET);
+        if (time.equals("source")) builder.withTimeStepSource(TimeStepSource.forPeriod(Duration.ofSeconds(30)));
+
+        generator = builder.build();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String now() {
+        return generator.now();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean verify() {
+        return generator.verify("000000", 1);
+    }
+}
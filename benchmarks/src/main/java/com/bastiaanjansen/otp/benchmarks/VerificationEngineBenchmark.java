@@ -0,0 +1,109 @@
+package com.bastiaanjansen.otp.benchmarks;
+
+import com.bastiaanjansen.otp.InMemoryCounterStorage;
+import com.bastiaanjansen.otp.TOTPGenerator;
+import com.bastiaanjansen.otp.VerificationEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares verifying codes with {@link VerificationEngine} to {@link TOTPGenerator#verify(String, int)} with an
+ * {@link InMemoryCounterStorage}, from 8 threads. With one identity, all threads verify codes of the same hot account.
+ * <p>
+ * Every operation verifies a batch of codes, which the engine pipelines into the inboxes of its shards before waiting
+ * for the results. Half of the codes are the current code of the identity, which is only accepted once per time step,
+ * and half are invalid.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerificationEngineBenchmark {
+
+    private static final String SECRET = "VV3KOX7UQJ4KYAKOHMZPPH3US4CJIMH6F3ZKNB5C2OOBQ6V2KIYHM27Q";
+
+    private static final int BATCH = 64;
+
+    @Param({ "generator", "engine" })
+    private String verifier;
+
+    @Param({ "1", "1024" })
+    private int identities;
+
+    private String[] identifiers;
+
+    private TOTPGenerator generator;
+
+    private InMemoryCounterStorage counterStorage;
+
+    private VerificationEngine engine;
+
+    private volatile String code;
+
+    @Setup
+    public void setUp() {
+        identifiers = new String[identities];
+        for (int i = 0; i < identities; i++) {
+            identifiers[i] = "user-" + i;
+        }
+
+        generator = new TOTPGenerator.Builder(SECRET).build();
+        counterStorage = new InMemoryCounterStorage();
+        engine = new VerificationEngine.Builder(identifier -> generator).withDelayWindow(1).build();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        code = generator.now();
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Boolean>[] futures = new CompletableFuture[BATCH];
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(BATCH)
+    public int verify(Cursor cursor) {
+        int valid = 0;
+
+        if (verifier.equals("engine")) {
+            for (int i = 0; i < BATCH; i++) {
+                cursor.futures[i] = engine.verify(next(cursor), codeOf(i));
+            }
+            for (int i = 0; i < BATCH; i++) {
+                if (cursor.futures[i].join()) valid++;
+            }
+        } else {
+            for (int i = 0; i < BATCH; i++) {
+                TOTPGenerator bound = new TOTPGenerator.Builder(SECRET)
+                        .withCounterStorage(counterStorage.forIdentifier(next(cursor)))
+                        .build();
+                if (bound.verify(codeOf(i), 1)) valid++;
+            }
+        }
+
+        return valid;
+    }
+
+    private String next(Cursor cursor) {
+        if (++cursor.index == identifiers.length) cursor.index = 0;
+        return identifiers[cursor.index];
+    }
+
+    private String codeOf(int i) {
+        return i % 2 == 0 ? code : "000000";
+    }
+}
@@ -0,0 +1,102 @@
+package com.bastiaanjansen.otp.benchmarks.load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, with log-linear buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} buckets, so percentiles are accurate to within about 6%.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(final long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        max.accumulate(value);
+    }
+
+    /**
+     * @return the recorded values of this histogram, after which it is empty
+     */
+    Snapshot snapshotAndReset() {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+        }
+        return new Snapshot(snapshot, max.getThenReset());
+    }
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int magnitude = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        int subBucket = (int) (value >>> magnitude) - SUB_BUCKETS;
+        return (magnitude + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value which maps to the bucket
+     */
+    private static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int magnitude = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+    static final class Snapshot {
+
+        private final long[] counts;
+
+        private final long total;
+
+        private final long max;
+
+        private Snapshot(final long[] counts, final long max) {
+            this.counts = counts;
+            this.max = max;
+
+            long total = 0;
+            for (long count : counts) total += count;
+            this.total = total;
+        }
+
+        long count() {
+            return total;
+        }
+
+        long max() {
+            return max;
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100
+         * @return upper bound of the bucket containing the percentile, in nanoseconds
+         */
+        long percentile(final double percentile) {
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(percentile / 100 * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+
+        Snapshot merge(final Snapshot other) {
+            long[] merged = counts.clone();
+            for (int i = 0; i < merged.length; i++) merged[i] += other.counts[i];
+            return new Snapshot(merged, Math.max(max, other.max));
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.bastiaanjansen.otp.benchmarks.load;
+
+import com.bastiaanjansen.otp.SecretGenerator;
+import com.bastiaanjansen.otp.TOTPGenerator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic multi-tenant load for TOTP verification with a counter storage.
+ * <p>
+ * Simulates users with a mix of token configurations and skewed device clocks, who log in, replay a code they used
+ * before, or guess codes. Requests arrive as an open-loop Poisson process with periodic bursts, and every request
+ * is timed from its intended arrival, so queueing in an overloaded executor shows up in the latencies. Time is
+ * driven by a {@link SimulatedClock}, which can run faster than real time to cover many periods.
+ * <p>
+ * Run with {@code java -cp target/benchmarks.jar com.bastiaanjansen.otp.benchmarks.load.LoadGenerator --help}.
+ */
+public final class LoadGenerator {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Options options;
+
+    private final SimulatedClock clock;
+
+    private final StorageBackend storage;
+
+    private final SimulatedUser[] users;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final Map<Outcome, LongAdder> outcomes = new HashMap<>();
+
+    private final AtomicInteger storedIdentifiers = new AtomicInteger();
+
+    private final LongAdder totalRequests = new LongAdder();
+
+    private final LongAdder completed = new LongAdder();
+
+    private LatencyHistogram.Snapshot totalLatencies;
+
+    private long measureFrom;
+
+    private LoadGenerator(final Options options) throws Exception {
+        this.options = options;
+        this.clock = new SimulatedClock(Instant.now(), options.clockSpeed);
+        this.storage = StorageBackend.create(options.storage, options.users);
+        this.users = createUsers();
+
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        if (options == null) return;
+
+        new LoadGenerator(options).run();
+    }
+
+    private SimulatedUser[] createUsers() {
+        List<Profile> profiles = Profile.parseMix(options.mix);
+        double totalWeight = profiles.stream().mapToDouble(profile -> profile.weight).sum();
+        Random random = new Random(options.seed);
+
+        SimulatedUser[] users = new SimulatedUser[options.users];
+        for (int i = 0; i < users.length; i++) {
+            Profile profile = pick(profiles, random.nextDouble() * totalWeight);
+            String identifier = "user-" + i;
+            byte[] secret = SecretGenerator.generate();
+            long skewMillis = Math.round(random.nextGaussian() * options.skewStddev.toMillis());
+
+            TOTPGenerator server = new TOTPGenerator.Builder(secret)
+                    .withHOTPGenerator(builder -> builder.withAlgorithm(profile.algorithm).withPasswordLength(profile.digits))
+                    .withPeriod(profile.period)
+                    .withClock(clock)
+                    .withCounterStorage(storage.forIdentifier(identifier, profile.period))
+                    .build();
+            TOTPGenerator device = new TOTPGenerator.Builder(secret)
+                    .withHOTPGenerator(builder -> builder.withAlgorithm(profile.algorithm).withPasswordLength(profile.digits))
+                    .withPeriod(profile.period)
+                    .build();
+
+            users[i] = new SimulatedUser(identifier, server, device, Duration.ofMillis(skewMillis));
+        }
+
+        return users;
+    }
+
+    private static Profile pick(final List<Profile> profiles, final double value) {
+        double remaining = value;
+        for (Profile profile : profiles) {
+            remaining -= profile.weight;
+            if (remaining < 0) return profile;
+        }
+        return profiles.get(profiles.size() - 1);
+    }
+
+    private void run() throws Exception {
+        ExecutorService executor = createExecutor();
+        System.out.printf("%d users, %s, %.0f requests/s (x%.1f bursts of %ds every %ds), %s storage, %s, clock x%.1f%n",
+                options.users, options.mix, options.rate, options.burstFactor, options.burstLength.getSeconds(),
+                options.burstEvery.getSeconds(), options.storage, describeExecutor(), options.clockSpeed);
+        System.out.printf("%8s %10s %9s %9s %9s %9s %9s %10s %9s %11s %12s %8s %8s %8s %8s%n",
+                "time", "req/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "alloc MB/s", "heap MB",
+                "identifiers", "storage MB", "login ok", "reused", "replay", "guess");
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        measureFrom = start + options.warmup.toNanos();
+        Reporter report = new Reporter(measureFrom);
+        long interval = options.reportInterval.toNanos();
+        reporter.schedule(report::begin, options.warmup.toNanos(), TimeUnit.NANOSECONDS);
+        reporter.scheduleAtFixedRate(report::report, measureFrom - start + interval, interval, TimeUnit.NANOSECONDS);
+
+        long submitted = dispatch(executor, start, measureFrom + options.duration.toNanos());
+
+        // Report the last interval before the executor's threads terminate, which drops their allocation counters
+        while (completed.sum() < submitted) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        reporter.shutdown();
+        reporter.awaitTermination(1, TimeUnit.MINUTES);
+        report.report();
+        report.summary();
+
+        executor.shutdown();
+        storage.close();
+    }
+
+    /**
+     * Submits requests at their intended arrival times until the end of the run
+     *
+     * @return amount of submitted requests
+     */
+    private long dispatch(final ExecutorService executor, final long start, final long end) {
+        Random random = new Random(options.seed);
+        long next = start;
+        long submitted = 0;
+
+        while (next < end) {
+            long elapsed = next - start;
+            boolean burst = elapsed % options.burstEvery.toNanos() < options.burstLength.toNanos();
+            double rate = options.rate * (burst ? options.burstFactor : 1);
+            next += (long) (-Math.log(1 - random.nextDouble()) / rate * NANOS_PER_SECOND);
+
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            long intended = next;
+            executor.execute(() -> request(intended));
+            submitted++;
+        }
+
+        return submitted;
+    }
+
+    private void request(final long intended) {
+        try {
+            verify(intended);
+        } finally {
+            completed.increment();
+        }
+    }
+
+    private void verify(final long intended) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        SimulatedUser user = users[random.nextInt(users.length)];
+        double kind = random.nextDouble();
+
+        Outcome outcome;
+        String replay = user.lastAcceptedCode();
+        if (kind < options.bruteForceRate) {
+            String guess = String.format("%0" + user.passwordLength() + "d", random.nextInt((int) Math.pow(10, user.passwordLength())));
+            outcome = user.server.verify(guess, options.delayWindow) ? Outcome.GUESS_ACCEPTED : Outcome.GUESS_REJECTED;
+        } else if (kind < options.bruteForceRate + options.replayRate && replay != null) {
+            outcome = user.server.verify(replay, options.delayWindow) ? Outcome.REPLAY_ACCEPTED : Outcome.REPLAY_REJECTED;
+        } else {
+            String code = user.codeAt(clock.instant());
+            if (user.server.verify(code, options.delayWindow)) {
+                if (replay == null) storedIdentifiers.incrementAndGet();
+                user.accepted(code);
+                outcome = Outcome.LOGIN_ACCEPTED;
+            } else {
+                // The user logged in before within the same time step
+                outcome = code.equals(replay) ? Outcome.LOGIN_REUSED : Outcome.LOGIN_REJECTED;
+            }
+        }
+
+        // Requests during the warm-up still run, so the JIT compiles the verification path, but are not reported
+        if (intended < measureFrom) return;
+
+        latencies.record(System.nanoTime() - intended);
+        outcomes.get(outcome).increment();
+    }
+
+    private ExecutorService createExecutor() {
+        if (options.virtualThreads) {
+            try {
+                // Java 21+, looked up reflectively so the harness still compiles for Java 17
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads are not available on this JVM, using platform threads");
+                options.virtualThreads = false;
+            }
+        }
+
+        return Executors.newFixedThreadPool(options.threads);
+    }
+
+    private String describeExecutor() {
+        return options.virtualThreads ? "virtual threads" : options.threads + " threads";
+    }
+
+    private enum Outcome {
+        LOGIN_ACCEPTED, LOGIN_REUSED, LOGIN_REJECTED, REPLAY_ACCEPTED, REPLAY_REJECTED, GUESS_ACCEPTED, GUESS_REJECTED
+    }
+
+    /**
+     * Prints the statistics of every interval, and of the whole run at the end
+     */
+    private final class Reporter {
+
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        private final Map<Outcome, Long> previousOutcomes = new HashMap<>();
+
+        private final Map<Long, Long> allocatedPerThread = new HashMap<>();
+
+        private final long start;
+
+        private long previousTime;
+
+        private long allocated;
+
+        private Reporter(final long start) {
+            this.start = start;
+            this.previousTime = start;
+            allocatedSinceLastReport();
+            for (Outcome outcome : Outcome.values()) previousOutcomes.put(outcome, 0L);
+        }
+
+        /**
+         * Starts the first interval after the warm-up
+         */
+        synchronized void begin() {
+            allocatedSinceLastReport();
+        }
+
+        synchronized void report() {
+            long now = System.nanoTime();
+            double seconds = (now - previousTime) / NANOS_PER_SECOND;
+            if (seconds <= 0) return;
+
+            LatencyHistogram.Snapshot snapshot = latencies.snapshotAndReset();
+            totalLatencies = totalLatencies == null ? snapshot : totalLatencies.merge(snapshot);
+            totalRequests.add(snapshot.count());
+
+            long allocatedInInterval = allocatedSinceLastReport();
+            allocated += allocatedInInterval;
+
+            Map<Outcome, Long> delta = new HashMap<>();
+            for (Outcome outcome : Outcome.values()) {
+                long current = outcomes.get(outcome).sum();
+                delta.put(outcome, current - previousOutcomes.get(outcome));
+                previousOutcomes.put(outcome, current);
+            }
+
+            long storageBytes = storage.sizeInBytes();
+            System.out.printf("%7.1fs %10.0f %9.1f %9.1f %9.1f %9.1f %9.1f %10.1f %9.1f %11d %12s %8s %8s %8s %8s%n",
+                    (now - start) / NANOS_PER_SECOND,
+                    snapshot.count() / seconds,
+                    snapshot.percentile(50) / 1e3,
+                    snapshot.percentile(90) / 1e3,
+                    snapshot.percentile(99) / 1e3,
+                    snapshot.percentile(99.9) / 1e3,
+                    snapshot.max() / 1e3,
+                    allocatedInInterval / seconds / 1e6,
+                    memory.getHeapMemoryUsage().getUsed() / 1e6,
+                    storedIdentifiers.get(),
+                    storageBytes < 0 ? "-" : String.format("%.1f", storageBytes / 1e6),
+                    ratio(delta.get(Outcome.LOGIN_ACCEPTED), delta.get(Outcome.LOGIN_REJECTED)),
+                    delta.get(Outcome.LOGIN_REUSED),
+                    delta.get(Outcome.REPLAY_ACCEPTED) + "/" + (delta.get(Outcome.REPLAY_ACCEPTED) + delta.get(Outcome.REPLAY_REJECTED)),
+                    delta.get(Outcome.GUESS_ACCEPTED) + "/" + (delta.get(Outcome.GUESS_ACCEPTED) + delta.get(Outcome.GUESS_REJECTED)));
+
+            previousTime = now;
+        }
+
+        synchronized void summary() {
+            double seconds = (previousTime - start) / NANOS_PER_SECOND;
+
+            System.out.println();
+            System.out.printf("Total: %d requests in %.1fs, %.0f requests/s, %.1f MB/s allocated%n",
+                    totalRequests.sum(), seconds, totalRequests.sum() / seconds, allocated / seconds / 1e6);
+            System.out.printf("Latency: p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                    totalLatencies.percentile(50) / 1e3, totalLatencies.percentile(90) / 1e3,
+                    totalLatencies.percentile(99) / 1e3, totalLatencies.percentile(99.9) / 1e3,
+                    totalLatencies.max() / 1e3);
+            for (Outcome outcome : Outcome.values()) {
+                System.out.printf("%s: %d%n", outcome.name().toLowerCase().replace('_', ' '), outcomes.get(outcome).sum());
+            }
+        }
+
+        private String ratio(final long accepted, final long rejected) {
+            long total = accepted + rejected;
+            return total == 0 ? "-" : String.format("%.1f%%", 100.0 * accepted / total);
+        }
+
+        /**
+         * Bytes allocated by live platform threads since the previous call. Tracked per thread, so threads which
+         * terminated in between do not make the total go backwards. Virtual threads allocate on their carriers.
+         */
+        private long allocatedSinceLastReport() {
+            long[] ids = threads.getAllThreadIds();
+            long[] allocated = threads.getThreadAllocatedBytes(ids);
+            long total = 0;
+
+            for (int i = 0; i < ids.length; i++) {
+                if (allocated[i] < 0) continue;
+                Long previous = allocatedPerThread.put(ids[i], allocated[i]);
+                total += allocated[i] - (previous == null ? 0 : previous);
+            }
+
+            return total;
+        }
+    }
+
+    /**
+     * Command line options, as {@code --name=value}
+     */
+    static final class Options {
+
+        int users = 10_000;
+        double rate = 2_000;
+        Duration duration = Duration.ofSeconds(30);
+        Duration warmup = Duration.ofSeconds(5);
+        Duration reportInterval = Duration.ofSeconds(5);
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean virtualThreads;
+        String mix = "SHA1:6:30:0.8,SHA256:6:30:0.15,SHA512:8:60:0.05";
+        Duration skewStddev = Duration.ofSeconds(10);
+        int delayWindow = 1;
+        double replayRate = 0.02;
+        double bruteForceRate = 0.01;
+        Duration burstEvery = Duration.ofSeconds(10);
+        Duration burstLength = Duration.ofSeconds(2);
+        double burstFactor = 5;
+        double clockSpeed = 1;
+        String storage = "memory";
+        long seed = 42;
+
+        /**
+         * @return parsed options, or null when help was printed
+         */
+        static Options parse(final String[] args) {
+            Options options = new Options();
+
+            for (String arg : args) {
+                if (arg.equals("--help")) {
+                    printHelp();
+                    return null;
+                }
+                if (arg.equals("--virtual-threads")) {
+                    options.virtualThreads = true;
+                    continue;
+                }
+
+                String[] parts = arg.split("=", 2);
+                if (parts.length != 2 || !parts[0].startsWith("--"))
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+
+                String value = parts[1];
+                switch (parts[0].substring(2)) {
+                    case "users": options.users = Integer.parseInt(value); break;
+                    case "rate": options.rate = Double.parseDouble(value); break;
+                    case "duration": options.duration = Duration.ofSeconds(Long.parseLong(value)); break;
+                    case "warmup": options.warmup = Duration.ofSeconds(Long.parseLong(value)); break;
+                    case "report-interval": options.reportInterval = Duration.ofSeconds(Long.parseLong(value)); break;
+                    case "threads": options.threads = Integer.parseInt(value); break;
+                    case "mix": options.mix = value; break;
+                    case "skew-stddev": options.skewStddev = Duration.ofMillis(Math.round(Double.parseDouble(value) * 1000)); break;
+                    case "delay-window": options.delayWindow = Integer.parseInt(value); break;
+                    case "replay-rate": options.replayRate = Double.parseDouble(value); break;
+                    case "brute-force-rate": options.bruteForceRate = Double.parseDouble(value); break;
+                    case "burst-every": options.burstEvery = Duration.ofSeconds(Long.parseLong(value)); break;
+                    case "burst-length": options.burstLength = Duration.ofSeconds(Long.parseLong(value)); break;
+                    case "burst-factor": options.burstFactor = Double.parseDouble(value); break;
+                    case "clock-speed": options.clockSpeed = Double.parseDouble(value); break;
+                    case "storage": options.storage = value; break;
+                    case "seed": options.seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + parts[0]);
+                }
+            }
+
+            return options;
+        }
+
+        private static void printHelp() {
+            Options defaults = new Options();
+            System.out.println("Options (defaults in parentheses):");
+            System.out.printf("  --users=N               simulated users (%d)%n", defaults.users);
+            System.out.printf("  --rate=N                base arrival rate in requests per second (%.0f)%n", defaults.rate);
+            System.out.printf("  --duration=S            measured run time in seconds (%d)%n", defaults.duration.getSeconds());
+            System.out.printf("  --warmup=S              seconds of unreported load before the run (%d)%n", defaults.warmup.getSeconds());
+            System.out.printf("  --report-interval=S     seconds between reports (%d)%n", defaults.reportInterval.getSeconds());
+            System.out.printf("  --threads=N             platform threads verifying requests (%d)%n", defaults.threads);
+            System.out.println("  --virtual-threads       verify every request on its own virtual thread (Java 21+)");
+            System.out.printf("  --mix=A:D:P:W,...       algorithm:digits:period:weight per profile (%s)%n", defaults.mix);
+            System.out.printf("  --skew-stddev=S         standard deviation of device clock skew in seconds (%d)%n", defaults.skewStddev.getSeconds());
+            System.out.printf("  --delay-window=N        delay window used for verification (%d)%n", defaults.delayWindow);
+            System.out.printf("  --replay-rate=F         share of requests replaying an accepted code (%.2f)%n", defaults.replayRate);
+            System.out.printf("  --brute-force-rate=F    share of requests guessing a code (%.2f)%n", defaults.bruteForceRate);
+            System.out.printf("  --burst-every=S         seconds between the starts of bursts (%d)%n", defaults.burstEvery.getSeconds());
+            System.out.printf("  --burst-length=S        length of a burst in seconds (%d)%n", defaults.burstLength.getSeconds());
+            System.out.printf("  --burst-factor=F        arrival rate multiplier during a burst (%.1f)%n", defaults.burstFactor);
+            System.out.printf("  --clock-speed=F         simulated seconds per second (%.1f)%n", defaults.clockSpeed);
+            System.out.printf("  --storage=NAME          counter storage: memory, bloom or mapped (%s)%n", defaults.storage);
+            System.out.printf("  --seed=N                seed for users and arrivals (%d)%n", defaults.seed);
+        }
+    }
+}
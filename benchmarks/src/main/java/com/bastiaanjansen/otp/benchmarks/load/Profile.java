@@ -0,0 +1,55 @@
+package com.bastiaanjansen.otp.benchmarks.load;
+
+import com.bastiaanjansen.otp.HMACAlgorithm;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token configuration of a share of the simulated users
+ */
+final class Profile {
+
+    final HMACAlgorithm algorithm;
+
+    final int digits;
+
+    final Duration period;
+
+    final double weight;
+
+    private Profile(final HMACAlgorithm algorithm, final int digits, final Duration period, final double weight) {
+        this.algorithm = algorithm;
+        this.digits = digits;
+        this.period = period;
+        this.weight = weight;
+    }
+
+    /**
+     * Parses a mix like {@code SHA1:6:30:0.8,SHA256:8:60:0.2}: algorithm, digits, period in seconds and relative
+     * weight per profile
+     */
+    static List<Profile> parseMix(final String mix) {
+        List<Profile> profiles = new ArrayList<>();
+
+        for (String profile : mix.split(",")) {
+            String[] parts = profile.trim().split(":");
+            if (parts.length != 4)
+                throw new IllegalArgumentException("Profile must be algorithm:digits:period:weight, got " + profile);
+
+            profiles.add(new Profile(
+                    HMACAlgorithm.valueOf(parts[0]),
+                    Integer.parseInt(parts[1]),
+                    Duration.ofSeconds(Long.parseLong(parts[2])),
+                    Double.parseDouble(parts[3])));
+        }
+
+        return profiles;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%d digits/%ds x%.2f", algorithm, digits, period.getSeconds(), weight);
+    }
+}
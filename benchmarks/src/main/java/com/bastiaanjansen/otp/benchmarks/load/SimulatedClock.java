@@ -0,0 +1,59 @@
+package com.bastiaanjansen.otp.benchmarks.load;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Clock which starts at a given instant and runs at a configurable speed, so a load test can cover many periods in
+ * a short run. It can also be moved forward explicitly.
+ */
+public final class SimulatedClock extends Clock {
+
+    private final Instant start;
+
+    private final double speed;
+
+    private final long origin = System.nanoTime();
+
+    private volatile long offsetNanos;
+
+    /**
+     * @param start instant the clock starts at
+     * @param speed simulated nanoseconds per elapsed nanosecond, 1 for real time
+     */
+    public SimulatedClock(final Instant start, final double speed) {
+        if (speed <= 0)
+            throw new IllegalArgumentException("Speed must be greater than 0");
+
+        this.start = start;
+        this.speed = speed;
+    }
+
+    /**
+     * Moves the clock forward
+     *
+     * @param duration duration to add to the simulated time
+     */
+    public synchronized void advance(final Duration duration) {
+        offsetNanos += duration.toNanos();
+    }
+
+    @Override
+    public Instant instant() {
+        long elapsed = (long) ((System.nanoTime() - origin) * speed);
+        return start.plusNanos(elapsed + offsetNanos);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+        throw new UnsupportedOperationException("Simulated clock is always UTC");
+    }
+}
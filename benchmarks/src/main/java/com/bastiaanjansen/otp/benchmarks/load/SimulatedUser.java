@@ -0,0 +1,49 @@
+package com.bastiaanjansen.otp.benchmarks.load;
+
+import com.bastiaanjansen.otp.TOTPGenerator;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A user with an authenticator whose clock is off by a fixed skew, and the server side generator which verifies its
+ * codes against the shared counter storage
+ */
+final class SimulatedUser {
+
+    final String identifier;
+
+    final TOTPGenerator server;
+
+    private final TOTPGenerator device;
+
+    private final Duration skew;
+
+    /**
+     * Last code the server accepted, which a replay attempt sends again
+     */
+    private volatile String lastAcceptedCode;
+
+    SimulatedUser(final String identifier, final TOTPGenerator server, final TOTPGenerator device, final Duration skew) {
+        this.identifier = identifier;
+        this.server = server;
+        this.device = device;
+        this.skew = skew;
+    }
+
+    String codeAt(final Instant now) {
+        return device.at(now.plus(skew));
+    }
+
+    String lastAcceptedCode() {
+        return lastAcceptedCode;
+    }
+
+    void accepted(final String code) {
+        lastAcceptedCode = code;
+    }
+
+    int passwordLength() {
+        return server.getPasswordLength();
+    }
+}
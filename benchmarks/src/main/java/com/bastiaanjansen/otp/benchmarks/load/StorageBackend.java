@@ -0,0 +1,105 @@
+package com.bastiaanjansen.otp.benchmarks.load;
+
+import com.bastiaanjansen.otp.BloomFilterCounterStorage;
+import com.bastiaanjansen.otp.CounterStorage;
+import com.bastiaanjansen.otp.InMemoryCounterStorage;
+import com.bastiaanjansen.otp.MappedFileCounterStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Counter storage backend under test, with its size where the backend can report it
+ */
+final class StorageBackend implements Closeable {
+
+    private static final int BLOOM_FILTER_TIME_STEPS = 4;
+
+    private final BiFunction<String, Duration, CounterStorage> storage;
+
+    private final Closeable resource;
+
+    private final LongSupplier size;
+
+    private StorageBackend(final BiFunction<String, Duration, CounterStorage> storage, final Closeable resource, final LongSupplier size) {
+        this.storage = storage;
+        this.resource = resource;
+        this.size = size;
+    }
+
+    /**
+     * @param name memory, bloom or mapped
+     * @param users amount of simulated users
+     */
+    static StorageBackend create(final String name, final int users) throws IOException {
+        switch (name) {
+            case "memory":
+            {
+                InMemoryCounterStorage storage = new InMemoryCounterStorage();
+                return new StorageBackend((identifier, period) -> storage.forIdentifier(identifier), () -> {}, () -> -1);
+            }
+            case "bloom": {
+                // The filters rotate per time step, so every period needs its own instance
+                Map<Duration, BloomFilterCounterStorage> storages = new ConcurrentHashMap<>();
+                return new StorageBackend((identifier, period) -> storages
+                        .computeIfAbsent(period, p -> new BloomFilterCounterStorage(BLOOM_FILTER_TIME_STEPS, users, 0.0001))
+                        .forIdentifier(identifier),
+                        () -> {},
+                        () -> storages.values().stream().mapToLong(BloomFilterCounterStorage::sizeInBytes).sum());
+            }
+            case "mapped": {
+                Path directory = Files.createTempDirectory("otp-load");
+                MappedFileCounterStorage storage = new MappedFileCounterStorage(directory.resolve("counters"));
+                return new StorageBackend((identifier, period) -> storage.forIdentifier(identifier), () -> {
+                    storage.close();
+                    deleteRecursively(directory);
+                }, () -> directorySize(directory));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown storage " + name + ", use memory, bloom or mapped");
+        }
+    }
+
+    /**
+     * @param period period of the user's TOTP generator
+     */
+    CounterStorage forIdentifier(final String identifier, final Duration period) {
+        return storage.apply(identifier, period);
+    }
+
+    /**
+     * @return size of the storage in bytes, or -1 when the backend cannot report it
+     */
+    long sizeInBytes() {
+        return size.getAsLong();
+    }
+
+    @Override
+    public void close() throws IOException {
+        resource.close();
+    }
+
+    private static long directorySize(final Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteRecursively(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,32 @@
+#!/usr/bin/env bash
+# Compares the time to the first verified code for a regular JVM, AppCDS and a native image.
+# Build the library and the benchmarks first: (cd .. && mvn -B install -DskipTests) && mvn -B package
+set -euo pipefail
+
+cd "$(dirname "$0")"
+
+JAR=target/benchmarks.jar
+MAIN=com.bastiaanjansen.otp.benchmarks.StartupBenchmark
+RUNS=${RUNS:-5}
+
+run() {
+    local name=$1
+    shift
+    echo "== $name"
+    for _ in $(seq "$RUNS"); do
+        "$@" | head -1
+    done
+}
+
+run "JVM" java -cp "$JAR" "$MAIN"
+run "JVM with preload" java -cp "$JAR" "$MAIN" --preload
+
+java -XX:ArchiveClassesAtExit=target/startup.jsa -cp "$JAR" "$MAIN" > /dev/null
+run "AppCDS" java -XX:SharedArchiveFile=target/startup.jsa -cp "$JAR" "$MAIN"
+
+if command -v native-image > /dev/null; then
+    native-image --no-fallback -cp "$JAR" -o target/startup "$MAIN" > /dev/null
+    run "Native image" target/startup
+else
+    echo "== Native image: skipped, native-image is not on the PATH"
+fi
@@ -0,0 +1,192 @@
+package com.bastiaanjansen.otp.server;
+
+import com.bastiaanjansen.otp.TOTPGenerator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local load test of a {@link VerificationServer}. Enrolls users, then verifies codes from a fixed amount of
+ * concurrent clients for a while and reports the throughput and latency percentiles.
+ * <p>
+ * Options: --url=http://host:port of a running server, or none to start one in this JVM, --users=1000,
+ * --concurrency=64, --duration=20 (seconds) and --invalid-rate=0.2, the share of requests with a wrong code. The other
+ * requests send the current code of the user, which is accepted once per time step and rejected as a replay after.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class LoadTest {
+
+    private static final Pattern SECRET = Pattern.compile("\"secret\":\"([A-Z2-7=]+)\"");
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private final URI url;
+
+    private LoadTest(final URI url) {
+        this.url = url;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        int users = 1000;
+        int concurrency = 64;
+        int duration = 20;
+        double invalidRate = 0.2;
+
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            switch (option[0]) {
+                case "--url":
+                    url = option[1];
+                    break;
+                case "--users":
+                    users = Integer.parseInt(option[1]);
+                    break;
+                case "--concurrency":
+                    concurrency = Integer.parseInt(option[1]);
+                    break;
+                case "--duration":
+                    duration = Integer.parseInt(option[1]);
+                    break;
+                case "--invalid-rate":
+                    invalidRate = Double.parseDouble(option[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        VerificationServer server = null;
+        if (url == null) {
+            server = new VerificationServer.Builder()
+                    .withAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                    .build()
+                    .start();
+            url = "http://127.0.0.1:" + server.getAddress().getPort();
+            System.out.println("Started server on " + url);
+        }
+
+        try {
+            new LoadTest(URI.create(url)).run(users, concurrency, Duration.ofSeconds(duration), invalidRate);
+        } finally {
+            if (server != null) server.close();
+        }
+    }
+
+    private void run(final int users, final int concurrency, final Duration duration, final double invalidRate)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+
+        try {
+            String run = Long.toString(System.currentTimeMillis(), 36);
+            String[] names = new String[users];
+            TOTPGenerator[] generators = new TOTPGenerator[users];
+
+            List<Future<?>> enrollments = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                int user = i;
+                names[user] = "load-" + run + "-" + user;
+                enrollments.add(executor.submit(() -> {
+                    generators[user] = new TOTPGenerator.Builder(enroll(names[user])).build();
+                    return null;
+                }));
+            }
+            for (Future<?> enrollment : enrollments) enrollment.get();
+            System.out.printf("Enrolled %d users%n", users);
+
+            long deadline = System.nanoTime() + duration.toNanos();
+            LongAdder valid = new LongAdder();
+            LongAdder invalid = new LongAdder();
+            LongAdder failed = new LongAdder();
+
+            List<Future<long[]>> clients = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                clients.add(executor.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                    while (System.nanoTime() < deadline) {
+                        int user = random.nextInt(users);
+                        String code = random.nextDouble() < invalidRate ? "000000" : generators[user].now();
+
+                        long start = System.nanoTime();
+                        HttpResponse<String> response = post("/verify", "user=" + names[user] + "&code=" + code);
+                        long latency = System.nanoTime() - start;
+
+                        if (response.statusCode() != 200) failed.increment();
+                        else if (response.body().contains("true")) valid.increment();
+                        else invalid.increment();
+
+                        if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                        latencies[count++] = latency;
+                    }
+
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+
+            long[] latencies = new long[0];
+            for (Future<long[]> client : clients) {
+                long[] measured = client.get();
+                int offset = latencies.length;
+                latencies = Arrays.copyOf(latencies, offset + measured.length);
+                System.arraycopy(measured, 0, latencies, offset, measured.length);
+            }
+            Arrays.sort(latencies);
+
+            System.out.printf("Requests: %d in %ds, %.0f/s with %d concurrent clients%n",
+                    latencies.length, duration.getSeconds(), latencies.length / (double) duration.getSeconds(), concurrency);
+            System.out.printf("Accepted: %d, rejected: %d, failed: %d%n", valid.sum(), invalid.sum(), failed.sum());
+            System.out.printf("Latency: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                    millis(latencies, 50), millis(latencies, 90), millis(latencies, 99), millis(latencies, 99.9),
+                    millis(latencies, 100));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private byte[] enroll(final String user) throws IOException, InterruptedException {
+        HttpResponse<String> response = post("/enroll", "user=" + user);
+        Matcher secret = SECRET.matcher(response.body());
+        if (response.statusCode() != 201 || !secret.find())
+            throw new IllegalStateException("Enrolling " + user + " failed: " + response.body());
+
+        return secret.group(1).getBytes();
+    }
+
+    private HttpResponse<String> post(final String path, final String form) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(url.resolve(path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static double millis(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) return 0;
+
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,142 @@
+package com.bastiaanjansen.otp.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms of the server, written in the Prometheus text exposition format.
+ * <p>
+ * Every metric is updated with a {@link LongAdder} or {@link DoubleAdder}, so request threads do not contend on a
+ * single field. Series are identified by their name with labels, for example
+ * {@code otp_requests_total{endpoint="verify",status="200"}}.
+ *
+ * @author Bastiaan Jansen
+ */
+final class Metrics {
+
+    /**
+     * Upper bounds of the latency buckets in seconds
+     */
+    private static final double[] BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1 };
+
+    private final Map<String, String> help = new ConcurrentSkipListMap<>();
+
+    private final Map<String, String> types = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    void describe(final String name, final String type, final String description) {
+        types.put(name, type);
+        help.put(name, description);
+    }
+
+    /**
+     * @param series name of the counter with its labels
+     */
+    void increment(final String series) {
+        counters.computeIfAbsent(series, key -> new LongAdder()).increment();
+    }
+
+    void gauge(final String series, final LongSupplier value) {
+        gauges.put(series, value);
+    }
+
+    /**
+     * @param name name of the histogram
+     * @param labels labels of the series without braces, for example {@code endpoint="verify"}
+     * @param nanos observed duration in nanoseconds
+     */
+    void observe(final String name, final String labels, final long nanos) {
+        histograms.computeIfAbsent(name + "{" + labels + "}", key -> new Histogram(name, labels)).observe(nanos);
+    }
+
+    long count(final String series) {
+        LongAdder counter = counters.get(series);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format, version 0.0.4
+     */
+    String scrape() {
+        StringBuilder text = new StringBuilder();
+
+        for (Map.Entry<String, String> metric : help.entrySet()) {
+            String name = metric.getKey();
+            text.append("# HELP ").append(name).append(' ').append(metric.getValue()).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(types.get(name)).append('\n');
+
+            counters.forEach((series, counter) -> {
+                if (nameOf(series).equals(name)) text.append(series).append(' ').append(counter.sum()).append('\n');
+            });
+            gauges.forEach((series, gauge) -> {
+                if (nameOf(series).equals(name)) text.append(series).append(' ').append(gauge.getAsLong()).append('\n');
+            });
+            histograms.values().forEach(histogram -> {
+                if (histogram.name.equals(name)) histogram.write(text);
+            });
+        }
+
+        return text.toString();
+    }
+
+    private static String nameOf(final String series) {
+        int labels = series.indexOf('{');
+        return labels == -1 ? series : series.substring(0, labels);
+    }
+
+    private static final class Histogram {
+
+        private final String name;
+
+        private final String labels;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+
+        private final LongAdder count = new LongAdder();
+
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(final String name, final String labels) {
+            this.name = name;
+            this.labels = labels;
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        private void observe(final long nanos) {
+            double seconds = nanos / 1e9;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(seconds);
+        }
+
+        /**
+         * Writes the cumulative buckets, the sum and the count
+         */
+        private void write(final StringBuilder text) {
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                text.append(name).append("_bucket{").append(labels).append(",le=\"").append(BUCKETS[i]).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            long total = count.sum();
+            text.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(total).append('\n');
+            text.append(name).append("_sum{").append(labels).append("} ").append(sum.sum()).append('\n');
+            text.append(name).append("_count{").append(labels).append("} ").append(total).append('\n');
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package com.bastiaanjansen.otp.server;
+
+import com.bastiaanjansen.otp.CounterStorage;
+import com.bastiaanjansen.otp.RespCounterStorage;
+import com.bastiaanjansen.otp.SecretGenerator;
+import com.bastiaanjansen.otp.TOTPGenerator;
+import com.bastiaanjansen.otp.TimeStepSource;
+import com.bastiaanjansen.otp.VerificationEngine;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * HTTP service which enrolls users and generates and verifies their TOTP codes, so applications can share one
+ * verification service instead of each embedding the library.
+ * <p>
+ * Runs on the {@code com.sun.net.httpserver} server of the JDK, with a virtual thread per request on Java 21 and later
+ * and a fixed thread pool otherwise. Parameters are passed in the query string or as a form-encoded body:
+ * <ul>
+ *     <li>{@code POST /enroll?user=ID} creates a secret, returns {@code {"secret":"...","uri":"otpauth://..."}}</li>
+ *     <li>{@code GET /generate?user=ID} returns the current code, {@code {"code":"123456"}}</li>
+ *     <li>{@code POST /verify?user=ID&code=123456} returns {@code {"valid":true}}, a valid code only once</li>
+ *     <li>{@code GET /metrics} returns the metrics in the Prometheus text format</li>
+ * </ul>
+ * Concurrent verifications are batched: without a counter storage, codes are verified by a {@link VerificationEngine}
+ * whose shards take the queued codes of their users from their inbox one after another; with a
+ * {@link RespCounterStorage}, concurrent counters are pipelined on a few connections.
+ * <p>
+ * The server listens on the loopback interface by default. {@code /enroll} and {@code /generate} are not
+ * authenticated: anyone who can reach them can enroll users, up to {@link Builder#withMaxUsers(int)}, and read the
+ * current code of every user. Only expose {@code /verify} and {@code /metrics} beyond trusted callers.
+ * <p>
+ * Note: secrets are kept in the memory of this process, so users have to enroll again after a restart, and servers
+ * which share a {@link RespCounterStorage} do not share their users.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class VerificationServer implements Closeable {
+
+    private static final Duration PERIOD = Duration.ofSeconds(30);
+
+    static {
+        // The JDK server writes the headers and the body of a response separately, which with Nagle's algorithm and
+        // delayed acknowledgements adds about 40 ms to every request. Read once, before the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Function<String, CounterStorage> counterStorage;
+
+    private final VerificationEngine engine;
+
+    private final int delayWindow;
+
+    private final String issuer;
+
+    private final Duration shutdownTimeout;
+
+    private final int maxUsers;
+
+    /**
+     * Generator per enrolled user, with its counter storage when one is configured
+     */
+    private final Map<String, TOTPGenerator> generators = new ConcurrentHashMap<>();
+
+    private final Metrics metrics = new Metrics();
+
+    private VerificationServer(final Builder builder) throws IOException {
+        this.delayWindow = builder.delayWindow;
+        this.issuer = builder.issuer;
+        this.shutdownTimeout = builder.shutdownTimeout;
+        this.maxUsers = builder.maxUsers;
+        this.counterStorage = builder.counterStorage;
+        this.engine = counterStorage != null ? null : new VerificationEngine.Builder(this::generatorOf)
+                .withShards(builder.shards)
+                .withDelayWindow(delayWindow)
+                .build();
+        this.executor = createExecutor(builder.threads);
+
+        this.server = HttpServer.create(builder.address, 1024);
+        server.setExecutor(executor);
+        server.createContext("/enroll", exchange -> handle(exchange, "enroll", "POST", this::enroll));
+        server.createContext("/generate", exchange -> handle(exchange, "generate", "GET", this::generate));
+        server.createContext("/verify", exchange -> handle(exchange, "verify", "POST", this::verify));
+        server.createContext("/metrics", exchange -> handle(exchange, "metrics", "GET", parameters -> metrics()));
+
+        metrics.describe("otp_requests_total", "counter", "Requests per endpoint and status");
+        metrics.describe("otp_request_duration_seconds", "histogram", "Time to handle a request per endpoint");
+        metrics.describe("otp_verifications_total", "counter", "Verified codes per result");
+        metrics.describe("otp_enrolled_users", "gauge", "Users with a secret");
+        metrics.gauge("otp_enrolled_users", generators::size);
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public VerificationServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return address the server listens on, with the chosen port when the server was built with port 0
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, waits at most the shutdown timeout for running requests and stops the verification
+     * threads
+     */
+    @Override
+    public void close() {
+        server.stop((int) shutdownTimeout.toSeconds());
+        if (engine != null) engine.close();
+        executor.shutdown();
+    }
+
+    private Response enroll(final Map<String, String> parameters) {
+        String user = parameters.get("user");
+        if (user == null || user.isEmpty()) return Response.error(400, "Parameter user is required");
+
+        // Checked before enrolling, so concurrent enrollments may exceed the maximum by a few users
+        if (generators.size() >= maxUsers) return Response.error(503, "Maximum amount of users is enrolled");
+
+        byte[] secret = SecretGenerator.generate();
+        TOTPGenerator generator = createGenerator(user, secret);
+        if (generators.putIfAbsent(user, generator) != null) return Response.error(409, "User is already enrolled");
+
+        try {
+            String uri = generator.getURI(issuer, user).toString();
+            return Response.json(201, "{\"secret\":\"" + new String(secret, UTF_8) + "\",\"uri\":\"" + escape(uri) + "\"}");
+        } catch (URISyntaxException e) {
+            generators.remove(user);
+            return Response.error(400, "User cannot be used in an OTPAuth URI");
+        }
+    }
+
+    private Response generate(final Map<String, String> parameters) {
+        String user = parameters.get("user");
+        if (user == null) return Response.error(400, "Parameter user is required");
+
+        TOTPGenerator generator = generatorOf(user);
+        if (generator == null) return Response.error(404, "User is not enrolled");
+
+        return Response.json(200, "{\"code\":\"" + generator.now() + "\"}");
+    }
+
+    private Response verify(final Map<String, String> parameters) {
+        String user = parameters.get("user");
+        String code = parameters.get("code");
+        if (user == null || code == null) return Response.error(400, "Parameters user and code are required");
+
+        boolean valid;
+        if (engine != null) {
+            try {
+                valid = engine.verify(user, code).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) return Response.error(503, "Too many requests");
+                throw e;
+            }
+        } else {
+            TOTPGenerator generator = generatorOf(user);
+            valid = generator != null && generator.verify(code, delayWindow);
+        }
+
+        metrics.increment("otp_verifications_total{result=\"" + (valid ? "valid" : "invalid") + "\"}");
+        return Response.json(200, "{\"valid\":" + valid + "}");
+    }
+
+    private Response metrics() {
+        return new Response(200, "text/plain; version=0.0.4; charset=utf-8", metrics.scrape());
+    }
+
+    /**
+     * @return generator of an enrolled user, or null when the user is not enrolled
+     */
+    private TOTPGenerator generatorOf(final String user) {
+        return generators.get(user);
+    }
+
+    /**
+     * Creates the generator of a user once, when the user enrolls, so the secret is decoded and the Macs are pooled
+     * once per user instead of on every request
+     */
+    private TOTPGenerator createGenerator(final String user, final byte[] secret) {
+        TOTPGenerator.Builder builder = new TOTPGenerator.Builder(secret).withTimeStepSource(TimeStepSource.forPeriod(PERIOD));
+        if (counterStorage != null) builder.withCounterStorage(counterStorage.apply(user));
+
+        return builder.build();
+    }
+
+    private void handle(final HttpExchange exchange, final String endpoint, final String method,
+                        final Function<Map<String, String>, Response> handler) throws IOException {
+        long start = System.nanoTime();
+
+        try {
+            Response response;
+            if (!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                response = Response.error(405, "Use " + method);
+            } else {
+                try {
+                    response = handler.apply(parameters(exchange));
+                } catch (RuntimeException e) {
+                    response = Response.error(500, "Internal error");
+                }
+            }
+
+            byte[] body = response.body.getBytes(UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", response.contentType);
+            exchange.sendResponseHeaders(response.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+
+            metrics.increment("otp_requests_total{endpoint=\"" + endpoint + "\",status=\"" + response.status + "\"}");
+        } finally {
+            exchange.close();
+            metrics.observe("otp_request_duration_seconds", "endpoint=\"" + endpoint + "\"", System.nanoTime() - start);
+        }
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reads the parameters of the query string and of a form-encoded body
+     */
+    private static Map<String, String> parameters(final HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), parameters);
+
+        try (InputStream in = exchange.getRequestBody()) {
+            parse(new String(in.readAllBytes(), UTF_8), parameters);
+        }
+
+        return parameters;
+    }
+
+    private static void parse(final String encoded, final Map<String, String> parameters) {
+        if (encoded == null || encoded.isEmpty()) return;
+
+        for (String pair : encoded.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator <= 0) continue;
+
+            parameters.put(URLDecoder.decode(pair.substring(0, separator), UTF_8),
+                    URLDecoder.decode(pair.substring(separator + 1), UTF_8));
+        }
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static ExecutorService createExecutor(final int threads) {
+        try {
+            // Java 21+, looked up reflectively so the server still compiles for Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * Starts a server, options: --host=127.0.0.1, --port=8080, --threads=64 (without virtual threads), --shards=N,
+     * --delay-window=1, --max-users=100000, --redis=host:port to keep the counters in Redis instead of in memory
+     */
+    public static void main(String[] args) throws IOException {
+        Builder builder = new Builder();
+        RespCounterStorage redis = null;
+        InetAddress host = InetAddress.getLoopbackAddress();
+        int port = 8080;
+
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Options are passed as --name=value: " + arg);
+
+            switch (option[0]) {
+                case "--host":
+                    host = InetAddress.getByName(option[1]);
+                    break;
+                case "--port":
+                    port = Integer.parseInt(option[1]);
+                    break;
+                case "--threads":
+                    builder.withThreads(Integer.parseInt(option[1]));
+                    break;
+                case "--shards":
+                    builder.withShards(Integer.parseInt(option[1]));
+                    break;
+                case "--delay-window":
+                    builder.withDelayWindow(Integer.parseInt(option[1]));
+                    break;
+                case "--max-users":
+                    builder.withMaxUsers(Integer.parseInt(option[1]));
+                    break;
+                case "--redis":
+                    String[] address = option[1].split(":");
+                    redis = new RespCounterStorage.Builder(new InetSocketAddress(address[0], Integer.parseInt(address[1]))).build();
+                    builder.withCounterStorage(redis::forIdentifier);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        VerificationServer server = builder.withAddress(new InetSocketAddress(host, port)).build().start();
+        System.out.println("Listening on " + server.getAddress());
+
+        RespCounterStorage counterStorage = redis;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                if (counterStorage != null) counterStorage.close();
+            } catch (IOException e) {
+                // Exiting anyway
+            }
+        }));
+    }
+
+    private static final class Response {
+
+        private final int status;
+
+        private final String contentType;
+
+        private final String body;
+
+        private Response(final int status, final String contentType, final String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        private static Response json(final int status, final String body) {
+            return new Response(status, "application/json", body);
+        }
+
+        private static Response error(final int status, final String message) {
+            return json(status, "{\"error\":\"" + escape(message) + "\"}");
+        }
+    }
+
+    public static final class Builder {
+
+        private InetSocketAddress address;
+
+        private int threads;
+
+        private int shards;
+
+        private int delayWindow;
+
+        private String issuer;
+
+        private Duration shutdownTimeout;
+
+        private int maxUsers;
+
+        private Function<String, CounterStorage> counterStorage;
+
+        public Builder() {
+            this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 8080);
+            this.threads = 64;
+            this.shards = Runtime.getRuntime().availableProcessors();
+            this.delayWindow = 1;
+            this.issuer = "OTP-Java";
+            this.shutdownTimeout = Duration.ofSeconds(1);
+            this.maxUsers = 100_000;
+        }
+
+        /**
+         * @param address address to listen on, default port 8080 on the loopback interface. Enrollment and code
+         *                generation are not authenticated, see {@link VerificationServer}
+         */
+        public Builder withAddress(final InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * @param threads amount of request threads when virtual threads are not available, default 64
+         */
+        public Builder withThreads(final int threads) {
+            if (threads < 1) throw new IllegalArgumentException("Amount of threads must be at least 1");
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param shards amount of verification shards when no counter storage is configured, default the amount of
+         *               available processors
+         */
+        public Builder withShards(final int shards) {
+            if (shards < 1) throw new IllegalArgumentException("Amount of shards must be at least 1");
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param delayWindow amount of time steps before and after the current one in which a code is valid as well,
+         *                    default 1
+         */
+        public Builder withDelayWindow(final int delayWindow) {
+            if (delayWindow < 0) throw new IllegalArgumentException("Delay window must be greater than or equal to 0");
+            this.delayWindow = delayWindow;
+            return this;
+        }
+
+        /**
+         * @param maxUsers maximum amount of enrolled users, further enrollments are rejected, default 100000
+         */
+        public Builder withMaxUsers(final int maxUsers) {
+            if (maxUsers < 1) throw new IllegalArgumentException("Maximum amount of users must be at least 1");
+            this.maxUsers = maxUsers;
+            return this;
+        }
+
+        /**
+         * @param issuer issuer in the OTPAuth URI of enrolled users, default OTP-Java
+         */
+        public Builder withIssuer(final String issuer) {
+            this.issuer = issuer;
+            return this;
+        }
+
+        /**
+         * @param shutdownTimeout time {@link VerificationServer#close()} waits for running requests, in whole seconds,
+         *                        default 1 second. Open keep-alive connections also delay the shutdown up to this time
+         */
+        public Builder withShutdownTimeout(final Duration shutdownTimeout) {
+            if (shutdownTimeout.isNegative()) throw new IllegalArgumentException("Shutdown timeout must not be negative");
+            this.shutdownTimeout = shutdownTimeout;
+            return this;
+        }
+
+        /**
+         * Keeps the used counters in a counter storage, for example a {@link RespCounterStorage}, instead of in the
+         * memory of a {@link VerificationEngine}. The secrets stay in the memory of this server, so this is meant for a
+         * single server whose counters outlive it, not for several servers sharing users
+         *
+         * @param counterStorage binds the counter storage to a user
+         */
+        public Builder withCounterStorage(final Function<String, CounterStorage> counterStorage) {
+            this.counterStorage = counterStorage;
+            return this;
+        }
+
+        public VerificationServer build() throws IOException {
+            return new VerificationServer(this);
+        }
+    }
+}
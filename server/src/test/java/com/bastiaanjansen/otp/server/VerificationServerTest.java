@@ -0,0 +1,206 @@
+package com.bastiaanjansen.otp.server;
+
+import com.bastiaanjansen.otp.InMemoryCounterStorage;
+import com.bastiaanjansen.otp.TOTPGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VerificationServerTest {
+
+    private static final Pattern SECRET = Pattern.compile("\"secret\":\"([A-Z2-7=]+)\"");
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private VerificationServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = start(new VerificationServer.Builder().withShards(2));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void enroll_returnsSecretAndURI() throws Exception {
+        HttpResponse<String> response = post("/enroll", "user=alice");
+
+        assertThat(response.statusCode(), is(201));
+        assertThat(SECRET.matcher(response.body()).find(), is(true));
+        assertThat(response.body(), containsString("otpauth://totp/"));
+    }
+
+    @Test
+    void enrollTwice_conflict() throws Exception {
+        post("/enroll", "user=alice");
+
+        assertThat(post("/enroll", "user=alice").statusCode(), is(409));
+    }
+
+    @Test
+    void enrollBeyondMaxUsers_serviceUnavailable() throws Exception {
+        server.close();
+        server = start(new VerificationServer.Builder().withMaxUsers(1));
+
+        post("/enroll", "user=alice");
+
+        assertThat(post("/enroll", "user=bob").statusCode(), is(503));
+        assertThat(get("/generate?user=bob").statusCode(), is(404));
+    }
+
+    @Test
+    void enrollWithoutUser_badRequest() throws Exception {
+        assertThat(post("/enroll", "").statusCode(), is(400));
+    }
+
+    @Test
+    void generate_returnsCurrentCode() throws Exception {
+        TOTPGenerator generator = enroll("alice");
+
+        HttpResponse<String> response = get("/generate?user=alice");
+
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), is("{\"code\":\"" + generator.now() + "\"}"));
+    }
+
+    @Test
+    void generateForUnknownUser_notFound() throws Exception {
+        assertThat(get("/generate?user=unknown").statusCode(), is(404));
+    }
+
+    @Test
+    void verifyValidCode_validOnce() throws Exception {
+        TOTPGenerator generator = enroll("alice");
+        String code = generator.now();
+
+        assertThat(post("/verify", "user=alice&code=" + code).body(), is("{\"valid\":true}"));
+        assertThat(post("/verify", "user=alice&code=" + code).body(), is("{\"valid\":false}"));
+    }
+
+    @Test
+    void verifyWithQueryParameters_valid() throws Exception {
+        TOTPGenerator generator = enroll("alice");
+
+        assertThat(post("/verify?user=alice&code=" + generator.now(), "").body(), is("{\"valid\":true}"));
+    }
+
+    @Test
+    void verifyUnknownUser_invalid() throws Exception {
+        assertThat(post("/verify", "user=unknown&code=123456").body(), is("{\"valid\":false}"));
+    }
+
+    @Test
+    void verifyWithoutCode_badRequest() throws Exception {
+        assertThat(post("/verify", "user=alice").statusCode(), is(400));
+    }
+
+    @Test
+    void verifyWithGet_methodNotAllowed() throws Exception {
+        HttpResponse<String> response = get("/verify?user=alice&code=123456");
+
+        assertThat(response.statusCode(), is(405));
+        assertThat(response.headers().firstValue("Allow").orElse(null), is("POST"));
+    }
+
+    @Test
+    void verifyWithCounterStorage_validOnce() throws Exception {
+        InMemoryCounterStorage counterStorage = new InMemoryCounterStorage();
+        server.close();
+        server = start(new VerificationServer.Builder().withCounterStorage(counterStorage::forIdentifier));
+
+        String code = enroll("alice").now();
+
+        assertThat(post("/verify", "user=alice&code=" + code).body(), is("{\"valid\":true}"));
+        assertThat(post("/verify", "user=alice&code=" + code).body(), is("{\"valid\":false}"));
+    }
+
+    @Test
+    void verifyWithCounterStorage_bindsStorageOncePerUser() throws Exception {
+        InMemoryCounterStorage counterStorage = new InMemoryCounterStorage();
+        AtomicInteger bound = new AtomicInteger();
+        server.close();
+        server = start(new VerificationServer.Builder().withCounterStorage(user -> {
+            bound.incrementAndGet();
+            return counterStorage.forIdentifier(user);
+        }));
+
+        TOTPGenerator generator = enroll("alice");
+        post("/verify", "user=alice&code=" + generator.now());
+        post("/verify", "user=alice&code=000000");
+
+        assertThat(bound.get(), is(1));
+    }
+
+    @Test
+    void withMaxUsersLessThan1_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new VerificationServer.Builder().withMaxUsers(0));
+    }
+
+    @Test
+    void metrics_countsRequestsAndVerifications() throws Exception {
+        TOTPGenerator generator = enroll("alice");
+        post("/verify", "user=alice&code=" + generator.now());
+
+        HttpResponse<String> response = get("/metrics");
+
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.headers().firstValue("Content-Type").orElse(""), containsString("text/plain"));
+        assertThat(response.body(), containsString("# TYPE otp_requests_total counter"));
+        assertThat(response.body(), containsString("otp_requests_total{endpoint=\"enroll\",status=\"201\"} 1"));
+        assertThat(response.body(), containsString("otp_verifications_total{result=\"valid\"} 1"));
+        assertThat(response.body(), containsString("otp_enrolled_users 1"));
+        assertThat(response.body(), containsString("otp_request_duration_seconds_count{endpoint=\"verify\"} 1"));
+        assertThat(response.body(), containsString("otp_request_duration_seconds_bucket{endpoint=\"verify\",le=\"+Inf\"} 1"));
+    }
+
+    private static VerificationServer start(final VerificationServer.Builder builder) throws IOException {
+        return builder.withAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .withShutdownTimeout(Duration.ZERO)
+                .build()
+                .start();
+    }
+
+    private TOTPGenerator enroll(final String user) throws Exception {
+        Matcher secret = SECRET.matcher(post("/enroll", "user=" + user).body());
+        assertThat(secret.find(), is(true));
+
+        return new TOTPGenerator.Builder(secret.group(1)).build();
+    }
+
+    private HttpResponse<String> get(final String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(final String path, final String form) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(final String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+}
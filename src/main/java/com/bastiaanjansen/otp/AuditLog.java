@@ -0,0 +1,471 @@
+package com.bastiaanjansen.otp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Audit trail of verification outcomes, written to rotating files by a background thread so the verifying thread
+ * never waits for I/O.
+ * <p>
+ * A verification publishes a fixed-size record into a bounded ring buffer, with one compare-and-set and without
+ * allocating. A single writer thread drains the records in batches and appends them through a {@link FileChannel} to
+ * {@code audit-00001.log}, {@code audit-00002.log}, ... in a directory, starting a new file when the current one
+ * reaches the maximum file size and deleting the oldest files beyond the maximum amount of files:
+ * <pre>{@code
+ * AuditLog auditLog = new AuditLog.Builder(Paths.get("/var/log/otp")).build();
+ *
+ * TOTPGenerator totpGenerator = new TOTPGenerator.Builder(user.getTotpSecret())
+ *         .withVerificationListener(auditLog.forIdentifier(user.getId()))
+ *         .build();
+ * }</pre>
+ * Every record is one line with tab separated fields: the time in milliseconds since 1970, the identity, the counter,
+ * the offset of the matching counter or {@code -} and the outcome {@code valid}, {@code invalid} or {@code used}.
+ * <p>
+ * When the ring buffer is full, the {@link OverflowPolicy} decides whether the record is dropped or the verifying
+ * thread waits for space. Dropped records, including records published after {@link #close()} and records which
+ * could not be written, are counted by {@link #getDropped()}.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class AuditLog implements AutoCloseable {
+
+    private static final Pattern FILE_NAME = Pattern.compile("audit-(\\d+)\\.log");
+
+    private static final int BATCH_SIZE = 1024;
+
+    private static final byte VALID = 0;
+
+    private static final byte INVALID = 1;
+
+    private static final byte USED = 2;
+
+    /**
+     * What to do with a record when the ring buffer is full
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Drops the record and counts it, so verification never waits for the writer
+         */
+        DROP,
+
+        /**
+         * Waits until the writer freed space, so no record is lost while the log is open
+         */
+        BLOCK
+    }
+
+    private final Path directory;
+
+    private final long maxFileSize;
+
+    private final int maxFiles;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long flushIntervalNanos;
+
+    private final Clock clock;
+
+    private final int mask;
+
+    private final long[] times;
+
+    private final long[] counters;
+
+    private final long[] offsets;
+
+    private final byte[] outcomes;
+
+    private final String[] identities;
+
+    /**
+     * Per slot, the position a producer may write at, or that position + 1 once the record is published
+     */
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder written = new LongAdder();
+
+    private final Thread writer;
+
+    private final StringBuilder batch = new StringBuilder();
+
+    private long head;
+
+    private int fileIndex;
+
+    private FileChannel channel;
+
+    private long fileSize;
+
+    private volatile boolean closed;
+
+    private AuditLog(final Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.maxFileSize = builder.maxFileSize;
+        this.maxFiles = builder.maxFiles;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.flushIntervalNanos = builder.flushInterval.toNanos();
+        this.clock = builder.clock;
+        this.mask = builder.capacity - 1;
+        this.times = new long[builder.capacity];
+        this.counters = new long[builder.capacity];
+        this.offsets = new long[builder.capacity];
+        this.outcomes = new byte[builder.capacity];
+        this.identities = new String[builder.capacity];
+        this.sequences = new AtomicLongArray(builder.capacity);
+
+        for (int i = 0; i < builder.capacity; i++) sequences.set(i, i);
+
+        Files.createDirectories(directory);
+        for (Path file : files()) fileIndex = Math.max(fileIndex, indexOf(file));
+
+        this.writer = new Thread(this::write, "otp-audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Binds the audit log to an identity
+     *
+     * @param identity identity to record the verifications of, for example a user id
+     * @return listener which records the verifications of the identity
+     */
+    public VerificationListener forIdentifier(final String identity) {
+        return (counter, match, valid) -> record(identity, counter, match, valid);
+    }
+
+    /**
+     * @return amount of records which were dropped because the ring buffer was full, the log was closed or writing failed
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return amount of records which were written to a file
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Stops accepting records, writes the pending records, forces them to the storage device and stops the writer
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        awaitWriter();
+    }
+
+    private void awaitWriter() {
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void record(final String identity, final long counter, final OptionalLong match, final boolean valid) {
+        long time = clock.millis();
+
+        while (!offer(identity, time, counter, match, valid)) {
+            if (closed || overflowPolicy == OverflowPolicy.DROP) {
+                dropped.increment();
+                LockSupport.unpark(writer);
+                return;
+            }
+
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, 10_000);
+        }
+    }
+
+    /**
+     * Claims a slot with a compare-and-set of the tail and publishes the record in it, safe for many producers
+     *
+     * @return false when the ring buffer is full or the log is closed
+     */
+    private boolean offer(final String identity, final long time, final long counter, final OptionalLong match, final boolean valid) {
+        if (closed) return false;
+
+        long position = tail.get();
+        int slot;
+
+        while (true) {
+            slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+
+        times[slot] = time;
+        counters[slot] = counter;
+        offsets[slot] = match.isPresent() ? match.getAsLong() - counter : Long.MIN_VALUE;
+        outcomes[slot] = valid ? VALID : match.isPresent() ? USED : INVALID;
+        identities[slot] = identity;
+        sequences.set(slot, position + 1);
+
+        if (closed) {
+            // The writer may have stopped before it saw the record, which then is not consumed once it stopped
+            LockSupport.unpark(writer);
+            awaitWriter();
+            if (sequences.get(slot) == position + 1) dropped.increment();
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs on the writer thread: drains batches of records until the log is closed and every claimed record is written
+     */
+    private void write() {
+        while (true) {
+            int drained = drain();
+
+            if (drained > 0) {
+                flush(drained);
+                if (drained == BATCH_SIZE) continue;
+            }
+
+            // Read closed before the tail, so every record claimed before closing is drained
+            if (closed && tail.get() == head) break;
+
+            if (drained == 0) LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+
+        closeFile(true);
+    }
+
+    /**
+     * Appends up to a batch of published records to the batch buffer, only called by the writer thread
+     *
+     * @return amount of records appended
+     */
+    private int drain() {
+        int drained = 0;
+
+        while (drained < BATCH_SIZE) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) break;
+
+            batch.append(times[slot]).append('\t');
+            appendIdentity(identities[slot]);
+            batch.append('\t').append(counters[slot]).append('\t');
+            if (offsets[slot] == Long.MIN_VALUE) batch.append('-');
+            else batch.append(offsets[slot]);
+            batch.append('\t').append(outcomes[slot] == VALID ? "valid" : outcomes[slot] == USED ? "used" : "invalid")
+                    .append('\n');
+
+            identities[slot] = null;
+            // Frees the slot for the producer which wraps around to it
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+            drained++;
+        }
+
+        return drained;
+    }
+
+    /**
+     * Escapes the separators, so an identity cannot forge fields or records
+     */
+    private void appendIdentity(final String identity) {
+        for (int i = 0; i < identity.length(); i++) {
+            char c = identity.charAt(i);
+            if (c == '\\') batch.append("\\\\");
+            else if (c == '\t') batch.append("\\t");
+            else if (c == '\n') batch.append("\\n");
+            else if (c == '\r') batch.append("\\r");
+            else batch.append(c);
+        }
+    }
+
+    private void flush(final int records) {
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(UTF_8));
+        batch.setLength(0);
+
+        try {
+            if (channel != null && fileSize > 0 && fileSize + bytes.remaining() > maxFileSize) closeFile(false);
+            if (channel == null) openFile();
+
+            while (bytes.hasRemaining()) fileSize += channel.write(bytes);
+            written.add(records);
+        } catch (IOException e) {
+            dropped.add(records);
+            closeFile(false);
+        }
+    }
+
+    private void openFile() throws IOException {
+        fileIndex++;
+        Path file = directory.resolve(String.format("audit-%05d.log", fileIndex));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+
+        List<Path> files = files();
+        for (int i = 0; i < files.size() - maxFiles; i++) Files.deleteIfExists(files.get(i));
+    }
+
+    private void closeFile(final boolean force) {
+        if (channel == null) return;
+
+        try {
+            if (force) channel.force(false);
+            channel.close();
+        } catch (IOException ignored) {
+            // The records were handed to the file system, the next file is opened on the next flush
+        }
+
+        channel = null;
+        fileSize = 0;
+    }
+
+    /**
+     * @return audit files in the directory, oldest first
+     */
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "audit-*.log")) {
+            for (Path file : stream) {
+                if (indexOf(file) > 0) files.add(file);
+            }
+        }
+
+        files.sort((a, b) -> Integer.compare(indexOf(a), indexOf(b)));
+        return Collections.unmodifiableList(files);
+    }
+
+    private static int indexOf(final Path file) {
+        Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+    public static final class Builder {
+
+        private final Path directory;
+
+        private int capacity;
+
+        private long maxFileSize;
+
+        private int maxFiles;
+
+        private OverflowPolicy overflowPolicy;
+
+        private Duration flushInterval;
+
+        private Clock clock;
+
+        /**
+         * @param directory directory to write the audit files in, created when it does not exist
+         */
+        public Builder(final Path directory) {
+            this.directory = directory;
+            this.capacity = 8192;
+            this.maxFileSize = 64L * 1024 * 1024;
+            this.maxFiles = 10;
+            this.overflowPolicy = OverflowPolicy.DROP;
+            this.flushInterval = Duration.ofMillis(100);
+            this.clock = Clock.systemUTC();
+        }
+
+        /**
+         * @param capacity maximum amount of records waiting for the writer, rounded up to a power of two, default 8192
+         */
+        public Builder withCapacity(final int capacity) {
+            if (capacity < 2 || capacity > 1 << 30)
+                throw new IllegalArgumentException("Capacity must be between 2 and 2^30");
+            this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+            return this;
+        }
+
+        /**
+         * @param maxFileSize size in bytes after which a new file is started, default 64 MiB
+         */
+        public Builder withMaxFileSize(final long maxFileSize) {
+            if (maxFileSize < 1) throw new IllegalArgumentException("Maximum file size must be at least 1 byte");
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        /**
+         * @param maxFiles amount of files to keep, the oldest files beyond it are deleted, default 10
+         */
+        public Builder withMaxFiles(final int maxFiles) {
+            if (maxFiles < 1) throw new IllegalArgumentException("Maximum amount of files must be at least 1");
+            this.maxFiles = maxFiles;
+            return this;
+        }
+
+        /**
+         * @param overflowPolicy what to do with a record when the ring buffer is full, default {@link OverflowPolicy#DROP}
+         */
+        public Builder withOverflowPolicy(final OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * @param flushInterval maximum time a record waits in the ring buffer when there are few verifications,
+         *                      default 100 milliseconds
+         */
+        public Builder withFlushInterval(final Duration flushInterval) {
+            if (flushInterval.isNegative() || flushInterval.isZero())
+                throw new IllegalArgumentException("Flush interval must be positive");
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * @param clock clock to timestamp the records with, default the system clock in UTC
+         */
+        public Builder withClock(final Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @throws IOException when the directory cannot be created or read
+         */
+        public AuditLog build() throws IOException {
+            return new AuditLog(this);
+        }
+    }
+}
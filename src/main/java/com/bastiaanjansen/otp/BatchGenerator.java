@@ -0,0 +1,119 @@
+package com.bastiaanjansen.otp;
+
+/**
+ * Generates codes for many independent generator and counter pairs at once, for batch workloads such as bulk
+ * verification or precomputing the codes of many tokens when a period passes.
+ * <p>
+ * When the {@code otp-java-vector} artifact is on the class path and the JDK incubator module
+ * {@code jdk.incubator.vector} is available (start the JVM with {@code --add-modules jdk.incubator.vector}),
+ * {@link #create()} returns a vectorized generator, which computes the HMACs of SHA1 and SHA256 generators in SIMD
+ * lanes, 4 to 16 at once depending on the CPU, including the dynamic truncation. Other algorithms, and all algorithms
+ * without the artifact or the module, are computed one at a time like {@link HOTPGenerator#generate(long)}:
+ * <pre>{@code
+ * BatchGenerator batchGenerator = BatchGenerator.create();
+ * int[] codes = batchGenerator.generate(generators, counters);
+ *
+ * String code = String.format("%06d", codes[0]);
+ * }</pre>
+ * The vectorized generator always uses its own SHA1 and SHA256 implementation, regardless of the JCA provider
+ * configured for a generator.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class BatchGenerator {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_ENGINE = "com.bastiaanjansen.otp.VectorHMACEngine";
+
+    /**
+     * Engine for the algorithms it supports, or null to compute every code one at a time
+     */
+    private final HMACBatchEngine engine;
+
+    private BatchGenerator(final HMACBatchEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Creates a vectorized generator when the {@code otp-java-vector} artifact is on the class path and the
+     * {@code jdk.incubator.vector} module is available, otherwise a scalar generator
+     *
+     * @return batch generator
+     */
+    public static BatchGenerator create() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) return scalar();
+
+        try {
+            HMACBatchEngine engine = (HMACBatchEngine) Class.forName(VECTOR_ENGINE).getDeclaredConstructor().newInstance();
+            return new BatchGenerator(engine);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return scalar();
+        }
+    }
+
+    /**
+     * Creates a generator which computes every code one at a time
+     *
+     * @return batch generator
+     */
+    public static BatchGenerator scalar() {
+        return new BatchGenerator(null);
+    }
+
+    /**
+     * @return true when codes are computed in SIMD lanes
+     */
+    public boolean isVectorized() {
+        return engine != null;
+    }
+
+    /**
+     * Generates a code for every generator and counter pair
+     *
+     * @param generators generators, which may use different algorithms and password lengths
+     * @param counters counter per generator
+     * @return code per generator, as a number without leading zeros
+     */
+    public int[] generate(final HOTPGenerator[] generators, final long[] counters) {
+        int[] codes = new int[generators.length];
+        generate(generators, counters, codes);
+        return codes;
+    }
+
+    /**
+     * Generates a code for every generator and counter pair into an existing array
+     *
+     * @param generators generators, which may use different algorithms and password lengths
+     * @param counters counter per generator
+     * @param codes array to store the code per generator in, as a number without leading zeros
+     */
+    public void generate(final HOTPGenerator[] generators, final long[] counters, final int[] codes) {
+        if (counters.length != generators.length || codes.length != generators.length)
+            throw new IllegalArgumentException("Generators, counters and codes must have the same length");
+
+        for (long counter : counters) {
+            if (counter < 0)
+                throw new IllegalArgumentException("Counter must be greater than or equal to 0");
+        }
+
+        int[] indices = new int[generators.length];
+
+        for (HMACAlgorithm algorithm : HMACAlgorithm.values()) {
+            int count = 0;
+            for (int i = 0; i < generators.length; i++) {
+                if (generators[i].getAlgorithm() == algorithm) indices[count++] = i;
+            }
+
+            if (count == 0) continue;
+
+            if (engine != null && engine.supports(algorithm)) {
+                engine.generate(generators, counters, codes, indices, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    int index = indices[i];
+                    codes[index] = generators[index].generateValue(counters[index]);
+                }
+            }
+        }
+    }
+}
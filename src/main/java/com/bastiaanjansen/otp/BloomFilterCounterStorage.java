@@ -0,0 +1,172 @@
+package com.bastiaanjansen.otp;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Memory-bounded backend for {@link CounterStorage}, which remembers used (identifier, counter) pairs in Bloom
+ * filters, one per time step.
+ * <p>
+ * Like {@link InMemoryCounterStorage}, create one shared instance and bind it to an identifier per verification with
+ * {@link #forIdentifier(String)}:
+ * <pre>{@code
+ * // Remember the last 4 time steps, up to 100.000 logins per time step, with 0.01% false positives
+ * BloomFilterCounterStorage counterStorage = new BloomFilterCounterStorage(4, 100_000, 0.0001);
+ *
+ * TOTPGenerator totpGenerator = new TOTPGenerator.Builder(secret)
+ *         .withCounterStorage(counterStorage.forIdentifier(userId))
+ *         .build();
+ * }</pre>
+ * The memory footprint is fixed, regardless of the amount of identifiers: every time step has a filter which is
+ * dropped as a whole when the time step leaves the retained window. This is intended for TOTP, where the counter is
+ * the time step; the amount of time steps should cover the delay window used for verification.
+ * <p>
+ * Note: this storage trades exactness for memory, and differs from {@link InMemoryCounterStorage} in two ways:
+ * <ul>
+ *     <li>A pair is rejected when it was used before, not when a greater counter was used before: an older code
+ *     within the delay window remains valid after a newer code was used.</li>
+ *     <li>A pair which was not used before is rejected with the configured false positive rate, so a small share of
+ *     valid codes is rejected, and the user has to use the next code. The rate is only met as long as the expected
+ *     amount of pairs per time step is not exceeded.</li>
+ * </ul>
+ * Counters older than the retained time steps are rejected once a newer time step took over their filter.
+ */
+public class BloomFilterCounterStorage {
+
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final int timeSteps;
+
+    private final int bitCount;
+
+    private final int hashCount;
+
+    private final AtomicReferenceArray<Filter> filters;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * @param timeSteps amount of most recent time steps to remember used counters for
+     * @param expectedEntries expected maximum amount of used (identifier, counter) pairs per time step
+     * @param falsePositiveRate probability that a pair which was not used before is rejected, between 0 and 1
+     */
+    public BloomFilterCounterStorage(final int timeSteps, final int expectedEntries, final double falsePositiveRate) {
+        if (timeSteps < 1)
+            throw new IllegalArgumentException("Time steps must be greater than 0");
+        if (expectedEntries < 1)
+            throw new IllegalArgumentException("Expected entries must be greater than 0");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+
+        // Optimal amount of bits and hash functions for a Bloom filter with n entries and false positive rate p:
+        // m = -n * ln(p) / ln(2)^2 and k = m / n * ln(2)
+        double bits = -expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        if (bits > Integer.MAX_VALUE - Long.SIZE)
+            throw new IllegalArgumentException("Expected entries and false positive rate require too many bits");
+
+        this.timeSteps = timeSteps;
+        this.bitCount = (int) Math.ceil(bits / Long.SIZE) * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round(bits / expectedEntries * Math.log(2)));
+        this.filters = new AtomicReferenceArray<>(timeSteps);
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Creates a counter storage bound to the given identifier, backed by this instance.
+     *
+     * @param identifier identifier to store the used counters by, for example a user id
+     * @return counter storage bound to the identifier
+     */
+    public CounterStorage forIdentifier(final String identifier) {
+        long hash = hash(identifier);
+        return counter -> markAsUsed(hash, counter);
+    }
+
+    /**
+     * @return memory used by the filters when all time steps are in use, in bytes
+     */
+    public long sizeInBytes() {
+        return (long) timeSteps * bitCount / Byte.SIZE;
+    }
+
+    private boolean markAsUsed(final long identifierHash, final long counter) {
+        Filter filter = filterFor(counter);
+        if (filter == null) return false;
+
+        long hash1 = mix(identifierHash ^ counter * 0x9E3779B97F4A7C15L);
+        long hash2 = mix(hash1 ^ identifierHash) | 1;
+
+        // The lock only serializes calls for the same pair, so two of them cannot both see an unset bit
+        synchronized (locks[(int) (hash1 >>> 58) & (LOCK_STRIPES - 1)]) {
+            boolean used = true;
+
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (int) Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+                long mask = 1L << (bit & (Long.SIZE - 1));
+                long previous = (long) BITS.getAndBitwiseOr(filter.bits, bit >>> 6, mask);
+                if ((previous & mask) == 0) used = false;
+            }
+
+            return !used;
+        }
+    }
+
+    /**
+     * Finds the filter of a time step, replacing the filter of an older time step in the same position
+     *
+     * @return the filter, or null when the time step is older than the retained time steps
+     */
+    private Filter filterFor(final long counter) {
+        int index = (int) Math.floorMod(counter, (long) timeSteps);
+
+        while (true) {
+            Filter filter = filters.get(index);
+            if (filter != null && filter.counter == counter) return filter;
+            if (filter != null && filter.counter > counter) return null;
+
+            Filter replacement = new Filter(counter, bitCount);
+            if (filters.compareAndSet(index, filter, replacement)) return replacement;
+        }
+    }
+
+    private static long hash(final String identifier) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : identifier.getBytes(UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * MurmurHash3 finalizer
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Filter {
+
+        private final long counter;
+
+        private final long[] bits;
+
+        private Filter(final long counter, final int bitCount) {
+            this.counter = counter;
+            this.bits = new long[bitCount / Long.SIZE];
+        }
+    }
+}
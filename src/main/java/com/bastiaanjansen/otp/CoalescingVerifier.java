@@ -0,0 +1,130 @@
+package com.bastiaanjansen.otp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent verifications of the same code of the same identity, for example retries of a mobile client,
+ * into one call of {@link TOTPGenerator#verify(String, int)}.
+ * <p>
+ * The first call for an (identity, code) pair verifies the code. Identical calls which arrive while it is in flight
+ * return false immediately, without computing any HMAC or calling the counter storage: a valid code is only accepted
+ * once, so at most the first call can succeed anyway:
+ * <pre>{@code
+ * CoalescingVerifier verifier = new CoalescingVerifier.Builder(userId -> generatorOf(userId))
+ *         .withDelayWindow(1)
+ *         .build();
+ *
+ * boolean valid = verifier.verify(userId, code);
+ * }</pre>
+ * Identical calls after the first one completed are verified again, and rejected by the counter storage, cheaply when
+ * it implements {@link CounterStorage#lastUsed()}.
+ * <p>
+ * Note: this is meant for generators with a {@link CounterStorage}. Without one, a valid code is accepted every time
+ * it is verified, except by the calls this verifier coalesces.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class CoalescingVerifier {
+
+    private final Function<String, TOTPGenerator> generators;
+
+    private final int delayWindow;
+
+    private final ConcurrentMap<Key, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private CoalescingVerifier(final Builder builder) {
+        this.generators = builder.generators;
+        this.delayWindow = builder.delayWindow;
+    }
+
+    /**
+     * Verifies a code of an identity, unless the same code of the identity is being verified already
+     *
+     * @param identity identity to verify the code of, for example a user id
+     * @param code an OTP code
+     * @return true when the code is valid and was not used before, false otherwise or when the same code of the
+     * identity is being verified by another call
+     */
+    public boolean verify(final String identity, final String code) {
+        Key key = new Key(identity, code);
+
+        if (inFlight.putIfAbsent(key, Boolean.TRUE) != null) {
+            coalesced.increment();
+            return false;
+        }
+
+        try {
+            TOTPGenerator generator = generators.apply(identity);
+            return generator != null && generator.verify(code, delayWindow);
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * @return amount of calls which were rejected because the same code of the identity was being verified
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private static final class Key {
+
+        private final String identity;
+
+        private final String code;
+
+        private Key(final String identity, final String code) {
+            this.identity = identity;
+            this.code = code;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) return false;
+
+            Key key = (Key) other;
+            return identity.equals(key.identity) && code.equals(key.code);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * identity.hashCode() + code.hashCode();
+        }
+    }
+
+    public static final class Builder {
+
+        private final Function<String, TOTPGenerator> generators;
+
+        private int delayWindow;
+
+        /**
+         * @param generators resolves the generator of an identity, with its counter storage, or null when the identity
+         *                   is unknown
+         */
+        public Builder(final Function<String, TOTPGenerator> generators) {
+            this.generators = generators;
+            this.delayWindow = 0;
+        }
+
+        /**
+         * @param delayWindow amount of time steps before and after the current one in which a code is valid as well,
+         *                    default 0
+         */
+        public Builder withDelayWindow(final int delayWindow) {
+            if (delayWindow < 0) throw new IllegalArgumentException("Delay window must be greater than or equal to 0");
+            this.delayWindow = delayWindow;
+            return this;
+        }
+
+        public CoalescingVerifier build() {
+            return new CoalescingVerifier(this);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.bastiaanjansen.otp;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the codes of a range of counters or time steps of many tokens to a file, for example to test hardware
+ * tokens, to load an offline verification appliance or to replay an audit log.
+ * <p>
+ * Every token gets one section in the file, in the iteration order of the given map:
+ * <pre>{@code
+ * CodeTableExporter exporter = new CodeTableExporter.Builder()
+ *         .withFormat(CodeTableExporter.Format.CSV)
+ *         .build();
+ *
+ * try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+ *     exporter.exportTOTP(channel, tokensByUserId, from, to);
+ * }
+ * }</pre>
+ * The size of every row is known before its code is computed, so the ranges are split into chunks which are computed
+ * in parallel, across tokens and within the range of a single token, and written to their own position in the file.
+ * A chunk computes its codes with one {@link Mac} and reused buffers, and writes the digits directly as bytes.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class CodeTableExporter {
+
+    /**
+     * Layout of an exported file
+     */
+    public enum Format {
+
+        /**
+         * A header line followed by one line per code: {@code identifier,counter,code} for HOTP, or
+         * {@code identifier,time,code} for TOTP with the start of the time step in seconds since 1970. Identifiers
+         * which contain a comma, quote or line break are quoted.
+         */
+        CSV,
+
+        /**
+         * Big-endian binary: the magic bytes {@code OTPT}, a version byte (1), a type byte (0 for HOTP, 1 for TOTP)
+         * and the amount of sections as int. Every section has the length of the UTF-8 identifier as unsigned short,
+         * the identifier, the amount of digits as byte, the period in milliseconds as long (0 for HOTP), the first
+         * counter as long and the amount of codes as long, followed by every code as int.
+         */
+        BINARY
+    }
+
+    private static final byte[] MAGIC = { 'O', 'T', 'P', 'T' };
+    private static final byte VERSION = 1;
+    private static final int FILE_HEADER_SIZE = MAGIC.length + 2 + Integer.BYTES;
+    private static final int SECTION_HEADER_SIZE = Short.BYTES + 1 + 3 * Long.BYTES;
+
+    /**
+     * Amount of codes computed and written by one task
+     */
+    private static final int CHUNK_SIZE = 16_384;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final Format format;
+
+    private final ForkJoinPool pool;
+
+    private CodeTableExporter(final Builder builder) {
+        this.format = builder.format;
+        this.pool = builder.pool;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Writes the codes of the counters from {@code fromCounter} (inclusive) to {@code toCounter} (exclusive) of every
+     * generator, starting at the current position of the channel
+     *
+     * @param channel channel to write to, its position is moved to the end of the written table
+     * @param generators generators by identifier
+     * @param fromCounter first counter
+     * @param toCounter counter after the last counter
+     * @return amount of bytes written
+     * @throws IOException when writing to the channel fails
+     */
+    public long exportHOTP(final FileChannel channel, final Map<String, HOTPGenerator> generators,
+                           final long fromCounter, final long toCounter) throws IOException {
+        if (fromCounter < 0 || toCounter < fromCounter)
+            throw new IllegalArgumentException("Counters must be 0 or greater, and the first counter must not be after the last");
+
+        List<Section> sections = new ArrayList<>(generators.size());
+        for (Map.Entry<String, HOTPGenerator> generator : generators.entrySet()) {
+            sections.add(new Section(generator.getKey(), generator.getValue(), 0, fromCounter, toCounter - fromCounter));
+        }
+
+        return export(channel, sections, false);
+    }
+
+    /**
+     * Writes the codes of every time step of every generator which overlaps the time from {@code from} (inclusive) to
+     * {@code to} (exclusive), starting at the current position of the channel. Generators may have different periods.
+     *
+     * @param channel channel to write to, its position is moved to the end of the written table
+     * @param generators generators by identifier
+     * @param from start of the time range
+     * @param to end of the time range
+     * @return amount of bytes written
+     * @throws IOException when writing to the channel fails
+     */
+    public long exportTOTP(final FileChannel channel, final Map<String, TOTPGenerator> generators,
+                           final Instant from, final Instant to) throws IOException {
+        if (from.isBefore(Instant.EPOCH) || to.isBefore(from))
+            throw new IllegalArgumentException("Times must not be before 1970, and the start must not be after the end");
+
+        List<Section> sections = new ArrayList<>(generators.size());
+        for (Map.Entry<String, TOTPGenerator> generator : generators.entrySet()) {
+            long period = generator.getValue().getPeriod().toMillis();
+            long first = Math.floorDiv(from.toEpochMilli(), period);
+            long end = -Math.floorDiv(-to.toEpochMilli(), period);
+            sections.add(new Section(generator.getKey(), generator.getValue().getHOTPGenerator(), period, first, end - first));
+        }
+
+        return export(channel, sections, true);
+    }
+
+    private long export(final FileChannel channel, final List<Section> sections, final boolean totp) throws IOException {
+        long start = channel.position();
+        ByteBuffer header = fileHeader(sections.size(), totp);
+        long offset = start + header.remaining();
+        writeFully(channel, header, start);
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (Section section : sections) {
+            ByteBuffer sectionHeader = section.header();
+            writeFully(channel, sectionHeader, offset);
+            offset += sectionHeader.capacity();
+
+            for (long index = 0; index < section.count; index += CHUNK_SIZE) {
+                long first = section.firstCounter + index;
+                long end = first + Math.min(CHUNK_SIZE, section.count - index);
+                chunks.add(new Chunk(section, first, end, offset));
+                offset += section.size(first, end);
+            }
+        }
+
+        try {
+            pool.submit(() -> chunks.parallelStream().forEach(chunk -> chunk.write(channel))).join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        channel.position(offset);
+        return offset - start;
+    }
+
+    private ByteBuffer fileHeader(final int sections, final boolean totp) {
+        if (format == Format.CSV)
+            return ByteBuffer.wrap((totp ? "identifier,time,code\n" : "identifier,counter,code\n").getBytes(UTF_8));
+
+        return ByteBuffer.allocate(FILE_HEADER_SIZE)
+                .put(MAGIC)
+                .put(VERSION)
+                .put((byte) (totp ? 1 : 0))
+                .putInt(sections)
+                .flip();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) current += channel.write(buffer, current);
+    }
+
+    /**
+     * The codes of one token
+     */
+    private final class Section {
+
+        private final byte[] identifier;
+
+        private final HOTPGenerator generator;
+
+        private final int digits;
+
+        /**
+         * Period in milliseconds for TOTP, 0 for HOTP
+         */
+        private final long period;
+
+        private final long firstCounter;
+
+        private final long count;
+
+        private Section(final String identifier, final HOTPGenerator generator, final long period,
+                        final long firstCounter, final long count) {
+            this.identifier = format == Format.CSV ? csvField(identifier) : identifier.getBytes(UTF_8);
+            this.generator = generator;
+            this.digits = generator.getPasswordLength();
+            this.period = period;
+            this.firstCounter = firstCounter;
+            this.count = count;
+
+            if (format == Format.BINARY && this.identifier.length > 0xFFFF)
+                throw new IllegalArgumentException("Identifier must be at most 65535 bytes");
+        }
+
+        ByteBuffer header() {
+            if (format == Format.CSV) return ByteBuffer.allocate(0);
+
+            return ByteBuffer.allocate(SECTION_HEADER_SIZE + identifier.length)
+                    .putShort((short) identifier.length)
+                    .put(identifier)
+                    .put((byte) digits)
+                    .putLong(period)
+                    .putLong(firstCounter)
+                    .putLong(count)
+                    .flip();
+        }
+
+        /**
+         * @return bytes taken by the rows of the counters from first (inclusive) to end (exclusive)
+         */
+        long size(final long first, final long end) {
+            long rows = end - first;
+            if (format == Format.BINARY) return rows * Integer.BYTES;
+
+            // identifier,value,code\n
+            return rows * (identifier.length + digits + 3) + decimalLengths(first, end);
+        }
+
+        /**
+         * Value of the second CSV column: the counter for HOTP, the start of the time step in seconds for TOTP
+         */
+        long value(final long counter) {
+            return period == 0 ? counter : counter * period / 1000;
+        }
+
+        /**
+         * @return sum of the amount of decimal digits of the values of the counters from first to end
+         */
+        private long decimalLengths(final long first, final long end) {
+            long sum = end - first;
+            if (sum == 0) return 0;
+
+            long last = value(end - 1);
+            for (int k = 1; k < POWERS_OF_TEN.length && POWERS_OF_TEN[k] <= last; k++) {
+                // Every value of at least 10^k has at least k + 1 digits
+                long firstWithMoreDigits = period == 0
+                        ? POWERS_OF_TEN[k]
+                        : -Math.floorDiv(-POWERS_OF_TEN[k] * 1000, period);
+                sum += end - Math.max(first, firstWithMoreDigits);
+            }
+
+            return sum;
+        }
+
+        int maxRowSize() {
+            return format == Format.BINARY ? Integer.BYTES : identifier.length + digits + 3 + 19;
+        }
+    }
+
+    /**
+     * A range of counters of one token, and the position of its rows in the file
+     */
+    private final class Chunk {
+
+        private final Section section;
+
+        private final long first;
+
+        private final long end;
+
+        private final long position;
+
+        private Chunk(final Section section, final long first, final long end, final long position) {
+            this.section = section;
+            this.first = first;
+            this.end = end;
+            this.position = position;
+        }
+
+        void write(final FileChannel channel) {
+            Mac mac = section.generator.createMac();
+            byte[] message = new byte[Long.BYTES];
+            byte[] hash = new byte[mac.getMacLength()];
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(section.size(first, end), section.maxRowSize())));
+            long current = position;
+
+            try {
+                for (long counter = first; counter < end; counter++) {
+                    for (int i = Long.BYTES - 1, shift = 0; i >= 0; i--, shift += 8) {
+                        message[i] = (byte) (counter >>> shift);
+                    }
+                    mac.update(message);
+                    mac.doFinal(hash, 0);
+                    int code = section.generator.truncate(hash);
+
+                    if (buffer.remaining() < section.maxRowSize()) {
+                        buffer.flip();
+                        int written = buffer.remaining();
+                        writeFully(channel, buffer, current);
+                        current += written;
+                        buffer.clear();
+                    }
+
+                    if (format == Format.BINARY) {
+                        buffer.putInt(code);
+                    } else {
+                        buffer.put(section.identifier).put((byte) ',');
+                        putDecimal(buffer, section.value(counter), 1);
+                        buffer.put((byte) ',');
+                        putDecimal(buffer, code, section.digits);
+                        buffer.put((byte) '\n');
+                    }
+                }
+
+                buffer.flip();
+                writeFully(channel, buffer, current);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the ASCII digits of a non-negative value, left padded with zeros to at least the given amount of digits
+     */
+    private static void putDecimal(final ByteBuffer buffer, final long value, final int minDigits) {
+        int length = minDigits;
+        while (length < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[length]) length++;
+
+        int end = buffer.position() + length;
+        long remaining = value;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * @return the identifier as CSV field, quoted when it contains a separator, quote or line break (RFC 4180)
+     */
+    private static byte[] csvField(final String identifier) {
+        if (identifier.chars().noneMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r'))
+            return identifier.getBytes(UTF_8);
+
+        return ("\"" + identifier.replace("\"", "\"\"") + "\"").getBytes(UTF_8);
+    }
+
+    public static final class Builder {
+
+        private Format format;
+
+        private ForkJoinPool pool;
+
+        public Builder() {
+            this.format = Format.CSV;
+            this.pool = ForkJoinPool.commonPool();
+        }
+
+        /**
+         * @param format layout of the exported files, default {@link Format#CSV}
+         */
+        public Builder withFormat(final Format format) {
+            if (format == null) throw new IllegalArgumentException("Format must not be null");
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param pool pool to compute and write the chunks of the table in
+         */
+        public Builder withPool(final ForkJoinPool pool) {
+            if (pool == null) throw new IllegalArgumentException("Pool must not be null");
+            this.pool = pool;
+            return this;
+        }
+
+        public CodeTableExporter build() {
+            return new CodeTableExporter(this);
+        }
+    }
+}
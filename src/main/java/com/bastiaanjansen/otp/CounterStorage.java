@@ -1,13 +1,16 @@
 package com.bastiaanjansen.otp;
 
+import java.util.OptionalLong;
+
 /**
  * Stores the last used counter for a single identity, to prevent a one-time password from being used more than once.
  * <p>
  * A counter storage is bound to one identity (for example a user). When configured with
  * {@link TOTPGenerator.Builder#withCounterStorage(CounterStorage)}, {@link TOTPGenerator#verify(String)} accepts a
  * valid code only once. A built-in in-memory implementation is available via
- * {@link InMemoryCounterStorage#forIdentifier(String)}. For distributed systems, implement this interface with a
- * shared store such as Redis or Hazelcast, so a code consumed on one node cannot be replayed on another.
+ * {@link InMemoryCounterStorage#forIdentifier(String)}. For distributed systems, use
+ * {@link JdbcCounterStorage#forIdentifier(String)}, {@link RespCounterStorage#forIdentifier(String)} or implement this
+ * interface with another shared store such as Hazelcast, so a code consumed on one node cannot be replayed on another.
  */
 public interface CounterStorage {
 
@@ -22,4 +25,19 @@ public interface CounterStorage {
      * @return true when the counter was not used before and is now marked as used, false when it was already used
      */
     boolean markAsUsed(long counter);
+
+    /**
+     * Returns the last used counter when it can be read cheaply, so {@link TOTPGenerator#verify(String, int)} can skip
+     * the counters of the delay window which {@link #markAsUsed(long)} would reject anyway, without computing their
+     * codes. When every counter of the window is skipped, the code is rejected without calling {@link #markAsUsed(long)}.
+     * <p>
+     * The returned counter may be older than the stored one, for example when it is read while another thread marks a
+     * counter as used, but must never be newer. Implementations which would need a round trip to a remote store to read
+     * it should keep this default, which returns empty and skips nothing.
+     *
+     * @return the last used counter, or empty when no counter was used or it cannot be read cheaply
+     */
+    default OptionalLong lastUsed() {
+        return OptionalLong.empty();
+    }
 }
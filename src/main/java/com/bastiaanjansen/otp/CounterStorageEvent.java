@@ -0,0 +1,29 @@
+package com.bastiaanjansen.otp;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for a call to {@link CounterStorage#markAsUsed(long)} during verification. The duration of
+ * the event is the time spent in the counter storage.
+ * <p>
+ * Disabled by default, enable it in a recording with {@code -XX:StartFlightRecording:com.bastiaanjansen.otp.CounterStorage#enabled=true}
+ * or a JFC settings file.
+ */
+@Name("com.bastiaanjansen.otp.CounterStorage")
+@Label("OTP Counter Storage")
+@Description("Marking a counter as used in a counter storage")
+@Category("OTP-Java")
+@Enabled(false)
+@StackTrace(false)
+final class CounterStorageEvent extends Event {
+
+    @Label("Storage")
+    Class<?> storage;
+
+    @Label("Counter")
+    long counter;
+
+    @Label("Marked As Used")
+    @Description("False when the counter was used before")
+    boolean markedAsUsed;
+}
@@ -0,0 +1,298 @@
+package com.bastiaanjansen.otp;
+
+import com.bastiaanjansen.otp.helpers.Base32;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Derives the secret of every identity from one master key with HKDF (RFC 5869), so no secret has to be stored or
+ * loaded per identity.
+ * <p>
+ * The secret of an identity is HKDF-SHA256 of the master key, with the context and the identity as info. It is the
+ * same every time it is derived, so enrolling and verifying only need the identity:
+ * <pre>{@code
+ * DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey)
+ *         .withGenerator((userId, builder) -> builder.withCounterStorage(counterStorage.forIdentifier(userId)))
+ *         .build();
+ *
+ * // Enrollment
+ * URI uri = derivedSecrets.generatorOf(userId).getURI("issuer", userId);
+ *
+ * // Verification
+ * boolean valid = derivedSecrets.generatorOf(userId).verify(code);
+ * }</pre>
+ * The generators of recently used identities are cached, so a verification usually neither derives the secret nor
+ * decodes it again. The cache is read without locks and approximates LRU: when it is full, deriving a new generator
+ * evicts generators which were not used since the previous eviction passed them (the CLOCK algorithm).
+ * <p>
+ * Note: whoever knows the master key can derive every secret, so keep it in a secrets manager or hardware security
+ * module rather than with the application data. Changing the master key or the context changes every secret, which
+ * requires all identities to enroll again. To revoke the secret of a single identity, derive from a new identity such
+ * as {@code userId + "#2"}.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class DerivedSecrets {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Result of HKDF-Extract of the master key, the key of every HKDF-Expand
+     */
+    private final SecretKeySpec pseudorandomKey;
+
+    private final byte[] context;
+
+    private final int length;
+
+    private final BiConsumer<String, TOTPGenerator.Builder> generator;
+
+    private final int cacheSize;
+
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Position of the eviction in the cache, only used under the lock of the cache
+     */
+    private Iterator<Map.Entry<String, Entry>> hand;
+
+    private DerivedSecrets(final Builder builder) {
+        this.pseudorandomKey = extract(builder.masterKey);
+        this.context = builder.context.getBytes(UTF_8);
+        this.length = builder.bits / 8;
+        this.generator = builder.generator;
+        this.cacheSize = builder.cacheSize;
+    }
+
+    /**
+     * Derives the secret of an identity, for example to show it to the user while enrolling
+     *
+     * @param identity identity to derive the secret of, for example a user id
+     * @return Base32 encoded secret, as accepted by {@link TOTPGenerator.Builder#Builder(byte[])}
+     */
+    public byte[] secretOf(final String identity) {
+        byte[] identityBytes = identity.getBytes(UTF_8);
+        byte[] info = new byte[context.length + 1 + identityBytes.length];
+        System.arraycopy(context, 0, info, 0, context.length);
+        System.arraycopy(identityBytes, 0, info, context.length + 1, identityBytes.length);
+
+        byte[] secret = expand(pseudorandomKey, info, length);
+        byte[] encoded = Base32.encode(secret);
+        Arrays.fill(secret, (byte) 0);
+        return encoded;
+    }
+
+    /**
+     * Returns the generator of an identity from the cache, or builds it with the derived secret and the configured
+     * options when it is not cached
+     *
+     * @param identity identity to get the generator of, for example a user id
+     * @return generator with the derived secret of the identity
+     */
+    public TOTPGenerator generatorOf(final String identity) {
+        Entry cached = cache.get(identity);
+        if (cached != null) {
+            // Only written when it changes, so threads reading the same generator do not contend on its cache line
+            if (!cached.referenced) cached.referenced = true;
+            return cached.generator;
+        }
+
+        TOTPGenerator.Builder builder = new TOTPGenerator.Builder(secretOf(identity));
+        generator.accept(identity, builder);
+        TOTPGenerator built = builder.build();
+        if (cacheSize == 0) return built;
+
+        // Another thread may have built the generator in the meantime, keep the first one
+        cached = cache.putIfAbsent(identity, new Entry(built));
+        if (cached != null) return cached.generator;
+
+        if (cache.size() > cacheSize) evict(identity);
+        return built;
+    }
+
+    /**
+     * @return amount of cached generators
+     */
+    int cached() {
+        return cache.size();
+    }
+
+    /**
+     * Moves the hand over the cache until it is within its size: clears the reference bit of a used generator, and
+     * removes a generator which was not used since the hand passed it before. Only taken when a new generator is
+     * derived, which costs more than the eviction.
+     *
+     * @param added identity which was just added, kept so it can be used at least once
+     */
+    private void evict(final String added) {
+        synchronized (cache) {
+            int visited = 0;
+            // Two rounds clear every reference bit and then remove, bounded in case other threads keep adding
+            int limit = 2 * (cache.size() + 1);
+
+            while (cache.size() > cacheSize && visited++ < limit) {
+                if (hand == null || !hand.hasNext()) hand = cache.entrySet().iterator();
+                if (!hand.hasNext()) return;
+
+                Map.Entry<String, Entry> candidate = hand.next();
+                if (candidate.getKey().equals(added)) continue;
+
+                Entry entry = candidate.getValue();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else {
+                    cache.remove(candidate.getKey(), entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * HKDF-Extract with SHA-256 without salt, which RFC 5869 defines as a string of zeros of the hash length
+     *
+     * @param inputKey input keying material
+     * @return pseudorandom key
+     */
+    static SecretKeySpec extract(final byte[] inputKey) {
+        byte[] pseudorandomKey = createMac(new SecretKeySpec(new byte[32], HMAC_ALGORITHM)).doFinal(inputKey);
+        SecretKeySpec key = new SecretKeySpec(pseudorandomKey, HMAC_ALGORITHM);
+        Arrays.fill(pseudorandomKey, (byte) 0);
+        return key;
+    }
+
+    /**
+     * HKDF-Expand with SHA-256
+     *
+     * @param pseudorandomKey result of {@link #extract(byte[])}
+     * @param info context and application specific information, here the context, a zero byte and the identity
+     * @param length length of the output keying material in bytes, at most 255 times 32
+     * @return output keying material
+     */
+    static byte[] expand(final SecretKeySpec pseudorandomKey, final byte[] info, final int length) {
+        Mac mac = createMac(pseudorandomKey);
+        byte[] okm = new byte[length];
+        byte[] block = new byte[0];
+
+        for (int i = 0, offset = 0; offset < length; i++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) (i + 1));
+            Arrays.fill(block, (byte) 0);
+            block = mac.doFinal();
+
+            int amount = Math.min(block.length, length - offset);
+            System.arraycopy(block, 0, okm, offset, amount);
+            offset += amount;
+        }
+
+        Arrays.fill(block, (byte) 0);
+        return okm;
+    }
+
+    private static Mac createMac(final SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Cached generator with the reference bit of the CLOCK algorithm, set when the generator is used
+     */
+    private static final class Entry {
+
+        private final TOTPGenerator generator;
+
+        private volatile boolean referenced;
+
+        private Entry(final TOTPGenerator generator) {
+            this.generator = generator;
+        }
+    }
+
+    public static final class Builder {
+
+        private final byte[] masterKey;
+
+        private String context;
+
+        private int bits;
+
+        private int cacheSize;
+
+        private BiConsumer<String, TOTPGenerator.Builder> generator;
+
+        /**
+         * @param masterKey key to derive the secrets from, at least 16 bytes, for example from
+         *                  {@link java.security.SecureRandom}. Changing it changes every derived secret
+         */
+        public Builder(final byte[] masterKey) {
+            if (masterKey == null || masterKey.length < 16)
+                throw new IllegalArgumentException("Master key must be at least 16 bytes");
+
+            this.masterKey = masterKey.clone();
+            this.context = "otp-java";
+            this.bits = SecretGenerator.DEFAULT_BITS;
+            this.cacheSize = 1024;
+            this.generator = (identity, builder) -> { };
+        }
+
+        /**
+         * @param context name of the application or purpose, so the same master key derives different secrets for
+         *                different purposes, default "otp-java". Changing it changes every derived secret. It must not
+         *                contain a zero byte, which separates it from the identity
+         */
+        public Builder withContext(final String context) {
+            if (context == null || context.indexOf('\0') != -1)
+                throw new IllegalArgumentException("Context must not be null or contain a zero byte");
+            this.context = context;
+            return this;
+        }
+
+        /**
+         * @param bits length of the derived secrets in bits, a multiple of 8 between 128 and 512, default 160
+         */
+        public Builder withBits(final int bits) {
+            if (bits < 128 || bits > 512 || bits % 8 != 0)
+                throw new IllegalArgumentException("Bits must be a multiple of 8 between 128 and 512");
+            this.bits = bits;
+            return this;
+        }
+
+        /**
+         * @param cacheSize maximum amount of generators to cache, concurrent calls may exceed it by a few generators for
+         *                  a moment, 0 to build a generator for every call, default 1024
+         */
+        public Builder withCacheSize(final int cacheSize) {
+            if (cacheSize < 0) throw new IllegalArgumentException("Cache size must be greater than or equal to 0");
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * @param generator configures the generator of an identity, for example its period or counter storage
+         */
+        public Builder withGenerator(final BiConsumer<String, TOTPGenerator.Builder> generator) {
+            this.generator = generator;
+            return this;
+        }
+
+        public DerivedSecrets build() {
+            return new DerivedSecrets(this);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.bastiaanjansen.otp;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for {@link HOTPGenerator#generate(long)}, and for the TOTP methods which generate a code.
+ * <p>
+ * Disabled by default, enable it in a recording with {@code -XX:StartFlightRecording:com.bastiaanjansen.otp.Generate#enabled=true}
+ * or a JFC settings file.
+ */
+@Name("com.bastiaanjansen.otp.Generate")
+@Label("OTP Generate")
+@Description("Generation of a one-time password, including the Mac acquisition")
+@Category("OTP-Java")
+@Enabled(false)
+@StackTrace(false)
+final class GenerateEvent extends Event {
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Counter")
+    long counter;
+
+    @Label("Mac Acquisition")
+    @Description("Time spent taking a Mac from the pool, including creating one when the pool is empty")
+    @Timespan(Timespan.NANOSECONDS)
+    long macAcquisition;
+}
@@ -0,0 +1,19 @@
+package com.bastiaanjansen.otp;
+
+/**
+ * Computes codes for many independent generator and counter pairs at once
+ */
+interface HMACBatchEngine {
+
+    /**
+     * @param algorithm HMAC algorithm
+     * @return true when this engine can compute codes for the algorithm
+     */
+    boolean supports(HMACAlgorithm algorithm);
+
+    /**
+     * Computes {@code codes[i] = generators[i].generate(counters[i])} as numbers, for every i in the first count
+     * elements of indices. All selected generators use the same, supported algorithm.
+     */
+    void generate(HOTPGenerator[] generators, long[] counters, int[] codes, int[] indices, int count);
+}
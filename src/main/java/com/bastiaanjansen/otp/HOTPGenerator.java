@@ -1,18 +1,24 @@
 package com.bastiaanjansen.otp;
 
+import com.bastiaanjansen.otp.helpers.Base32;
 import com.bastiaanjansen.otp.helpers.URIHelper;
-import org.apache.commons.codec.binary.Base32;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -22,17 +28,58 @@ public final class HOTPGenerator {
     private static final int DEFAULT_PASSWORD_LENGTH = 6;
     private static final HMACAlgorithm DEFAULT_HMAC_ALGORITHM = HMACAlgorithm.SHA1;
     private static final String OTP_TYPE = "hotp";
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 64;
+    private static final long NO_MATCH = -1;
 
     private final int passwordLength;
 
+    /**
+     * 10^passwordLength, the modulus of the truncated hash
+     */
+    private final int modulus;
+
     private final HMACAlgorithm algorithm;
 
     private final byte[] secret;
 
-    private HOTPGenerator(final Builder builder) {
+    /**
+     * Decoded secret, decoded once so generating a code does not decode the secret again
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * JCA provider to create the Mac with, or null to use the most preferred provider
+     */
+    private final Provider provider;
+
+    /**
+     * Pool to scan large delay windows in, or null to always scan on the calling thread
+     */
+    private final ForkJoinPool pool;
+
+    private final int parallelThreshold;
+
+    /**
+     * Listener to call after every {@link #verify(String, long, int)}, or null
+     */
+    private final VerificationListener verificationListener;
+
+    /**
+     * Initialized Macs with their buffers, reused across calls and threads
+     */
+    private final MacPool macPool;
+
+    private HOTPGenerator(final Builder builder, final Provider provider) {
         this.passwordLength = builder.passwordLength;
+        this.modulus = (int) Math.pow(10, builder.passwordLength);
         this.algorithm = builder.algorithm;
         this.secret = builder.secret;
+        this.key = builder.key;
+        this.provider = provider;
+        this.pool = builder.pool;
+        this.parallelThreshold = builder.parallelThreshold;
+        this.verificationListener = builder.verificationListener;
+        this.macPool = new MacPool(this::createMac, builder.macPoolSize);
     }
 
     public static HOTPGenerator fromURI(final URI uri) throws URISyntaxException {
@@ -82,37 +129,136 @@ public final class HOTPGenerator {
         return algorithm;
     }
 
+    /**
+     * @return JCA provider the HMAC is computed with, or empty when the most preferred provider is used
+     */
+    public Optional<Provider> getProvider() {
+        return Optional.ofNullable(provider);
+    }
+
+    /**
+     * @return Base32 encoded secret
+     */
+    byte[] getSecret() {
+        return secret;
+    }
+
     public boolean verify(final String code, final long counter) {
         return verify(code, counter, 0);
     }
 
     public boolean verify(final String code, final long counter, final int delayWindow) {
-        if (code.length() != passwordLength) return false;
+        OptionalLong match = findCounter(code, counter, delayWindow);
+        if (verificationListener != null) verificationListener.verified(counter, match, match.isPresent());
+
+        return match.isPresent();
+    }
+
+    /**
+     * Finds the counter within a delay window which produces a code, for example to resynchronize with a hardware
+     * token. Counters below 0 are skipped.
+     * <p>
+     * When parallel verification is configured and the window contains at least the configured threshold of
+     * counters, the window is split across the fork join pool and the scan stops as soon as a match is found.
+     *
+     * @param code an OTP code
+     * @param counter counter the code is expected to be generated with
+     * @param delayWindow amount of counters before and after the counter to check as well, nothing is checked when it
+     *                    is negative
+     * @return the lowest counter within the window which produces the code, or empty when no counter does
+     */
+    public OptionalLong findCounter(final String code, final long counter, final int delayWindow) {
+        return findCounter(code, counter, delayWindow, 0, null);
+    }
+
+    /**
+     * Finds the counter within a delay window which produces a code, and records the window in the event when it is
+     * enabled
+     *
+     * @param minimum lowest counter to check, counters of the window below it are skipped
+     * @param event event to record the window size, HMAC count, match and Mac acquisition in, or null
+     */
+    OptionalLong findCounter(final String code, final long counter, final int delayWindow, final long minimum, final VerifyEvent event) {
+        boolean recording = event != null && event.isEnabled();
+        if (recording) {
+            event.algorithm = algorithm.name();
+            event.delayWindow = delayWindow;
+        }
+
+        int expected = parseCode(code);
+        if (expected == -1) return OptionalLong.empty();
+
+        long from = Math.max(Math.max(0, minimum), counter - delayWindow);
+        // Saturates instead of overflowing, the window ends at the highest counter
+        long to = delayWindow > 0 && counter > Long.MAX_VALUE - delayWindow ? Long.MAX_VALUE : counter + delayWindow;
+        if (to < from) return OptionalLong.empty();
+
+        if (recording) event.windowSize = to - from + 1;
+
+        OptionalLong match;
+        if (pool != null && to - from + 1 >= parallelThreshold) {
+            AtomicLong hmacCount = recording ? new AtomicLong() : null;
+            WindowScan scan = new WindowScan(expected, from, to, new AtomicLong(NO_MATCH), hmacCount);
+            pool.invoke(scan);
+            long result = scan.match.get();
+            match = result == NO_MATCH ? OptionalLong.empty() : OptionalLong.of(result);
+
+            if (recording) event.hmacCount = hmacCount.get();
+        } else {
+            long start = recording ? System.nanoTime() : 0;
+            MacPool.Entry entry = macPool.acquire();
+            if (recording) event.macAcquisition = System.nanoTime() - start;
+
+            match = OptionalLong.empty();
+            long current = from;
+            try {
+                // Stops at to before incrementing, so a window ending at Long.MAX_VALUE does not wrap around
+                while (true) {
+                    if (generateValue(entry.mac, current, entry.buffer) == expected) {
+                        match = OptionalLong.of(current);
+                        break;
+                    }
+                    if (current == to) break;
+                    current++;
+                }
+            } finally {
+                macPool.release(entry);
+            }
+
+            if (recording) event.hmacCount = current - from + 1;
+        }
 
-        for (int i = -delayWindow; i <= delayWindow; i++) {
-            String currentCode = generate(counter + i);
-            if (code.equals(currentCode)) return true;
+        if (recording && match.isPresent()) {
+            event.matched = true;
+            event.matchedOffset = match.getAsLong() - counter;
         }
 
-        return false;
+        return match;
     }
 
     public String generate(final long counter) throws IllegalStateException {
         if (counter < 0)
             throw new IllegalArgumentException("Counter must be greater than or equal to 0");
 
-        byte[] secretBytes = decodeBase32(secret);
-        byte[] counterBytes = longToBytes(counter);
-
-        byte[] hash;
+        GenerateEvent event = new GenerateEvent();
+        if (!event.isEnabled()) return format(generateValue(counter));
 
+        event.begin();
+        long start = System.nanoTime();
+        MacPool.Entry entry = macPool.acquire();
+        event.macAcquisition = System.nanoTime() - start;
+        String code;
         try {
-            hash = generateHash(secretBytes, counterBytes);
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new IllegalStateException();
+            code = format(generateValue(entry.mac, counter, entry.buffer));
+        } finally {
+            macPool.release(entry);
         }
 
-        return getCodeFromHash(hash);
+        event.algorithm = algorithm.name();
+        event.counter = counter;
+        event.commit();
+
+        return code;
     }
 
     public URI getURI(final String type, final String issuer, final String account, final Map<String, String> query) throws URISyntaxException {
@@ -127,31 +273,123 @@ public final class HOTPGenerator {
     }
 
     /**
-     * Decode a base32 value to bytes array
+     * Finds the lowest counter within a range which produces a code, on the calling thread
+     *
+     * @param from lowest counter to check
+     * @param to highest counter to check, nothing is checked when it is below from
+     * @return the lowest counter within the range which produces the code, or empty when no counter does
+     */
+    OptionalLong findCounterBetween(final String code, final long from, final long to) {
+        int expected = parseCode(code);
+        if (expected == -1 || to < from) return OptionalLong.empty();
+
+        MacPool.Entry entry = macPool.acquire();
+        try {
+            for (long current = from; ; current++) {
+                if (generateValue(entry.mac, current, entry.buffer) == expected) return OptionalLong.of(current);
+                if (current == to) break;
+            }
+        } finally {
+            macPool.release(entry);
+        }
+
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Generates a code as a number, without formatting it as a string
+     */
+    int generateValue(final long counter) {
+        MacPool.Entry entry = macPool.acquire();
+        try {
+            return generateValue(entry.mac, counter, entry.buffer);
+        } finally {
+            macPool.release(entry);
+        }
+    }
+
+    /**
+     * Generates a code as a number with a Mac from {@link #createMac()} without allocating: the counter and then the
+     * hash are written to the buffer, which must be exactly as long as the Mac
+     */
+    int generateValue(final Mac mac, final long counter, final byte[] buffer) {
+        long value = counter;
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            buffer[i] = (byte) value;
+            value >>>= 8;
+        }
+
+        try {
+            mac.update(buffer, 0, Long.BYTES);
+            mac.doFinal(buffer, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return truncate(buffer);
+    }
+
+    /**
+     * Parses a code, so it can be compared with generated values without formatting a code for every counter
      *
-     * @param value base32 value
-     * @return bytes array
+     * @return the code as a number, or -1 when the code does not consist of passwordLength digits
+     */
+    int parseCode(final String code) {
+        if (code.length() != passwordLength) return -1;
+
+        int value = 0;
+        for (int i = 0; i < passwordLength; i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return decoded secret
      */
-    private byte[] decodeBase32(final byte[] value) {
-        Base32 codec = new Base32();
-        return codec.decode(value);
+    byte[] getKey() {
+        return key.getEncoded();
     }
 
-    private byte[] longToBytes(final long value) {
-        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    /**
+     * Creates a Mac initialized with the secret, which can be reused for multiple codes on one thread
+     */
+    Mac createMac() throws IllegalStateException {
+        try {
+            // Mac is 'message authentication code' algorithm (RFC 2104)
+            Mac mac = createMac(algorithm, provider);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException();
+        }
     }
 
-    private byte[] generateHash(final byte[] secret, final byte[] data) throws InvalidKeyException, NoSuchAlgorithmException {
-        // Create a secret key with correct SHA algorithm
-        SecretKeySpec signKey = new SecretKeySpec(secret, "RAW");
-        // Mac is 'message authentication code' algorithm (RFC 2104)
-        Mac mac = Mac.getInstance(algorithm.getHMACName());
-        mac.init(signKey);
-        // Hash data with generated sign key
-        return mac.doFinal(data);
+    private static Mac createMac(final HMACAlgorithm algorithm, final Provider provider) throws NoSuchAlgorithmException {
+        return provider == null ? Mac.getInstance(algorithm.getHMACName()) : Mac.getInstance(algorithm.getHMACName(), provider);
     }
 
-    private String getCodeFromHash(final byte[] hash) {
+    /**
+     * Formats a truncated hash as a code of passwordLength digits
+     */
+    private String format(final int truncatedHash) {
+        int remaining = truncatedHash;
+
+        // Left pad with 0s for an n-digit code
+        char[] code = new char[passwordLength];
+        for (int i = passwordLength - 1; i >= 0; i--) {
+            code[i] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return new String(code);
+    }
+
+    /**
+     * Dynamic truncation (RFC 4226 section 5.3) of a hash to a code of passwordLength digits
+     */
+    int truncate(final byte[] hash) {
         /* Find mask to get last 4 digits:
         1. Set all bits to 1: ~0 -> 11111111 -> 255 decimal -> 0xFF
         2. Shift n (in this case 4, because we want the last 4 bits) bits to left with <<
@@ -172,21 +410,82 @@ public final class HOTPGenerator {
         byte lastByte = hash[hash.length - 1];
         int offset = lastByte & mask;
 
-        // Get 4 bytes from hash from offset to offset + 3
-        byte[] truncatedHashInBytes = { hash[offset], hash[offset + 1], hash[offset + 2], hash[offset + 3] };
-
-        // Wrap in ByteBuffer to convert bytes to long
-        ByteBuffer byteBuffer = ByteBuffer.wrap(truncatedHashInBytes);
-        long truncatedHash = byteBuffer.getInt();
+        // Get 4 bytes from hash from offset to offset + 3 as a big-endian int, without allocating
+        int truncatedHash = (hash[offset] & 0xFF) << 24 | (hash[offset + 1] & 0xFF) << 16
+                | (hash[offset + 2] & 0xFF) << 8 | hash[offset + 3] & 0xFF;
 
         // Mask most significant bit
         truncatedHash &= 0x7FFFFFFF;
 
         // Modulo (%) truncatedHash by 10^passwordLength
-        truncatedHash %= Math.pow(10, passwordLength);
+        return truncatedHash % modulus;
+    }
 
-        // Left pad with 0s for an n-digit code
-        return String.format("%0" + passwordLength + "d", truncatedHash);
+    /**
+     * Scans a range of counters, splitting it across the pool until the ranges are small enough to compute on one
+     * worker with its own Mac. Workers skip the rest of their range once a lower counter matched.
+     */
+    private final class WindowScan extends RecursiveAction {
+
+        private static final int MIN_COUNTERS_PER_TASK = 8;
+
+        private final int expected;
+
+        private final long from;
+
+        private final long to;
+
+        private final AtomicLong match;
+
+        /**
+         * Amount of computed HMACs, only counted when not null
+         */
+        private final AtomicLong hmacCount;
+
+        private WindowScan(final int expected, final long from, final long to, final AtomicLong match, final AtomicLong hmacCount) {
+            this.expected = expected;
+            this.from = from;
+            this.to = to;
+            this.match = match;
+            this.hmacCount = hmacCount;
+        }
+
+        @Override
+        protected void compute() {
+            long counters = to - from + 1;
+            long countersPerTask = Math.max(MIN_COUNTERS_PER_TASK, parallelThreshold / (pool.getParallelism() * 2L));
+
+            if (counters > countersPerTask) {
+                long middle = from + counters / 2;
+                invokeAll(new WindowScan(expected, from, middle - 1, match, hmacCount), new WindowScan(expected, middle, to, match, hmacCount));
+                return;
+            }
+
+            MacPool.Entry entry = macPool.acquire();
+            long computed = 0;
+            try {
+                for (long current = from; ; current++) {
+                    // A lower counter matched in another task
+                    long found = match.get();
+                    if (found != NO_MATCH && found <= current) break;
+
+                    computed++;
+                    if (generateValue(entry.mac, current, entry.buffer) == expected) {
+                        match.accumulateAndGet(current, WindowScan::lowest);
+                        break;
+                    }
+                    if (current == to) break;
+                }
+            } finally {
+                macPool.release(entry);
+            }
+
+            if (hmacCount != null) hmacCount.addAndGet(computed);
+        }
+
+        private static long lowest(final long found, final long current) {
+            return found == NO_MATCH ? current : Math.min(found, current);
+        }
     }
 
     public static final class Builder {
@@ -195,28 +494,51 @@ public final class HOTPGenerator {
 
         private HMACAlgorithm algorithm;
 
+        private Provider provider;
+
+        private String providerName;
+
+        private ForkJoinPool pool;
+
+        private int parallelThreshold;
+
+        private VerificationListener verificationListener;
+
+        private int macPoolSize;
+
         /**
          * Base32 encoded secret
          */
         private final byte[] secret;
 
+        private final SecretKeySpec key;
+
         /**
          * Creates a new builder.
          * <p>
          * Use {@link SecretGenerator#generate()} to create a secret.
          * <p>
          * If you are using a shared secret from another generator, you would likely need to encode it using
-         * {@link org.apache.commons.codec.binary.Base32#encode(byte[])}}
+         * {@link Base32#encode(byte[])}
          *
          * @param secret Base32 encoded secret
+         * @throws IllegalArgumentException when the secret is empty or not valid Base32
          */
         public Builder(final byte[] secret) {
             if (secret.length == 0)
                 throw new IllegalArgumentException("Secret must not be empty");
 
+            byte[] decoded = new byte[Base32.decodedLength(secret)];
+            if (decoded.length == 0)
+                throw new IllegalArgumentException("Secret must not be empty");
+            Base32.decode(secret, decoded, 0);
+
             this.secret = secret;
+            this.key = new SecretKeySpec(decoded, "RAW");
             this.passwordLength = DEFAULT_PASSWORD_LENGTH;
             this.algorithm = DEFAULT_HMAC_ALGORITHM;
+            this.parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+            this.macPoolSize = MacPool.DEFAULT_SIZE;
         }
 
         /**
@@ -239,8 +561,97 @@ public final class HOTPGenerator {
             return this;
         }
 
+        /**
+         * Computes the HMAC with a specific JCA provider, instead of looking up the most preferred provider for
+         * every code
+         *
+         * @param provider provider which supports the HMAC algorithm
+         */
+        public Builder withProvider(final Provider provider) {
+            this.provider = provider;
+            this.providerName = null;
+            return this;
+        }
+
+        /**
+         * Computes the HMAC with a specific installed JCA provider, which is resolved once when building
+         *
+         * @param providerName name of an installed provider which supports the HMAC algorithm, for example "SunJCE"
+         */
+        public Builder withProvider(final String providerName) {
+            this.providerName = providerName;
+            this.provider = null;
+            return this;
+        }
+
+        /**
+         * Scans delay windows of at least 64 counters in parallel on the common fork join pool
+         */
+        public Builder withParallelVerification() {
+            return withParallelVerification(ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+        }
+
+        /**
+         * Scans large delay windows in parallel, for example to resynchronize with hardware tokens. Smaller windows
+         * are scanned on the calling thread, where splitting would cost more than it saves.
+         *
+         * @param pool pool to scan in
+         * @param threshold minimum amount of counters in a window to scan it in parallel
+         */
+        public Builder withParallelVerification(final ForkJoinPool pool, final int threshold) {
+            if (threshold < 2)
+                throw new IllegalArgumentException("Threshold must be at least 2");
+
+            this.pool = pool;
+            this.parallelThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Keeps initialized Macs of this generator for reuse by later calls, on any thread. The pool never blocks: a
+         * Mac is created when none is idle, and dropped when the pool is full.
+         *
+         * @param macPoolSize maximum amount of idle Macs, 0 to create a Mac for every call, default the amount of
+         *                    carrier threads for virtual threads, which is the amount of available processors unless
+         *                    {@code jdk.virtualThreadScheduler.parallelism} is set
+         */
+        public Builder withMacPoolSize(final int macPoolSize) {
+            if (macPoolSize < 0)
+                throw new IllegalArgumentException("Mac pool size must be greater than or equal to 0");
+
+            this.macPoolSize = macPoolSize;
+            return this;
+        }
+
+        /**
+         * Configures a listener which receives the outcome of every {@link HOTPGenerator#verify(String, long, int)},
+         * for example {@link AuditLog#forIdentifier(String)}. Verifications of a {@link TOTPGenerator} are reported
+         * to the listener of the TOTP generator instead.
+         *
+         * @param verificationListener listener to call after every verification
+         */
+        public Builder withVerificationListener(final VerificationListener verificationListener) {
+            this.verificationListener = verificationListener;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException when the provider is not installed or does not support the algorithm
+         */
         public HOTPGenerator build() {
-            return new HOTPGenerator(this);
+            return new HOTPGenerator(this, resolveProvider());
+        }
+
+        private Provider resolveProvider() {
+            Provider resolved = providerName == null ? provider : Security.getProvider(providerName);
+
+            if (providerName != null && resolved == null)
+                throw new IllegalArgumentException("Provider " + providerName + " is not installed");
+
+            if (resolved != null && resolved.getService("Mac", algorithm.getHMACName()) == null)
+                throw new IllegalArgumentException("Provider " + resolved.getName() + " does not support " + algorithm.getHMACName());
+
+            return resolved;
         }
 
         private boolean passwordLengthIsValid(final int passwordLength) {
@@ -1,5 +1,6 @@
 package com.bastiaanjansen.otp;
 
+import java.util.OptionalLong;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -28,7 +29,18 @@ public class InMemoryCounterStorage {
      * @return counter storage bound to the identifier
      */
     public CounterStorage forIdentifier(final String identifier) {
-        return counter -> markAsUsed(identifier, counter);
+        return new CounterStorage() {
+            @Override
+            public boolean markAsUsed(final long counter) {
+                return InMemoryCounterStorage.this.markAsUsed(identifier, counter);
+            }
+
+            @Override
+            public OptionalLong lastUsed() {
+                Long lastUsed = lastUsedCounters.get(identifier);
+                return lastUsed == null ? OptionalLong.empty() : OptionalLong.of(lastUsed);
+            }
+        };
     }
 
     private boolean markAsUsed(final String identifier, final long counter) {
@@ -0,0 +1,57 @@
+package com.bastiaanjansen.otp;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Built-in in-memory backend for {@link RecoveryCodeStorage}, keeping the hashed recovery codes per identifier.
+ * <p>
+ * Create one shared instance for the whole application and bind it to an identifier per call with
+ * {@link #forIdentifier(String)}:
+ * <pre>{@code
+ * String[] codes = recoveryCodes.generate(recoveryCodeStorage.forIdentifier(userId));
+ * boolean valid = recoveryCodes.consume(code, recoveryCodeStorage.forIdentifier(userId));
+ * }</pre>
+ * Note: because the hashes are only kept in the memory of a single JVM, they are lost on restart and not shared
+ * across application instances. For distributed systems, implement {@link RecoveryCodeStorage} with a shared store.
+ */
+public class InMemoryRecoveryCodeStorage {
+
+    private final ConcurrentMap<String, byte[]> records = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a recovery code storage bound to the given identifier, backed by this instance.
+     *
+     * @param identifier identifier to store the recovery codes by, for example a user id
+     * @return recovery code storage bound to the identifier
+     */
+    public RecoveryCodeStorage forIdentifier(final String identifier) {
+        return new RecoveryCodeStorage() {
+            @Override
+            public byte[] load() {
+                byte[] record = records.get(identifier);
+                return record == null ? null : record.clone();
+            }
+
+            @Override
+            public boolean compareAndSet(final byte[] expected, final byte[] updated) {
+                return InMemoryRecoveryCodeStorage.this.compareAndSet(identifier, expected, updated);
+            }
+        };
+    }
+
+    private boolean compareAndSet(final String identifier, final byte[] expected, final byte[] updated) {
+        byte[] copy = updated.clone();
+        if (expected == null) return records.putIfAbsent(identifier, copy) == null;
+
+        // Arrays are compared by identity in replace(), so compare the contents while holding the entry
+        boolean[] replaced = new boolean[1];
+        records.computeIfPresent(identifier, (key, current) -> {
+            if (!Arrays.equals(current, expected)) return current;
+            replaced[0] = true;
+            return copy;
+        });
+        return replaced[0];
+    }
+}
@@ -0,0 +1,421 @@
+package com.bastiaanjansen.otp;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Backend for {@link CounterStorage} which keeps the last used counter per identifier in a table of a relational
+ * database, so it is shared by all application instances which use the same database.
+ * <p>
+ * Like {@link InMemoryCounterStorage}, create one instance per application and bind it to an identifier per
+ * verification with {@link #forIdentifier(String)}:
+ * <pre>{@code
+ * JdbcCounterStorage counterStorage = new JdbcCounterStorage(dataSource);
+ *
+ * TOTPGenerator totpGenerator = new TOTPGenerator.Builder(secret)
+ *         .withCounterStorage(counterStorage.forIdentifier(userId))
+ *         .build();
+ * }</pre>
+ * The table is created with {@link #createTable()}, or by running the statement of {@link #schema(String)} as part
+ * of the application's own migrations:
+ * <pre>{@code
+ * CREATE TABLE otp_counters (
+ *     identifier VARCHAR(255) NOT NULL PRIMARY KEY,
+ *     counter BIGINT NOT NULL
+ * )
+ * }</pre>
+ * A counter is marked as used with a conditional update, {@code UPDATE ... SET counter = ? WHERE identifier = ? AND
+ * counter < ?}, which the database performs atomically. Only when no row was updated, because the identifier is new
+ * or the counter was used before, the counter is looked up and, for a new identifier, inserted. A concurrent insert
+ * of the same identifier fails on the primary key, after which the update is tried once more. The first counter of a
+ * new identifier therefore takes up to three round trips, an update, a select and an insert; later counters of the
+ * identifier only take the update, shared with the other calls of its batch.
+ * <p>
+ * Concurrent calls to {@link CounterStorage#markAsUsed(long)} are collected by a background thread into batches,
+ * which wait at most the configured delay for more calls, and are executed as one JDBC batch in one transaction. Under
+ * load, many verifications share one round trip and one commit, instead of each taking their own.
+ * <p>
+ * Drivers which rewrite a batch into one statement and do not report the updated rows per statement, such as MySQL
+ * Connector/J with {@code rewriteBatchedStatements}, make the storage fall back to one update per call.
+ * <p>
+ * Note: rows are never deleted. Remove the rows of identities which no longer exist, or whose counters are older
+ * than the delay window, in a scheduled job of the application.
+ */
+public class JdbcCounterStorage implements AutoCloseable {
+
+    /**
+     * Default table name
+     */
+    public static final String DEFAULT_TABLE = "otp_counters";
+
+    /**
+     * Default maximum time a call waits for other calls to join its batch
+     */
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(1);
+
+    /**
+     * Default maximum amount of calls in one batch
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    /**
+     * SQLSTATE class of integrity constraint violations, such as a duplicate primary key
+     */
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    /**
+     * Queued by {@link #close()} to stop the background thread
+     */
+    private static final Request STOP = new Request(null, -1);
+
+    private final DataSource dataSource;
+
+    private final String table;
+
+    private final long maxDelayNanos;
+
+    private final int maxBatchSize;
+
+    private final String updateStatement;
+
+    private final String insertStatement;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a storage using the {@link #DEFAULT_TABLE default table}, {@link #DEFAULT_MAX_DELAY maximum delay} and
+     * {@link #DEFAULT_MAX_BATCH_SIZE maximum batch size}
+     *
+     * @param dataSource data source to get connections from, preferably a connection pool
+     */
+    public JdbcCounterStorage(final DataSource dataSource) {
+        this(dataSource, DEFAULT_TABLE, DEFAULT_MAX_DELAY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param dataSource data source to get connections from, preferably a connection pool
+     * @param table name of the table, optionally prefixed with a schema
+     * @param maxDelay maximum time a call waits for other calls to join its batch, zero to only batch calls which
+     *                 arrive while the previous batch is executed
+     * @param maxBatchSize maximum amount of calls in one batch
+     */
+    public JdbcCounterStorage(final DataSource dataSource, final String table, final Duration maxDelay, final int maxBatchSize) {
+        if (dataSource == null)
+            throw new IllegalArgumentException("Data source must not be null");
+        if (table == null || !TABLE_NAME.matcher(table).matches())
+            throw new IllegalArgumentException("Table must be a valid SQL identifier");
+        if (maxDelay == null || maxDelay.isNegative())
+            throw new IllegalArgumentException("Maximum delay must be zero or positive");
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Maximum batch size must be greater than 0");
+
+        this.dataSource = dataSource;
+        this.table = table;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.updateStatement = "UPDATE " + table + " SET counter = ? WHERE identifier = ? AND counter < ?";
+        this.insertStatement = "INSERT INTO " + table + " (identifier, counter) VALUES (?, ?)";
+
+        this.writer = new Thread(this::run, "otp-jdbc-counter-storage");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param table name of the table, optionally prefixed with a schema
+     * @return statement which creates the table for this storage
+     */
+    public static String schema(final String table) {
+        if (table == null || !TABLE_NAME.matcher(table).matches())
+            throw new IllegalArgumentException("Table must be a valid SQL identifier");
+
+        return "CREATE TABLE " + table + " (\n" +
+                "    identifier VARCHAR(255) NOT NULL PRIMARY KEY,\n" +
+                "    counter BIGINT NOT NULL\n" +
+                ")";
+    }
+
+    /**
+     * Creates the table of this storage, see {@link #schema(String)}
+     *
+     * @throws SQLException when the table cannot be created, for example because it already exists
+     */
+    public void createTable() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(schema(table));
+        }
+    }
+
+    /**
+     * Creates a counter storage bound to the given identifier, backed by this instance.
+     *
+     * @param identifier identifier to store the last used counter by, for example a user id, at most 255 characters
+     * @return counter storage bound to the identifier
+     */
+    public CounterStorage forIdentifier(final String identifier) {
+        if (identifier == null || identifier.length() > 255)
+            throw new IllegalArgumentException("Identifier must not be null and at most 255 characters");
+
+        return counter -> markAsUsed(identifier, counter);
+    }
+
+    /**
+     * Stops the background thread after the calls which are waiting are executed, counter storages of this instance
+     * cannot be used anymore
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+
+        closed = true;
+        queue.add(STOP);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean markAsUsed(final String identifier, final long counter) {
+        if (counter < 0)
+            throw new IllegalArgumentException("Counter must be 0 or greater");
+
+        Request request = new Request(identifier, counter);
+        queue.add(request);
+        // Checked after adding, so a request is either queued before STOP and executed, or removed again here
+        if (closed && queue.remove(request))
+            throw new IllegalStateException("Counter storage is closed");
+
+        try {
+            return request.result.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Counter could not be stored", e.getCause());
+        }
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        boolean stopped = false;
+
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+
+            stopped |= batch.remove(STOP);
+            if (batch.isEmpty()) continue;
+
+            try {
+                execute(batch);
+            } catch (SQLException | RuntimeException e) {
+                for (Request request : batch) request.result.completeExceptionally(e);
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Adds queued requests to the batch until it is full or the maximum delay after its first request passed
+     */
+    private void collect(final List<Request> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + maxDelayNanos;
+        queue.drainTo(batch, maxBatchSize - batch.size());
+
+        while (batch.size() < maxBatchSize && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+
+            Request request = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (request == null) break;
+
+            batch.add(request);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    private void execute(final List<Request> batch) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try {
+                List<Request> updated = new ArrayList<>();
+                List<Request> notUpdated = update(connection, batch, updated);
+                connection.commit();
+
+                // Only after the commit, a failed commit rolls the counters back and fails the batch
+                for (Request request : updated) request.result.complete(true);
+
+                if (!notUpdated.isEmpty()) {
+                    connection.setAutoCommit(true);
+                    resolve(connection, notUpdated);
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!connection.getAutoCommit()) connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Executes the conditional updates of a batch, without completing any request before the transaction is committed
+     *
+     * @param updated list to add the requests which updated a row to
+     * @return requests which did not update a row, because the identifier is new or the counter was used before
+     */
+    private List<Request> update(final Connection connection, final List<Request> batch, final List<Request> updated) throws SQLException {
+        List<Request> notUpdated = new ArrayList<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(updateStatement)) {
+            for (Request request : batch) {
+                statement.setLong(1, request.counter);
+                statement.setString(2, request.identifier);
+                statement.setLong(3, request.counter);
+                statement.addBatch();
+            }
+
+            int[] updateCounts = statement.executeBatch();
+
+            for (int updateCount : updateCounts) {
+                // Some drivers rewrite batches into one statement and do not report the update count per row
+                if (updateCount == Statement.SUCCESS_NO_INFO) {
+                    connection.rollback();
+                    return updateOneByOne(connection, batch, updated);
+                }
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (updateCounts[i] > 0) updated.add(batch.get(i));
+                else notUpdated.add(batch.get(i));
+            }
+        }
+
+        return notUpdated;
+    }
+
+    private List<Request> updateOneByOne(final Connection connection, final List<Request> batch, final List<Request> updated) throws SQLException {
+        List<Request> notUpdated = new ArrayList<>();
+
+        for (Request request : batch) {
+            if (updateOne(connection, request)) updated.add(request);
+            else notUpdated.add(request);
+        }
+
+        return notUpdated;
+    }
+
+    /**
+     * Resolves requests which did not update a row: a counter which is not greater than the stored counter was used
+     * before, the other requests are retried one by one
+     */
+    private void resolve(final Connection connection, final List<Request> requests) throws SQLException {
+        Map<String, Long> storedCounters = storedCounters(connection, requests);
+
+        for (Request request : requests) {
+            Long stored = storedCounters.get(request.identifier);
+
+            // Counters only increase, so a stored counter which is not less than this one means it was used before
+            if (stored != null && stored >= request.counter) {
+                request.result.complete(false);
+                continue;
+            }
+
+            boolean marked = stored == null ? insert(connection, request) : updateOne(connection, request);
+            if (marked) storedCounters.put(request.identifier, request.counter);
+            request.result.complete(marked);
+        }
+    }
+
+    private Map<String, Long> storedCounters(final Connection connection, final List<Request> requests) throws SQLException {
+        StringBuilder query = new StringBuilder("SELECT identifier, counter FROM ").append(table).append(" WHERE identifier IN (");
+        Set<String> identifiers = new LinkedHashSet<>();
+        for (Request request : requests) {
+            if (identifiers.add(request.identifier)) query.append(identifiers.size() == 1 ? "?" : ", ?");
+        }
+        query.append(')');
+
+        Map<String, Long> counters = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(query.toString())) {
+            int index = 1;
+            for (String identifier : identifiers) {
+                statement.setString(index++, identifier);
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) counters.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+        }
+
+        return counters;
+    }
+
+    private boolean insert(final Connection connection, final Request request) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(insertStatement)) {
+            statement.setString(1, request.identifier);
+            statement.setLong(2, request.counter);
+            statement.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            String state = e.getSQLState();
+            if (state == null || !state.startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) throw e;
+
+            // Inserted concurrently by another application instance
+            return updateOne(connection, request);
+        }
+    }
+
+    private boolean updateOne(final Connection connection, final Request request) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(updateStatement)) {
+            statement.setLong(1, request.counter);
+            statement.setString(2, request.identifier);
+            statement.setLong(3, request.counter);
+            return statement.executeUpdate() > 0;
+        }
+    }
+
+    private static final class Request {
+
+        private final String identifier;
+
+        private final long counter;
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private Request(final String identifier, final long counter) {
+            this.identifier = identifier;
+            this.counter = counter;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.bastiaanjansen.otp;
+
+import javax.crypto.Mac;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of initialized {@link Mac} instances of one generator, with a buffer for each, so a code is generated
+ * without looking up a provider and initializing a Mac every time.
+ * <p>
+ * The pool is an array of slots which a thread empties with a compare-and-set when it takes a Mac and fills when it
+ * returns it. There are no locks and nothing waits: when every slot is empty a new Mac is created, and when every slot
+ * is full a returned Mac is left to the garbage collector. A virtual thread therefore never blocks, or pins its carrier,
+ * on the pool. By default the pool holds as many Macs as there are carrier threads for virtual threads, the amount of
+ * threads which can compute a code at the same time, however many virtual threads there are; a
+ * {@link ThreadLocal} would keep a Mac per thread instead.
+ */
+final class MacPool {
+
+    /**
+     * Amount of carrier threads of the virtual thread scheduler, which defaults to the amount of available processors
+     */
+    static final int DEFAULT_SIZE = Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    private final Supplier<Mac> factory;
+
+    private final AtomicReferenceArray<Entry> entries;
+
+    /**
+     * @param factory creates an initialized Mac when the pool is empty
+     * @param size maximum amount of idle Macs, 0 to create a Mac for every call
+     */
+    MacPool(final Supplier<Mac> factory, final int size) {
+        this.factory = factory;
+        this.entries = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Takes an idle Mac from the pool, or creates one when there is none. Return it with {@link #release(Entry)} once
+     * the code is computed.
+     */
+    Entry acquire() {
+        int size = entries.length();
+        int start = startIndex(size);
+
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            Entry entry = entries.get(index);
+            if (entry != null && entries.compareAndSet(index, entry, null)) return entry;
+        }
+
+        Mac mac = factory.get();
+        return new Entry(mac, new byte[mac.getMacLength()]);
+    }
+
+    /**
+     * Returns a Mac to the pool, or drops it when the pool is full
+     */
+    void release(final Entry entry) {
+        // Clears the state of a computation which was interrupted by an exception, cheap after doFinal
+        entry.mac.reset();
+
+        int size = entries.length();
+        int start = startIndex(size);
+
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            if (entries.get(index) == null && entries.compareAndSet(index, null, entry)) return;
+        }
+    }
+
+    /**
+     * Spreads threads over the slots, so threads on different carriers rarely compete for the same slot
+     */
+    private static int startIndex(final int size) {
+        if (size == 0) return 0;
+
+        int hash = System.identityHashCode(Thread.currentThread());
+        return Math.floorMod(hash ^ (hash >>> 16), size);
+    }
+
+    static final class Entry {
+
+        final Mac mac;
+
+        /**
+         * Buffer as long as the Mac, for the counter and then the hash
+         */
+        final byte[] buffer;
+
+        private Entry(final Mac mac, final byte[] buffer) {
+            this.mac = mac;
+            this.buffer = buffer;
+        }
+    }
+}
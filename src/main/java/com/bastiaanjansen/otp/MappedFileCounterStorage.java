@@ -0,0 +1,455 @@
+package com.bastiaanjansen.otp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Backend for {@link CounterStorage} which keeps the last used counter per identifier in a memory-mapped file, so
+ * it is shared by all processes on one host which open the same file.
+ * <p>
+ * Like {@link InMemoryCounterStorage}, create one instance per process and bind it to an identifier per
+ * verification with {@link #forIdentifier(String)}:
+ * <pre>{@code
+ * MappedFileCounterStorage counterStorage = new MappedFileCounterStorage(Paths.get("/dev/shm/otp-counters"));
+ *
+ * TOTPGenerator totpGenerator = new TOTPGenerator.Builder(secret)
+ *         .withCounterStorage(counterStorage.forIdentifier(userId))
+ *         .build();
+ * }</pre>
+ * The file contains an open addressing hash table of 64-bit identifier hashes and counters. Every update is a
+ * compare-and-set on the mapped memory, so {@link CounterStorage#markAsUsed(long)} is atomic across processes
+ * without locks. Identifiers are only stored by their 64-bit hash: two identifiers with the same hash share a
+ * counter, which is astronomically unlikely but not impossible.
+ * <p>
+ * When a table is three quarters full, a table with twice the capacity is created next to it, in a file with the
+ * generation as suffix ({@code otp-counters.1}, {@code otp-counters.2}, ...). Entries are moved to the new table
+ * lazily, the first time they are used after the resize, so a resize never blocks the processes using the
+ * storage. Processes notice a new table through a flag in the header of the previous one. Older tables are frozen:
+ * no entries are added to them anymore, existing entries are only marked as moved.
+ * <p>
+ * Note: entries never expire, and the files are never shrunk. Remove the files while no process uses them to
+ * start over.
+ */
+public class MappedFileCounterStorage implements Closeable {
+
+    /**
+     * Default amount of identifiers of the first table
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final long MAGIC = 0x4F54504354520001L;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int NEXT_OFFSET = 24;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 16;
+
+    /**
+     * Maximum capacity which fits in a single mapped buffer
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /**
+     * Set when an entry was moved to a newer table, the entry must not be changed anymore
+     */
+    private static final long MOVED = Long.MIN_VALUE;
+
+    /**
+     * Set when the counter of an entry was taken over from the older tables, and the entry can be updated
+     */
+    private static final long READY = 1L << 62;
+
+    /**
+     * Last used counter plus one, so 0 means no counter was used yet
+     */
+    private static final long COUNTER_MASK = READY - 1;
+
+    private static final int NOT_FOUND = -1;
+    private static final int FULL = -2;
+
+    private static final long OPEN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Path path;
+
+    private volatile List<Table> generations;
+
+    /**
+     * Opens or creates a storage with the default capacity
+     *
+     * @param path file to store the counters in, preferably on a memory backed file system such as /dev/shm
+     * @throws IOException when the file cannot be opened or created
+     */
+    public MappedFileCounterStorage(final Path path) throws IOException {
+        this(path, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens or creates a storage
+     *
+     * @param path file to store the counters in, preferably on a memory backed file system such as /dev/shm
+     * @param capacity amount of identifiers of the first table when the file does not exist yet, rounded up to a
+     *                 power of two
+     * @throws IOException when the file cannot be opened or created
+     */
+    public MappedFileCounterStorage(final Path path, final int capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY);
+
+        this.path = path;
+
+        List<Table> tables = new ArrayList<>();
+        tables.add(Table.openOrCreate(path, Math.max(2, Integer.highestOneBit(capacity * 2 - 1))));
+        while (tables.get(tables.size() - 1).hasNext()) {
+            tables.add(Table.open(generationPath(tables.size())));
+        }
+
+        this.generations = List.copyOf(tables);
+    }
+
+    /**
+     * Creates a counter storage bound to the given identifier, backed by this instance.
+     *
+     * @param identifier identifier to store the last used counter by, for example a user id
+     * @return counter storage bound to the identifier
+     */
+    public CounterStorage forIdentifier(final String identifier) {
+        long hash = hash(identifier);
+        return new CounterStorage() {
+            @Override
+            public boolean markAsUsed(final long counter) {
+                return MappedFileCounterStorage.this.markAsUsed(hash, counter);
+            }
+
+            @Override
+            public OptionalLong lastUsed() {
+                return MappedFileCounterStorage.this.lastUsed(hash);
+            }
+        };
+    }
+
+    /**
+     * Closes the files, counter storages of this instance cannot be used anymore
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Table table : generations) {
+            table.channel.close();
+        }
+    }
+
+    private boolean markAsUsed(final long hash, final long counter) {
+        if (counter < 0 || counter >= COUNTER_MASK - 1)
+            throw new IllegalArgumentException("Counter must be between 0 and " + (COUNTER_MASK - 2));
+
+        long encoded = counter + 1;
+
+        while (true) {
+            List<Table> tables = currentGenerations();
+            Table newest = tables.get(tables.size() - 1);
+
+            int slot = newest.findSlot(hash, true, true);
+            if (slot == FULL) {
+                grow(newest);
+                continue;
+            }
+
+            // The table got a successor while the slot was claimed, which only takes over entries which already
+            // existed, so the counter is stored in the successor instead
+            if (newest.hasNext()) continue;
+
+            long value = ready(tables, slot, hash);
+
+            while ((value & MOVED) == 0) {
+                if (encoded <= (value & COUNTER_MASK)) return false;
+                if (newest.compareAndSetValue(slot, value, READY | encoded)) return true;
+
+                value = newest.value(slot);
+            }
+        }
+    }
+
+    /**
+     * Reads the counter of an entry without claiming a slot. An entry which was not taken over by the newest table
+     * yet is read from the older tables; counters only grow, so the highest one is the last used counter
+     */
+    private OptionalLong lastUsed(final long hash) {
+        List<Table> tables = currentGenerations();
+        long encoded = 0;
+
+        for (int i = tables.size() - 1; i >= 0; i--) {
+            Table table = tables.get(i);
+            int slot = table.findSlot(hash, false, false);
+            if (slot < 0) continue;
+
+            long value = table.value(slot);
+            encoded = Math.max(encoded, value & COUNTER_MASK);
+            // A ready entry of the newest table already holds the counters of the older tables
+            if (i == tables.size() - 1 && (value & READY) != 0) break;
+        }
+
+        return encoded == 0 ? OptionalLong.empty() : OptionalLong.of(encoded - 1);
+    }
+
+    /**
+     * Takes over the counter of an entry from the older tables when this was not done yet, and marks the entry in
+     * the older tables as moved so it cannot be updated there anymore. The older tables are only searched, an entry
+     * which does not exist there cannot be added to them anymore, see {@link #markAsUsed(long, long)}
+     */
+    private long ready(final List<Table> tables, final int slot, final long hash) {
+        Table newest = tables.get(tables.size() - 1);
+        long value = newest.value(slot);
+        if ((value & (READY | MOVED)) != 0) return value;
+
+        long counter = 0;
+        for (int i = tables.size() - 2; i >= 0; i--) {
+            Table table = tables.get(i);
+            int olderSlot = table.findSlot(hash, false, false);
+            if (olderSlot < 0) continue;
+
+            counter = Math.max(counter, table.markAsMoved(olderSlot) & COUNTER_MASK);
+        }
+
+        newest.compareAndSetValue(slot, value, READY | counter);
+        return newest.value(slot);
+    }
+
+    private List<Table> currentGenerations() {
+        List<Table> tables = generations;
+        if (!tables.get(tables.size() - 1).hasNext()) return tables;
+
+        return refreshGenerations();
+    }
+
+    private synchronized List<Table> refreshGenerations() {
+        List<Table> tables = new ArrayList<>(generations);
+
+        try {
+            while (tables.get(tables.size() - 1).hasNext()) {
+                tables.add(Table.open(generationPath(tables.size())));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Counter storage could not be opened", e);
+        }
+
+        generations = List.copyOf(tables);
+        return generations;
+    }
+
+    private synchronized void grow(final Table full) {
+        List<Table> tables = generations;
+        Table newest = tables.get(tables.size() - 1);
+        if (newest != full || newest.hasNext()) {
+            refreshGenerations();
+            return;
+        }
+
+        if (newest.capacity >= MAX_CAPACITY)
+            throw new IllegalStateException("Counter storage is full");
+
+        try {
+            Table.openOrCreate(generationPath(tables.size()), newest.capacity * 2);
+        } catch (IOException e) {
+            throw new IllegalStateException("Counter storage could not be resized", e);
+        }
+
+        newest.setNext();
+        refreshGenerations();
+    }
+
+    private Path generationPath(final int generation) {
+        if (generation == 0) return path;
+        return path.resolveSibling(path.getFileName() + "." + generation);
+    }
+
+    /**
+     * FNV-1a of the UTF-8 bytes, followed by the MurmurHash3 finalizer to spread the bits. 0 marks an empty slot
+     */
+    private static long hash(final String identifier) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : identifier.getBytes(UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static final class Table {
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private final int capacity;
+
+        private final int mask;
+
+        private final long maxSize;
+
+        private Table(final FileChannel channel, final MappedByteBuffer buffer, final int capacity) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.maxSize = capacity / 4L * 3;
+        }
+
+        /**
+         * Creates the file with exclusive creation, so when processes race to create it exactly one initializes
+         * it and the others wait for its header
+         */
+        static Table openOrCreate(final Path path, final int capacity) throws IOException {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+            } catch (FileAlreadyExistsException e) {
+                return open(path);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            LONGS.set(buffer, CAPACITY_OFFSET, (long) capacity);
+            LONGS.setVolatile(buffer, MAGIC_OFFSET, MAGIC);
+
+            return new Table(channel, buffer, capacity);
+        }
+
+        static Table open(final Path path) throws IOException {
+            long deadline = System.nanoTime() + OPEN_TIMEOUT_NANOS;
+            FileChannel channel = null;
+
+            try {
+                while (true) {
+                    if (channel == null) channel = openExisting(path);
+
+                    if (channel != null && channel.size() >= HEADER_SIZE) {
+                        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+                        if ((long) LONGS.getVolatile(header, MAGIC_OFFSET) == MAGIC) {
+                            int capacity = (int) (long) LONGS.get(header, CAPACITY_OFFSET);
+                            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+                            return new Table(channel, buffer, capacity);
+                        }
+                    }
+
+                    if (System.nanoTime() > deadline)
+                        throw new IOException("Counter storage " + path + " was not initialized in time");
+
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            } catch (IOException | RuntimeException e) {
+                if (channel != null) channel.close();
+                throw e;
+            }
+        }
+
+        private static FileChannel openExisting(final Path path) throws IOException {
+            try {
+                return FileChannel.open(path, READ, WRITE);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Finds the slot of a hash, optionally claiming an empty slot for it
+         *
+         * @param limitSize whether to refuse claiming a slot when the table is three quarters full
+         * @return the slot, {@link #NOT_FOUND} when not claiming, or {@link #FULL} when no slot can be claimed
+         */
+        int findSlot(final long hash, final boolean claim, final boolean limitSize) {
+            int slot = (int) hash & mask;
+
+            for (int probes = 0; probes < capacity; ) {
+                long key = (long) LONGS.getVolatile(buffer, keyOffset(slot));
+
+                if (key == hash) return slot;
+
+                if (key == 0) {
+                    if (!claim) return NOT_FOUND;
+                    if (limitSize && size() >= maxSize) return FULL;
+
+                    if (LONGS.compareAndSet(buffer, keyOffset(slot), 0L, hash)) {
+                        LONGS.getAndAdd(buffer, SIZE_OFFSET, 1L);
+                        return slot;
+                    }
+
+                    // Another process claimed this slot, check whether it was for the same hash
+                    continue;
+                }
+
+                slot = (slot + 1) & mask;
+                probes++;
+            }
+
+            return claim ? FULL : NOT_FOUND;
+        }
+
+        long value(final int slot) {
+            return (long) LONGS.getVolatile(buffer, valueOffset(slot));
+        }
+
+        boolean compareAndSetValue(final int slot, final long expected, final long value) {
+            return LONGS.compareAndSet(buffer, valueOffset(slot), expected, value);
+        }
+
+        /**
+         * @return the final value of the entry
+         */
+        long markAsMoved(final int slot) {
+            while (true) {
+                long value = value(slot);
+                if ((value & MOVED) != 0) return value;
+                if (compareAndSetValue(slot, value, value | MOVED)) return value;
+            }
+        }
+
+        long size() {
+            return (long) LONGS.getVolatile(buffer, SIZE_OFFSET);
+        }
+
+        boolean hasNext() {
+            return (long) LONGS.getVolatile(buffer, NEXT_OFFSET) != 0;
+        }
+
+        void setNext() {
+            LONGS.setVolatile(buffer, NEXT_OFFSET, 1L);
+        }
+
+        private static int keyOffset(final int slot) {
+            return HEADER_SIZE + slot * SLOT_SIZE;
+        }
+
+        private static int valueOffset(final int slot) {
+            return HEADER_SIZE + slot * SLOT_SIZE + Long.BYTES;
+        }
+    }
+}
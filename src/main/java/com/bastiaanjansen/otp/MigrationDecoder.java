@@ -0,0 +1,253 @@
+package com.bastiaanjansen.otp;
+
+import com.bastiaanjansen.otp.helpers.Base32;
+import com.bastiaanjansen.otp.helpers.ProtobufReader;
+import com.bastiaanjansen.otp.helpers.URIHelper;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Decoder for {@code otpauth-migration://offline?data=} URIs, as exported by authenticator apps.
+ * <p>
+ * Entries are decoded one at a time from the payload and passed to a consumer, so an export consisting of many
+ * batches can be imported without keeping all entries in memory:
+ * <pre>{@code
+ * MigrationDecoder.decode(uris, entry -> store(entry.getAccount(), entry.toTOTPGenerator()));
+ * }</pre>
+ *
+ * @author Bastiaan Jansen
+ */
+public final class MigrationDecoder {
+
+    static final String URL_SCHEME = "otpauth-migration";
+    static final String HOST = "offline";
+
+    static final int PAYLOAD_OTP_PARAMETERS = 1;
+    static final int PAYLOAD_VERSION = 2;
+    static final int PAYLOAD_BATCH_SIZE = 3;
+    static final int PAYLOAD_BATCH_INDEX = 4;
+    static final int PAYLOAD_BATCH_ID = 5;
+
+    static final int PARAMETERS_SECRET = 1;
+    static final int PARAMETERS_NAME = 2;
+    static final int PARAMETERS_ISSUER = 3;
+    static final int PARAMETERS_ALGORITHM = 4;
+    static final int PARAMETERS_DIGITS = 5;
+    static final int PARAMETERS_TYPE = 6;
+    static final int PARAMETERS_COUNTER = 7;
+
+    private MigrationDecoder() {}
+
+    /**
+     * Decodes all batches of an export, passing each entry to the consumer in order
+     *
+     * @param uris migration URIs of all batches of one export
+     * @param consumer consumer to pass the decoded entries to
+     * @throws URISyntaxException when a URI is not a valid migration URI, or batches belong to different exports
+     */
+    public static void decode(final Iterable<URI> uris, final Consumer<MigrationEntry> consumer) throws URISyntaxException {
+        Long batchId = null;
+
+        for (URI uri : uris) {
+            byte[] payload = payload(uri);
+
+            // Checked before any entry of the batch is passed to the consumer
+            long currentBatchId = readBatchId(uri, payload);
+            if (batchId != null && batchId != currentBatchId)
+                throw new URISyntaxException(uri.toString(), "URI belongs to a different export");
+
+            batchId = currentBatchId;
+            decodeEntries(uri, payload, consumer);
+        }
+    }
+
+    /**
+     * Decodes a single batch, passing each entry to the consumer in order
+     *
+     * @param uri migration URI
+     * @param consumer consumer to pass the decoded entries to
+     * @throws URISyntaxException when the URI is not a valid migration URI
+     */
+    public static void decode(final URI uri, final Consumer<MigrationEntry> consumer) throws URISyntaxException {
+        decodeEntries(uri, payload(uri), consumer);
+    }
+
+    /**
+     * Reads the batch id of a payload, skipping the entries without decoding them
+     */
+    private static long readBatchId(final URI uri, final byte[] payload) throws URISyntaxException {
+        ProtobufReader reader = new ProtobufReader(payload);
+        long batchId = 0;
+
+        try {
+            while (reader.hasRemaining()) {
+                int field = reader.readFieldNumber();
+
+                if (field == PAYLOAD_BATCH_ID && reader.wireType() == ProtobufReader.WIRE_TYPE_VARINT) {
+                    batchId = reader.readVarint();
+                } else {
+                    reader.skipField();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new URISyntaxException(uri.toString(), "Migration payload could not be parsed: " + e.getMessage());
+        }
+
+        return batchId;
+    }
+
+    private static void decodeEntries(final URI uri, final byte[] payload, final Consumer<MigrationEntry> consumer) throws URISyntaxException {
+        ProtobufReader reader = new ProtobufReader(payload);
+
+        while (reader.hasRemaining()) {
+            MigrationEntry entry = null;
+
+            try {
+                int field = reader.readFieldNumber();
+
+                if (field == PAYLOAD_OTP_PARAMETERS && reader.wireType() == ProtobufReader.WIRE_TYPE_LENGTH_DELIMITED) {
+                    int offset = reader.readLengthDelimited();
+                    entry = readEntry(new ProtobufReader(payload, offset, reader.lastLength()));
+                } else {
+                    reader.skipField();
+                }
+            } catch (IllegalArgumentException e) {
+                throw new URISyntaxException(uri.toString(), "Migration payload could not be parsed: " + e.getMessage());
+            }
+
+            if (entry != null) consumer.accept(entry);
+        }
+    }
+
+    private static byte[] payload(final URI uri) throws URISyntaxException {
+        if (!URL_SCHEME.equals(uri.getScheme()) || !HOST.equals(uri.getHost()) || uri.getQuery() == null)
+            throw new URISyntaxException(uri.toString(), "URI is not an otpauth-migration URI");
+
+        // A '+' in unescaped base64 is decoded as a space by the query decoder
+        String data = Optional.ofNullable(URIHelper.queryItems(uri).get(URIHelper.DATA))
+                .map(value -> value.replace(' ', '+'))
+                .orElseThrow(() -> new URISyntaxException(uri.toString(), "Data query parameter must be set"));
+
+        try {
+            return Base64.getDecoder().decode(data);
+        } catch (IllegalArgumentException e) {
+            throw new URISyntaxException(uri.toString(), "Data query parameter is not valid base64");
+        }
+    }
+
+    private static MigrationEntry readEntry(final ProtobufReader reader) {
+        byte[] buffer = reader.buffer();
+        byte[] secret = null;
+        String account = "";
+        String issuer = "";
+        HMACAlgorithm algorithm = HMACAlgorithm.SHA1;
+        int passwordLength = 6;
+        MigrationEntry.Type type = MigrationEntry.Type.TOTP;
+        long counter = 0;
+
+        while (reader.hasRemaining()) {
+            int field = reader.readFieldNumber();
+
+            if (reader.wireType() == ProtobufReader.WIRE_TYPE_LENGTH_DELIMITED) {
+                int offset = reader.readLengthDelimited();
+                int length = reader.lastLength();
+
+                switch (field) {
+                    case PARAMETERS_SECRET:
+                        secret = Arrays.copyOfRange(buffer, offset, offset + length);
+                        break;
+                    case PARAMETERS_NAME:
+                        account = new String(buffer, offset, length, UTF_8);
+                        break;
+                    case PARAMETERS_ISSUER:
+                        issuer = new String(buffer, offset, length, UTF_8);
+                        break;
+                    default:
+                        break;
+                }
+            } else if (reader.wireType() == ProtobufReader.WIRE_TYPE_VARINT) {
+                long value = reader.readVarint();
+
+                switch (field) {
+                    case PARAMETERS_ALGORITHM:
+                        algorithm = algorithm(value);
+                        break;
+                    case PARAMETERS_DIGITS:
+                        passwordLength = passwordLength(value);
+                        break;
+                    case PARAMETERS_TYPE:
+                        type = type(value);
+                        break;
+                    case PARAMETERS_COUNTER:
+                        counter = value;
+                        break;
+                    default:
+                        break;
+                }
+            } else {
+                reader.skipField();
+            }
+        }
+
+        if (secret == null || secret.length == 0)
+            throw new IllegalArgumentException("Entry has no secret");
+
+        return new MigrationEntry(type, encodeSecret(secret), issuer, account, algorithm, passwordLength, counter);
+    }
+
+    private static HMACAlgorithm algorithm(final long value) {
+        switch ((int) value) {
+            case 0:
+            case 1:
+                return HMACAlgorithm.SHA1;
+            case 2:
+                return HMACAlgorithm.SHA256;
+            case 3:
+                return HMACAlgorithm.SHA512;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm " + value);
+        }
+    }
+
+    private static int passwordLength(final long value) {
+        switch ((int) value) {
+            case 0:
+            case 1:
+                return 6;
+            case 2:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unsupported digit count " + value);
+        }
+    }
+
+    private static MigrationEntry.Type type(final long value) {
+        switch ((int) value) {
+            case 1:
+                return MigrationEntry.Type.HOTP;
+            case 0:
+            case 2:
+                return MigrationEntry.Type.TOTP;
+            default:
+                throw new IllegalArgumentException("Unsupported type " + value);
+        }
+    }
+
+    /**
+     * Encodes a raw secret as unpadded Base32, as used in otpauth URIs
+     */
+    private static byte[] encodeSecret(final byte[] secret) {
+        byte[] encoded = Base32.encode(secret);
+        int length = encoded.length;
+        while (length > 0 && encoded[length - 1] == '=') length--;
+
+        return Arrays.copyOf(encoded, length);
+    }
+}
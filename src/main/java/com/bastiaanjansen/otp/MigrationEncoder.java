@@ -0,0 +1,165 @@
+package com.bastiaanjansen.otp;
+
+import com.bastiaanjansen.otp.helpers.Base32;
+import com.bastiaanjansen.otp.helpers.ProtobufWriter;
+import com.bastiaanjansen.otp.helpers.URIHelper;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import static com.bastiaanjansen.otp.MigrationDecoder.*;
+
+/**
+ * Encoder for {@code otpauth-migration://offline?data=} URIs, which can be imported by authenticator apps.
+ * <p>
+ * Entries are added one at a time and split into batches, each of which is passed to a consumer as soon as it is
+ * complete, so large exports only keep a single batch in memory:
+ * <pre>{@code
+ * MigrationEncoder encoder = new MigrationEncoder(accounts.size(), uri -> showQRCode(uri));
+ * for (Account account : accounts) {
+ *     encoder.add(MigrationEntry.fromTOTPGenerator(account.getGenerator(), "issuer", account.getName()));
+ * }
+ * encoder.finish();
+ * }</pre>
+ * Authenticator apps only support SHA1, SHA256 and SHA512 with 6 or 8 digits, other entries cannot be exported.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class MigrationEncoder {
+
+    /**
+     * Default amount of entries per batch, small enough for each URI to fit in a QR code
+     */
+    public static final int DEFAULT_ENTRIES_PER_BATCH = 10;
+
+    private static final int VERSION = 1;
+
+    private final int totalEntries;
+
+    private final int entriesPerBatch;
+
+    private final int batchCount;
+
+    private final int batchId;
+
+    private final Consumer<URI> consumer;
+
+    private final ProtobufWriter payload = new ProtobufWriter();
+
+    private final ProtobufWriter parameters = new ProtobufWriter();
+
+    private int entries;
+
+    private int batchIndex;
+
+    /**
+     * Creates an encoder with the default amount of entries per batch
+     *
+     * @param totalEntries total amount of entries which will be added
+     * @param consumer consumer to pass the URI of each batch to
+     */
+    public MigrationEncoder(final int totalEntries, final Consumer<URI> consumer) {
+        this(totalEntries, DEFAULT_ENTRIES_PER_BATCH, consumer);
+    }
+
+    /**
+     * @param totalEntries total amount of entries which will be added, required because every batch contains the
+     *                     total amount of batches
+     * @param entriesPerBatch maximum amount of entries per batch
+     * @param consumer consumer to pass the URI of each batch to
+     */
+    public MigrationEncoder(final int totalEntries, final int entriesPerBatch, final Consumer<URI> consumer) {
+        if (totalEntries < 0)
+            throw new IllegalArgumentException("Total entries must be greater than or equal to 0");
+        if (entriesPerBatch < 1)
+            throw new IllegalArgumentException("Entries per batch must be greater than 0");
+
+        this.totalEntries = totalEntries;
+        this.entriesPerBatch = entriesPerBatch;
+        this.batchCount = Math.max(1, (totalEntries + entriesPerBatch - 1) / entriesPerBatch);
+        this.batchId = ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Adds an entry, passing the current batch to the consumer when it is full
+     *
+     * @param entry entry to add
+     * @throws URISyntaxException when the URI of a batch cannot be created
+     */
+    public void add(final MigrationEntry entry) throws URISyntaxException {
+        if (entries == totalEntries)
+            throw new IllegalStateException("All " + totalEntries + " entries have already been added");
+
+        writeEntry(entry);
+        entries++;
+
+        if (entries % entriesPerBatch == 0) flush();
+    }
+
+    /**
+     * Passes the last, partially filled batch to the consumer
+     *
+     * @throws URISyntaxException when the URI of a batch cannot be created
+     */
+    public void finish() throws URISyntaxException {
+        if (entries != totalEntries)
+            throw new IllegalStateException("Expected " + totalEntries + " entries, but " + entries + " were added");
+
+        if (payload.size() > 0 || totalEntries == 0) flush();
+    }
+
+    private void writeEntry(final MigrationEntry entry) {
+        parameters.reset();
+        parameters.writeBytes(PARAMETERS_SECRET, Base32.decode(entry.secretBytes()));
+        parameters.writeString(PARAMETERS_NAME, entry.getAccount());
+        parameters.writeString(PARAMETERS_ISSUER, entry.getIssuer());
+        parameters.writeVarint(PARAMETERS_ALGORITHM, algorithm(entry.getAlgorithm()));
+        parameters.writeVarint(PARAMETERS_DIGITS, digits(entry.getPasswordLength()));
+        parameters.writeVarint(PARAMETERS_TYPE, entry.getType() == MigrationEntry.Type.HOTP ? 1 : 2);
+        parameters.writeVarint(PARAMETERS_COUNTER, entry.getCounter());
+
+        payload.writeMessage(PAYLOAD_OTP_PARAMETERS, parameters);
+    }
+
+    private void flush() throws URISyntaxException {
+        payload.writeVarint(PAYLOAD_VERSION, VERSION);
+        payload.writeVarint(PAYLOAD_BATCH_SIZE, batchCount);
+        payload.writeVarint(PAYLOAD_BATCH_INDEX, batchIndex);
+        payload.writeVarint(PAYLOAD_BATCH_ID, batchId);
+
+        String data = Base64.getEncoder().encodeToString(payload.toByteArray());
+        URI uri = new URI(String.format("%s://%s?%s=%s", URL_SCHEME, HOST, URIHelper.DATA, URIHelper.encode(data)));
+
+        payload.reset();
+        batchIndex++;
+        consumer.accept(uri);
+    }
+
+    private static int algorithm(final HMACAlgorithm algorithm) {
+        switch (algorithm) {
+            case SHA1:
+                return 1;
+            case SHA256:
+                return 2;
+            case SHA512:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Algorithm " + algorithm + " cannot be exported");
+        }
+    }
+
+    private static int digits(final int passwordLength) {
+        switch (passwordLength) {
+            case 6:
+                return 1;
+            case 8:
+                return 2;
+            default:
+                throw new IllegalArgumentException("Password length " + passwordLength + " cannot be exported");
+        }
+    }
+}
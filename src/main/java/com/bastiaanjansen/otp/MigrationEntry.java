@@ -0,0 +1,154 @@
+package com.bastiaanjansen.otp;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A single account of an {@code otpauth-migration://} export, as produced and consumed by authenticator apps.
+ * <p>
+ * Use {@link #toTOTPGenerator()} or {@link #toHOTPGenerator()} to create a generator for an imported entry, and
+ * {@link #fromTOTPGenerator(TOTPGenerator, String, String)} or
+ * {@link #fromHOTPGenerator(HOTPGenerator, long, String, String)} to create an entry for export.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class MigrationEntry {
+
+    /**
+     * Type of one-time password of an entry
+     */
+    public enum Type {
+        HOTP,
+        TOTP
+    }
+
+    private final Type type;
+
+    /**
+     * Base32 encoded secret
+     */
+    private final byte[] secret;
+
+    private final String issuer;
+
+    private final String account;
+
+    private final HMACAlgorithm algorithm;
+
+    private final int passwordLength;
+
+    private final long counter;
+
+    MigrationEntry(final Type type, final byte[] secret, final String issuer, final String account,
+                   final HMACAlgorithm algorithm, final int passwordLength, final long counter) {
+        this.type = type;
+        this.secret = secret;
+        this.issuer = Objects.requireNonNull(issuer);
+        this.account = Objects.requireNonNull(account);
+        this.algorithm = algorithm;
+        this.passwordLength = passwordLength;
+        this.counter = counter;
+    }
+
+    /**
+     * Creates an entry for a TOTP generator
+     *
+     * @param generator generator to export
+     * @param issuer issuer of the account
+     * @param account name of the account
+     * @return entry for the generator
+     */
+    public static MigrationEntry fromTOTPGenerator(final TOTPGenerator generator, final String issuer, final String account) {
+        if (!generator.getPeriod().equals(Duration.ofSeconds(30)))
+            throw new IllegalArgumentException("Only a period of 30 seconds can be exported");
+
+        return new MigrationEntry(Type.TOTP, generator.getSecret(), issuer, account,
+                generator.getAlgorithm(), generator.getPasswordLength(), 0);
+    }
+
+    /**
+     * Creates an entry for a HOTP generator
+     *
+     * @param generator generator to export
+     * @param counter current counter of the account
+     * @param issuer issuer of the account
+     * @param account name of the account
+     * @return entry for the generator
+     */
+    public static MigrationEntry fromHOTPGenerator(final HOTPGenerator generator, final long counter, final String issuer, final String account) {
+        if (counter < 0)
+            throw new IllegalArgumentException("Counter must be greater than or equal to 0");
+
+        return new MigrationEntry(Type.HOTP, generator.getSecret(), issuer, account,
+                generator.getAlgorithm(), generator.getPasswordLength(), counter);
+    }
+
+    /**
+     * Creates a TOTP generator for this entry, authenticator apps always use a period of 30 seconds
+     *
+     * @return TOTP generator
+     */
+    public TOTPGenerator toTOTPGenerator() {
+        if (type != Type.TOTP)
+            throw new IllegalStateException("Entry is not a TOTP entry");
+
+        return new TOTPGenerator.Builder(secret)
+                .withHOTPGenerator(builder -> {
+                    builder.withAlgorithm(algorithm);
+                    builder.withPasswordLength(passwordLength);
+                })
+                .build();
+    }
+
+    /**
+     * Creates a HOTP generator for this entry, use {@link #getCounter()} for the current counter
+     *
+     * @return HOTP generator
+     */
+    public HOTPGenerator toHOTPGenerator() {
+        if (type != Type.HOTP)
+            throw new IllegalStateException("Entry is not a HOTP entry");
+
+        return new HOTPGenerator.Builder(secret)
+                .withAlgorithm(algorithm)
+                .withPasswordLength(passwordLength)
+                .build();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return Base32 encoded secret
+     */
+    public String getSecret() {
+        return new String(secret, UTF_8);
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public HMACAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getPasswordLength() {
+        return passwordLength;
+    }
+
+    public long getCounter() {
+        return counter;
+    }
+
+    byte[] secretBytes() {
+        return secret;
+    }
+}
@@ -0,0 +1,190 @@
+package com.bastiaanjansen.otp;
+
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Decorator for a remote backend of {@link CounterStorage}, which keeps the last used counters it saw in a bounded
+ * local cache and rejects replays of those counters without a call to the remote store.
+ * <p>
+ * Create one shared instance in front of the shared backend, and bind it to an identifier per verification with
+ * {@link #forIdentifier(String)}:
+ * <pre>{@code
+ * NearCacheCounterStorage counterStorage = new NearCacheCounterStorage.Builder(respCounterStorage::forIdentifier)
+ *         .build();
+ *
+ * TOTPGenerator totpGenerator = new TOTPGenerator.Builder(secret)
+ *         .withCounterStorage(counterStorage.forIdentifier(userId))
+ *         .build();
+ * }</pre>
+ * A counter at or below the cached counter of the identifier is rejected locally, because the remote store rejects it
+ * as well. Every other counter is written through to the remote store, which stays the authority, and the cache is
+ * raised to the counter whether the remote store accepted it or reported it as used on another node. The cached
+ * counter is also returned by {@link CounterStorage#lastUsed()}, so {@link TOTPGenerator#verify(String, int)} skips
+ * the used counters of the delay window before calling the storage at all.
+ * <p>
+ * The cache is a fixed-size table indexed by the hash of the identifier, without locks. Identifiers with the same
+ * index replace each other, which only costs a remote call for a later replay, never a wrongly accepted code.
+ * <p>
+ * Note: with {@link Builder#withLocalFallback()}, a counter is accepted by the cache alone when the remote store fails
+ * or times out, so logins keep working during an outage. A code used on one node during the outage may then be
+ * accepted once more on another node, so only enable it when availability outweighs that risk.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class NearCacheCounterStorage {
+
+    private final Function<String, CounterStorage> delegate;
+
+    private final boolean localFallback;
+
+    private final AtomicReferenceArray<Entry> entries;
+
+    private final int mask;
+
+    private final LongAdder localRejections = new LongAdder();
+
+    private final LongAdder fallbacks = new LongAdder();
+
+    private NearCacheCounterStorage(final Builder builder) {
+        this.delegate = builder.delegate;
+        this.localFallback = builder.localFallback;
+        this.entries = new AtomicReferenceArray<>(builder.capacity);
+        this.mask = builder.capacity - 1;
+    }
+
+    /**
+     * Creates a counter storage bound to the given identifier, backed by the cache and the counter storage of the
+     * remote backend for the identifier.
+     *
+     * @param identifier identifier to store the last used counter by, for example a user id
+     * @return counter storage bound to the identifier
+     */
+    public CounterStorage forIdentifier(final String identifier) {
+        CounterStorage remote = delegate.apply(identifier);
+        int index = indexOf(identifier);
+
+        return new CounterStorage() {
+            @Override
+            public boolean markAsUsed(final long counter) {
+                return NearCacheCounterStorage.this.markAsUsed(identifier, index, remote, counter);
+            }
+
+            @Override
+            public OptionalLong lastUsed() {
+                Entry entry = entries.get(index);
+                return entry != null && entry.identifier.equals(identifier) ? OptionalLong.of(entry.counter) : OptionalLong.empty();
+            }
+        };
+    }
+
+    /**
+     * @return amount of counters which were rejected by the cache without calling the remote store
+     */
+    public long getLocalRejections() {
+        return localRejections.sum();
+    }
+
+    /**
+     * @return amount of counters which were decided by the cache alone because the remote store failed
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    private boolean markAsUsed(final String identifier, final int index, final CounterStorage remote, final long counter) {
+        Entry entry = entries.get(index);
+        if (entry != null && counter <= entry.counter && entry.identifier.equals(identifier)) {
+            localRejections.increment();
+            return false;
+        }
+
+        boolean markedAsUsed;
+        try {
+            markedAsUsed = remote.markAsUsed(counter);
+        } catch (RuntimeException e) {
+            if (!localFallback) throw e;
+
+            fallbacks.increment();
+            return raise(identifier, index, counter);
+        }
+
+        // Accepted or not, the counter is used now, so any later call with it can be rejected locally
+        raise(identifier, index, counter);
+        return markedAsUsed;
+    }
+
+    /**
+     * Raises the cached counter of the identifier, replacing the entry of another identifier with the same index
+     *
+     * @return true when the cached counter was raised, false when it already was at least the counter
+     */
+    private boolean raise(final String identifier, final int index, final long counter) {
+        while (true) {
+            Entry entry = entries.get(index);
+            boolean same = entry != null && entry.identifier.equals(identifier);
+            if (same && entry.counter >= counter) return false;
+            if (entries.compareAndSet(index, entry, new Entry(identifier, counter))) return true;
+        }
+    }
+
+    private int indexOf(final String identifier) {
+        int hash = identifier.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static final class Entry {
+
+        private final String identifier;
+
+        private final long counter;
+
+        private Entry(final String identifier, final long counter) {
+            this.identifier = identifier;
+            this.counter = counter;
+        }
+    }
+
+    public static final class Builder {
+
+        private final Function<String, CounterStorage> delegate;
+
+        private int capacity;
+
+        private boolean localFallback;
+
+        /**
+         * @param delegate binds the remote backend to an identifier, for example
+         *                 {@link RespCounterStorage#forIdentifier(String)}
+         */
+        public Builder(final Function<String, CounterStorage> delegate) {
+            this.delegate = delegate;
+            this.capacity = 1 << 16;
+        }
+
+        /**
+         * @param capacity amount of identifiers the cache holds, rounded up to a power of two, default 65536
+         */
+        public Builder withCapacity(final int capacity) {
+            if (capacity < 1 || capacity > 1 << 30)
+                throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+            this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+            return this;
+        }
+
+        /**
+         * Accepts a counter above the cached counter by the cache alone when the remote store throws, for example
+         * because it did not respond in time, instead of rethrowing
+         */
+        public Builder withLocalFallback() {
+            this.localFallback = true;
+            return this;
+        }
+
+        public NearCacheCounterStorage build() {
+            return new NearCacheCounterStorage(this);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.bastiaanjansen.otp;
+
+/**
+ * Preloads the classes and JCA providers used to generate and verify codes, so the first code generated by the
+ * application does not pay for provider lookup and class initialization.
+ * <p>
+ * Call it once during startup, for example before a short-lived function starts accepting requests:
+ * <pre>{@code
+ * Preloader.preload(HMACAlgorithm.SHA1);
+ * }</pre>
+ *
+ * @author Bastiaan Jansen
+ */
+public final class Preloader {
+
+    private static final String SECRET = "JBSWY3DPEHPK3PXP";
+
+    private Preloader() {}
+
+    /**
+     * Preloads all HMAC algorithms
+     */
+    public static void preload() {
+        preload(HMACAlgorithm.values());
+    }
+
+    /**
+     * Preloads the given HMAC algorithms by generating and verifying a code with each of them
+     *
+     * @param algorithms algorithms to preload
+     * @throws IllegalStateException when an algorithm is not available
+     */
+    public static void preload(final HMACAlgorithm... algorithms) {
+        for (HMACAlgorithm algorithm : algorithms) {
+            TOTPGenerator generator = new TOTPGenerator.Builder(SECRET)
+                    .withHOTPGenerator(builder -> builder.withAlgorithm(algorithm))
+                    .build();
+
+            generator.verify(generator.now());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.bastiaanjansen.otp;
+
+/**
+ * Stores the hashed recovery codes of a single identity, see {@link RecoveryCodes}.
+ * <p>
+ * Like {@link CounterStorage}, a recovery code storage is bound to one identity (for example a user). The stored
+ * record is an opaque, compact byte array of a few hundred bytes at most, which {@link RecoveryCodes} reads with
+ * {@link #load()} and replaces with {@link #compareAndSet(byte[], byte[])}. A built-in in-memory implementation is
+ * available via {@link InMemoryRecoveryCodeStorage#forIdentifier(String)}. For distributed systems, implement this
+ * interface with a shared store, for example a column of the user's row updated with
+ * {@code UPDATE ... WHERE recovery_codes = ?}, so a code consumed on one node cannot be used on another.
+ */
+public interface RecoveryCodeStorage {
+
+    /**
+     * @return the stored record, or null when no recovery codes were generated for the identity
+     */
+    byte[] load();
+
+    /**
+     * Atomically replaces the stored record when it still equals the expected record.
+     * <p>
+     * Implementations must perform the comparison and replacement as one atomic operation, so that two concurrent
+     * calls with the same expected record cannot both return true.
+     *
+     * @param expected record returned by {@link #load()}, or null when none was stored
+     * @param updated record to store
+     * @return true when the record was replaced, false when the stored record did not equal the expected record
+     */
+    boolean compareAndSet(byte[] expected, byte[] updated);
+}
@@ -0,0 +1,263 @@
+package com.bastiaanjansen.otp;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Generates one-time recovery codes, which a user can use instead of a one-time password when the device with the
+ * token is lost, and checks and consumes them.
+ * <p>
+ * Only a keyed hash of every code is stored, through a {@link RecoveryCodeStorage} bound to the user. Create one
+ * instance for the whole application, with a key which is kept apart from the storage, for example in a secrets
+ * manager:
+ * <pre>{@code
+ * RecoveryCodes recoveryCodes = new RecoveryCodes.Builder(hashKey).build();
+ * InMemoryRecoveryCodeStorage recoveryCodeStorage = new InMemoryRecoveryCodeStorage();
+ *
+ * // Show these to the user once, they replace any codes generated before
+ * String[] codes = recoveryCodes.generate(recoveryCodeStorage.forIdentifier(userId));
+ *
+ * // Later, true only the first time a generated code is used
+ * boolean valid = recoveryCodes.consume(code, recoveryCodeStorage.forIdentifier(userId));
+ * }</pre>
+ * Codes are random Base32 characters from the same {@link java.security.SecureRandom} as {@link SecretGenerator},
+ * 80 bits by default, shown in groups of 4 characters such as {@code ABCD-EFGH-IJKL-MNOP}. Because the codes are
+ * random and long, a fast HMAC-SHA256 is enough to protect them when the stored hashes leak: without the key the
+ * hashes cannot be checked at all, and with the key every guess still has to find one of a few 80-bit values. A slow
+ * password hash would only be needed for codes a user chooses.
+ * <p>
+ * The hashes of a user are stored as one record of 16 bytes per code. A code is consumed by comparing its hash with
+ * every slot of the record, without stopping at a match, and clearing the matching slot with one compare-and-set of
+ * the record. The comparison takes the same time whichever slot matches, and two concurrent calls with the same code
+ * cannot both succeed.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class RecoveryCodes {
+
+    /**
+     * Length of the stored hash of a code in bytes
+     */
+    static final int HASH_LENGTH = 16;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+
+    private static final int MAX_RETRIES = 100;
+
+    private final SecretKeySpec key;
+
+    private final int count;
+
+    private final int length;
+
+    private final int groupSize;
+
+    private RecoveryCodes(final Builder builder) {
+        this.key = new SecretKeySpec(builder.key, HMAC_ALGORITHM);
+        this.count = builder.count;
+        this.length = builder.length;
+        this.groupSize = builder.groupSize;
+    }
+
+    /**
+     * Generates new recovery codes, replacing the codes generated before
+     *
+     * @param storage storage of the user to generate the codes for
+     * @return generated codes, formatted in groups, to show to the user once
+     */
+    public String[] generate(final RecoveryCodeStorage storage) {
+        String[] codes = new String[count];
+        byte[] record = new byte[count * HASH_LENGTH];
+        Mac mac = createMac();
+
+        for (int i = 0; i < count; i++) {
+            char[] characters = new char[length];
+            for (int j = 0; j < length; j++) {
+                characters[j] = ALPHABET[SecretGenerator.random.nextInt(ALPHABET.length)];
+            }
+
+            String code = new String(characters);
+            System.arraycopy(hash(mac, code), 0, record, i * HASH_LENGTH, HASH_LENGTH);
+            codes[i] = format(code);
+        }
+
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            if (storage.compareAndSet(storage.load(), record)) return codes;
+        }
+
+        throw new IllegalStateException("Recovery codes could not be stored due to concurrent changes");
+    }
+
+    /**
+     * Checks whether the code is an unused recovery code of the user and, if so, marks it as used. Separators, spaces
+     * and the case of the code are ignored.
+     *
+     * @param code code entered by the user
+     * @param storage storage of the user
+     * @return true when the code was valid and is now used, false otherwise
+     */
+    public boolean consume(final String code, final RecoveryCodeStorage storage) {
+        String normalized = normalize(code);
+        if (normalized.length() != length) return false;
+
+        byte[] hash = hash(createMac(), normalized);
+
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            byte[] record = storage.load();
+            if (record == null) return false;
+
+            int slot = find(record, hash);
+            if (slot == -1) return false;
+
+            byte[] updated = record.clone();
+            Arrays.fill(updated, slot * HASH_LENGTH, (slot + 1) * HASH_LENGTH, (byte) 0);
+            if (storage.compareAndSet(record, updated)) return true;
+        }
+
+        throw new IllegalStateException("Recovery code could not be consumed due to concurrent changes");
+    }
+
+    /**
+     * @param storage storage of the user
+     * @return amount of recovery codes of the user which were not used yet
+     */
+    public int remaining(final RecoveryCodeStorage storage) {
+        byte[] record = storage.load();
+        if (record == null) return 0;
+
+        int remaining = 0;
+        for (int slot = 0; slot < record.length / HASH_LENGTH; slot++) {
+            if (!isCleared(record, slot)) remaining++;
+        }
+        return remaining;
+    }
+
+    /**
+     * Finds the slot of a hash in constant time, comparing every byte of every slot
+     *
+     * @return slot of the hash, or -1 when the record does not contain it
+     */
+    static int find(final byte[] record, final byte[] hash) {
+        int slots = record.length / HASH_LENGTH;
+        int found = 0;
+        int index = 0;
+
+        for (int slot = 0; slot < slots; slot++) {
+            int difference = 0;
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                difference |= record[slot * HASH_LENGTH + i] ^ hash[i];
+            }
+
+            // 1 when all bytes are equal, 0 otherwise, without branching on the contents
+            int match = ((difference & 0xFF) - 1) >>> 31;
+            found |= match;
+            index |= -match & slot;
+        }
+
+        return found == 1 ? index : -1;
+    }
+
+    private static boolean isCleared(final byte[] record, final int slot) {
+        for (int i = slot * HASH_LENGTH; i < (slot + 1) * HASH_LENGTH; i++) {
+            if (record[i] != 0) return false;
+        }
+        return true;
+    }
+
+    private byte[] hash(final Mac mac, final String normalizedCode) {
+        return Arrays.copyOf(mac.doFinal(normalizedCode.getBytes(US_ASCII)), HASH_LENGTH);
+    }
+
+    private Mac createMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String format(final String code) {
+        StringBuilder formatted = new StringBuilder(code.length() + code.length() / groupSize);
+        for (int i = 0; i < code.length(); i++) {
+            if (i > 0 && i % groupSize == 0) formatted.append('-');
+            formatted.append(code.charAt(i));
+        }
+        return formatted.toString();
+    }
+
+    private static String normalize(final String code) {
+        StringBuilder normalized = new StringBuilder(code.length());
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c != '-' && !Character.isWhitespace(c)) normalized.append(c);
+        }
+        return normalized.toString().toUpperCase(Locale.ROOT);
+    }
+
+    public static final class Builder {
+
+        private final byte[] key;
+
+        private int count;
+
+        private int length;
+
+        private int groupSize;
+
+        /**
+         * @param key key for the HMAC of the codes, at least 16 bytes, for example from
+         *            {@link java.security.SecureRandom}. Keep it apart from the storage; changing it invalidates all
+         *            stored codes
+         */
+        public Builder(final byte[] key) {
+            if (key == null || key.length < 16)
+                throw new IllegalArgumentException("Key must be at least 16 bytes");
+
+            this.key = key.clone();
+            this.count = 10;
+            this.length = 16;
+            this.groupSize = 4;
+        }
+
+        /**
+         * @param count amount of codes to generate per user, default 10
+         */
+        public Builder withCount(final int count) {
+            if (count < 1 || count > 64) throw new IllegalArgumentException("Count must be between 1 and 64");
+            this.count = count;
+            return this;
+        }
+
+        /**
+         * @param length amount of Base32 characters per code, 5 bits each, default 16
+         */
+        public Builder withLength(final int length) {
+            if (length < 10) throw new IllegalArgumentException("Length must be at least 10 characters");
+            this.length = length;
+            return this;
+        }
+
+        /**
+         * @param groupSize amount of characters between separators in generated codes, default 4
+         */
+        public Builder withGroupSize(final int groupSize) {
+            if (groupSize < 1) throw new IllegalArgumentException("Group size must be at least 1");
+            this.groupSize = groupSize;
+            return this;
+        }
+
+        public RecoveryCodes build() {
+            return new RecoveryCodes(this);
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package com.bastiaanjansen.otp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Backend for {@link CounterStorage} which keeps the last used counter per identifier in Redis, or any other server
+ * which speaks the Redis protocol (RESP) and runs Lua scripts, so it is shared by all application instances which use
+ * the same server.
+ * <p>
+ * Like {@link InMemoryCounterStorage}, create one instance per application and bind it to an identifier per
+ * verification with {@link #forIdentifier(String)}:
+ * <pre>{@code
+ * RespCounterStorage counterStorage = new RespCounterStorage.Builder(new InetSocketAddress("localhost", 6379))
+ *         .withExpiry(Duration.ofMinutes(5))
+ *         .build();
+ *
+ * TOTPGenerator totpGenerator = new TOTPGenerator.Builder(secret)
+ *         .withCounterStorage(counterStorage.forIdentifier(userId))
+ *         .build();
+ * }</pre>
+ * A counter is marked as used with one call to a Lua script, which compares the counter with the stored counter and
+ * stores it when it is greater. The server runs a script atomically, so the check and store cannot race with calls
+ * from other application instances. The script is called by its SHA-1 with {@code EVALSHA}, and sent once more with
+ * {@code EVAL} when the server does not know it yet.
+ * <p>
+ * Calls are spread over a few connections, which one background thread multiplexes with a {@link Selector}. Calls
+ * which arrive while earlier calls are in flight are written to the connection together and their replies are read
+ * in order (pipelining), so concurrent verifications share round trips instead of each waiting for their own. A
+ * connection which fails is reconnected by the next call which uses it; the calls in flight on it fail.
+ * <p>
+ * Note: this client supports a single server with password authentication, not Redis Cluster, Sentinel or TLS.
+ */
+public class RespCounterStorage implements Closeable {
+
+    /**
+     * Stores ARGV[1] in KEYS[1] when it is greater than the stored counter, expiring after ARGV[2] milliseconds when
+     * given. Counters are compared as decimal strings without leading zeros, so they are exact up to
+     * {@link Long#MAX_VALUE}, where Lua numbers are not.
+     */
+    static final String SCRIPT =
+            "local last = redis.call('GET', KEYS[1])\n" +
+            "if last and (#last > #ARGV[1] or (#last == #ARGV[1] and last >= ARGV[1])) then return 0 end\n" +
+            "if ARGV[2] then redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2]) else redis.call('SET', KEYS[1], ARGV[1]) end\n" +
+            "return 1";
+
+    private static final byte[] SCRIPT_SHA = sha1Hex(SCRIPT);
+
+    private static final byte[] EVALSHA = "EVALSHA".getBytes(US_ASCII);
+
+    private static final byte[] EVAL = "EVAL".getBytes(US_ASCII);
+
+    private static final byte[] ONE = "1".getBytes(US_ASCII);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InetSocketAddress address;
+
+    private final byte[] keyPrefix;
+
+    private final long timeoutNanos;
+
+    private final byte[] expiryMillis;
+
+    private final byte[] password;
+
+    private final Selector selector;
+
+    private final Connection[] connections;
+
+    private final Queue<Connection> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    private final Thread ioThread;
+
+    private volatile boolean closed;
+
+    private RespCounterStorage(final Builder builder) throws IOException {
+        this.address = builder.address;
+        this.keyPrefix = builder.keyPrefix.getBytes(UTF_8);
+        this.timeoutNanos = builder.timeout.toNanos();
+        this.expiryMillis = builder.expiry == null ? null : Long.toString(builder.expiry.toMillis()).getBytes(US_ASCII);
+        this.password = builder.password == null ? null : builder.password.getBytes(UTF_8);
+        this.selector = Selector.open();
+        this.connections = new Connection[builder.connections];
+
+        try {
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = new Connection();
+                // Connect eagerly, so a wrong address or password fails here instead of on the first verification
+                connections[i].connect();
+            }
+        } catch (IOException e) {
+            for (Connection connection : connections) {
+                if (connection != null) connection.disconnect();
+            }
+            selector.close();
+            throw e;
+        }
+
+        this.ioThread = new Thread(this::run, "otp-resp-counter-storage");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    /**
+     * Creates a counter storage bound to the given identifier, backed by this instance.
+     *
+     * @param identifier identifier to store the last used counter by, for example a user id
+     * @return counter storage bound to the identifier
+     */
+    public CounterStorage forIdentifier(final String identifier) {
+        byte[] suffix = identifier.getBytes(UTF_8);
+        byte[] key = new byte[keyPrefix.length + suffix.length];
+        System.arraycopy(keyPrefix, 0, key, 0, keyPrefix.length);
+        System.arraycopy(suffix, 0, key, keyPrefix.length, suffix.length);
+
+        return counter -> markAsUsed(key, counter);
+    }
+
+    /**
+     * Closes the connections, calls in flight fail and counter storages of this instance cannot be used anymore
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        closed = true;
+        selector.wakeup();
+
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean markAsUsed(final byte[] key, final long counter) {
+        if (counter < 0)
+            throw new IllegalArgumentException("Counter must be 0 or greater");
+        if (closed)
+            throw new IllegalStateException("Counter storage is closed");
+
+        Request request = new Request(key, Long.toString(counter).getBytes(US_ASCII));
+        connections[Math.floorMod(nextConnection.getAndIncrement(), connections.length)].submit(request);
+
+        try {
+            return request.result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Counter could not be stored", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Counter storage did not respond in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while storing counter", e);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Connection connection = (Connection) key.attachment();
+                    if (!key.isValid()) continue;
+                    if (key.isReadable()) connection.read();
+                    if (key.isValid() && key.isWritable()) connection.write();
+                }
+                selector.selectedKeys().clear();
+
+                Connection connection;
+                while ((connection = scheduled.poll()) != null) {
+                    connection.flush();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Connection connection : connections) connection.fail(e);
+        } finally {
+            IllegalStateException closedException = new IllegalStateException("Counter storage is closed");
+            for (Connection connection : connections) {
+                connection.fail(closedException);
+                connection.disconnect();
+            }
+
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * One connection to the server. Requests are handed over through {@link #pending}, everything else is only used
+     * by the I/O thread.
+     */
+    private final class Connection {
+
+        private final Queue<Request> pending = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+        private final Queue<Request> inFlight = new ArrayDeque<>();
+
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private SocketChannel channel;
+
+        private SelectionKey key;
+
+        void submit(final Request request) {
+            pending.add(request);
+
+            // Only the first request since the last flush wakes the I/O thread, the others are written along with it
+            if (isScheduled.compareAndSet(false, true)) {
+                scheduled.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void flush() {
+            isScheduled.set(false);
+            if (pending.isEmpty()) return;
+
+            if (channel == null) {
+                try {
+                    connect();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+
+            Request request;
+            while ((request = pending.poll()) != null) {
+                encode(request);
+                inFlight.add(request);
+            }
+
+            write();
+        }
+
+        void connect() throws IOException {
+            SocketChannel channel = SocketChannel.open();
+
+            try {
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().connect(address, (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+                if (password != null) authenticate(channel);
+
+                channel.configureBlocking(false);
+                this.key = channel.register(selector, SelectionKey.OP_READ, this);
+                this.channel = channel;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void authenticate(final SocketChannel channel) throws IOException {
+            channel.socket().setSoTimeout((int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+            ByteBuffer command = ByteBuffer.allocate(64 + password.length);
+            appendArray(command, 2);
+            appendBulk(command, "AUTH".getBytes(US_ASCII));
+            appendBulk(command, password);
+            command.flip();
+            while (command.hasRemaining()) channel.write(command);
+
+            // Blocking channels do not honour the socket timeout, so read through the socket's stream
+            StringBuilder reply = new StringBuilder();
+            int b;
+            while ((b = channel.socket().getInputStream().read()) != '\n') {
+                if (b == -1) throw new IOException("Connection closed during authentication");
+                if (b != '\r') reply.append((char) b);
+            }
+
+            if (reply.length() > 0 && reply.charAt(0) == '-') throw new IOException("Authentication failed: " + reply.substring(1));
+            if (reply.length() == 0 || reply.charAt(0) != '+') throw new IOException("Unexpected reply to AUTH: " + reply);
+        }
+
+        void write() {
+            try {
+                writeBuffer.flip();
+                channel.write(writeBuffer);
+                boolean remaining = writeBuffer.hasRemaining();
+                writeBuffer.compact();
+
+                key.interestOps(remaining ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void read() {
+            try {
+                if (channel.read(readBuffer) == -1) throw new ClosedChannelException();
+
+                readBuffer.flip();
+                Object reply;
+                // A failed write while handling a reply disconnects, which discards the rest of the buffer
+                while (channel != null && (reply = parse(readBuffer)) != null) {
+                    Request request = inFlight.poll();
+                    if (request == null) throw new IOException("Received a reply without a request");
+                    handle(request, reply);
+                }
+                if (channel == null) return;
+                readBuffer.compact();
+
+                if (!readBuffer.hasRemaining()) readBuffer = grow(readBuffer, readBuffer.capacity() * 2);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void handle(final Request request, final Object reply) {
+            if (reply instanceof Long) {
+                request.result.complete((Long) reply == 1);
+            } else if (reply instanceof String && ((String) reply).startsWith("NOSCRIPT") && !request.evaluated) {
+                // The server does not know the script yet, send it along; later calls can use EVALSHA again
+                request.evaluated = true;
+                encode(request);
+                inFlight.add(request);
+                write();
+            } else if (reply instanceof String) {
+                request.result.completeExceptionally(new IllegalStateException("Server replied with error: " + reply));
+            } else {
+                request.result.completeExceptionally(new IllegalStateException("Unexpected reply from server"));
+            }
+        }
+
+        void fail(final Throwable cause) {
+            disconnect();
+
+            Request request;
+            while ((request = inFlight.poll()) != null) request.result.completeExceptionally(cause);
+            while ((request = pending.poll()) != null) request.result.completeExceptionally(cause);
+        }
+
+        void disconnect() {
+            if (channel == null) return;
+
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // The connection is abandoned either way
+            }
+
+            channel = null;
+            key = null;
+            writeBuffer.clear();
+            readBuffer.clear();
+        }
+
+        private void encode(final Request request) {
+            // Headers, the command, the SHA-1 and the expiry take less than 160 bytes
+            int size = 160 + request.key.length + request.counter.length + (request.evaluated ? SCRIPT.length() : 0);
+            if (writeBuffer.remaining() < size) writeBuffer = grow(writeBuffer, writeBuffer.capacity() + size * 2);
+
+            appendArray(writeBuffer, expiryMillis == null ? 5 : 6);
+            if (request.evaluated) {
+                appendBulk(writeBuffer, EVAL);
+                appendBulk(writeBuffer, SCRIPT.getBytes(UTF_8));
+            } else {
+                appendBulk(writeBuffer, EVALSHA);
+                appendBulk(writeBuffer, SCRIPT_SHA);
+            }
+            appendBulk(writeBuffer, ONE);
+            appendBulk(writeBuffer, request.key);
+            appendBulk(writeBuffer, request.counter);
+            if (expiryMillis != null) appendBulk(writeBuffer, expiryMillis);
+        }
+    }
+
+    /**
+     * Parses one reply, leaving the buffer untouched when the reply is not complete yet
+     *
+     * @return Long for integers, String for errors, byte[] for simple and bulk strings, or null when incomplete
+     */
+    static Object parse(final ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int end = lineEnd(buffer, start);
+        if (end == -1) return null;
+
+        byte type = buffer.get(start);
+        String line = new String(buffer.array(), buffer.arrayOffset() + start + 1, end - start - 1, US_ASCII);
+
+        switch (type) {
+            case ':':
+                buffer.position(end + 2);
+                return Long.parseLong(line);
+            case '-':
+                buffer.position(end + 2);
+                return line;
+            case '+':
+                buffer.position(end + 2);
+                return line.getBytes(US_ASCII);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length == -1) {
+                    buffer.position(end + 2);
+                    return new byte[0];
+                }
+                if (buffer.limit() - (end + 2) < length + 2) return null;
+
+                byte[] value = new byte[length];
+                buffer.position(end + 2);
+                buffer.get(value);
+                buffer.position(buffer.position() + 2);
+                return value;
+            }
+            default:
+                throw new IOException("Unsupported reply type " + (char) type);
+        }
+    }
+
+    private static int lineEnd(final ByteBuffer buffer, final int from) {
+        for (int i = from; i < buffer.limit() - 1; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static void appendArray(final ByteBuffer buffer, final int size) {
+        buffer.put((byte) '*').put(Integer.toString(size).getBytes(US_ASCII)).put((byte) '\r').put((byte) '\n');
+    }
+
+    private static void appendBulk(final ByteBuffer buffer, final byte[] value) {
+        buffer.put((byte) '$').put(Integer.toString(value.length).getBytes(US_ASCII)).put((byte) '\r').put((byte) '\n');
+        buffer.put(value).put((byte) '\r').put((byte) '\n');
+    }
+
+    private static ByteBuffer grow(final ByteBuffer buffer, final int capacity) {
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static byte[] sha1Hex(final String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) hex.append(String.format("%02x", b));
+            return hex.toString().getBytes(US_ASCII);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static final class Request {
+
+        private final byte[] key;
+
+        private final byte[] counter;
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        /**
+         * Whether the request was sent with the script itself, after the server did not know its SHA-1
+         */
+        private boolean evaluated;
+
+        private Request(final byte[] key, final byte[] counter) {
+            this.key = key;
+            this.counter = counter;
+        }
+    }
+
+    public static final class Builder {
+
+        private final InetSocketAddress address;
+
+        private int connections;
+
+        private String keyPrefix;
+
+        private Duration timeout;
+
+        private Duration expiry;
+
+        private String password;
+
+        /**
+         * Creates a new builder
+         *
+         * @param address address of the server
+         */
+        public Builder(final InetSocketAddress address) {
+            if (address == null)
+                throw new IllegalArgumentException("Address must not be null");
+
+            this.address = address;
+            this.connections = 2;
+            this.keyPrefix = "otp:counter:";
+            this.timeout = Duration.ofSeconds(2);
+        }
+
+        /**
+         * @param connections amount of connections to spread calls over, default 2
+         * @return builder
+         */
+        public Builder withConnections(final int connections) {
+            if (connections < 1)
+                throw new IllegalArgumentException("Connections must be greater than 0");
+
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * @param keyPrefix prefix of the keys the counters are stored under, default {@code otp:counter:}
+         * @return builder
+         */
+        public Builder withKeyPrefix(final String keyPrefix) {
+            if (keyPrefix == null)
+                throw new IllegalArgumentException("Key prefix must not be null");
+
+            this.keyPrefix = keyPrefix;
+            return this;
+        }
+
+        /**
+         * @param timeout maximum time to connect and to wait for a reply, default 2 seconds
+         * @return builder
+         */
+        public Builder withTimeout(final Duration timeout) {
+            if (timeout == null || timeout.isZero() || timeout.isNegative())
+                throw new IllegalArgumentException("Timeout must be positive");
+
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Lets the server remove counters which were not updated for the given time. Counters may expire once the
+         * delay window has passed, since the codes of older counters are rejected anyway. By default, counters never
+         * expire.
+         *
+         * @param expiry time after the last update after which a counter is removed
+         * @return builder
+         */
+        public Builder withExpiry(final Duration expiry) {
+            if (expiry == null || expiry.toMillis() < 1)
+                throw new IllegalArgumentException("Expiry must be at least 1 millisecond");
+
+            this.expiry = expiry;
+            return this;
+        }
+
+        /**
+         * @param password password to authenticate with using {@code AUTH}
+         * @return builder
+         */
+        public Builder withPassword(final String password) {
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Connects to the server
+         *
+         * @return counter storage
+         * @throws IOException when a connection cannot be made or authentication fails
+         */
+        public RespCounterStorage build() throws IOException {
+            return new RespCounterStorage(this);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.bastiaanjansen.otp;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An index which finds the tokens that produce a given TOTP code, without verifying the code against every token.
+ * <p>
+ * For every time step within the delay window around the current time step, the index maps each code to the
+ * identifiers of the tokens producing it. A daemon thread computes the time step which enters the window next, in
+ * parallel across all tokens, half a period before the boundary, and drops the time step which left the window once the
+ * boundary passes. Lookups therefore never compute codes, unless the clock jumps beyond the precomputed time step, and
+ * take a constant amount of map lookups, regardless of the amount of registered tokens:
+ * <pre>{@code
+ * ReverseLookupIndex index = new ReverseLookupIndex.Builder().withDelayWindow(1).build();
+ * index.register(userId, totpGenerator);
+ *
+ * ReverseLookupIndex.Result result = index.lookup(code);
+ * if (result.isUnique()) login(result.getMatches().get(0).getIdentifier());
+ * }</pre>
+ * Different tokens can produce the same code, in which case the result contains all of them: use
+ * {@link Result#isAmbiguous()} to detect this.
+ * <p>
+ * Call {@link #close()} to stop the thread when the index is no longer used.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class ReverseLookupIndex implements AutoCloseable {
+
+    private static final Duration DEFAULT_PERIOD = Duration.ofSeconds(30);
+    private static final Clock DEFAULT_CLOCK = Clock.system(ZoneId.systemDefault());
+    private static final long MAX_PARK_MILLIS = 1000;
+
+    private final Duration period;
+
+    private final long periodMillis;
+
+    private final Clock clock;
+
+    private final int delayWindow;
+
+    private final ForkJoinPool pool;
+
+    private final ConcurrentMap<String, TOTPGenerator> tokens = new ConcurrentHashMap<>();
+
+    /**
+     * Codes per time step, mapping each code to the identifiers of the tokens producing it
+     */
+    private final ConcurrentMap<Long, ConcurrentMap<String, Set<String>>> steps = new ConcurrentHashMap<>();
+
+    private volatile long currentStep = Long.MIN_VALUE;
+
+    private volatile boolean running = true;
+
+    private final Thread rebuilder;
+
+    private ReverseLookupIndex(final Builder builder) {
+        this.period = builder.period;
+        this.periodMillis = builder.period.toMillis();
+        this.clock = builder.clock;
+        this.delayWindow = builder.delayWindow;
+        this.pool = builder.pool;
+
+        this.rebuilder = new Thread(this::rebuild, "otp-reverse-lookup-" + period.getSeconds() + "s");
+        this.rebuilder.setDaemon(true);
+        this.rebuilder.start();
+    }
+
+    /**
+     * Registers a token, replacing an earlier token with the same identifier
+     *
+     * @param identifier identifier of the token, for example a user id
+     * @param generator generator of the token, with the same period as this index
+     */
+    public synchronized void register(final String identifier, final TOTPGenerator generator) {
+        if (!generator.getPeriod().equals(period))
+            throw new IllegalArgumentException("Generator period must be equal to the period of the index");
+
+        unregister(identifier);
+        tokens.put(identifier, generator);
+
+        for (Map.Entry<Long, ConcurrentMap<String, Set<String>>> step : steps.entrySet()) {
+            String code = generator.atCounter(step.getKey());
+            step.getValue().computeIfAbsent(code, c -> ConcurrentHashMap.newKeySet()).add(identifier);
+        }
+    }
+
+    /**
+     * Removes a token from the index
+     *
+     * @param identifier identifier of the token
+     */
+    public synchronized void unregister(final String identifier) {
+        TOTPGenerator generator = tokens.remove(identifier);
+        if (generator == null) return;
+
+        for (Map.Entry<Long, ConcurrentMap<String, Set<String>>> step : steps.entrySet()) {
+            String code = generator.atCounter(step.getKey());
+            step.getValue().computeIfPresent(code, (c, identifiers) -> {
+                identifiers.remove(identifier);
+                return identifiers.isEmpty() ? null : identifiers;
+            });
+        }
+    }
+
+    /**
+     * Finds the tokens which produce the given code within the delay window around the current time step
+     *
+     * @param code an OTP code
+     * @return the matching tokens
+     */
+    public Result lookup(final String code) {
+        long step = calculateStep();
+        if (step != currentStep && !indexed(step)) rollover(step);
+
+        List<Match> matches = new ArrayList<>(1);
+
+        for (long i = step - delayWindow; i <= step + delayWindow; i++) {
+            ConcurrentMap<String, Set<String>> codes = steps.get(i);
+            if (codes == null) continue;
+
+            Set<String> identifiers = codes.get(code);
+            if (identifiers == null) continue;
+
+            for (String identifier : identifiers) {
+                matches.add(new Match(identifier, i));
+            }
+        }
+
+        return new Result(matches);
+    }
+
+    /**
+     * @return amount of registered tokens
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    public Duration getPeriod() {
+        return period;
+    }
+
+    public int getDelayWindow() {
+        return delayWindow;
+    }
+
+    /**
+     * Stops the thread which computes the next time step, after which lookups compute new time steps themselves
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(rebuilder);
+    }
+
+    /**
+     * @return true when all time steps within the delay window around the step are computed
+     */
+    boolean indexed(final long step) {
+        for (long i = step - delayWindow; i <= step + delayWindow; i++) {
+            if (!steps.containsKey(i)) return false;
+        }
+
+        return true;
+    }
+
+    private void rebuild() {
+        long lead = periodMillis / 2;
+
+        while (running) {
+            long millis = clock.millis();
+            long step = millis / periodMillis;
+            long remaining = periodMillis - Math.floorMod(millis, periodMillis);
+
+            if (step != currentStep) rollover(step);
+            if (remaining <= lead) precompute(step + delayWindow + 1);
+
+            // Parks are capped, so a clock which steps forward is noticed within a second
+            long wait = remaining > lead ? remaining - lead : remaining;
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.min(wait, MAX_PARK_MILLIS)));
+        }
+    }
+
+    private synchronized void rollover(final long step) {
+        if (step == currentStep) return;
+
+        // Keeps the precomputed time step after the window
+        steps.keySet().removeIf(s -> s < step - delayWindow || s > step + delayWindow + 1);
+
+        for (long i = step - delayWindow; i <= step + delayWindow; i++) {
+            if (!steps.containsKey(i)) steps.put(i, computeStep(i));
+        }
+
+        currentStep = step;
+    }
+
+    private synchronized void precompute(final long step) {
+        if (!steps.containsKey(step)) steps.put(step, computeStep(step));
+    }
+
+    private ConcurrentMap<String, Set<String>> computeStep(final long step) {
+        ConcurrentMap<String, Set<String>> codes = new ConcurrentHashMap<>(tokens.size() * 4 / 3 + 1);
+
+        pool.submit(() -> tokens.entrySet().parallelStream().forEach(token -> {
+            String code = token.getValue().atCounter(step);
+            codes.computeIfAbsent(code, c -> ConcurrentHashMap.newKeySet()).add(token.getKey());
+        })).join();
+
+        return codes;
+    }
+
+    private long calculateStep() {
+        return clock.millis() / period.toMillis();
+    }
+
+    /**
+     * A token which produces the looked up code
+     */
+    public static final class Match {
+
+        private final String identifier;
+
+        private final long counter;
+
+        private Match(final String identifier, final long counter) {
+            this.identifier = identifier;
+            this.counter = counter;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * @return time step the token produces the code at, for example to mark it as used in a {@link CounterStorage}
+         */
+        public long getCounter() {
+            return counter;
+        }
+    }
+
+    /**
+     * Result of a lookup
+     */
+    public static final class Result {
+
+        private final List<Match> matches;
+
+        private Result(final List<Match> matches) {
+            this.matches = Collections.unmodifiableList(matches);
+        }
+
+        public List<Match> getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return true when no token produces the code
+         */
+        public boolean isEmpty() {
+            return matches.isEmpty();
+        }
+
+        /**
+         * @return true when exactly one token produces the code
+         */
+        public boolean isUnique() {
+            return matches.size() == 1;
+        }
+
+        /**
+         * @return true when the code collides, more than one token or time step produces it
+         */
+        public boolean isAmbiguous() {
+            return matches.size() > 1;
+        }
+    }
+
+    public static final class Builder {
+
+        private Duration period;
+
+        private Clock clock;
+
+        private int delayWindow;
+
+        private ForkJoinPool pool;
+
+        public Builder() {
+            this.period = DEFAULT_PERIOD;
+            this.clock = DEFAULT_CLOCK;
+            this.delayWindow = 0;
+            this.pool = ForkJoinPool.commonPool();
+        }
+
+        /**
+         * @param period period of the registered tokens
+         */
+        public Builder withPeriod(final Duration period) {
+            if (period.getSeconds() < 1) throw new IllegalArgumentException("Period must be at least 1 second");
+            this.period = period;
+            return this;
+        }
+
+        public Builder withClock(final Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @param delayWindow amount of time steps before and after the current time step to index
+         */
+        public Builder withDelayWindow(final int delayWindow) {
+            if (delayWindow < 0) throw new IllegalArgumentException("Delay window must be greater than or equal to 0");
+            this.delayWindow = delayWindow;
+            return this;
+        }
+
+        /**
+         * @param pool pool to compute the codes of new time steps in
+         */
+        public Builder withPool(final ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public ReverseLookupIndex build() {
+            return new ReverseLookupIndex(this);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.bastiaanjansen.otp;
 
-import org.apache.commons.codec.binary.Base32;
+import com.bastiaanjansen.otp.helpers.Base32;
 
 import java.security.SecureRandom;
 
@@ -18,8 +18,7 @@ public class SecretGenerator {
      */
     public static final int DEFAULT_BITS = 160;
 
-    private static final SecureRandom random = new SecureRandom();
-    private static final Base32 encoder = new Base32();
+    static final SecureRandom random = new SecureRandom();
 
     /**
      * Generate an OTP base32 secret with default amount of bits
@@ -46,6 +45,6 @@ public class SecretGenerator {
         byte[] bytes = new byte[bits / Byte.SIZE];
         random.nextBytes(bytes);
 
-        return encoder.encode(bytes);
+        return Base32.encode(bytes);
     }
 }
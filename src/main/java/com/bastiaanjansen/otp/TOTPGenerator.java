@@ -9,6 +9,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -21,16 +22,25 @@ public final class TOTPGenerator {
 
     private final Duration period;
 
+    private final long periodMillis;
+
     private final Clock clock;
 
+    private final TimeStepSource timeStepSource;
+
     private final CounterStorage counterStorage;
 
+    private final VerificationListener verificationListener;
+
     private final HOTPGenerator hotpGenerator;
 
     private TOTPGenerator(final Builder builder) {
         this.period = builder.period;
-        this.clock = builder.clock;
+        this.periodMillis = builder.period.toMillis();
+        this.timeStepSource = builder.timeStepSource;
+        this.clock = timeStepSource == null ? builder.clock : timeStepSource.getClock();
         this.counterStorage = builder.counterStorage;
+        this.verificationListener = builder.verificationListener;
         this.hotpGenerator = builder.hotpBuilder.build();
     }
 
@@ -66,7 +76,7 @@ public final class TOTPGenerator {
     }
 
     public String now() throws IllegalStateException {
-        long counter = calculateCounter(clock, period);
+        long counter = currentCounter();
         return hotpGenerator.generate(counter);
     }
 
@@ -97,6 +107,23 @@ public final class TOTPGenerator {
         return hotpGenerator.generate(counter);
     }
 
+    /**
+     * Generates a code for a specific time step
+     *
+     * @param counter time step, the amount of periods since 1970
+     * @return generated code
+     */
+    String atCounter(final long counter) {
+        return hotpGenerator.generate(counter);
+    }
+
+    /**
+     * @return generator of the codes of each time step
+     */
+    HOTPGenerator getHOTPGenerator() {
+        return hotpGenerator;
+    }
+
     public boolean verify(final String code) {
         return verify(code, 0);
     }
@@ -110,19 +137,66 @@ public final class TOTPGenerator {
      * @return a boolean, true if code is valid, otherwise false
      */
     public boolean verify(final String code, final int delayWindow) {
-        long counter = calculateCounter(clock, period);
+        VerifyEvent event = new VerifyEvent();
+        if (event.isEnabled()) event.begin();
+        else event = null;
+
+        long counter = currentCounter();
+        long firstUnused = firstUnusedCounter();
+        OptionalLong match = hotpGenerator.findCounter(code, counter, delayWindow, firstUnused, event);
+
+        boolean valid = match.isPresent() && (counterStorage == null || markAsUsed(match.getAsLong(), event));
 
-        if (counterStorage == null) {
-            return hotpGenerator.verify(code, counter, delayWindow);
+        if (event != null && event.shouldCommit()) {
+            event.valid = valid;
+            event.commit();
         }
 
-        for (int i = -delayWindow; i <= delayWindow; i++) {
-            if (hotpGenerator.verify(code, counter + i)) {
-                return counterStorage.markAsUsed(counter + i);
+        if (verificationListener != null) {
+            // A replayed code matches one of the skipped counters, report it as a match the storage rejected. Only
+            // well-formed codes while the last used counter is within the window are scanned again
+            long from = Math.max(0, counter - delayWindow);
+            if (!match.isPresent() && delayWindow >= 0 && firstUnused > from && hotpGenerator.parseCode(code) != -1) {
+                long to = counter > Long.MAX_VALUE - delayWindow ? Long.MAX_VALUE : counter + delayWindow;
+                match = hotpGenerator.findCounterBetween(code, from, Math.min(to, firstUnused - 1));
             }
+
+            verificationListener.verified(counter, match, valid);
+        }
+
+        return valid;
+    }
+
+    /**
+     * @return lowest counter the counter storage can still accept, or 0 when it is unknown
+     */
+    private long firstUnusedCounter() {
+        if (counterStorage == null) return 0;
+
+        OptionalLong lastUsed = counterStorage.lastUsed();
+        return lastUsed.isPresent() && lastUsed.getAsLong() < Long.MAX_VALUE ? lastUsed.getAsLong() + 1 : 0;
+    }
+
+    /**
+     * @param verifyEvent enabled event of the verification, or null
+     */
+    private boolean markAsUsed(final long counter, final VerifyEvent verifyEvent) {
+        CounterStorageEvent event = new CounterStorageEvent();
+        if (!event.isEnabled() && verifyEvent == null) return counterStorage.markAsUsed(counter);
+
+        event.begin();
+        long start = System.nanoTime();
+        boolean markedAsUsed = counterStorage.markAsUsed(counter);
+        if (verifyEvent != null) verifyEvent.storageDuration = System.nanoTime() - start;
+
+        if (event.shouldCommit()) {
+            event.storage = counterStorage.getClass();
+            event.counter = counter;
+            event.markedAsUsed = markedAsUsed;
+            event.commit();
         }
 
-        return false;
+        return markedAsUsed;
     }
 
     public URI getURI(final String issuer) throws URISyntaxException {
@@ -166,6 +240,13 @@ public final class TOTPGenerator {
         return hotpGenerator.getPasswordLength();
     }
 
+    /**
+     * @return Base32 encoded secret
+     */
+    byte[] getSecret() {
+        return hotpGenerator.getSecret();
+    }
+
     private long calculateCounter(final long secondsPast1970, final Duration period) {
         return TimeUnit.SECONDS.toMillis(secondsPast1970) / period.toMillis();
     }
@@ -174,6 +255,13 @@ public final class TOTPGenerator {
         return clock.millis() / period.toMillis();
     }
 
+    /**
+     * @return current time step, from the time step source when one is configured
+     */
+    long currentCounter() {
+        return timeStepSource == null ? clock.millis() / periodMillis : timeStepSource.currentStep();
+    }
+
     private boolean validateTime(final long time) {
         return time > 0;
     }
@@ -186,6 +274,10 @@ public final class TOTPGenerator {
 
         private CounterStorage counterStorage;
 
+        private TimeStepSource timeStepSource;
+
+        private VerificationListener verificationListener;
+
         private final HOTPGenerator.Builder hotpBuilder;
 
         /**
@@ -194,9 +286,10 @@ public final class TOTPGenerator {
          * Use {@link SecretGenerator#generate()} to create a secret.
          * <p>
          * If you are using a shared secret from another generator, you would likely need to encode it using
-         * {@link org.apache.commons.codec.binary.Base32#encode(byte[])}}
+         * {@link com.bastiaanjansen.otp.helpers.Base32#encode(byte[])}
          *
          * @param secret Base32 encoded secret
+         * @throws IllegalArgumentException when the secret is empty or not valid Base32
          */
         public Builder(byte[] secret) {
             this.period = DEFAULT_PERIOD;
@@ -234,6 +327,30 @@ public final class TOTPGenerator {
             return this;
         }
 
+        /**
+         * Configures a time step source, which {@link TOTPGenerator#now()} and {@link TOTPGenerator#verify(String)}
+         * read instead of the clock. The period of the source must equal the period of the generator, and the clock
+         * of the source replaces the clock of the generator. Use {@link TimeStepSource#forPeriod(Duration)} to share
+         * one source between all generators with the same period.
+         *
+         * @param timeStepSource time step source to use
+         */
+        public Builder withTimeStepSource(TimeStepSource timeStepSource) {
+            this.timeStepSource = timeStepSource;
+            return this;
+        }
+
+        /**
+         * Configures a listener which receives the outcome of every {@link TOTPGenerator#verify(String)}, for example
+         * {@link AuditLog#forIdentifier(String)}. Like the counter storage, the listener is bound to a single identity.
+         *
+         * @param verificationListener listener to call after every verification
+         */
+        public Builder withVerificationListener(VerificationListener verificationListener) {
+            this.verificationListener = verificationListener;
+            return this;
+        }
+
         public Builder withPeriod(Duration period) {
             if (period.getSeconds() < 1) throw new IllegalArgumentException("Period must be at least 1 second");
             this.period = period;
@@ -241,6 +358,9 @@ public final class TOTPGenerator {
         }
 
         public TOTPGenerator build() {
+            if (timeStepSource != null && !timeStepSource.getPeriod().equals(period))
+                throw new IllegalArgumentException("Period of the time step source must equal the period of the generator");
+
             return new TOTPGenerator(this);
         }
     }
@@ -0,0 +1,124 @@
+package com.bastiaanjansen.otp;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Source of the current TOTP time step, the amount of periods since 1970, shared by many {@link TOTPGenerator}
+ * instances with the same period.
+ * <p>
+ * Without a time step source every call of {@link TOTPGenerator#now()} and {@link TOTPGenerator#verify(String)} reads
+ * the clock and divides by the period. A time step source keeps the current step in a volatile field, which one
+ * daemon ticker thread updates at every period boundary, so generators only read a field:
+ * <pre>{@code
+ * TOTPGenerator totp = new TOTPGenerator.Builder(secret)
+ *         .withTimeStepSource(TimeStepSource.forPeriod(Duration.ofSeconds(30)))
+ *         .build();
+ * }</pre>
+ * {@link #forPeriod(Duration)} returns one shared source per period, backed by the system clock. For tests, create a
+ * source with a fixed or otherwise controlled clock with {@link #TimeStepSource(Duration, Clock)} and close it
+ * afterwards.
+ * <p>
+ * Note: the ticker thread can wake up slightly after a boundary, for example during a garbage collection pause, so
+ * the step can lag the clock by a few milliseconds. The ticker parks on a monotonic timer for at most one second at a
+ * time, so when the wall clock is stepped forward, for example by NTP, the step can lag by up to a second. Within a
+ * period of seconds, this is comparable to clock skew between a server and an authenticator app.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class TimeStepSource implements AutoCloseable {
+
+    private static final Map<Long, TimeStepSource> SHARED = new ConcurrentHashMap<>();
+    private static final long MAX_PARK_MILLIS = 1000;
+
+    private final Duration period;
+
+    private final long periodMillis;
+
+    private final Clock clock;
+
+    private final boolean shared;
+
+    private final Thread ticker;
+
+    private volatile long step;
+
+    private volatile boolean running = true;
+
+    /**
+     * Creates a source with its own ticker thread, which runs until {@link #close()} is called
+     *
+     * @param period period of the time steps
+     * @param clock clock to read at every boundary
+     */
+    public TimeStepSource(final Duration period, final Clock clock) {
+        this(period, clock, false);
+    }
+
+    private TimeStepSource(final Duration period, final Clock clock, final boolean shared) {
+        if (period.toMillis() < 1) throw new IllegalArgumentException("Period must be at least 1 millisecond");
+
+        this.period = period;
+        this.periodMillis = period.toMillis();
+        this.clock = clock;
+        this.shared = shared;
+        this.step = clock.millis() / periodMillis;
+
+        this.ticker = new Thread(this::tick, "otp-time-step-" + period.getSeconds() + "s");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Returns the source shared by all callers with the same period, backed by the system clock. Shared sources are
+     * never stopped; {@link #close()} has no effect on them.
+     *
+     * @param period period of the time steps
+     * @return shared time step source for the period
+     */
+    public static TimeStepSource forPeriod(final Duration period) {
+        return SHARED.computeIfAbsent(period.toMillis(), millis -> new TimeStepSource(period, Clock.systemUTC(), true));
+    }
+
+    /**
+     * @return the current time step, the amount of periods since 1970
+     */
+    public long currentStep() {
+        return step;
+    }
+
+    public Duration getPeriod() {
+        return period;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Stops the ticker thread, after which the step is no longer updated
+     */
+    @Override
+    public void close() {
+        if (shared) return;
+
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    private void tick() {
+        while (running) {
+            long millis = clock.millis();
+            long current = millis / periodMillis;
+            if (current != step) step = current;
+
+            // Parks are capped, so a wall clock which steps forward during a period is noticed within a second
+            long remaining = periodMillis - Math.floorMod(millis, periodMillis);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.min(remaining, MAX_PARK_MILLIS)));
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package com.bastiaanjansen.otp;
+
+import javax.crypto.Mac;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Verifies TOTP codes of many identities on a fixed set of single-threaded shards, as an alternative to
+ * {@link TOTPGenerator#verify(String, int)} with an {@link InMemoryCounterStorage}.
+ * <p>
+ * Every identity belongs to one shard, chosen by the hash of the identity. A shard is a thread with a bounded ring
+ * buffer as inbox, which owns the last used counter and the initialized {@link Mac} of each of its identities. Only
+ * the shard thread reads and writes that state, so checking and marking a counter as used needs no compare-and-set
+ * and cannot be retried, however many threads verify codes of the same identity:
+ * <pre>{@code
+ * VerificationEngine engine = new VerificationEngine.Builder(userId -> generatorOf(userId))
+ *         .withDelayWindow(1)
+ *         .build();
+ *
+ * engine.verify(userId, code).thenAccept(valid -> ...);
+ * }</pre>
+ * The function passed to the builder resolves the generator of an identity on its shard thread, the first time a
+ * code of the identity is verified. Its period, algorithm, password length and {@link TimeStepSource} are used; a
+ * configured counter storage is not, because the engine keeps the counters. Return null for unknown identities.
+ * <p>
+ * Futures are completed on the shard threads. Use the asynchronous variants of {@link CompletableFuture}, such as
+ * {@link CompletableFuture#thenAcceptAsync}, for work which should not delay the other identities of a shard. When the
+ * inbox of a shard is full, the returned future fails with a {@link RejectedExecutionException} instead of blocking
+ * the caller.
+ * <p>
+ * A shard forgets an identity which has not verified a code for the idle timeout of
+ * {@link Builder#withIdleTimeout(Duration)}, but only once its last used counter is outside the delay window, so a
+ * forgotten identity cannot replay a code. Its generator is resolved again at the next code, which also picks up a
+ * changed secret; {@link #evict(String)} forgets an identity right away, for example after changing its secret.
+ * <p>
+ * Note: like {@link InMemoryCounterStorage}, counters are only kept in memory for as long as the engine lives.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class VerificationEngine implements AutoCloseable {
+
+    private final Function<String, TOTPGenerator> generators;
+
+    private final int delayWindow;
+
+    private final long idleTimeout;
+
+    private final Shard[] shards;
+
+    private volatile boolean closed;
+
+    private VerificationEngine(final Builder builder) {
+        this.generators = builder.generators;
+        this.delayWindow = builder.delayWindow;
+        this.idleTimeout = builder.idleTimeout.toNanos();
+        this.shards = new Shard[builder.shards];
+
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, builder.inboxCapacity);
+        }
+    }
+
+    /**
+     * Verifies a code of an identity on the shard of the identity. A valid code is only accepted once.
+     *
+     * @param identity identity to verify the code of, for example a user id
+     * @param code an OTP code
+     * @return future which completes with true when the code is valid and was not used before, false otherwise
+     * @throws IllegalArgumentException when the code is null
+     * @throws IllegalStateException when the engine is closed
+     */
+    public CompletableFuture<Boolean> verify(final String identity, final String code) {
+        if (code == null) throw new IllegalArgumentException("Code must not be null");
+
+        return submit(new Request(identity, code, false));
+    }
+
+    /**
+     * Forgets an identity on its shard, including its last used counter, so its generator is resolved again at the
+     * next code. Evict an identity after changing its secret, codes of the old secret are not accepted anymore.
+     *
+     * @param identity identity to forget, for example a user id
+     * @return future which completes with true when the shard knew the identity
+     * @throws IllegalStateException when the engine is closed
+     */
+    public CompletableFuture<Boolean> evict(final String identity) {
+        return submit(new Request(identity, null, true));
+    }
+
+    private CompletableFuture<Boolean> submit(final Request request) {
+        if (closed) throw new IllegalStateException("Verification engine is closed");
+
+        String identity = request.identity;
+        Shard shard = shards[shardOf(identity)];
+
+        if (!shard.offer(request)) {
+            request.completeExceptionally(new RejectedExecutionException("Inbox of shard " + shard.index + " is full"));
+        } else if (closed) {
+            // The shard may have stopped before it saw the request
+            shard.drainAfterStop();
+        }
+
+        return request;
+    }
+
+    /**
+     * @return amount of shards
+     */
+    public int getShards() {
+        return shards.length;
+    }
+
+    /**
+     * Stops accepting codes, waits until the shards verified all accepted codes and stops the shard threads.
+     * <p>
+     * When called on a shard thread, for example from a dependent stage of a returned future, it does not wait: a
+     * shard cannot wait for itself, and two shards closing the engine would wait for each other. The shards still
+     * verify the accepted codes before they stop.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        for (Shard shard : shards) LockSupport.unpark(shard.thread);
+
+        for (Shard shard : shards) {
+            if (Thread.currentThread() == shard.thread) return;
+        }
+        for (Shard shard : shards) shard.drainAfterStop();
+    }
+
+    int shardOf(final String identity) {
+        int hash = identity.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    /**
+     * A code to verify, or an identity to evict, completed with the result by the shard
+     */
+    private static final class Request extends CompletableFuture<Boolean> {
+
+        private final String identity;
+
+        private final String code;
+
+        private final boolean evict;
+
+        private Request(final String identity, final String code, final boolean evict) {
+            this.identity = identity;
+            this.code = code;
+            this.evict = evict;
+        }
+    }
+
+    /**
+     * State of an identity, owned by the thread of its shard
+     */
+    private static final class Identity {
+
+        private final TOTPGenerator generator;
+
+        private final HOTPGenerator hotpGenerator;
+
+        private final Mac mac;
+
+        private final byte[] buffer;
+
+        private long lastUsed = -1;
+
+        /**
+         * {@link System#nanoTime()} of the last verified code
+         */
+        private long lastAccess;
+
+        private Identity(final TOTPGenerator generator) {
+            this.generator = generator;
+            this.hotpGenerator = generator.getHOTPGenerator();
+            this.mac = hotpGenerator.createMac();
+            this.buffer = new byte[mac.getMacLength()];
+        }
+    }
+
+    private final class Shard implements Runnable {
+
+        private static final int SPINS = 100;
+
+        private final int index;
+
+        private final Request[] requests;
+
+        /**
+         * Per slot, the position a producer may write at, or that position + 1 once the request is published
+         */
+        private final AtomicLongArray sequences;
+
+        private final int mask;
+
+        private final AtomicLong tail = new AtomicLong();
+
+        private final Map<String, Identity> identities = new HashMap<>();
+
+        private final Thread thread;
+
+        private long head;
+
+        /**
+         * {@link System#nanoTime()} at which idle identities are removed next
+         */
+        private long nextSweep = System.nanoTime() + idleTimeout;
+
+        private volatile boolean sleeping;
+
+        private Shard(final int index, final int capacity) {
+            this.index = index;
+            this.requests = new Request[capacity];
+            this.sequences = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+
+            for (int i = 0; i < capacity; i++) sequences.set(i, i);
+
+            this.thread = new Thread(this, "otp-verification-shard-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /**
+         * Claims a slot with a compare-and-set of the tail and publishes the request in it, safe for many producers
+         *
+         * @return false when the inbox is full
+         */
+        private boolean offer(final Request request) {
+            long position = tail.get();
+            int slot;
+
+            while (true) {
+                slot = (int) position & mask;
+                long difference = sequences.get(slot) - position;
+
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) break;
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+
+            requests[slot] = request;
+            sequences.set(slot, position + 1);
+
+            if (sleeping) LockSupport.unpark(thread);
+            return true;
+        }
+
+        /**
+         * Takes the next published request, only called by a single consumer at a time
+         */
+        private Request poll() {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) return null;
+
+            Request request = requests[slot];
+            requests[slot] = null;
+            // Frees the slot for the producer which wraps around to it
+            sequences.lazySet(slot, head + requests.length);
+            head++;
+            return request;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+
+            while (true) {
+                Request request = poll();
+                if (request != null) {
+                    process(request);
+                    idle = 0;
+                    continue;
+                }
+
+                // Read closed before the tail, so a request claimed after this check is drained by its producer
+                if (closed && tail.get() == head) return;
+
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                sleeping = true;
+                if (sequences.get((int) head & mask) != head + 1 && !closed) LockSupport.park(this);
+                sleeping = false;
+                idle = 0;
+            }
+        }
+
+        private void process(final Request request) {
+            try {
+                if (request.evict) {
+                    request.complete(identities.remove(request.identity) != null);
+                    return;
+                }
+
+                request.complete(verify(request.identity, request.code));
+            } catch (RuntimeException e) {
+                request.completeExceptionally(e);
+            }
+        }
+
+        private boolean verify(final String name, final String code) {
+            long now = System.nanoTime();
+            if (now - nextSweep >= 0) sweep(now);
+
+            Identity identity = identities.get(name);
+            if (identity == null) {
+                TOTPGenerator generator = generators.apply(name);
+                if (generator == null) return false;
+
+                identity = new Identity(generator);
+                identities.put(name, identity);
+            }
+            identity.lastAccess = now;
+
+            int expected = identity.hotpGenerator.parseCode(code);
+            if (expected == -1) return false;
+
+            long counter = identity.generator.currentCounter();
+            // Counters up to the last used one cannot be accepted anymore, so they are not generated either
+            long from = Math.max(Math.max(0, counter - delayWindow), identity.lastUsed + 1);
+            long to = counter + delayWindow;
+
+            for (long current = from; current <= to; current++) {
+                if (identity.hotpGenerator.generateValue(identity.mac, current, identity.buffer) == expected) {
+                    identity.lastUsed = current;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Removes the identities which did not verify a code for the idle timeout and of which no counter within the
+         * delay window is used, so forgetting them cannot accept a replayed code
+         */
+        private void sweep(final long now) {
+            identities.values().removeIf(identity -> now - identity.lastAccess >= idleTimeout
+                    && identity.lastUsed < identity.generator.currentCounter() - delayWindow);
+            nextSweep = now + idleTimeout;
+        }
+
+        /**
+         * Waits for the shard thread to stop and fails the requests it did not see
+         */
+        private void drainAfterStop() {
+            // The shard thread itself takes the remaining requests once the current one is processed
+            if (Thread.currentThread() == thread) return;
+
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            synchronized (this) {
+                Request request;
+                while ((request = poll()) != null) {
+                    request.completeExceptionally(new IllegalStateException("Verification engine is closed"));
+                }
+            }
+
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    public static final class Builder {
+
+        private final Function<String, TOTPGenerator> generators;
+
+        private int shards;
+
+        private int inboxCapacity;
+
+        private int delayWindow;
+
+        private Duration idleTimeout;
+
+        /**
+         * @param generators resolves the generator of an identity, or null when the identity is unknown
+         */
+        public Builder(final Function<String, TOTPGenerator> generators) {
+            this.generators = generators;
+            this.shards = Runtime.getRuntime().availableProcessors();
+            this.inboxCapacity = 1024;
+            this.delayWindow = 0;
+            this.idleTimeout = Duration.ofMinutes(10);
+        }
+
+        /**
+         * @param shards amount of shard threads, default the amount of available processors
+         */
+        public Builder withShards(final int shards) {
+            if (shards < 1) throw new IllegalArgumentException("Amount of shards must be at least 1");
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param inboxCapacity maximum amount of pending codes per shard, rounded up to a power of two, default 1024
+         */
+        public Builder withInboxCapacity(final int inboxCapacity) {
+            if (inboxCapacity < 2 || inboxCapacity > 1 << 30)
+                throw new IllegalArgumentException("Inbox capacity must be between 2 and 2^30");
+            this.inboxCapacity = Integer.highestOneBit(inboxCapacity - 1) << 1;
+            return this;
+        }
+
+        /**
+         * @param delayWindow amount of time steps before and after the current one in which a code is valid as well,
+         *                    default 0
+         */
+        public Builder withDelayWindow(final int delayWindow) {
+            if (delayWindow < 0) throw new IllegalArgumentException("Delay window must be greater than or equal to 0");
+            this.delayWindow = delayWindow;
+            return this;
+        }
+
+        /**
+         * @param idleTimeout time after which a shard forgets an identity which did not verify a code, once its last
+         *                    used counter is outside the delay window, default 10 minutes
+         */
+        public Builder withIdleTimeout(final Duration idleTimeout) {
+            if (idleTimeout.isNegative() || idleTimeout.isZero())
+                throw new IllegalArgumentException("Idle timeout must be positive");
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public VerificationEngine build() {
+            return new VerificationEngine(this);
+        }
+    }
+}
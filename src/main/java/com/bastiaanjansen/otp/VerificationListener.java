@@ -0,0 +1,25 @@
+package com.bastiaanjansen.otp;
+
+import java.util.OptionalLong;
+
+/**
+ * Receives the outcome of every verification of a generator, for example to keep an audit trail.
+ * <p>
+ * A listener is bound to one identity (for example a user), just like a {@link CounterStorage}. Configure it with
+ * {@link TOTPGenerator.Builder#withVerificationListener(VerificationListener)} or
+ * {@link HOTPGenerator.Builder#withVerificationListener(VerificationListener)}. A built-in implementation which writes
+ * the outcomes to files in the background is available via {@link AuditLog#forIdentifier(String)}.
+ * <p>
+ * The listener is called on the verifying thread, after the outcome is known. It should return quickly and must not
+ * throw, because both delay the caller of verify.
+ */
+@FunctionalInterface
+public interface VerificationListener {
+
+    /**
+     * @param counter counter the code was verified against, the time step for TOTP
+     * @param match counter within the delay window which produced the code, or empty when no counter did
+     * @param valid whether the code was accepted, false for a match which the counter storage rejected as used before
+     */
+    void verified(long counter, OptionalLong match, boolean valid);
+}
@@ -0,0 +1,53 @@
+package com.bastiaanjansen.otp;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for {@link TOTPGenerator#verify(String, int)}, which splits the verification into the Mac
+ * acquisition, the HMACs of the delay window and the counter storage.
+ * <p>
+ * Disabled by default, enable it in a recording with {@code -XX:StartFlightRecording:com.bastiaanjansen.otp.Verify#enabled=true}
+ * or a JFC settings file.
+ */
+@Name("com.bastiaanjansen.otp.Verify")
+@Label("OTP Verify")
+@Description("Verification of a time-based one-time password")
+@Category("OTP-Java")
+@Enabled(false)
+@StackTrace(false)
+final class VerifyEvent extends Event {
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Delay Window")
+    int delayWindow;
+
+    @Label("Window Size")
+    @Description("Amount of counters in the delay window")
+    long windowSize;
+
+    @Label("HMAC Count")
+    @Description("Amount of HMACs computed before a match was found or the window was exhausted")
+    long hmacCount;
+
+    @Label("Matched")
+    boolean matched;
+
+    @Label("Matched Offset")
+    @Description("Matching counter minus the current counter, 0 when there is no match")
+    long matchedOffset;
+
+    @Label("Mac Acquisition")
+    @Description("Time spent taking a Mac from the pool, including creating one when the pool is empty")
+    @Timespan(Timespan.NANOSECONDS)
+    long macAcquisition;
+
+    @Label("Storage Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long storageDuration;
+
+    @Label("Valid")
+    @Description("Whether the code was accepted")
+    boolean valid;
+}
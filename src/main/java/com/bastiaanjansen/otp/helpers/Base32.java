@@ -0,0 +1,150 @@
+package com.bastiaanjansen.otp.helpers;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * A Base32 codec according to RFC 4648, decoding into caller provided buffers without intermediate allocations
+ * <p>
+ * Decoding is strict: only characters of the Base32 alphabet (in upper or lower case) are accepted, padding may
+ * only appear at the end of a complete block, and the amount of characters must correspond to a whole number of
+ * bytes.
+ *
+ * @author Bastiaan Jansen
+ */
+public final class Base32 {
+
+    private static final byte PADDING = '=';
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".getBytes(US_ASCII);
+
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE_TABLE[ALPHABET[i]] = (byte) i;
+            DECODE_TABLE[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private Base32() {}
+
+    /**
+     * Encode bytes to padded, upper case Base32
+     *
+     * @param data bytes to encode
+     * @return Base32 encoded bytes
+     */
+    public static byte[] encode(final byte[] data) {
+        byte[] encoded = new byte[(data.length + 4) / 5 * 8];
+        int position = 0;
+        int buffer = 0;
+        int bits = 0;
+
+        for (byte b : data) {
+            buffer = (buffer << 8) | (b & 0xFF);
+            bits += 8;
+
+            while (bits >= 5) {
+                bits -= 5;
+                encoded[position++] = ALPHABET[(buffer >>> bits) & 0x1F];
+            }
+        }
+
+        if (bits > 0)
+            encoded[position++] = ALPHABET[(buffer << (5 - bits)) & 0x1F];
+
+        Arrays.fill(encoded, position, encoded.length, PADDING);
+        return encoded;
+    }
+
+    /**
+     * Decode Base32 to a new byte array
+     *
+     * @param encoded Base32 encoded bytes
+     * @return decoded bytes
+     * @throws IllegalArgumentException when the value is not valid Base32
+     */
+    public static byte[] decode(final byte[] encoded) {
+        byte[] decoded = new byte[decodedLength(encoded)];
+        decode(encoded, decoded, 0);
+        return decoded;
+    }
+
+    /**
+     * Decode Base32 into an existing buffer
+     *
+     * @param encoded Base32 encoded bytes
+     * @param destination buffer to decode into, must have room for {@link #decodedLength(byte[])} bytes from offset
+     * @param offset offset in the destination buffer
+     * @return amount of decoded bytes
+     * @throws IllegalArgumentException when the value is not valid Base32
+     */
+    public static int decode(final byte[] encoded, final byte[] destination, final int offset) {
+        int length = decodedLength(encoded);
+        if (offset < 0 || destination.length - offset < length)
+            throw new IllegalArgumentException("Destination buffer is too small");
+
+        int position = offset;
+        int end = offset + length;
+        int buffer = 0;
+        int bits = 0;
+
+        for (int i = 0; position < end; i++) {
+            buffer = (buffer << 5) | DECODE_TABLE[encoded[i]];
+            bits += 5;
+
+            if (bits >= 8) {
+                bits -= 8;
+                destination[position++] = (byte) (buffer >>> bits);
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Validates a Base32 value and calculates the amount of bytes it decodes to
+     *
+     * @param encoded Base32 encoded bytes
+     * @return amount of decoded bytes
+     * @throws IllegalArgumentException when the value is not valid Base32
+     */
+    public static int decodedLength(final byte[] encoded) {
+        int length = encoded.length;
+        while (length > 0 && encoded[length - 1] == PADDING) length--;
+
+        if (length != encoded.length && encoded.length % 8 != 0)
+            throw new IllegalArgumentException("Base32 padding must complete a block of 8 characters");
+
+        for (int i = 0; i < length; i++) {
+            byte b = encoded[i];
+            if (b < 0 || DECODE_TABLE[b] < 0)
+                throw new IllegalArgumentException("Invalid Base32 character at index " + i);
+        }
+
+        switch (length % 8) {
+            case 1:
+            case 3:
+            case 6:
+                throw new IllegalArgumentException("Base32 value has an invalid length");
+            default:
+                return length * 5 / 8;
+        }
+    }
+
+    /**
+     * @param encoded Base32 encoded bytes
+     * @return true when the value is valid Base32
+     */
+    public static boolean isValid(final byte[] encoded) {
+        try {
+            decodedLength(encoded);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.bastiaanjansen.otp.helpers;
+
+/**
+ * A minimal reader for the protocol buffers wire format, reading fields in place from a byte array
+ *
+ * @author Bastiaan Jansen
+ */
+public final class ProtobufReader {
+
+    public static final int WIRE_TYPE_VARINT = 0;
+    public static final int WIRE_TYPE_FIXED64 = 1;
+    public static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    public static final int WIRE_TYPE_FIXED32 = 5;
+
+    private final byte[] buffer;
+
+    private final int limit;
+
+    private int position;
+
+    private int lastTag;
+
+    private int lastLength;
+
+    /**
+     * Creates a reader over a whole buffer
+     *
+     * @param buffer buffer containing an encoded message
+     */
+    public ProtobufReader(final byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Creates a reader over a part of a buffer
+     *
+     * @param buffer buffer containing an encoded message
+     * @param offset offset of the message in the buffer
+     * @param length length of the message in bytes
+     */
+    public ProtobufReader(final byte[] buffer, final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.length)
+            throw new IllegalArgumentException("Message must be within the bounds of the buffer");
+
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * @return true when there are more fields to read
+     */
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * Reads the next field tag
+     *
+     * @return field number of the next field
+     */
+    public int readFieldNumber() {
+        long tag = readVarint();
+        if (tag >>> 3 == 0 || tag > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid field tag");
+
+        lastTag = (int) tag;
+        return lastTag >>> 3;
+    }
+
+    /**
+     * @return wire type of the last read field tag
+     */
+    public int wireType() {
+        return lastTag & 0x7;
+    }
+
+    /**
+     * Reads a varint encoded value
+     *
+     * @return decoded value
+     */
+    public long readVarint() {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads the length prefix of a length delimited field and skips its contents
+     *
+     * @return offset of the contents in the buffer, the length is available from {@link #lastLength()}
+     */
+    public int readLengthDelimited() {
+        long length = readVarint();
+        if (length < 0 || length > limit - position)
+            throw new IllegalArgumentException("Length delimited field exceeds message");
+
+        int offset = position;
+        lastLength = (int) length;
+        position += lastLength;
+        return offset;
+    }
+
+    /**
+     * @return length of the last length delimited field
+     */
+    public int lastLength() {
+        return lastLength;
+    }
+
+    /**
+     * Skips the contents of the last read field
+     */
+    public void skipField() {
+        switch (wireType()) {
+            case WIRE_TYPE_VARINT:
+                readVarint();
+                break;
+            case WIRE_TYPE_FIXED64:
+                skip(Long.BYTES);
+                break;
+            case WIRE_TYPE_LENGTH_DELIMITED:
+                readLengthDelimited();
+                break;
+            case WIRE_TYPE_FIXED32:
+                skip(Integer.BYTES);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported wire type " + wireType());
+        }
+    }
+
+    /**
+     * @return the underlying buffer
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    private void skip(final int length) {
+        if (length > limit - position)
+            throw new IllegalArgumentException("Field exceeds message");
+
+        position += length;
+    }
+
+    private byte readByte() {
+        if (position >= limit)
+            throw new IllegalArgumentException("Unexpected end of message");
+
+        return buffer[position++];
+    }
+}
@@ -0,0 +1,126 @@
+package com.bastiaanjansen.otp.helpers;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A minimal writer for the protocol buffers wire format, writing into a reusable growable buffer
+ *
+ * @author Bastiaan Jansen
+ */
+public final class ProtobufWriter {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private byte[] buffer;
+
+    private int position;
+
+    public ProtobufWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity initial capacity of the buffer in bytes
+     */
+    public ProtobufWriter(final int capacity) {
+        this.buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Writes a varint field, fields with value 0 are omitted as in proto3
+     *
+     * @param fieldNumber field number
+     * @param value value to write
+     */
+    public void writeVarint(final int fieldNumber, final long value) {
+        if (value == 0) return;
+
+        writeTag(fieldNumber, ProtobufReader.WIRE_TYPE_VARINT);
+        writeRawVarint(value);
+    }
+
+    /**
+     * Writes a bytes field, empty values are omitted as in proto3
+     *
+     * @param fieldNumber field number
+     * @param value value to write
+     */
+    public void writeBytes(final int fieldNumber, final byte[] value) {
+        if (value.length == 0) return;
+
+        writeTag(fieldNumber, ProtobufReader.WIRE_TYPE_LENGTH_DELIMITED);
+        writeRawVarint(value.length);
+        writeRaw(value, 0, value.length);
+    }
+
+    /**
+     * Writes a string field encoded as UTF-8, empty values are omitted as in proto3
+     *
+     * @param fieldNumber field number
+     * @param value value to write
+     */
+    public void writeString(final int fieldNumber, final String value) {
+        writeBytes(fieldNumber, value.getBytes(UTF_8));
+    }
+
+    /**
+     * Writes the contents of another writer as an embedded message field
+     *
+     * @param fieldNumber field number
+     * @param message writer containing the encoded message
+     */
+    public void writeMessage(final int fieldNumber, final ProtobufWriter message) {
+        writeTag(fieldNumber, ProtobufReader.WIRE_TYPE_LENGTH_DELIMITED);
+        writeRawVarint(message.position);
+        writeRaw(message.buffer, 0, message.position);
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public int size() {
+        return position;
+    }
+
+    /**
+     * Clears the writer, keeping its buffer for reuse
+     */
+    public void reset() {
+        position = 0;
+    }
+
+    /**
+     * @return a copy of the written bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void writeTag(final int fieldNumber, final int wireType) {
+        writeRawVarint((long) fieldNumber << 3 | wireType);
+    }
+
+    private void writeRawVarint(long value) {
+        ensureCapacity(10);
+
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeRaw(final byte[] value, final int offset, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void ensureCapacity(final int additional) {
+        if (buffer.length - position >= additional) return;
+
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+    }
+}
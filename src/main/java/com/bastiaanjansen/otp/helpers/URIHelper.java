@@ -23,6 +23,7 @@ public class URIHelper {
     public static final String PERIOD = "period";
     public static final String COUNTER = "counter";
     public static final String ISSUER = "issuer";
+    public static final String DATA = "data";
 
     private URIHelper() {}
 
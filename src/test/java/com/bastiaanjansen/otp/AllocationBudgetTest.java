@@ -0,0 +1,160 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.function.LongFunction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Asserts how many bytes the hot paths allocate per call, so a change which adds garbage to every call fails the
+ * build. Budgets are about 1.5 times the measured allocation on JDK 17. The generators reuse pooled Macs, so the
+ * budgets only leave room for the code and the hash the JDK Mac allocates, not for creating a Mac per call.
+ * <p>
+ * Every path is warmed up first, so it is compiled with escape analysis, and the lowest of several rounds is used.
+ */
+class AllocationBudgetTest {
+
+    private static final String SECRET = "VV3KOX7UQJ4KYAKOHMZPPH3US4CJIMH6F3ZKNB5C2OOBQ6V2KIYHM27Q";
+
+    private static final int WARMUP_CALLS = 20_000;
+
+    private static final int CALLS = 10_000;
+
+    private static final int ROUNDS = 5;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    static void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void hotpGenerate() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+
+        assertThat(bytesPerCall(generator::generate), lessThanOrEqualTo(256.0));
+    }
+
+    @Test
+    void hotpVerify() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+
+        assertThat(bytesPerCall(counter -> generator.verify("123456", counter)), lessThanOrEqualTo(64.0));
+    }
+
+    @Test
+    void hotpVerifyWithDelayWindow_perCounter() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+
+        int delayWindow = 10;
+        double withoutWindow = bytesPerCall(counter -> generator.verify("123456", counter + delayWindow, 0));
+        double withWindow = bytesPerCall(counter -> generator.verify("123456", counter + delayWindow, delayWindow));
+
+        // A wrong code scans all 2 * delayWindow + 1 counters of the window, against the single counter without one
+        int extraCounters = 2 * delayWindow + 1 - 1;
+
+        // The JDK Mac allocates the hash of every counter, the generator should not allocate anything else per counter
+        assertThat((withWindow - withoutWindow) / extraCounters, lessThanOrEqualTo(64.0));
+    }
+
+    @Test
+    void totpVerifyWithInMemoryCounterStorage() {
+        Duration period = Duration.ofSeconds(30);
+        SteppingClock clock = new SteppingClock(period);
+        TOTPGenerator generator = new TOTPGenerator.Builder(SECRET)
+                .withClock(clock)
+                .withCounterStorage(new InMemoryCounterStorage().forIdentifier("identifier"))
+                .build();
+
+        // Every call is a valid code of the next time step, so the counter storage stores every counter
+        String[] codes = new String[WARMUP_CALLS + CALLS * ROUNDS];
+        for (int i = 0; i < codes.length; i++) codes[i] = generator.at((i + 1) * period.getSeconds());
+
+        assertThat(bytesPerCall(i -> {
+            clock.step = i + 1;
+            return generator.verify(codes[(int) i], 1);
+        }), lessThanOrEqualTo(384.0));
+    }
+
+    @Test
+    void hotpGenerateWithoutMacPool() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).withMacPoolSize(0).build();
+
+        // Creating a Mac for every call costs about 900 bytes on JDK 17
+        assertThat(bytesPerCall(generator::generate), lessThanOrEqualTo(1536.0));
+    }
+
+    @Test
+    void secretGeneratorGenerate() {
+        assertThat(bytesPerCall(i -> SecretGenerator.generate()), lessThanOrEqualTo(256.0));
+    }
+
+    /**
+     * @param call called with a distinct counter for every call
+     * @return lowest average amount of bytes allocated per call over the rounds
+     */
+    private static double bytesPerCall(final LongFunction<Object> call) {
+        long counter = 0;
+        for (int i = 0; i < WARMUP_CALLS; i++) call.apply(counter++);
+
+        long thread = Thread.currentThread().getId();
+        double lowest = Double.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < CALLS; i++) call.apply(counter++);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            lowest = Math.min(lowest, allocated / (double) CALLS);
+        }
+
+        return lowest;
+    }
+
+    /**
+     * Clock at the start of a time step, which a test moves forward
+     */
+    private static final class SteppingClock extends Clock {
+
+        private final long periodMillis;
+
+        private long step;
+
+        private SteppingClock(final Duration period) {
+            this.periodMillis = period.toMillis();
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public long millis() {
+            return step * periodMillis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+    }
+}
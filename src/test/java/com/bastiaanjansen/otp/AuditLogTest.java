@@ -0,0 +1,223 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AuditLogTest {
+
+    private final Clock clock = Clock.fixed(Instant.ofEpochMilli(1000), ZoneId.of("UTC"));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void close_writesRecords() throws IOException {
+        try (AuditLog auditLog = new AuditLog.Builder(directory).withClock(clock).build()) {
+            VerificationListener listener = auditLog.forIdentifier("user");
+            listener.verified(100, OptionalLong.of(99), true);
+            listener.verified(100, OptionalLong.of(99), false);
+            listener.verified(101, OptionalLong.empty(), false);
+        }
+
+        assertThat(lines(), contains(
+                "1000\tuser\t100\t-1\tvalid",
+                "1000\tuser\t100\t-1\tused",
+                "1000\tuser\t101\t-\tinvalid"));
+    }
+
+    @Test
+    void verifyReplayedCode_recordedAsUsed() throws IOException {
+        try (AuditLog auditLog = new AuditLog.Builder(directory).withClock(clock).build()) {
+            TOTPGenerator generator = new TOTPGenerator.Builder("vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q")
+                    .withClock(Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC")))
+                    .withCounterStorage(new InMemoryCounterStorage().forIdentifier("user"))
+                    .withVerificationListener(auditLog.forIdentifier("user"))
+                    .build();
+            String code = generator.now();
+
+            generator.verify(code, 1);
+            generator.verify(code, 1);
+            generator.verify("000000", 1);
+        }
+
+        assertThat(lines(), contains(
+                "1000\tuser\t100\t0\tvalid",
+                "1000\tuser\t100\t0\tused",
+                "1000\tuser\t100\t-\tinvalid"));
+    }
+
+    @Test
+    void recordWithSeparatorsInIdentity_escaped() throws IOException {
+        try (AuditLog auditLog = new AuditLog.Builder(directory).withClock(clock).build()) {
+            auditLog.forIdentifier("user\t1\n\\").verified(5, OptionalLong.of(5), true);
+        }
+
+        assertThat(lines(), contains("1000\tuser\\t1\\n\\\\\t5\t0\tvalid"));
+    }
+
+    @Test
+    void recordWithinFlushInterval_written() throws IOException, InterruptedException {
+        try (AuditLog auditLog = new AuditLog.Builder(directory).withFlushInterval(Duration.ofMillis(1)).build()) {
+            auditLog.forIdentifier("user").verified(1, OptionalLong.empty(), false);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (auditLog.getWritten() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertThat(auditLog.getWritten(), is(1L));
+            assertThat(lines(), hasSize(1));
+        }
+    }
+
+    @Test
+    void recordAfterClose_dropped() throws IOException {
+        AuditLog auditLog = new AuditLog.Builder(directory).build();
+        VerificationListener listener = auditLog.forIdentifier("user");
+        auditLog.close();
+
+        listener.verified(1, OptionalLong.empty(), false);
+
+        assertThat(auditLog.getDropped(), is(1L));
+        assertThat(auditLog.getWritten(), is(0L));
+    }
+
+    @Test
+    void recordWithFullRingBufferAndDropPolicy_writtenOrDropped() throws Exception {
+        int records = 20_000;
+        AuditLog auditLog = new AuditLog.Builder(directory)
+                .withCapacity(2)
+                .withOverflowPolicy(AuditLog.OverflowPolicy.DROP)
+                .build();
+
+        record(auditLog, 4, records);
+        auditLog.close();
+
+        assertThat(auditLog.getWritten() + auditLog.getDropped(), is((long) records));
+        assertThat(lines().size(), is((int) auditLog.getWritten()));
+    }
+
+    @Test
+    void recordWithFullRingBufferAndBlockPolicy_allWritten() throws Exception {
+        int records = 20_000;
+        AuditLog auditLog = new AuditLog.Builder(directory)
+                .withCapacity(2)
+                .withOverflowPolicy(AuditLog.OverflowPolicy.BLOCK)
+                .build();
+
+        record(auditLog, 4, records);
+        auditLog.close();
+
+        assertThat(auditLog.getDropped(), is(0L));
+        assertThat(auditLog.getWritten(), is((long) records));
+        assertThat(lines(), hasSize(records));
+    }
+
+    @Test
+    void recordBeyondMaxFileSize_rotatesAndKeepsMaxFiles() throws Exception {
+        AuditLog auditLog = new AuditLog.Builder(directory)
+                .withMaxFileSize(64)
+                .withMaxFiles(3)
+                .withFlushInterval(Duration.ofMillis(1))
+                .withClock(clock)
+                .build();
+
+        VerificationListener listener = auditLog.forIdentifier("user");
+        for (int i = 0; i < 10; i++) {
+            listener.verified(i, OptionalLong.empty(), false);
+            // Flushes every record separately, so each file holds a few records
+            long deadline = System.currentTimeMillis() + 5000;
+            while (auditLog.getWritten() <= i && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        auditLog.close();
+
+        List<Path> files = files();
+        assertThat(files, hasSize(3));
+        assertThat(files.get(2).getFileName().toString(), greaterThan(files.get(0).getFileName().toString()));
+        for (Path file : files) assertThat(Files.size(file) <= 64, is(true));
+        assertThat(lines().get(lines().size() - 1), is("1000\tuser\t9\t-\tinvalid"));
+    }
+
+    @Test
+    void reopen_continuesInNewFile() throws IOException {
+        try (AuditLog auditLog = new AuditLog.Builder(directory).withClock(clock).build()) {
+            auditLog.forIdentifier("first").verified(1, OptionalLong.empty(), false);
+        }
+        try (AuditLog auditLog = new AuditLog.Builder(directory).withClock(clock).build()) {
+            auditLog.forIdentifier("second").verified(2, OptionalLong.empty(), false);
+        }
+
+        assertThat(files(), hasSize(2));
+        assertThat(files().get(0).getFileName().toString(), is("audit-00001.log"));
+        assertThat(files().get(1).getFileName().toString(), is("audit-00002.log"));
+        assertThat(lines(), contains("1000\tfirst\t1\t-\tinvalid", "1000\tsecond\t2\t-\tinvalid"));
+    }
+
+    @Test
+    void withCapacityLessThan2_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new AuditLog.Builder(directory).withCapacity(1));
+    }
+
+    @Test
+    void withMaxFilesLessThan1_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new AuditLog.Builder(directory).withMaxFiles(0));
+    }
+
+    @Test
+    void withFlushIntervalZero_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new AuditLog.Builder(directory).withFlushInterval(Duration.ZERO));
+    }
+
+    private static void record(final AuditLog auditLog, final int threads, final int records) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                VerificationListener listener = auditLog.forIdentifier("user-" + thread);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < records / threads; i++) listener.verified(i, OptionalLong.of(i), true);
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<String> lines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Path file : files()) lines.addAll(Files.readAllLines(file));
+        return lines;
+    }
+}
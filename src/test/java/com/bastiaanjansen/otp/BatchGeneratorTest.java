@@ -0,0 +1,94 @@
+package com.bastiaanjansen.otp;
+
+import com.bastiaanjansen.otp.helpers.Base32;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchGeneratorTest {
+
+    private static final String SECRET = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+
+    @Test
+    void create_withoutVectorArtifact_isNotVectorized() {
+        // VectorHMACEngine is tested in the vector module
+        assertThat(BatchGenerator.create().isVectorized(), is(false));
+    }
+
+    @Test
+    void scalar_isNotVectorized() {
+        assertThat(BatchGenerator.scalar().isVectorized(), is(false));
+    }
+
+    @ParameterizedTest
+    @EnumSource(HMACAlgorithm.class)
+    void generate_scalar_matchesGenerator(HMACAlgorithm algorithm) {
+        assertMatchesGenerator(BatchGenerator.scalar(), new Random(algorithm.ordinal()), algorithm);
+    }
+
+    @Test
+    void generate_mixedAlgorithms_matchesGenerator() {
+        assertMatchesGenerator(BatchGenerator.scalar(), new Random(42), HMACAlgorithm.values());
+    }
+
+    @Test
+    void generate_longKey_matchesGenerator() {
+        byte[] secret = Base32.encode(new byte[100]);
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).withAlgorithm(HMACAlgorithm.SHA256).build();
+
+        int[] codes = BatchGenerator.create().generate(new HOTPGenerator[] { generator }, new long[] { 7 });
+
+        assertThat(codes[0], is(Integer.parseInt(generator.generate(7))));
+    }
+
+    @Test
+    void generate_emptyBatch_returnsEmptyArray() {
+        assertThat(BatchGenerator.create().generate(new HOTPGenerator[0], new long[0]).length, is(0));
+    }
+
+    @Test
+    void generate_differentLengths_throws() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET.getBytes()).build();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchGenerator.create().generate(new HOTPGenerator[] { generator }, new long[2]));
+    }
+
+    @Test
+    void generate_negativeCounter_throws() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET.getBytes()).build();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchGenerator.create().generate(new HOTPGenerator[] { generator }, new long[] { -1 }));
+    }
+
+    private static void assertMatchesGenerator(BatchGenerator batchGenerator, Random random, HMACAlgorithm... algorithms) {
+        // An amount which is not a multiple of any vector length, so the last batch has unused lanes
+        int size = 101;
+        HOTPGenerator[] generators = new HOTPGenerator[size];
+        long[] counters = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            byte[] key = new byte[1 + random.nextInt(64)];
+            random.nextBytes(key);
+
+            generators[i] = new HOTPGenerator.Builder(Base32.encode(key))
+                    .withAlgorithm(algorithms[random.nextInt(algorithms.length)])
+                    .withPasswordLength(6 + random.nextInt(3))
+                    .build();
+            counters[i] = random.nextBoolean() ? random.nextInt(100) : random.nextLong() >>> 1;
+        }
+
+        int[] codes = batchGenerator.generate(generators, counters);
+
+        for (int i = 0; i < size; i++) {
+            assertThat(codes[i], is(Integer.parseInt(generators[i].generate(counters[i]))));
+        }
+    }
+}
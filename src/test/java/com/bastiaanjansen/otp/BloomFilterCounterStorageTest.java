@@ -0,0 +1,113 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BloomFilterCounterStorageTest {
+
+    private BloomFilterCounterStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = new BloomFilterCounterStorage(4, 10_000, 0.0001);
+    }
+
+    @Test
+    void markAsUsedFirstTime_true() {
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markAsUsedTwice_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(false));
+    }
+
+    @Test
+    void markOlderUnusedCounterWithinTimeSteps_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(99), is(true));
+    }
+
+    @Test
+    void markCounterOlderThanTimeSteps_false() {
+        storage.forIdentifier("identifier").markAsUsed(104);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(false));
+    }
+
+    @Test
+    void markAsUsedWithDifferentIdentifier_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("another-identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markAsUsedAfterRotation_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+        storage.forIdentifier("identifier").markAsUsed(104);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(108), is(true));
+    }
+
+    @Test
+    void markExpectedEntriesAsUsed_falsePositiveRateIsMet() {
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (!storage.forIdentifier("identifier-" + i).markAsUsed(100)) falsePositives++;
+        }
+
+        assertThat(falsePositives, lessThan(10));
+    }
+
+    @Test
+    void sizeInBytes() {
+        // 10.000 entries with a false positive rate of 0.0001 need 191.702 bits, rounded up to whole longs
+        assertThat(storage.sizeInBytes(), is(4L * 191_744 / 8));
+    }
+
+    @Test
+    void markAsUsedConcurrently_onlyOneSucceeds() throws Exception {
+        int threads = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Callable<Boolean>> tasks = IntStream.range(0, threads)
+                    .mapToObj(i -> (Callable<Boolean>) () -> storage.forIdentifier("identifier").markAsUsed(100))
+                    .collect(Collectors.toList());
+
+            long succeeded = 0;
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                if (future.get()) succeeded++;
+            }
+
+            assertThat(succeeded, is(1L));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = { 0, 1, -0.5 })
+    void constructWithInvalidFalsePositiveRate_throwsIllegalArgumentException(double falsePositiveRate) {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilterCounterStorage(4, 100, falsePositiveRate));
+    }
+}
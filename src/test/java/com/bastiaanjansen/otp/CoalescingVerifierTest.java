@@ -0,0 +1,143 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CoalescingVerifierTest {
+
+    private static final String SECRET = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+
+    private final Clock clock = Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC"));
+
+    private final InMemoryCounterStorage counterStorage = new InMemoryCounterStorage();
+
+    private final AtomicInteger storageCalls = new AtomicInteger();
+
+    private final CountDownLatch markingAsUsed = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    void verifyValidCode_true() {
+        CoalescingVerifier verifier = new CoalescingVerifier.Builder(this::generatorOf).build();
+
+        assertThat(verifier.verify("user", generatorOf("user").now()), is(true));
+    }
+
+    @Test
+    void verifyTwiceAfterCompletion_falseFromCounterStorage() {
+        CoalescingVerifier verifier = new CoalescingVerifier.Builder(this::generatorOf).build();
+        String code = generatorOf("user").now();
+
+        verifier.verify("user", code);
+
+        assertThat(verifier.verify("user", code), is(false));
+        assertThat(verifier.getCoalesced(), is(0L));
+    }
+
+    @Test
+    void verifyUnknownIdentity_false() {
+        CoalescingVerifier verifier = new CoalescingVerifier.Builder(identity -> null).build();
+
+        assertThat(verifier.verify("user", "123456"), is(false));
+    }
+
+    @Test
+    void verifyWithDelayWindow_olderCodeTrue() {
+        CoalescingVerifier verifier = new CoalescingVerifier.Builder(this::generatorOf).withDelayWindow(1).build();
+
+        assertThat(verifier.verify("user", generatorOf("user").at(99 * 30)), is(true));
+    }
+
+    @Test
+    void verifyWhileSameCodeInFlight_falseWithoutStorageCall() throws Exception {
+        CoalescingVerifier verifier = new CoalescingVerifier.Builder(this::blockingGeneratorOf).build();
+        String code = generatorOf("user").now();
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> verifier.verify("user", code));
+        assertThat(markingAsUsed.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(verifier.verify("user", code), is(false));
+        assertThat(verifier.verify("user", code), is(false));
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS), is(true));
+        assertThat(storageCalls.get(), is(1));
+        assertThat(verifier.getCoalesced(), is(2L));
+    }
+
+    @Test
+    void verifyWhileOtherCodeOrIdentityInFlight_verified() throws Exception {
+        CoalescingVerifier verifier = new CoalescingVerifier.Builder(this::blockingGeneratorOf).build();
+        String code = generatorOf("user").now();
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> verifier.verify("user", code));
+        assertThat(markingAsUsed.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(verifier.verify("user", "000000"), is(false));
+        assertThat(verifier.verify("other-user", code), is(true));
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS), is(true));
+        assertThat(verifier.getCoalesced(), is(0L));
+    }
+
+    @Test
+    void verifyWhenGeneratorThrows_notInFlightAfterwards() {
+        AtomicInteger calls = new AtomicInteger();
+        CoalescingVerifier verifier = new CoalescingVerifier.Builder(identity -> {
+            if (calls.incrementAndGet() == 1) throw new IllegalStateException("Counter storage did not respond in time");
+            return generatorOf(identity);
+        }).build();
+        String code = generatorOf("user").now();
+
+        assertThrows(IllegalStateException.class, () -> verifier.verify("user", code));
+        assertThat(verifier.verify("user", code), is(true));
+    }
+
+    @Test
+    void withNegativeDelayWindow_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new CoalescingVerifier.Builder(this::generatorOf).withDelayWindow(-1));
+    }
+
+    private TOTPGenerator generatorOf(final String identity) {
+        return new TOTPGenerator.Builder(SECRET)
+                .withClock(clock)
+                .withCounterStorage(counterStorage.forIdentifier(identity))
+                .build();
+    }
+
+    /**
+     * Generator of which the counter storage of "user" blocks until released
+     */
+    private TOTPGenerator blockingGeneratorOf(final String identity) {
+        CounterStorage storage = counterStorage.forIdentifier(identity);
+        if (!identity.equals("user")) return new TOTPGenerator.Builder(SECRET).withClock(clock).withCounterStorage(storage).build();
+
+        return new TOTPGenerator.Builder(SECRET)
+                .withClock(clock)
+                .withCounterStorage(counter -> {
+                    storageCalls.incrementAndGet();
+                    markingAsUsed.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return storage.markAsUsed(counter);
+                })
+                .build();
+    }
+}
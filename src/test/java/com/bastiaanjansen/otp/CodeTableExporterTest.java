@@ -0,0 +1,186 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CodeTableExporterTest {
+
+    private static final String SECRET = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+
+    private static final String OTHER_SECRET = "ge4tqnzxgq2dkmrsgqzdgnzvg4ytsnrxgezdanjsgmydmnjqhe4dg";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void exportHOTP_csv_matchesGenerators() throws IOException {
+        Map<String, HOTPGenerator> generators = new LinkedHashMap<>();
+        generators.put("alice", new HOTPGenerator.Builder(SECRET).build());
+        generators.put("bob", new HOTPGenerator.Builder(OTHER_SECRET).withPasswordLength(8).withAlgorithm(HMACAlgorithm.SHA256).build());
+
+        Path path = directory.resolve("codes.csv");
+        long written = export(path, CodeTableExporter.Format.CSV, (exporter, channel) -> exporter.exportHOTP(channel, generators, 5, 105));
+
+        List<String> lines = Files.readAllLines(path, UTF_8);
+        assertThat(written, is(Files.size(path)));
+        assertThat(lines.size(), is(201));
+        assertThat(lines.get(0), is("identifier,counter,code"));
+        for (int i = 0; i < 100; i++) {
+            assertThat(lines.get(1 + i), is("alice," + (5 + i) + "," + generators.get("alice").generate(5 + i)));
+            assertThat(lines.get(101 + i), is("bob," + (5 + i) + "," + generators.get("bob").generate(5 + i)));
+        }
+    }
+
+    @Test
+    void exportTOTP_csv_matchesGenerators() throws IOException {
+        Map<String, TOTPGenerator> generators = new LinkedHashMap<>();
+        generators.put("alice", new TOTPGenerator.Builder(SECRET).build());
+        generators.put("bob", new TOTPGenerator.Builder(OTHER_SECRET).withPeriod(Duration.ofSeconds(60)).build());
+
+        Path path = directory.resolve("codes.csv");
+        long written = export(path, CodeTableExporter.Format.CSV,
+                (exporter, channel) -> exporter.exportTOTP(channel, generators, Instant.ofEpochSecond(95), Instant.ofEpochSecond(400)));
+
+        List<String> lines = Files.readAllLines(path, UTF_8);
+        assertThat(written, is(Files.size(path)));
+        assertThat(lines.get(0), is("identifier,time,code"));
+        // Time steps 3 to 13 of 30 seconds and 1 to 6 of 60 seconds overlap the range
+        assertThat(lines.size(), is(1 + 11 + 6));
+        assertThat(lines.get(1), is("alice,90," + generators.get("alice").at(90)));
+        assertThat(lines.get(11), is("alice,390," + generators.get("alice").at(390)));
+        assertThat(lines.get(12), is("bob,60," + generators.get("bob").at(60)));
+        assertThat(lines.get(17), is("bob,360," + generators.get("bob").at(360)));
+    }
+
+    @Test
+    void exportHOTP_binary_matchesGenerators() throws IOException {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).withAlgorithm(HMACAlgorithm.SHA512).build();
+        int count = 40_000;
+
+        Path path = directory.resolve("codes.bin");
+        long written = export(path, CodeTableExporter.Format.BINARY,
+                (exporter, channel) -> exporter.exportHOTP(channel, Collections.singletonMap("token", generator), 1000, 1000 + count));
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        assertThat(written, is((long) buffer.capacity()));
+        assertThat(new String(buffer.array(), 0, 4, UTF_8), is("OTPT"));
+        buffer.position(4);
+        assertThat(buffer.get(), is((byte) 1));
+        assertThat(buffer.get(), is((byte) 0));
+        assertThat(buffer.getInt(), is(1));
+
+        byte[] identifier = new byte[buffer.getShort()];
+        buffer.get(identifier);
+        assertThat(new String(identifier, UTF_8), is("token"));
+        assertThat(buffer.get(), is((byte) 6));
+        assertThat(buffer.getLong(), is(0L));
+        assertThat(buffer.getLong(), is(1000L));
+        assertThat(buffer.getLong(), is((long) count));
+        for (int i = 0; i < count; i++) {
+            assertThat(buffer.getInt(), is(generator.generateValue(1000 + i)));
+        }
+        assertThat(buffer.hasRemaining(), is(false));
+    }
+
+    @Test
+    void exportHOTP_csvAcrossChunksAndDigitLengths_matchesGenerator() throws IOException {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+
+        Path path = directory.resolve("codes.csv");
+        long written = export(path, CodeTableExporter.Format.CSV,
+                (exporter, channel) -> exporter.exportHOTP(channel, Collections.singletonMap("token", generator), 9_990, 40_000));
+
+        List<String> lines = Files.readAllLines(path, UTF_8);
+        assertThat(written, is(Files.size(path)));
+        assertThat(lines.size(), is(1 + 30_010));
+        for (int i = 1; i < lines.size(); i += 997) {
+            long counter = 9_990 + i - 1;
+            assertThat(lines.get(i), is("token," + counter + "," + generator.generate(counter)));
+        }
+    }
+
+    @Test
+    void exportHOTP_csvIdentifierWithComma_isQuoted() throws IOException {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+
+        Path path = directory.resolve("codes.csv");
+        export(path, CodeTableExporter.Format.CSV,
+                (exporter, channel) -> exporter.exportHOTP(channel, Collections.singletonMap("doe, \"john\"", generator), 0, 1));
+
+        assertThat(Files.readAllLines(path, UTF_8).get(1), is("\"doe, \"\"john\"\"\",0," + generator.generate(0)));
+    }
+
+    @Test
+    void exportHOTP_fromPosition_appendsAndMovesPosition() throws IOException {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+        CodeTableExporter exporter = new CodeTableExporter.Builder().build();
+
+        Path path = directory.resolve("codes.csv");
+        try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+            channel.write(ByteBuffer.wrap("# table\n".getBytes(UTF_8)));
+            long written = exporter.exportHOTP(channel, Collections.singletonMap("token", generator), 0, 2);
+
+            assertThat(channel.position(), is(8 + written));
+        }
+
+        List<String> lines = Files.readAllLines(path, UTF_8);
+        assertThat(lines.get(0), is("# table"));
+        assertThat(lines.get(1), is("identifier,counter,code"));
+        assertThat(lines.get(3), is("token,1," + generator.generate(1)));
+    }
+
+    @Test
+    void exportHOTP_emptyRange_writesHeaderOnly() throws IOException {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+
+        Path path = directory.resolve("codes.csv");
+        export(path, CodeTableExporter.Format.CSV,
+                (exporter, channel) -> exporter.exportHOTP(channel, Collections.singletonMap("token", generator), 5, 5));
+
+        assertThat(Files.readAllLines(path, UTF_8), is(Collections.singletonList("identifier,counter,code")));
+    }
+
+    @Test
+    void exportHOTP_invalidRange_throwsIllegalArgumentException() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(SECRET).build();
+        CodeTableExporter exporter = new CodeTableExporter.Builder().build();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> exporter.exportHOTP(null, Collections.singletonMap("token", generator), 10, 5));
+        assertThrows(IllegalArgumentException.class,
+                () -> exporter.exportHOTP(null, Collections.singletonMap("token", generator), -1, 5));
+    }
+
+    private long export(Path path, CodeTableExporter.Format format, Export export) throws IOException {
+        CodeTableExporter exporter = new CodeTableExporter.Builder().withFormat(format).build();
+
+        try (FileChannel channel = FileChannel.open(path, CREATE, WRITE)) {
+            return export.run(exporter, channel);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Export {
+        long run(CodeTableExporter exporter, FileChannel channel) throws IOException;
+    }
+}
@@ -0,0 +1,171 @@
+package com.bastiaanjansen.otp;
+
+import com.bastiaanjansen.otp.helpers.Base32;
+import org.junit.jupiter.api.Test;
+
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DerivedSecretsTest {
+
+    private final byte[] masterKey = "0123456789abcdef0123456789abcdef".getBytes();
+
+    @Test
+    void extractAndExpand_rfc5869TestCase3() {
+        byte[] inputKey = new byte[22];
+        Arrays.fill(inputKey, (byte) 0x0b);
+
+        byte[] okm = DerivedSecrets.expand(DerivedSecrets.extract(inputKey), new byte[0], 42);
+
+        assertThat(HexFormat.of().formatHex(okm),
+                is("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8"));
+    }
+
+    @Test
+    void secretOf_sameSecretEveryTime() {
+        DerivedSecrets first = new DerivedSecrets.Builder(masterKey).build();
+        DerivedSecrets second = new DerivedSecrets.Builder(masterKey).build();
+
+        assertThat(first.secretOf("user"), is(second.secretOf("user")));
+    }
+
+    @Test
+    void secretOfOtherIdentity_otherSecret() {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).build();
+
+        assertThat(derivedSecrets.secretOf("user"), not(derivedSecrets.secretOf("other-user")));
+    }
+
+    @Test
+    void secretOfWithOtherMasterKeyOrContext_otherSecret() {
+        byte[] secret = new DerivedSecrets.Builder(masterKey).build().secretOf("user");
+        byte[] otherMasterKey = masterKey.clone();
+        otherMasterKey[0]++;
+
+        assertThat(new DerivedSecrets.Builder(otherMasterKey).build().secretOf("user"), not(secret));
+        assertThat(new DerivedSecrets.Builder(masterKey).withContext("other").build().secretOf("user"), not(secret));
+    }
+
+    @Test
+    void secretOf_base32SecretOfBits() {
+        assertThat(Base32.decode(new DerivedSecrets.Builder(masterKey).build().secretOf("user")).length, is(20));
+        assertThat(Base32.decode(new DerivedSecrets.Builder(masterKey).withBits(256).build().secretOf("user")).length, is(32));
+    }
+
+    @Test
+    void generatorOf_verifiesCodeOfDerivedSecret() {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).build();
+        TOTPGenerator enrolled = new TOTPGenerator.Builder(derivedSecrets.secretOf("user")).build();
+
+        assertThat(derivedSecrets.generatorOf("user").verify(enrolled.now(), 1), is(true));
+        assertThat(derivedSecrets.generatorOf("other-user").verify(enrolled.now(), 1), is(false));
+    }
+
+    @Test
+    void generatorOf_uriWithDerivedSecret() throws URISyntaxException {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).build();
+        String secret = new String(derivedSecrets.secretOf("user"));
+
+        assertThat(derivedSecrets.generatorOf("user").getURI("issuer", "user").toString(), containsString("secret=" + secret));
+    }
+
+    @Test
+    void generatorOf_configuredWithIdentity() {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey)
+                .withGenerator((identity, builder) -> builder.withPeriod(Duration.ofSeconds(identity.length())))
+                .build();
+
+        assertThat(derivedSecrets.generatorOf("user").getPeriod(), is(Duration.ofSeconds(4)));
+    }
+
+    @Test
+    void generatorOfTwice_cachedGenerator() {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).build();
+
+        assertThat(derivedSecrets.generatorOf("user"), sameInstance(derivedSecrets.generatorOf("user")));
+    }
+
+    @Test
+    void generatorOfBeyondCacheSize_leastRecentlyUsedEvicted() {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).withCacheSize(2).build();
+        TOTPGenerator first = derivedSecrets.generatorOf("first");
+        TOTPGenerator second = derivedSecrets.generatorOf("second");
+
+        derivedSecrets.generatorOf("first");
+        derivedSecrets.generatorOf("third");
+
+        assertThat(derivedSecrets.generatorOf("first"), sameInstance(first));
+        assertThat(derivedSecrets.generatorOf("second"), not(sameInstance(second)));
+    }
+
+    @Test
+    void generatorOfManyIdentities_cacheBounded() {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).withCacheSize(10).build();
+
+        for (int i = 0; i < 100; i++) {
+            derivedSecrets.generatorOf("user-" + (i % 3));
+            derivedSecrets.generatorOf("other-user-" + i);
+        }
+
+        assertThat(derivedSecrets.cached(), is(10));
+        assertThat(derivedSecrets.generatorOf("user-0"), sameInstance(derivedSecrets.generatorOf("user-0")));
+    }
+
+    @Test
+    void generatorOfConcurrently_sameGeneratorPerIdentity() throws Exception {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<TOTPGenerator>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) futures.add(executor.submit(() -> derivedSecrets.generatorOf("user")));
+
+            TOTPGenerator first = futures.get(0).get();
+            for (Future<TOTPGenerator> future : futures) assertThat(future.get(), sameInstance(first));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void generatorOfWithCacheSize0_newGenerator() {
+        DerivedSecrets derivedSecrets = new DerivedSecrets.Builder(masterKey).withCacheSize(0).build();
+
+        assertThat(derivedSecrets.generatorOf("user"), not(sameInstance(derivedSecrets.generatorOf("user"))));
+    }
+
+    @Test
+    void builderWithShortMasterKey_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new DerivedSecrets.Builder(new byte[15]));
+    }
+
+    @Test
+    void withBitsNotMultipleOf8_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new DerivedSecrets.Builder(masterKey).withBits(161));
+        assertThrows(IllegalArgumentException.class, () -> new DerivedSecrets.Builder(masterKey).withBits(120));
+    }
+
+    @Test
+    void withContextContainingZeroByte_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new DerivedSecrets.Builder(masterKey).withContext("otp\0java"));
+    }
+
+    @Test
+    void withNegativeCacheSize_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new DerivedSecrets.Builder(masterKey).withCacheSize(-1));
+    }
+}
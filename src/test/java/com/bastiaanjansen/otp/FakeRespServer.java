@@ -0,0 +1,296 @@
+package com.bastiaanjansen.otp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * In-process stand-in for a Redis server, for tests and benchmarks of {@link RespCounterStorage}.
+ * <p>
+ * Speaks RESP on a loopback port and supports {@code GET}, {@code SET}, {@code PING}, {@code AUTH},
+ * {@code SCRIPT FLUSH}, {@code EVAL} and {@code EVALSHA}. It does not run Lua: every script is executed as the
+ * compare-and-set of {@link RespCounterStorage#SCRIPT}, which is the only script its clients send.
+ */
+public class FakeRespServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+
+    private final String password;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Set<String> scripts = ConcurrentHashMap.newKeySet();
+
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong commands = new AtomicLong();
+
+    private final AtomicInteger maxPipelined = new AtomicInteger();
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public FakeRespServer() throws IOException {
+        this(null);
+    }
+
+    /**
+     * @param password password clients must authenticate with, or null to accept all clients
+     */
+    public FakeRespServer(final String password) throws IOException {
+        this.password = password;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        Thread acceptor = new Thread(this::accept, "fake-resp-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public InetSocketAddress address() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * @return total amount of commands received
+     */
+    public long commands() {
+        return commands.get();
+    }
+
+    /**
+     * @return most commands received back to back in one read of a connection
+     */
+    public int maxPipelined() {
+        return maxPipelined.get();
+    }
+
+    /**
+     * @return amount of accepted connections
+     */
+    public int connections() {
+        return connections.get();
+    }
+
+    /**
+     * Forgets the loaded scripts, like a restarted server
+     */
+    public void flushScripts() {
+        scripts.clear();
+    }
+
+    /**
+     * Closes all client connections, the server keeps accepting new ones
+     */
+    public void disconnectClients() throws IOException {
+        for (Socket client : clients) client.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        disconnectClients();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                clients.add(client);
+                connections.incrementAndGet();
+
+                Thread handler = new Thread(() -> serve(client), "fake-resp-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(final Socket client) {
+        try (Socket socket = client) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            boolean authenticated = password == null;
+            int pipelined = 0;
+
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) return;
+
+                commands.incrementAndGet();
+                pipelined++;
+                maxPipelined.accumulateAndGet(pipelined, Math::max);
+
+                String name = command.get(0).toUpperCase();
+                if (name.equals("AUTH")) {
+                    authenticated = password != null && password.equals(command.get(command.size() - 1));
+                    out.write((authenticated ? "+OK\r\n" : "-WRONGPASS invalid password\r\n").getBytes(US_ASCII));
+                } else if (!authenticated) {
+                    out.write("-NOAUTH Authentication required.\r\n".getBytes(US_ASCII));
+                } else {
+                    out.write(execute(name, command));
+                }
+
+                // Reply to a batch of commands at once, like Redis does for pipelined commands
+                if (in.available() == 0) {
+                    out.flush();
+                    pipelined = 0;
+                }
+            }
+        } catch (IOException e) {
+            // Disconnected
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private byte[] execute(final String name, final List<String> command) {
+        switch (name) {
+            case "PING":
+                return "+PONG\r\n".getBytes(US_ASCII);
+            case "GET": {
+                Entry entry = current(command.get(1));
+                return entry == null ? "$-1\r\n".getBytes(US_ASCII) : bulk(entry.value);
+            }
+            case "SET":
+                entries.put(command.get(1), new Entry(command.get(2), expiresAt(command, 3)));
+                return "+OK\r\n".getBytes(US_ASCII);
+            case "SCRIPT":
+                scripts.clear();
+                return "+OK\r\n".getBytes(US_ASCII);
+            case "EVAL":
+                scripts.add(sha1Hex(command.get(1)));
+                return compareAndSet(command);
+            case "EVALSHA":
+                if (!scripts.contains(command.get(1).toLowerCase()))
+                    return "-NOSCRIPT No matching script. Please use EVAL.\r\n".getBytes(US_ASCII);
+                return compareAndSet(command);
+            default:
+                return ("-ERR unknown command '" + name + "'\r\n").getBytes(US_ASCII);
+        }
+    }
+
+    /**
+     * Executes {@link RespCounterStorage#SCRIPT}: EVAL(SHA) script 1 key counter [expiry in milliseconds]
+     */
+    private byte[] compareAndSet(final List<String> command) {
+        String key = command.get(3);
+        long counter = Long.parseLong(command.get(4));
+        long expiresAt = command.size() > 5 ? System.currentTimeMillis() + Long.parseLong(command.get(5)) : Long.MAX_VALUE;
+        boolean[] stored = new boolean[1];
+
+        entries.compute(key, (k, entry) -> {
+            if (entry != null && entry.expiresAt > System.currentTimeMillis() && Long.parseLong(entry.value) >= counter)
+                return entry;
+
+            stored[0] = true;
+            return new Entry(Long.toString(counter), expiresAt);
+        });
+
+        return (stored[0] ? ":1\r\n" : ":0\r\n").getBytes(US_ASCII);
+    }
+
+    private Entry current(final String key) {
+        Entry entry = entries.get(key);
+        return entry == null || entry.expiresAt <= System.currentTimeMillis() ? null : entry;
+    }
+
+    private static long expiresAt(final List<String> command, final int optionIndex) {
+        for (int i = optionIndex; i < command.size() - 1; i++) {
+            if (command.get(i).equalsIgnoreCase("PX"))
+                return System.currentTimeMillis() + Long.parseLong(command.get(i + 1));
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static List<String> readCommand(final InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) return null;
+        if (header.charAt(0) != '*') throw new IOException("Expected an array, got " + header);
+
+        int size = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String bulkHeader = readLine(in);
+            if (bulkHeader == null || bulkHeader.charAt(0) != '$') throw new IOException("Expected a bulk string");
+
+            byte[] value = new byte[Integer.parseInt(bulkHeader.substring(1))];
+            int read = 0;
+            while (read < value.length) {
+                int n = in.read(value, read, value.length - read);
+                if (n == -1) throw new SocketException("Disconnected");
+                read += n;
+            }
+            readLine(in);
+            command.add(new String(value, UTF_8));
+        }
+
+        return command;
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) return null;
+            if (b != '\r') line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    private static byte[] bulk(final String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        byte[] header = ("$" + bytes.length + "\r\n").getBytes(US_ASCII);
+        byte[] result = new byte[header.length + bytes.length + 2];
+        System.arraycopy(header, 0, result, 0, header.length);
+        System.arraycopy(bytes, 0, result, header.length, bytes.length);
+        result[result.length - 2] = '\r';
+        result[result.length - 1] = '\n';
+        return result;
+    }
+
+    private static String sha1Hex(final String script) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(script.getBytes(UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String value;
+
+        private final long expiresAt;
+
+        private Entry(final String value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
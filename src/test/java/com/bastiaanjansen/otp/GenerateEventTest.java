@@ -0,0 +1,46 @@
+package com.bastiaanjansen.otp;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class GenerateEventTest {
+
+    private final static String secret = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void generate_recordsAlgorithmAndCounter() throws IOException {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret.getBytes()).withAlgorithm(HMACAlgorithm.SHA256).build();
+        Path file = directory.resolve("recording.jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("com.bastiaanjansen.otp.Generate");
+            recording.start();
+            generator.generate(42);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals("com.bastiaanjansen.otp.Generate"))
+                .collect(Collectors.toList());
+
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getString("algorithm"), is("SHA256"));
+        assertThat(events.get(0).getLong("counter"), is(42L));
+        assertThat(events.get(0).getDuration("macAcquisition").isNegative(), is(false));
+    }
+}
@@ -8,12 +8,21 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import javax.crypto.Mac;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -65,6 +74,65 @@ class HOTPGeneratorTest {
         assertThat(generator.verify(code, 1), is(true));
     }
 
+    @Test
+    void verifyWithVerificationListener_reportsOutcomes() {
+        List<String> outcomes = new ArrayList<>();
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret)
+                .withVerificationListener((counter, match, valid) -> outcomes.add(counter + " " + match + " " + valid))
+                .build();
+        String code = generator.generate(4);
+
+        generator.verify(code, 5, 1);
+        generator.verify(code, 7);
+
+        assertThat(outcomes, contains("5 OptionalLong[4] true", "7 OptionalLong.empty false"));
+    }
+
+    @Test
+    void generateWithoutMacPool_sameCode() {
+        HOTPGenerator pooled = new HOTPGenerator.Builder(secret).build();
+        HOTPGenerator unpooled = new HOTPGenerator.Builder(secret).withMacPoolSize(0).build();
+
+        for (long counter = 0; counter < 10; counter++) {
+            assertThat(unpooled.generate(counter), is(pooled.generate(counter)));
+        }
+        assertThat(unpooled.verify(pooled.generate(5), 6, 1), is(true));
+    }
+
+    @Test
+    void withNegativeMacPoolSize_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new HOTPGenerator.Builder(secret).withMacPoolSize(-1));
+    }
+
+    @Test
+    void verifyCodeWithNonDigits_false() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+        String code = generator.generate(1);
+
+        assertThat(generator.verify(code.substring(0, 5) + "a", 1), is(false));
+        assertThat(generator.verify("-" + code.substring(1), 1), is(false));
+    }
+
+    @Test
+    void parseCode_codeAsNumber() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+
+        assertThat(generator.parseCode("012345"), is(12345));
+        assertThat(generator.parseCode("12345"), is(-1));
+        assertThat(generator.parseCode("12345x"), is(-1));
+    }
+
+    @Test
+    void generateValueWithBuffer_equalsGenerate() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).withAlgorithm(HMACAlgorithm.SHA512).build();
+        Mac mac = generator.createMac();
+        byte[] buffer = new byte[mac.getMacLength()];
+
+        for (long counter = 0; counter < 100; counter++) {
+            assertThat(generator.generateValue(mac, counter, buffer), is(Integer.parseInt(generator.generate(counter))));
+        }
+    }
+
     @Test
     void verifyOlderCodeWithDelayWindowIs0_false() {
         HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
@@ -81,6 +149,97 @@ class HOTPGeneratorTest {
         assertThat(generator.verify(code, 2, 1), is(true));
     }
 
+    @Test
+    void verifyCodeOfCounterZeroWithDelayWindow_true() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+        String code = generator.generate(0);
+
+        assertThat(generator.verify(code, 0, 2), is(true));
+    }
+
+    @Test
+    void findCounterWithinDelayWindow() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+        String code = generator.generate(120);
+
+        assertThat(generator.findCounter(code, 100, 50), is(OptionalLong.of(120)));
+    }
+
+    @Test
+    void findCounterOutsideDelayWindow_empty() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+        String code = generator.generate(200);
+
+        assertThat(generator.findCounter(code, 100, 50), is(OptionalLong.empty()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = { 0, 1, 250, 499, 500, 999, 1000 })
+    void findCounterInParallel(long expected) {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret)
+                .withParallelVerification(ForkJoinPool.commonPool(), 2)
+                .build();
+        String code = generator.generate(expected);
+
+        OptionalLong counter = generator.findCounter(code, 500, 500);
+
+        assertThat(counter.isPresent(), is(true));
+        assertThat(generator.generate(counter.getAsLong()), is(code));
+        assertThat(counter.getAsLong() <= expected, is(true));
+    }
+
+    @Test
+    void findCounterInParallel_returnsLowestMatch() {
+        HOTPGenerator sequential = new HOTPGenerator.Builder(secret).build();
+        HOTPGenerator parallel = new HOTPGenerator.Builder(secret).withParallelVerification(ForkJoinPool.commonPool(), 2).build();
+
+        for (long counter = 0; counter < 20; counter++) {
+            String code = sequential.generate(counter * 97);
+            assertThat(parallel.findCounter(code, 5000, 5000), is(sequential.findCounter(code, 5000, 5000)));
+        }
+    }
+
+    @Test
+    void findCounterInParallelWithInvalidCode_empty() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).withParallelVerification().build();
+
+        assertThat(generator.findCounter("abcdef", 500, 500), is(OptionalLong.empty()));
+    }
+
+    @Test
+    void verifyAtMaxCounter_doesNotWrapAround() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+        String code = generator.generate(Long.MAX_VALUE);
+        String otherCode = code.equals("000000") ? "000001" : "000000";
+
+        assertThat(generator.verify(code, Long.MAX_VALUE), is(true));
+        assertThat(generator.verify(otherCode, Long.MAX_VALUE), is(false));
+        assertThat(generator.findCounter(code, Long.MAX_VALUE - 1, 5), is(OptionalLong.of(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void findCounterInParallelAtMaxCounter_doesNotWrapAround() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).withParallelVerification(ForkJoinPool.commonPool(), 2).build();
+        String code = generator.generate(Long.MAX_VALUE);
+
+        assertThat(generator.findCounter(code, Long.MAX_VALUE - 10, 20), is(OptionalLong.of(Long.MAX_VALUE)));
+        assertThat(generator.findCounter(generator.generate(Long.MAX_VALUE - 30), Long.MAX_VALUE, 20), is(OptionalLong.empty()));
+    }
+
+    @Test
+    void findCounterWithNegativeDelayWindow_empty() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+
+        assertThat(generator.findCounter(generator.generate(10), 10, -1), is(OptionalLong.empty()));
+    }
+
+    @Test
+    void verifyWithNegativeDelayWindow_false() {
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+
+        assertThat(generator.verify(generator.generate(10), 10, -1), is(false));
+    }
+
     @Test
     void withDefaultValues_algorithm() {
         HOTPGenerator generator = HOTPGenerator.withDefaultValues(secret.getBytes());
@@ -221,6 +380,12 @@ class HOTPGeneratorTest {
             assertThrows(IllegalArgumentException.class, () -> new HOTPGenerator.Builder(new byte[]{}).build());
         }
 
+        @ParameterizedTest
+        @ValueSource(strings = { "not base32!", "ABC", "AB=CDEFG" })
+        void builderWithInvalidSecret_throwsIllegalArgumentException(String secret) {
+            assertThrows(IllegalArgumentException.class, () -> new HOTPGenerator.Builder(secret));
+        }
+
         @Test
         void builderWithPasswordLengthIs5_throwsIllegalArgumentException() {
             assertThrows(IllegalArgumentException.class, () -> {
@@ -273,6 +438,48 @@ class HOTPGeneratorTest {
             assertThrows(IllegalArgumentException.class, () -> new HOTPGenerator.Builder(secret).withPasswordLength(passwordLength).build());
         }
 
+        @ParameterizedTest
+        @MethodSource("com.bastiaanjansen.otp.HOTPGeneratorTest#testData")
+        void builderWithProvider_generatesSameCode(int passwordLength, long counter, HMACAlgorithm algorithm, String otp) {
+            HOTPGenerator generator = new HOTPGenerator.Builder(secret)
+                    .withPasswordLength(passwordLength)
+                    .withAlgorithm(algorithm)
+                    .withProvider("SunJCE")
+                    .build();
+
+            assertThat(generator.generate(counter), is(otp));
+        }
+
+        @Test
+        void builderWithProviderInstance() {
+            Provider provider = Security.getProvider("SunJCE");
+            HOTPGenerator generator = new HOTPGenerator.Builder(secret).withProvider(provider).build();
+
+            assertThat(generator.getProvider(), is(Optional.of(provider)));
+        }
+
+        @Test
+        void builderWithoutProvider_emptyProvider() {
+            HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
+
+            assertThat(generator.getProvider(), is(Optional.empty()));
+        }
+
+        @Test
+        void builderWithUnknownProvider_throwsIllegalArgumentException() {
+            assertThrows(IllegalArgumentException.class, () -> new HOTPGenerator.Builder(secret).withProvider("Unknown").build());
+        }
+
+        @Test
+        void builderWithProviderWithoutAlgorithm_throwsIllegalArgumentException() {
+            assertThrows(IllegalArgumentException.class, () -> new HOTPGenerator.Builder(secret).withProvider("SUN").build());
+        }
+
+        @Test
+        void builderWithParallelVerificationThresholdIs1_throwsIllegalArgumentException() {
+            assertThrows(IllegalArgumentException.class, () -> new HOTPGenerator.Builder(secret).withParallelVerification(ForkJoinPool.commonPool(), 1));
+        }
+
         @Test
         void builderWithoutAlgorithm_defaultAlgorithm() {
             HOTPGenerator generator = new HOTPGenerator.Builder(secret).build();
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.OptionalLong;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -56,6 +57,20 @@ class InMemoryCounterStorageTest {
         assertThat(storage.forIdentifier("another-identifier").markAsUsed(100), is(true));
     }
 
+    @Test
+    void lastUsedWithoutCounter_empty() {
+        assertThat(storage.forIdentifier("identifier").lastUsed(), is(OptionalLong.empty()));
+    }
+
+    @Test
+    void lastUsed_lastUsedCounter() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+        storage.forIdentifier("identifier").markAsUsed(99);
+
+        assertThat(storage.forIdentifier("identifier").lastUsed(), is(OptionalLong.of(100)));
+        assertThat(storage.forIdentifier("another-identifier").lastUsed(), is(OptionalLong.empty()));
+    }
+
     @Test
     void markAsUsedConcurrently_onlyOneSucceeds() throws Exception {
         int threads = 10;
@@ -0,0 +1,67 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+
+class InMemoryRecoveryCodeStorageTest {
+
+    private InMemoryRecoveryCodeStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = new InMemoryRecoveryCodeStorage();
+    }
+
+    @Test
+    void loadWithoutRecord_null() {
+        assertThat(storage.forIdentifier("identifier").load(), is(nullValue()));
+    }
+
+    @Test
+    void compareAndSetWithoutRecord_stores() {
+        assertThat(storage.forIdentifier("identifier").compareAndSet(null, new byte[] { 1, 2 }), is(true));
+        assertThat(storage.forIdentifier("identifier").load(), is(new byte[] { 1, 2 }));
+    }
+
+    @Test
+    void compareAndSetNullWithRecord_false() {
+        storage.forIdentifier("identifier").compareAndSet(null, new byte[] { 1, 2 });
+
+        assertThat(storage.forIdentifier("identifier").compareAndSet(null, new byte[] { 3 }), is(false));
+    }
+
+    @Test
+    void compareAndSetWithEqualRecord_replaces() {
+        storage.forIdentifier("identifier").compareAndSet(null, new byte[] { 1, 2 });
+
+        assertThat(storage.forIdentifier("identifier").compareAndSet(new byte[] { 1, 2 }, new byte[] { 3 }), is(true));
+        assertThat(storage.forIdentifier("identifier").load(), is(new byte[] { 3 }));
+    }
+
+    @Test
+    void compareAndSetWithDifferentRecord_false() {
+        storage.forIdentifier("identifier").compareAndSet(null, new byte[] { 1, 2 });
+
+        assertThat(storage.forIdentifier("identifier").compareAndSet(new byte[] { 1, 3 }, new byte[] { 3 }), is(false));
+        assertThat(storage.forIdentifier("identifier").load(), is(new byte[] { 1, 2 }));
+    }
+
+    @Test
+    void compareAndSetWithRecordOfOtherIdentifier_false() {
+        storage.forIdentifier("identifier").compareAndSet(null, new byte[] { 1, 2 });
+
+        assertThat(storage.forIdentifier("another-identifier").compareAndSet(new byte[] { 1, 2 }, new byte[] { 3 }), is(false));
+    }
+
+    @Test
+    void modifyLoadedRecord_doesNotChangeStoredRecord() {
+        storage.forIdentifier("identifier").compareAndSet(null, new byte[] { 1, 2 });
+        storage.forIdentifier("identifier").load()[0] = 9;
+
+        assertThat(storage.forIdentifier("identifier").load(), is(new byte[] { 1, 2 }));
+    }
+}
@@ -0,0 +1,243 @@
+package com.bastiaanjansen.otp;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JdbcCounterStorageTest {
+
+    private JdbcDataSource dataSource;
+
+    private JdbcCounterStorage storage;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        storage = new JdbcCounterStorage(dataSource);
+        storage.createTable();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    void markAsUsedFirstTime_true() {
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markAsUsedTwice_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(false));
+    }
+
+    @Test
+    void markOlderCounterAsUsed_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(99), is(false));
+    }
+
+    @Test
+    void markNewerCounterAsUsed_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(101), is(true));
+    }
+
+    @Test
+    void markCounterZeroAsUsed_true() {
+        assertThat(storage.forIdentifier("identifier").markAsUsed(0), is(true));
+    }
+
+    @Test
+    void markAsUsedWithDifferentIdentifier_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("another-identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markNegativeCounterAsUsed_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> storage.forIdentifier("identifier").markAsUsed(-1));
+    }
+
+    @Test
+    void forIdentifierTooLong_throwsIllegalArgumentException() {
+        String identifier = String.join("", Collections.nCopies(256, "a"));
+
+        assertThrows(IllegalArgumentException.class, () -> storage.forIdentifier(identifier));
+    }
+
+    @Test
+    void invalidTable_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new JdbcCounterStorage(dataSource, "counters; DROP TABLE users", Duration.ZERO, 1));
+    }
+
+    @Test
+    void markAsUsedInOtherInstance_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        try (JdbcCounterStorage other = new JdbcCounterStorage(dataSource)) {
+            assertThat(other.forIdentifier("identifier").markAsUsed(100), is(false));
+            assertThat(other.forIdentifier("identifier").markAsUsed(101), is(true));
+        }
+    }
+
+    @Test
+    void markAsUsedWithCustomTable_true() throws SQLException {
+        try (JdbcCounterStorage other = new JdbcCounterStorage(dataSource, "public.custom_counters", Duration.ZERO, 16)) {
+            other.createTable();
+
+            assertThat(other.forIdentifier("identifier").markAsUsed(100), is(true));
+            assertThat(other.forIdentifier("identifier").markAsUsed(100), is(false));
+        }
+    }
+
+    @Test
+    void markAsUsedWithoutTable_throwsIllegalStateException() {
+        try (JdbcCounterStorage other = new JdbcCounterStorage(dataSource, "missing", Duration.ZERO, 16)) {
+            assertThrows(IllegalStateException.class, () -> other.forIdentifier("identifier").markAsUsed(100));
+        }
+    }
+
+    @Test
+    void markAsUsedAfterClose_throwsIllegalStateException() {
+        CounterStorage counterStorage = storage.forIdentifier("identifier");
+        storage.close();
+
+        assertThrows(IllegalStateException.class, () -> counterStorage.markAsUsed(100));
+    }
+
+    @Test
+    void markAsUsedConcurrently_executesInBatches() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        int calls = 200;
+
+        try (JdbcCounterStorage batching = new JdbcCounterStorage(countingConnections(dataSource, connections),
+                JdbcCounterStorage.DEFAULT_TABLE, Duration.ofMillis(20), 64)) {
+            batching.forIdentifier("identifier-0").markAsUsed(0);
+            connections.set(0);
+
+            List<Callable<Boolean>> tasks = IntStream.range(0, calls)
+                    .mapToObj(i -> (Callable<Boolean>) () -> batching.forIdentifier("identifier-" + i % 10).markAsUsed(1))
+                    .collect(Collectors.toList());
+
+            long succeeded = count(tasks, 50);
+
+            assertThat(succeeded, is(10L));
+            assertThat(connections.get(), lessThan(calls / 4));
+        }
+    }
+
+    @Test
+    void markAsUsedConcurrentlyInTwoInstances_onlyOneSucceeds() throws Exception {
+        int threads = 10;
+
+        try (JdbcCounterStorage other = new JdbcCounterStorage(dataSource, JdbcCounterStorage.DEFAULT_TABLE, Duration.ZERO, 4)) {
+            for (int counter = 0; counter < 50; counter++) {
+                long current = counter;
+                List<Callable<Boolean>> tasks = IntStream.range(0, threads)
+                        .mapToObj(i -> (Callable<Boolean>) () -> (i % 2 == 0 ? storage : other)
+                                .forIdentifier("identifier-" + current % 8).markAsUsed(current))
+                        .collect(Collectors.toList());
+
+                assertThat(count(tasks, threads), is(1L));
+            }
+        }
+    }
+
+    private static long count(List<Callable<Boolean>> tasks, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            long succeeded = 0;
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                if (future.get()) succeeded++;
+            }
+            return succeeded;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void markAsUsedWhenCommitFails_throwsAndAcceptsCounterLater() {
+        AtomicBoolean failCommit = new AtomicBoolean();
+        JdbcCounterStorage failing = new JdbcCounterStorage(failingCommits(dataSource, failCommit));
+
+        try {
+            failing.forIdentifier("identifier").markAsUsed(100);
+            failCommit.set(true);
+
+            // The update of the batch is rolled back, so the counter must not be reported as stored
+            assertThrows(IllegalStateException.class, () -> failing.forIdentifier("identifier").markAsUsed(101));
+
+            failCommit.set(false);
+            assertThat(failing.forIdentifier("identifier").markAsUsed(101), is(true));
+        } finally {
+            failing.close();
+        }
+    }
+
+    /**
+     * Connections of which the commit fails while failCommit is set
+     */
+    private static DataSource failingCommits(DataSource dataSource, AtomicBoolean failCommit) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> {
+                    Object result = method.invoke(dataSource, args);
+                    if (!(result instanceof Connection)) return result;
+
+                    Connection connection = (Connection) result;
+                    return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                            (connectionProxy, connectionMethod, connectionArgs) -> {
+                                if (connectionMethod.getName().equals("commit") && failCommit.get())
+                                    throw new SQLException("Commit failed", "08006");
+                                try {
+                                    return connectionMethod.invoke(connection, connectionArgs);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            });
+                });
+    }
+
+    private static DataSource countingConnections(DataSource dataSource, AtomicInteger connections) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> {
+                    Object result = method.invoke(dataSource, args);
+                    if (result instanceof Connection) connections.incrementAndGet();
+                    return result;
+                });
+    }
+}
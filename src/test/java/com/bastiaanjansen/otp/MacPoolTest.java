@@ -0,0 +1,118 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class MacPoolTest {
+
+    private final HOTPGenerator generator = new HOTPGenerator.Builder("vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q").build();
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private Mac createMac() {
+        created.incrementAndGet();
+        return generator.createMac();
+    }
+
+    @Test
+    void acquireFromEmptyPool_createsMacWithBuffer() {
+        MacPool pool = new MacPool(this::createMac, 2);
+
+        MacPool.Entry entry = pool.acquire();
+
+        assertThat(created.get(), is(1));
+        assertThat(entry.buffer.length, is(entry.mac.getMacLength()));
+    }
+
+    @Test
+    void acquireAfterRelease_reusesMac() {
+        MacPool pool = new MacPool(this::createMac, 2);
+        MacPool.Entry entry = pool.acquire();
+        pool.release(entry);
+
+        assertThat(pool.acquire(), sameInstance(entry));
+        assertThat(created.get(), is(1));
+    }
+
+    @Test
+    void acquireWhileAcquired_createsOtherMac() {
+        MacPool pool = new MacPool(this::createMac, 2);
+
+        assertThat(pool.acquire(), not(sameInstance(pool.acquire())));
+        assertThat(created.get(), is(2));
+    }
+
+    @Test
+    void releaseToFullPool_dropsMac() {
+        MacPool pool = new MacPool(this::createMac, 1);
+        MacPool.Entry first = pool.acquire();
+        MacPool.Entry second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+
+        assertThat(pool.acquire(), sameInstance(first));
+        assertThat(pool.acquire(), not(sameInstance(second)));
+        assertThat(created.get(), is(3));
+    }
+
+    @Test
+    void acquireWithSize0_createsMacEveryTime() {
+        MacPool pool = new MacPool(this::createMac, 0);
+        pool.release(pool.acquire());
+        pool.release(pool.acquire());
+
+        assertThat(created.get(), is(2));
+    }
+
+    @Test
+    void releaseAfterUpdate_resetsMac() throws Exception {
+        MacPool pool = new MacPool(this::createMac, 1);
+        MacPool.Entry entry = pool.acquire();
+        entry.mac.update(new byte[] { 1, 2, 3 });
+        pool.release(entry);
+
+        assertThat(generator.generateValue(pool.acquire().mac, 1, entry.buffer), is(generator.generateValue(1)));
+    }
+
+    @Test
+    void acquireConcurrently_neverSharesMac() throws Exception {
+        MacPool pool = new MacPool(this::createMac, 4);
+        Set<MacPool.Entry> inUse = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+        AtomicInteger shared = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        MacPool.Entry entry = pool.acquire();
+                        if (!inUse.add(entry)) shared.incrementAndGet();
+                        inUse.remove(entry);
+                        pool.release(entry);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(shared.get(), is(0));
+    }
+}
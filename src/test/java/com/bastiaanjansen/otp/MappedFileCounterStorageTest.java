@@ -0,0 +1,212 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedFileCounterStorageTest {
+
+    @TempDir
+    Path directory;
+
+    private Path path;
+
+    private MappedFileCounterStorage storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        path = directory.resolve("counters");
+        storage = new MappedFileCounterStorage(path, 4);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        storage.close();
+    }
+
+    @Test
+    void markAsUsedFirstTime_true() {
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markAsUsedTwice_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(false));
+    }
+
+    @Test
+    void markOlderCounterAsUsed_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(99), is(false));
+    }
+
+    @Test
+    void markNewerCounterAsUsed_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(101), is(true));
+    }
+
+    @Test
+    void markCounterZeroAsUsed_true() {
+        assertThat(storage.forIdentifier("identifier").markAsUsed(0), is(true));
+    }
+
+    @Test
+    void markAsUsedWithDifferentIdentifier_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("another-identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markNegativeCounterAsUsed_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> storage.forIdentifier("identifier").markAsUsed(-1));
+    }
+
+    @Test
+    void markAsUsedInOtherInstance_false() throws IOException {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        try (MappedFileCounterStorage other = new MappedFileCounterStorage(path)) {
+            assertThat(other.forIdentifier("identifier").markAsUsed(100), is(false));
+        }
+    }
+
+    @Test
+    void markAsUsedBeyondCapacity_growsAndKeepsCounters() {
+        int identifiers = 100;
+        for (int i = 0; i < identifiers; i++) {
+            assertThat(storage.forIdentifier("identifier-" + i).markAsUsed(100), is(true));
+        }
+
+        assertThat(Files.exists(directory.resolve("counters.1")), is(true));
+        for (int i = 0; i < identifiers; i++) {
+            assertThat(storage.forIdentifier("identifier-" + i).markAsUsed(100), is(false));
+            assertThat(storage.forIdentifier("identifier-" + i).markAsUsed(101), is(true));
+        }
+    }
+
+    @Test
+    void markAsUsedAfterGrowing_doesNotAddEntriesToOlderTables() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            storage.forIdentifier("identifier-" + i).markAsUsed(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            storage.forIdentifier("identifier-" + i).lastUsed();
+            storage.forIdentifier("identifier-" + i).markAsUsed(i + 1);
+        }
+
+        // Every table stops taking entries when it is three quarters full, older tables stay that way
+        for (int generation = 0; Files.exists(generationPath(generation)); generation++) {
+            long[] header = header(generationPath(generation));
+            assertThat(header[2] <= header[1] / 4 * 3, is(true));
+        }
+    }
+
+    @Test
+    void lastUsedWithoutCounter_empty() {
+        assertThat(storage.forIdentifier("identifier").lastUsed(), is(OptionalLong.empty()));
+    }
+
+    @Test
+    void lastUsed_lastUsedCounter() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+        storage.forIdentifier("identifier").markAsUsed(99);
+
+        assertThat(storage.forIdentifier("identifier").lastUsed(), is(OptionalLong.of(100)));
+    }
+
+    @Test
+    void lastUsedOfCounterZero_zero() {
+        storage.forIdentifier("identifier").markAsUsed(0);
+
+        assertThat(storage.forIdentifier("identifier").lastUsed(), is(OptionalLong.of(0)));
+    }
+
+    @Test
+    void lastUsedAfterGrowing_keepsCounters() {
+        for (int i = 0; i < 100; i++) {
+            storage.forIdentifier("identifier-" + i).markAsUsed(i);
+        }
+
+        assertThat(Files.exists(directory.resolve("counters.1")), is(true));
+        for (int i = 0; i < 100; i++) {
+            assertThat(storage.forIdentifier("identifier-" + i).lastUsed(), is(OptionalLong.of(i)));
+        }
+    }
+
+    @Test
+    void markAsUsedAfterOtherInstanceGrew_false() throws IOException {
+        try (MappedFileCounterStorage other = new MappedFileCounterStorage(path)) {
+            storage.forIdentifier("identifier").markAsUsed(100);
+
+            for (int i = 0; i < 100; i++) {
+                other.forIdentifier("identifier-" + i).markAsUsed(100);
+            }
+
+            assertThat(other.forIdentifier("identifier").markAsUsed(100), is(false));
+            assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(false));
+            assertThat(storage.forIdentifier("identifier-50").markAsUsed(100), is(false));
+        }
+    }
+
+    @Test
+    void markAsUsedConcurrentlyInTwoInstances_onlyOneSucceeds() throws Exception {
+        int threads = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (MappedFileCounterStorage other = new MappedFileCounterStorage(path)) {
+            for (int counter = 0; counter < 50; counter++) {
+                long current = counter;
+                List<Callable<Boolean>> tasks = IntStream.range(0, threads)
+                        .mapToObj(i -> (Callable<Boolean>) () -> (i % 2 == 0 ? storage : other)
+                                .forIdentifier("identifier-" + current % 8).markAsUsed(current))
+                        .collect(Collectors.toList());
+
+                long succeeded = 0;
+                for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                    if (future.get()) succeeded++;
+                }
+
+                assertThat(succeeded, is(1L));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Path generationPath(final int generation) {
+        return generation == 0 ? path : directory.resolve("counters." + generation);
+    }
+
+    /**
+     * @return magic, capacity and size of a table
+     */
+    private static long[] header(final Path table) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(table), 0, 24).order(ByteOrder.nativeOrder());
+        return new long[] { header.getLong(0), header.getLong(8), header.getLong(16) };
+    }
+}
@@ -0,0 +1,74 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MigrationDecoderTest {
+
+    private static final String EXPORT = "otpauth-migration://offline?data=CjEKCkhlbGxvId6tvu8SGEV4YW1wbGU6YWxpY2VAZ29vZ2xlLmNvbRoHRXhhbXBsZSABKAEwAhABGAEgACjr4JKK%2BP%2F%2F%2F%2F8B";
+
+    @Test
+    void decodeExport() throws URISyntaxException {
+        List<MigrationEntry> entries = new ArrayList<>();
+
+        MigrationDecoder.decode(new URI(EXPORT), entries::add);
+
+        assertThat(entries.size(), is(1));
+        assertThat(entries.get(0).getSecret(), is("JBSWY3DPEHPK3PXP"));
+        assertThat(entries.get(0).getAccount(), is("Example:alice@google.com"));
+        assertThat(entries.get(0).getIssuer(), is("Example"));
+        assertThat(entries.get(0).getAlgorithm(), is(HMACAlgorithm.SHA1));
+        assertThat(entries.get(0).getPasswordLength(), is(6));
+        assertThat(entries.get(0).getType(), is(MigrationEntry.Type.TOTP));
+    }
+
+    @Test
+    void decodeExport_toTOTPGenerator() throws URISyntaxException {
+        List<MigrationEntry> entries = new ArrayList<>();
+        MigrationDecoder.decode(new URI(EXPORT), entries::add);
+
+        TOTPGenerator generator = entries.get(0).toTOTPGenerator();
+        TOTPGenerator expected = new TOTPGenerator.Builder("JBSWY3DPEHPK3PXP").build();
+
+        assertThat(generator.at(1000), is(expected.at(1000)));
+    }
+
+    @Test
+    void decodeExport_toHOTPGenerator_throwsIllegalStateException() throws URISyntaxException {
+        List<MigrationEntry> entries = new ArrayList<>();
+        MigrationDecoder.decode(new URI(EXPORT), entries::add);
+
+        assertThrows(IllegalStateException.class, () -> entries.get(0).toHOTPGenerator());
+    }
+
+    @Test
+    void decodeExportWithUnescapedPlus() throws URISyntaxException {
+        List<MigrationEntry> entries = new ArrayList<>();
+
+        MigrationDecoder.decode(new URI(EXPORT.replace("%2B", "+")), entries::add);
+
+        assertThat(entries.size(), is(1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "otpauth://totp/issuer?data=CjEK",
+            "otpauth-migration://online?data=CjEK",
+            "otpauth-migration://offline?secret=CjEK",
+            "otpauth-migration://offline?data=not-base64!",
+            "otpauth-migration://offline?data=CjEKCkhlbGxv"
+    })
+    void decodeInvalidURI_throwsURISyntaxException(String uri) {
+        assertThrows(URISyntaxException.class, () -> MigrationDecoder.decode(new URI(uri), entry -> {}));
+    }
+}
@@ -0,0 +1,137 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MigrationEncoderTest {
+
+    private final String secret = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+
+    @Test
+    void encodeSingleEntry_startsWithScheme() throws URISyntaxException {
+        List<URI> uris = new ArrayList<>();
+        MigrationEncoder encoder = new MigrationEncoder(1, uris::add);
+
+        encoder.add(MigrationEntry.fromTOTPGenerator(new TOTPGenerator.Builder(secret).build(), "issuer", "account"));
+        encoder.finish();
+
+        assertThat(uris.size(), is(1));
+        assertThat(uris.get(0).toString(), startsWith("otpauth-migration://offline?data="));
+    }
+
+    @Test
+    void encodeAndDecode_roundTrip() throws URISyntaxException {
+        List<URI> uris = new ArrayList<>();
+        MigrationEncoder encoder = new MigrationEncoder(2, uris::add);
+        TOTPGenerator totpGenerator = new TOTPGenerator.Builder(secret)
+                .withHOTPGenerator(builder -> {
+                    builder.withAlgorithm(HMACAlgorithm.SHA256);
+                    builder.withPasswordLength(8);
+                })
+                .build();
+        HOTPGenerator hotpGenerator = new HOTPGenerator.Builder(secret).build();
+
+        encoder.add(MigrationEntry.fromTOTPGenerator(totpGenerator, "issuer", "totp account"));
+        encoder.add(MigrationEntry.fromHOTPGenerator(hotpGenerator, 42, "issuer", "hotp account"));
+        encoder.finish();
+
+        List<MigrationEntry> entries = new ArrayList<>();
+        MigrationDecoder.decode(uris, entries::add);
+
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).getAccount(), is("totp account"));
+        assertThat(entries.get(0).toTOTPGenerator().at(1000), is(totpGenerator.at(1000)));
+        assertThat(entries.get(1).getCounter(), is(42L));
+        assertThat(entries.get(1).toHOTPGenerator().generate(42), is(hotpGenerator.generate(42)));
+    }
+
+    @Test
+    void encodeMoreEntriesThanBatchSize_splitsIntoBatches() throws URISyntaxException {
+        List<URI> uris = new ArrayList<>();
+        MigrationEncoder encoder = new MigrationEncoder(5, 2, uris::add);
+        MigrationEntry entry = MigrationEntry.fromTOTPGenerator(new TOTPGenerator.Builder(secret).build(), "issuer", "account");
+
+        for (int i = 0; i < 5; i++) encoder.add(entry);
+        encoder.finish();
+
+        List<MigrationEntry> entries = new ArrayList<>();
+        MigrationDecoder.decode(uris, entries::add);
+
+        assertThat(uris.size(), is(3));
+        assertThat(entries.size(), is(5));
+    }
+
+    @Test
+    void decodeBatchesOfDifferentExports_throwsURISyntaxException() throws URISyntaxException {
+        List<URI> uris = new ArrayList<>();
+        MigrationEntry entry = MigrationEntry.fromTOTPGenerator(new TOTPGenerator.Builder(secret).build(), "issuer", "account");
+
+        for (int i = 0; i < 2; i++) {
+            MigrationEncoder encoder = new MigrationEncoder(1, uris::add);
+            encoder.add(entry);
+            encoder.finish();
+        }
+
+        assertThrows(URISyntaxException.class, () -> MigrationDecoder.decode(uris, e -> {}));
+    }
+
+    @Test
+    void decodeBatchesOfDifferentExports_passesNoEntryOfOtherExport() throws URISyntaxException {
+        List<URI> uris = new ArrayList<>();
+        MigrationEntry entry = MigrationEntry.fromTOTPGenerator(new TOTPGenerator.Builder(secret).build(), "issuer", "account");
+
+        for (int i = 0; i < 2; i++) {
+            MigrationEncoder encoder = new MigrationEncoder(1, uris::add);
+            encoder.add(entry);
+            encoder.finish();
+        }
+
+        List<MigrationEntry> entries = new ArrayList<>();
+        assertThrows(URISyntaxException.class, () -> MigrationDecoder.decode(uris, entries::add));
+
+        assertThat(entries.size(), is(1));
+    }
+
+    @Test
+    void addMoreEntriesThanTotal_throwsIllegalStateException() throws URISyntaxException {
+        MigrationEncoder encoder = new MigrationEncoder(1, uri -> {});
+        MigrationEntry entry = MigrationEntry.fromTOTPGenerator(new TOTPGenerator.Builder(secret).build(), "issuer", "account");
+        encoder.add(entry);
+
+        assertThrows(IllegalStateException.class, () -> encoder.add(entry));
+    }
+
+    @Test
+    void finishWithMissingEntries_throwsIllegalStateException() {
+        MigrationEncoder encoder = new MigrationEncoder(1, uri -> {});
+
+        assertThrows(IllegalStateException.class, encoder::finish);
+    }
+
+    @Test
+    void fromTOTPGeneratorWithUnsupportedAlgorithm_throwsIllegalArgumentException() {
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret)
+                .withHOTPGenerator(builder -> builder.withAlgorithm(HMACAlgorithm.SHA224))
+                .build();
+        MigrationEncoder encoder = new MigrationEncoder(1, uri -> {});
+
+        assertThrows(IllegalArgumentException.class, () -> encoder.add(MigrationEntry.fromTOTPGenerator(generator, "issuer", "account")));
+    }
+
+    @Test
+    void fromTOTPGeneratorWithCustomPeriod_throwsIllegalArgumentException() {
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret).withPeriod(Duration.ofSeconds(60)).build();
+
+        assertThrows(IllegalArgumentException.class, () -> MigrationEntry.fromTOTPGenerator(generator, "issuer", "account"));
+    }
+}
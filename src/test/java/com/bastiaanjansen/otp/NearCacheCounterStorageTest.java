@@ -0,0 +1,150 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NearCacheCounterStorageTest {
+
+    private InMemoryCounterStorage remote;
+
+    private AtomicInteger remoteCalls;
+
+    private AtomicBoolean remoteDown;
+
+    private NearCacheCounterStorage.Builder builder;
+
+    @BeforeEach
+    void setUp() {
+        remote = new InMemoryCounterStorage();
+        remoteCalls = new AtomicInteger();
+        remoteDown = new AtomicBoolean();
+        builder = new NearCacheCounterStorage.Builder(identifier -> counter -> {
+            remoteCalls.incrementAndGet();
+            if (remoteDown.get()) throw new IllegalStateException("Counter storage did not respond in time");
+            return remote.forIdentifier(identifier).markAsUsed(counter);
+        });
+    }
+
+    @Test
+    void markAsUsedFirstTime_trueFromRemote() {
+        NearCacheCounterStorage storage = builder.build();
+
+        assertThat(storage.forIdentifier("user").markAsUsed(100), is(true));
+        assertThat(remoteCalls.get(), is(1));
+        assertThat(remote.forIdentifier("user").lastUsed(), is(OptionalLong.of(100)));
+    }
+
+    @Test
+    void markAsUsedReplay_rejectedWithoutRemoteCall() {
+        NearCacheCounterStorage storage = builder.build();
+        storage.forIdentifier("user").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("user").markAsUsed(100), is(false));
+        assertThat(storage.forIdentifier("user").markAsUsed(99), is(false));
+        assertThat(remoteCalls.get(), is(1));
+        assertThat(storage.getLocalRejections(), is(2L));
+    }
+
+    @Test
+    void markAsUsedGreaterCounter_forwardedToRemote() {
+        NearCacheCounterStorage storage = builder.build();
+        storage.forIdentifier("user").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("user").markAsUsed(101), is(true));
+        assertThat(remoteCalls.get(), is(2));
+    }
+
+    @Test
+    void markAsUsedOnOtherNode_rejectedByRemoteThenLocally() {
+        NearCacheCounterStorage storage = builder.build();
+        remote.forIdentifier("user").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("user").markAsUsed(100), is(false));
+        assertThat(storage.forIdentifier("user").markAsUsed(100), is(false));
+        assertThat(remoteCalls.get(), is(1));
+    }
+
+    @Test
+    void markAsUsedOtherIdentifier_forwardedToRemote() {
+        NearCacheCounterStorage storage = builder.build();
+        storage.forIdentifier("user").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("other-user").markAsUsed(100), is(true));
+        assertThat(remoteCalls.get(), is(2));
+    }
+
+    @Test
+    void markAsUsedWithCollidingIdentifiers_remoteDecides() {
+        NearCacheCounterStorage storage = builder.withCapacity(1).build();
+
+        assertThat(storage.forIdentifier("first").markAsUsed(100), is(true));
+        assertThat(storage.forIdentifier("second").markAsUsed(100), is(true));
+        // The entry of the first identifier was replaced, so the remote store rejects the replay
+        assertThat(storage.forIdentifier("first").markAsUsed(100), is(false));
+        assertThat(remoteCalls.get(), is(3));
+    }
+
+    @Test
+    void markAsUsedWhenRemoteFails_throws() {
+        NearCacheCounterStorage storage = builder.build();
+        remoteDown.set(true);
+
+        assertThrows(IllegalStateException.class, () -> storage.forIdentifier("user").markAsUsed(100));
+    }
+
+    @Test
+    void markAsUsedWhenRemoteFailsWithLocalFallback_decidedLocally() {
+        NearCacheCounterStorage storage = builder.withLocalFallback().build();
+        storage.forIdentifier("user").markAsUsed(100);
+        remoteDown.set(true);
+
+        assertThat(storage.forIdentifier("user").markAsUsed(101), is(true));
+        assertThat(storage.forIdentifier("user").markAsUsed(101), is(false));
+        assertThat(storage.forIdentifier("user").markAsUsed(100), is(false));
+        assertThat(storage.getFallbacks(), is(1L));
+    }
+
+    @Test
+    void lastUsedWithoutCounter_empty() {
+        assertThat(builder.build().forIdentifier("user").lastUsed(), is(OptionalLong.empty()));
+    }
+
+    @Test
+    void lastUsed_cachedCounter() {
+        NearCacheCounterStorage storage = builder.build();
+        storage.forIdentifier("user").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("user").lastUsed(), is(OptionalLong.of(100)));
+        assertThat(storage.forIdentifier("other-user").lastUsed(), is(OptionalLong.empty()));
+    }
+
+    @Test
+    void verifyReplayedCode_rejectedWithoutRemoteCall() {
+        NearCacheCounterStorage storage = builder.build();
+        TOTPGenerator generator = new TOTPGenerator.Builder("vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q")
+                .withClock(Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC")))
+                .withCounterStorage(storage.forIdentifier("user"))
+                .build();
+        String code = generator.now();
+
+        assertThat(generator.verify(code, 1), is(true));
+        assertThat(generator.verify(code, 1), is(false));
+        assertThat(remoteCalls.get(), is(1));
+    }
+
+    @Test
+    void withCapacity0_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> builder.withCapacity(0));
+    }
+}
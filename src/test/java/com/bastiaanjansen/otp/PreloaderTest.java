@@ -0,0 +1,21 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+class PreloaderTest {
+
+    @Test
+    void preload_doesNotThrow() {
+        assertDoesNotThrow(() -> Preloader.preload());
+    }
+
+    @ParameterizedTest
+    @EnumSource(HMACAlgorithm.class)
+    void preloadAlgorithm_doesNotThrow(HMACAlgorithm algorithm) {
+        assertDoesNotThrow(() -> Preloader.preload(algorithm));
+    }
+}
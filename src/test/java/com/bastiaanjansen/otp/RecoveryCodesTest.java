@@ -0,0 +1,229 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecoveryCodesTest {
+
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+
+    private RecoveryCodes recoveryCodes;
+
+    private InMemoryRecoveryCodeStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        recoveryCodes = new RecoveryCodes.Builder(KEY).build();
+        storage = new InMemoryRecoveryCodeStorage();
+    }
+
+    @Test
+    void generate_defaultCountAndFormat() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+
+        assertThat(codes.length, is(10));
+        for (String code : codes) {
+            assertThat(code.matches("[A-Z2-7]{4}-[A-Z2-7]{4}-[A-Z2-7]{4}-[A-Z2-7]{4}"), is(true));
+        }
+        assertThat(Arrays.stream(codes).distinct().count(), is(10L));
+    }
+
+    @Test
+    void generate_storesOnlyHashes() {
+        RecoveryCodeStorage userStorage = storage.forIdentifier("identifier");
+        recoveryCodes.generate(userStorage);
+
+        assertThat(userStorage.load().length, is(10 * RecoveryCodes.HASH_LENGTH));
+    }
+
+    @Test
+    void generateWithOptions_customCountAndFormat() {
+        RecoveryCodes custom = new RecoveryCodes.Builder(KEY).withCount(3).withLength(12).withGroupSize(6).build();
+
+        String[] codes = custom.generate(storage.forIdentifier("identifier"));
+
+        assertThat(codes.length, is(3));
+        assertThat(codes[0].matches("[A-Z2-7]{6}-[A-Z2-7]{6}"), is(true));
+    }
+
+    @Test
+    void consumeGeneratedCode_true() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+
+        assertThat(recoveryCodes.consume(codes[3], storage.forIdentifier("identifier")), is(true));
+    }
+
+    @Test
+    void consumeCodeTwice_false() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+        recoveryCodes.consume(codes[3], storage.forIdentifier("identifier"));
+
+        assertThat(recoveryCodes.consume(codes[3], storage.forIdentifier("identifier")), is(false));
+    }
+
+    @Test
+    void consumeEveryCode_true() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+
+        for (String code : codes) {
+            assertThat(recoveryCodes.consume(code, storage.forIdentifier("identifier")), is(true));
+        }
+        assertThat(recoveryCodes.remaining(storage.forIdentifier("identifier")), is(0));
+    }
+
+    @Test
+    void consumeCodeWithoutSeparatorsInLowerCase_true() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+        String entered = " " + codes[0].replace("-", " ").toLowerCase() + " ";
+
+        assertThat(recoveryCodes.consume(entered, storage.forIdentifier("identifier")), is(true));
+    }
+
+    @Test
+    void consumeUnknownCode_false() {
+        recoveryCodes.generate(storage.forIdentifier("identifier"));
+
+        assertThat(recoveryCodes.consume("AAAA-AAAA-AAAA-AAAA", storage.forIdentifier("identifier")), is(false));
+    }
+
+    @Test
+    void consumeCodeWithWrongLength_false() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+
+        assertThat(recoveryCodes.consume(codes[0] + "A", storage.forIdentifier("identifier")), is(false));
+    }
+
+    @Test
+    void consumeWithoutGeneratedCodes_false() {
+        assertThat(recoveryCodes.consume("AAAA-AAAA-AAAA-AAAA", storage.forIdentifier("identifier")), is(false));
+    }
+
+    @Test
+    void consumeCodeOfOtherIdentifier_false() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+        recoveryCodes.generate(storage.forIdentifier("another-identifier"));
+
+        assertThat(recoveryCodes.consume(codes[0], storage.forIdentifier("another-identifier")), is(false));
+    }
+
+    @Test
+    void consumeWithOtherKey_false() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+        RecoveryCodes otherKey = new RecoveryCodes.Builder("fedcba9876543210fedcba9876543210".getBytes()).build();
+
+        assertThat(otherKey.consume(codes[0], storage.forIdentifier("identifier")), is(false));
+    }
+
+    @Test
+    void consumeCodeAfterRegenerate_false() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+        recoveryCodes.generate(storage.forIdentifier("identifier"));
+
+        assertThat(recoveryCodes.consume(codes[0], storage.forIdentifier("identifier")), is(false));
+    }
+
+    @Test
+    void remaining_countsUnusedCodes() {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+        recoveryCodes.consume(codes[0], storage.forIdentifier("identifier"));
+        recoveryCodes.consume(codes[5], storage.forIdentifier("identifier"));
+
+        assertThat(recoveryCodes.remaining(storage.forIdentifier("identifier")), is(8));
+    }
+
+    @Test
+    void remainingWithoutGeneratedCodes_zero() {
+        assertThat(recoveryCodes.remaining(storage.forIdentifier("identifier")), is(0));
+    }
+
+    @Test
+    void consumeSameCodeConcurrently_onlyOneSucceeds() throws Exception {
+        int threads = 10;
+
+        for (int round = 0; round < 20; round++) {
+            String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+            List<Callable<Boolean>> tasks = IntStream.range(0, threads)
+                    .mapToObj(i -> (Callable<Boolean>) () -> recoveryCodes.consume(codes[0], storage.forIdentifier("identifier")))
+                    .collect(Collectors.toList());
+
+            assertThat(count(tasks, threads), is(1L));
+        }
+    }
+
+    @Test
+    void consumeDifferentCodesConcurrently_allSucceed() throws Exception {
+        String[] codes = recoveryCodes.generate(storage.forIdentifier("identifier"));
+        List<Callable<Boolean>> tasks = Arrays.stream(codes)
+                .map(code -> (Callable<Boolean>) () -> recoveryCodes.consume(code, storage.forIdentifier("identifier")))
+                .collect(Collectors.toList());
+
+        assertThat(count(tasks, codes.length), is((long) codes.length));
+        assertThat(recoveryCodes.remaining(storage.forIdentifier("identifier")), is(0));
+    }
+
+    @Test
+    void find_returnsMatchingSlot() {
+        byte[] record = new byte[4 * RecoveryCodes.HASH_LENGTH];
+        byte[] hash = new byte[RecoveryCodes.HASH_LENGTH];
+        Arrays.fill(hash, (byte) 0x80);
+        System.arraycopy(hash, 0, record, 2 * RecoveryCodes.HASH_LENGTH, RecoveryCodes.HASH_LENGTH);
+
+        assertThat(RecoveryCodes.find(record, hash), is(2));
+    }
+
+    @Test
+    void find_differentLastByte_notFound() {
+        byte[] record = new byte[RecoveryCodes.HASH_LENGTH];
+        byte[] hash = new byte[RecoveryCodes.HASH_LENGTH];
+        hash[RecoveryCodes.HASH_LENGTH - 1] = 1;
+
+        assertThat(RecoveryCodes.find(record, hash), is(-1));
+    }
+
+    @Test
+    void buildWithShortKey_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new RecoveryCodes.Builder(new byte[8]));
+    }
+
+    @Test
+    void buildWithZeroCount_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new RecoveryCodes.Builder(KEY).withCount(0));
+    }
+
+    @Test
+    void buildWithShortLength_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new RecoveryCodes.Builder(KEY).withLength(8));
+    }
+
+    @Test
+    void buildWithZeroGroupSize_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new RecoveryCodes.Builder(KEY).withGroupSize(0));
+    }
+
+    private static long count(List<Callable<Boolean>> tasks, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            long succeeded = 0;
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                if (future.get()) succeeded++;
+            }
+            return succeeded;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
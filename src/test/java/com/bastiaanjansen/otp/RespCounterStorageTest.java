@@ -0,0 +1,258 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RespCounterStorageTest {
+
+    private FakeRespServer server;
+
+    private RespCounterStorage storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeRespServer();
+        storage = new RespCounterStorage.Builder(server.address()).build();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        storage.close();
+        server.close();
+    }
+
+    @Test
+    void markAsUsedFirstTime_true() {
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markAsUsedTwice_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(false));
+    }
+
+    @Test
+    void markOlderCounterAsUsed_false() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(99), is(false));
+    }
+
+    @Test
+    void markNewerCounterAsUsed_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(101), is(true));
+    }
+
+    @Test
+    void markAsUsedWithDifferentIdentifier_true() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        assertThat(storage.forIdentifier("another-identifier").markAsUsed(100), is(true));
+    }
+
+    @Test
+    void markNegativeCounterAsUsed_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> storage.forIdentifier("identifier").markAsUsed(-1));
+    }
+
+    @Test
+    void markAsUsedInOtherInstance_false() throws IOException {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        try (RespCounterStorage other = new RespCounterStorage.Builder(server.address()).build()) {
+            assertThat(other.forIdentifier("identifier").markAsUsed(100), is(false));
+        }
+    }
+
+    @Test
+    void markAsUsedAfterScriptsFlushed_evaluatesScriptAgain() {
+        storage.forIdentifier("identifier").markAsUsed(100);
+        server.flushScripts();
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(100), is(false));
+        assertThat(storage.forIdentifier("identifier").markAsUsed(101), is(true));
+    }
+
+    @Test
+    void markAsUsedAfterDisconnect_reconnects() throws IOException, InterruptedException {
+        storage.forIdentifier("identifier").markAsUsed(100);
+        server.disconnectClients();
+        // Give the I/O thread the chance to notice the closed connections
+        Thread.sleep(100);
+
+        assertThat(storage.forIdentifier("identifier").markAsUsed(101), is(true));
+        assertThat(storage.forIdentifier("identifier").markAsUsed(101), is(false));
+    }
+
+    @Test
+    void markAsUsedWithKeyPrefix_keepsCountersApart() throws IOException {
+        storage.forIdentifier("identifier").markAsUsed(100);
+
+        try (RespCounterStorage other = new RespCounterStorage.Builder(server.address()).withKeyPrefix("other:").build()) {
+            assertThat(other.forIdentifier("identifier").markAsUsed(100), is(true));
+        }
+    }
+
+    @Test
+    void markAsUsedWithExpiry_forgetsCounterAfterExpiry() throws IOException, InterruptedException {
+        try (RespCounterStorage expiring = new RespCounterStorage.Builder(server.address())
+                .withKeyPrefix("expiring:")
+                .withExpiry(Duration.ofMillis(50))
+                .build()) {
+            expiring.forIdentifier("identifier").markAsUsed(100);
+            Thread.sleep(100);
+
+            assertThat(expiring.forIdentifier("identifier").markAsUsed(100), is(true));
+        }
+    }
+
+    @Test
+    void buildWithPassword_authenticates() throws IOException {
+        try (FakeRespServer protectedServer = new FakeRespServer("secret");
+             RespCounterStorage authenticated = new RespCounterStorage.Builder(protectedServer.address())
+                     .withPassword("secret")
+                     .build()) {
+            assertThat(authenticated.forIdentifier("identifier").markAsUsed(100), is(true));
+        }
+    }
+
+    @Test
+    void buildWithWrongPassword_throwsIOException() throws IOException {
+        try (FakeRespServer protectedServer = new FakeRespServer("secret")) {
+            assertThrows(IOException.class,
+                    () -> new RespCounterStorage.Builder(protectedServer.address()).withPassword("wrong").build());
+        }
+    }
+
+    @Test
+    void buildWithEmptyAuthenticationReply_throwsIOException() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread replier = new Thread(() -> {
+                try (Socket client = server.accept()) {
+                    client.getInputStream().read(new byte[64]);
+                    client.getOutputStream().write("\r\n".getBytes(US_ASCII));
+                    client.getInputStream().read();
+                } catch (IOException ignored) {
+                    // The client disconnects after the reply
+                }
+            });
+            replier.start();
+
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            assertThrows(IOException.class, () -> new RespCounterStorage.Builder(address).withPassword("secret").build());
+            replier.join(5000);
+        }
+    }
+
+    @Test
+    void buildWithoutServer_throwsIOException() {
+        // Not in the ephemeral range, where connecting to a closed port can connect the socket to itself
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 1);
+
+        assertThrows(IOException.class, () -> new RespCounterStorage.Builder(address).build());
+    }
+
+    @Test
+    void markAsUsedAfterClose_throwsIllegalStateException() throws IOException {
+        CounterStorage counterStorage = storage.forIdentifier("identifier");
+        storage.close();
+
+        assertThrows(IllegalStateException.class, () -> counterStorage.markAsUsed(100));
+    }
+
+    @Test
+    void markAsUsedConcurrently_pipelinesOverConnections() throws Exception {
+        int calls = 2000;
+
+        try (RespCounterStorage pipelining = new RespCounterStorage.Builder(server.address())
+                .withKeyPrefix("pipelining:")
+                .withConnections(2)
+                .build()) {
+            List<Callable<Boolean>> tasks = IntStream.range(0, calls)
+                    .mapToObj(i -> (Callable<Boolean>) () -> pipelining.forIdentifier("identifier-" + i).markAsUsed(1))
+                    .collect(Collectors.toList());
+
+            assertThat(count(tasks, 32), is((long) calls));
+            // The storages of setUp and this test
+            assertThat(server.connections(), is(4));
+            assertThat(server.maxPipelined(), greaterThan(1));
+        }
+    }
+
+    @Test
+    void markAsUsedConcurrentlyInTwoInstances_onlyOneSucceeds() throws Exception {
+        int threads = 10;
+
+        try (RespCounterStorage other = new RespCounterStorage.Builder(server.address()).withConnections(1).build()) {
+            for (int counter = 0; counter < 50; counter++) {
+                long current = counter;
+                List<Callable<Boolean>> tasks = IntStream.range(0, threads)
+                        .mapToObj(i -> (Callable<Boolean>) () -> (i % 2 == 0 ? storage : other)
+                                .forIdentifier("identifier-" + current % 8).markAsUsed(current))
+                        .collect(Collectors.toList());
+
+                assertThat(count(tasks, threads), is(1L));
+            }
+        }
+    }
+
+    @Test
+    void parse_incompleteReply_returnsNull() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap("$5\r\nhel".getBytes(US_ASCII));
+
+        assertThat(RespCounterStorage.parse(buffer), is(nullValue()));
+        assertThat(buffer.position(), is(0));
+    }
+
+    @Test
+    void parse_replies() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(":1\r\n-ERR wrong\r\n$5\r\nhello\r\n+OK\r\n".getBytes(US_ASCII));
+
+        assertThat(RespCounterStorage.parse(buffer), is(1L));
+        assertThat(RespCounterStorage.parse(buffer), is("ERR wrong"));
+        assertThat(new String((byte[]) RespCounterStorage.parse(buffer), US_ASCII), is("hello"));
+        assertThat(new String((byte[]) RespCounterStorage.parse(buffer), US_ASCII), is("OK"));
+        assertThat(buffer.hasRemaining(), is(false));
+    }
+
+    private static long count(List<Callable<Boolean>> tasks, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            long succeeded = 0;
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                if (future.get()) succeeded++;
+            }
+            return succeeded;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
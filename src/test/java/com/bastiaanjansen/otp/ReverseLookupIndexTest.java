@@ -0,0 +1,178 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReverseLookupIndexTest {
+
+    private final String secret = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+    private final String otherSecret = "JBSWY3DPEHPK3PXP";
+
+    private MutableClock clock;
+
+    private ReverseLookupIndex index;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.ofEpochSecond(1_000_000));
+        index = new ReverseLookupIndex.Builder().withClock(clock).withDelayWindow(1).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.close();
+    }
+
+    @Test
+    void lookupCurrentCode_unique() {
+        TOTPGenerator generator = generator(secret);
+        index.register("user", generator);
+        index.register("other-user", generator(otherSecret));
+
+        ReverseLookupIndex.Result result = index.lookup(generator.now());
+
+        assertThat(result.isUnique(), is(true));
+        assertThat(result.getMatches().get(0).getIdentifier(), is("user"));
+        assertThat(result.getMatches().get(0).getCounter(), is(1_000_000L / 30));
+    }
+
+    @Test
+    void lookupInvalidCode_empty() {
+        index.register("user", generator(secret));
+
+        assertThat(index.lookup("000000").isEmpty(), is(true));
+    }
+
+    @Test
+    void lookupCodeOfSameSecret_ambiguous() {
+        TOTPGenerator generator = generator(secret);
+        index.register("user", generator);
+        index.register("other-user", generator(secret));
+
+        assertThat(index.lookup(generator.now()).isAmbiguous(), is(true));
+    }
+
+    @Test
+    void lookupOlderCodeWithinDelayWindow_unique() {
+        TOTPGenerator generator = generator(secret);
+        index.register("user", generator);
+        String code = generator.now();
+
+        clock.advance(Duration.ofSeconds(30));
+
+        assertThat(index.lookup(code).isUnique(), is(true));
+    }
+
+    @Test
+    void lookupOlderCodeOutsideDelayWindow_empty() {
+        TOTPGenerator generator = generator(secret);
+        index.register("user", generator);
+        String code = generator.now();
+
+        clock.advance(Duration.ofSeconds(60));
+
+        assertThat(index.lookup(code).isEmpty(), is(true));
+    }
+
+    @Test
+    void lookupAfterRollover_findsNewCode() {
+        TOTPGenerator generator = generator(secret);
+        index.register("user", generator);
+        index.lookup(generator.now());
+
+        clock.advance(Duration.ofSeconds(300));
+
+        assertThat(index.lookup(generator.now()).isUnique(), is(true));
+    }
+
+    @Test
+    void lookupAfterUnregister_empty() {
+        TOTPGenerator generator = generator(secret);
+        index.register("user", generator);
+        index.lookup(generator.now());
+
+        index.unregister("user");
+
+        assertThat(index.lookup(generator.now()).isEmpty(), is(true));
+    }
+
+    @Test
+    void registerAfterLookup_findsCode() {
+        index.lookup("000000");
+        TOTPGenerator generator = generator(secret);
+
+        index.register("user", generator);
+
+        assertThat(index.lookup(generator.now()).isUnique(), is(true));
+    }
+
+    @Test
+    void beforePeriodBoundary_nextStepIsComputedWithoutLookup() throws InterruptedException {
+        index.close();
+        // 10 seconds before a boundary, within the last half of the period
+        clock = new MutableClock(Instant.ofEpochSecond(1_000_010));
+        index = new ReverseLookupIndex.Builder().withClock(clock).withDelayWindow(1).build();
+        TOTPGenerator generator = generator(secret);
+        index.register("user", generator);
+        long step = 1_000_010L / 30;
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!index.indexed(step + 1) && System.nanoTime() < deadline) Thread.sleep(10);
+
+        assertThat(index.indexed(step + 1), is(true));
+
+        clock.advance(Duration.ofSeconds(10));
+
+        assertThat(index.lookup(generator.now()).isUnique(), is(true));
+    }
+
+    @Test
+    void registerWithDifferentPeriod_throwsIllegalArgumentException() {
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret).withPeriod(Duration.ofSeconds(60)).build();
+
+        assertThrows(IllegalArgumentException.class, () -> index.register("user", generator));
+    }
+
+    private TOTPGenerator generator(String secret) {
+        return new TOTPGenerator.Builder(secret).withClock(clock).build();
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
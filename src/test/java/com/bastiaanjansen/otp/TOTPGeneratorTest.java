@@ -14,11 +14,15 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.OptionalLong;
 import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -151,6 +155,13 @@ class TOTPGeneratorTest {
         assertThat(generator.verify(code, 1), is(true));
     }
 
+    @Test
+    void verifyWithNegativeDelayWindow_false() {
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret).build();
+
+        assertThat(generator.verify(generator.now(), -1), is(false));
+    }
+
     @Test
     void verifyCodeWithCounterStorage_true() {
         TOTPGenerator generator = new TOTPGenerator.Builder(secret)
@@ -196,6 +207,84 @@ class TOTPGeneratorTest {
         assertThat(generator.verify("000000"), is(false));
     }
 
+    @Test
+    void verifyWithVerificationListener_reportsOutcomes() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC"));
+        List<String> outcomes = new ArrayList<>();
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret)
+                .withClock(clock)
+                .withCounterStorage(new InMemoryCounterStorage().forIdentifier("user"))
+                .withVerificationListener((counter, match, valid) -> outcomes.add(counter + " " + match + " " + valid))
+                .build();
+        String code = generator.at(99 * 30);
+
+        generator.verify(code, 1);
+        generator.verify(code, 1);
+        generator.verify("000000", 1);
+
+        // The replay is reported with the counter it matched, the wrong code without a match
+        assertThat(outcomes, contains("100 OptionalLong[99] true", "100 OptionalLong[99] false", "100 OptionalLong.empty false"));
+    }
+
+    @Test
+    void verifyMatchRejectedByCounterStorage_reportsMatch() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC"));
+        List<String> outcomes = new ArrayList<>();
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret)
+                .withClock(clock)
+                .withCounterStorage(counter -> false)
+                .withVerificationListener((counter, match, valid) -> outcomes.add(counter + " " + match + " " + valid))
+                .build();
+
+        generator.verify(generator.now());
+
+        assertThat(outcomes, contains("100 OptionalLong[100] false"));
+    }
+
+    @Test
+    void verifyWithCounterStorageKnowingLastUsed_skipsUsedCounters() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC"));
+        RecordingCounterStorage counterStorage = new RecordingCounterStorage(OptionalLong.of(99));
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret)
+                .withClock(clock)
+                .withCounterStorage(counterStorage)
+                .build();
+
+        // Counter 99 is within the delay window, but already used
+        assertThat(generator.verify(generator.at(99 * 30), 1), is(false));
+        assertThat(counterStorage.markedCounters, is(0));
+
+        assertThat(generator.verify(generator.at(100 * 30), 1), is(true));
+        assertThat(counterStorage.markedCounters, is(1));
+    }
+
+    @Test
+    void verifyWithCounterStorageKnowingLastUsedBeyondWindow_rejectsWithoutMarking() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC"));
+        RecordingCounterStorage counterStorage = new RecordingCounterStorage(OptionalLong.of(101));
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret)
+                .withClock(clock)
+                .withCounterStorage(counterStorage)
+                .build();
+
+        assertThat(generator.verify(generator.at(100 * 30), 1), is(false));
+        assertThat(generator.verify(generator.at(101 * 30), 1), is(false));
+        assertThat(counterStorage.markedCounters, is(0));
+    }
+
+    @Test
+    void verifyWithCounterStorageWithoutLastUsed_marksCounter() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(3000), ZoneId.of("UTC"));
+        RecordingCounterStorage counterStorage = new RecordingCounterStorage(OptionalLong.empty());
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret)
+                .withClock(clock)
+                .withCounterStorage(counterStorage)
+                .build();
+
+        assertThat(generator.verify(generator.at(99 * 30), 1), is(true));
+        assertThat(counterStorage.markedCounters, is(1));
+    }
+
     @Test
     void verifyOlderCodeTwiceWithCounterStorageWithDelayWindowIs1_false() {
         TOTPGenerator generator = new TOTPGenerator.Builder(secret)
@@ -345,6 +434,47 @@ class TOTPGeneratorTest {
         assertThrows(URISyntaxException.class, () -> TOTPGenerator.fromURI(uri));
     }
 
+    @Test
+    void nowWithTimeStepSource_usesStepOfSource() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(100), ZoneId.of("UTC"));
+
+        try (TimeStepSource source = new TimeStepSource(Duration.ofSeconds(30), clock)) {
+            TOTPGenerator generator = new TOTPGenerator.Builder(secret).withTimeStepSource(source).build();
+
+            assertThat(generator.now(), is(generator.at(100)));
+            assertThat(generator.getClock(), is(clock));
+        }
+    }
+
+    @Test
+    void verifyWithTimeStepSource_true() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(723), ZoneId.of("UTC"));
+
+        try (TimeStepSource source = new TimeStepSource(Duration.ofSeconds(30), clock)) {
+            TOTPGenerator generator = new TOTPGenerator.Builder(secret).withTimeStepSource(source).build();
+
+            assertThat(generator.verify(generator.at(723)), is(true));
+            assertThat(generator.verify(generator.at(693)), is(false));
+        }
+    }
+
+    @Test
+    void nowWithSharedTimeStepSource_equalsNowWithClock() {
+        TOTPGenerator shared = new TOTPGenerator.Builder(secret)
+                .withTimeStepSource(TimeStepSource.forPeriod(Duration.ofSeconds(30)))
+                .build();
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret).build();
+
+        // Around a period boundary the ticker can lag the clock by a few milliseconds, so retry once later
+        String code = shared.now();
+        if (!code.equals(generator.now())) {
+            assertDoesNotThrow(() -> Thread.sleep(100));
+            code = shared.now();
+        }
+
+        assertThat(code, is(generator.now()));
+    }
+
     @Nested
     class BuilderTest {
         @Test
@@ -404,6 +534,13 @@ class TOTPGeneratorTest {
             assertThrows(IllegalArgumentException.class, () -> new TOTPGenerator.Builder(secret).withHOTPGenerator(builder -> builder.withPasswordLength(passwordLength)).build());
         }
 
+        @Test
+        void builderWithTimeStepSourceOfOtherPeriod_throwsIllegalArgumentException() {
+            TimeStepSource source = TimeStepSource.forPeriod(Duration.ofSeconds(60));
+
+            assertThrows(IllegalArgumentException.class, () -> new TOTPGenerator.Builder(secret).withTimeStepSource(source).build());
+        }
+
         @Test
         void builderWithoutPeriod_defaultPeriod() {
             TOTPGenerator generator = new TOTPGenerator.Builder(secret).build();
@@ -420,4 +557,29 @@ class TOTPGeneratorTest {
             assertThat(generator.getAlgorithm(), is(expected));
         }
     }
+
+    /**
+     * Counter storage which reports a fixed last used counter and accepts every counter above it
+     */
+    private static final class RecordingCounterStorage implements CounterStorage {
+
+        private final OptionalLong lastUsed;
+
+        private int markedCounters;
+
+        private RecordingCounterStorage(final OptionalLong lastUsed) {
+            this.lastUsed = lastUsed;
+        }
+
+        @Override
+        public boolean markAsUsed(final long counter) {
+            markedCounters++;
+            return !lastUsed.isPresent() || counter > lastUsed.getAsLong();
+        }
+
+        @Override
+        public OptionalLong lastUsed() {
+            return lastUsed;
+        }
+    }
 }
@@ -0,0 +1,140 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TimeStepSourceTest {
+
+    @Test
+    void currentStepWithFixedClock_stepOfClock() {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(100), ZoneId.of("UTC"));
+
+        try (TimeStepSource source = new TimeStepSource(Duration.ofSeconds(30), clock)) {
+            assertThat(source.currentStep(), is(3L));
+        }
+    }
+
+    @Test
+    void currentStepAfterBoundary_nextStep() throws InterruptedException {
+        AtomicLong millis = new AtomicLong(1000);
+
+        try (TimeStepSource source = new TimeStepSource(Duration.ofMillis(10), new SettableClock(millis))) {
+            assertThat(source.currentStep(), is(100L));
+
+            millis.set(1010);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (source.currentStep() == 100 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertThat(source.currentStep(), is(101L));
+        }
+    }
+
+    @Test
+    void currentStepAfterClockStepsForward_updatedWithinASecond() throws InterruptedException {
+        AtomicLong millis = new AtomicLong(0);
+
+        try (TimeStepSource source = new TimeStepSource(Duration.ofSeconds(30), new SettableClock(millis))) {
+            Thread.sleep(50);
+
+            // The ticker parked for the rest of the period, as measured before the clock stepped forward
+            millis.set(Duration.ofMinutes(5).toMillis());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (source.currentStep() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertThat(source.currentStep(), is(10L));
+        }
+    }
+
+    @Test
+    void currentStepAfterClose_notUpdated() throws InterruptedException {
+        AtomicLong millis = new AtomicLong(1000);
+        TimeStepSource source = new TimeStepSource(Duration.ofMillis(10), new SettableClock(millis));
+        source.close();
+        Thread.sleep(50);
+
+        millis.set(2000);
+        Thread.sleep(50);
+
+        assertThat(source.currentStep(), is(100L));
+    }
+
+    @Test
+    void currentStepOfSharedSource_stepOfSystemClock() {
+        TimeStepSource source = TimeStepSource.forPeriod(Duration.ofSeconds(1));
+
+        long before = System.currentTimeMillis() / 1000;
+        long step = source.currentStep();
+        long after = System.currentTimeMillis() / 1000;
+
+        // The ticker can wake up slightly after a boundary
+        assertThat(step >= before - 1 && step <= after, is(true));
+    }
+
+    @Test
+    void forPeriodTwice_sameSource() {
+        assertThat(TimeStepSource.forPeriod(Duration.ofSeconds(30)), is(sameInstance(TimeStepSource.forPeriod(Duration.ofSeconds(30)))));
+    }
+
+    @Test
+    void forPeriodWithOtherPeriod_otherSource() {
+        assertThat(TimeStepSource.forPeriod(Duration.ofSeconds(30)), is(not(sameInstance(TimeStepSource.forPeriod(Duration.ofSeconds(60))))));
+    }
+
+    @Test
+    void closeSharedSource_keepsTicking() throws InterruptedException {
+        TimeStepSource source = TimeStepSource.forPeriod(Duration.ofSeconds(1));
+        source.close();
+        long step = source.currentStep();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (source.currentStep() == step && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(source.currentStep(), is(step + 1));
+    }
+
+    @Test
+    void createWithZeroPeriod_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeStepSource(Duration.ZERO, Clock.systemUTC()));
+    }
+
+    private static final class SettableClock extends Clock {
+
+        private final AtomicLong millis;
+
+        private SettableClock(final AtomicLong millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.bastiaanjansen.otp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VerificationEngineTest {
+
+    private static final String SECRET = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochSecond(1_000_000), ZoneId.of("UTC"));
+
+    private final TOTPGenerator generator = new TOTPGenerator.Builder(SECRET).withClock(CLOCK).build();
+
+    private final Map<String, AtomicInteger> resolved = new ConcurrentHashMap<>();
+
+    private VerificationEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new VerificationEngine.Builder(this::resolve).withShards(4).withDelayWindow(1).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    void verifyValidCode_true() throws Exception {
+        assertThat(engine.verify("identifier", generator.now()).get(), is(true));
+    }
+
+    @Test
+    void verifyCodeTwice_false() throws Exception {
+        String code = generator.now();
+        engine.verify("identifier", code).get();
+
+        assertThat(engine.verify("identifier", code).get(), is(false));
+    }
+
+    @Test
+    void verifyCodeOfOtherIdentifier_true() throws Exception {
+        String code = generator.now();
+        engine.verify("identifier", code).get();
+
+        assertThat(engine.verify("another-identifier", code).get(), is(true));
+    }
+
+    @Test
+    void verifyCodeWithinDelayWindow_true() throws Exception {
+        assertThat(engine.verify("identifier", generator.at(1_000_000 - 30)).get(), is(true));
+    }
+
+    @Test
+    void verifyCodeOutsideDelayWindow_false() throws Exception {
+        assertThat(engine.verify("identifier", generator.at(1_000_000 - 60)).get(), is(false));
+    }
+
+    @Test
+    void verifyOlderCodeAfterNewerCode_false() throws Exception {
+        engine.verify("identifier", generator.now()).get();
+
+        assertThat(engine.verify("identifier", generator.at(1_000_000 - 30)).get(), is(false));
+    }
+
+    @Test
+    void verifyInvalidCode_false() throws Exception {
+        String code = generator.now().equals("000000") ? "000001" : "000000";
+
+        assertThat(engine.verify("identifier", code).get(), is(false));
+    }
+
+    @Test
+    void verifyCodeWithWrongLength_false() throws Exception {
+        assertThat(engine.verify("identifier", generator.now() + "0").get(), is(false));
+    }
+
+    @Test
+    void verifyNullCodeOfKnownIdentifier_throwsIllegalArgumentException() throws Exception {
+        engine.verify("identifier", "000000").get();
+
+        assertThrows(IllegalArgumentException.class, () -> engine.verify("identifier", null));
+
+        // Still known, so the generator is not resolved again
+        engine.verify("identifier", "000000").get();
+        assertThat(resolved.get("identifier").get(), is(1));
+    }
+
+    @Test
+    void verifyUnknownIdentifier_false() throws Exception {
+        assertThat(engine.verify("unknown", generator.now()).get(), is(false));
+    }
+
+    @Test
+    void verifyTwice_resolvesGeneratorOnce() throws Exception {
+        engine.verify("identifier", generator.now()).get();
+        engine.verify("identifier", generator.now()).get();
+
+        assertThat(resolved.get("identifier").get(), is(1));
+    }
+
+    @Test
+    void verifyAfterIdleTimeout_resolvesGeneratorAgain() throws Exception {
+        VerificationEngine idle = new VerificationEngine.Builder(this::resolve)
+                .withShards(1)
+                .withIdleTimeout(Duration.ofMillis(1))
+                .build();
+
+        try {
+            idle.verify("identifier", "000000").get();
+            Thread.sleep(5);
+            idle.verify("identifier", "000000").get();
+
+            assertThat(resolved.get("identifier").get(), is(2));
+        } finally {
+            idle.close();
+        }
+    }
+
+    @Test
+    void verifyAfterIdleTimeoutWithUsedCounterInWindow_keepsIdentity() throws Exception {
+        VerificationEngine idle = new VerificationEngine.Builder(this::resolve)
+                .withShards(1)
+                .withDelayWindow(1)
+                .withIdleTimeout(Duration.ofMillis(1))
+                .build();
+
+        try {
+            String code = generator.now();
+            idle.verify("identifier", code).get();
+            Thread.sleep(5);
+
+            assertThat(idle.verify("identifier", code).get(), is(false));
+            assertThat(resolved.get("identifier").get(), is(1));
+        } finally {
+            idle.close();
+        }
+    }
+
+    @Test
+    void evict_resolvesGeneratorAgain() throws Exception {
+        engine.verify("identifier", generator.now()).get();
+
+        assertThat(engine.evict("identifier").get(), is(true));
+        assertThat(engine.evict("identifier").get(), is(false));
+
+        engine.verify("identifier", generator.now()).get();
+        assertThat(resolved.get("identifier").get(), is(2));
+    }
+
+    @Test
+    void verifyWithFailingResolver_completesExceptionally() {
+        VerificationEngine failing = new VerificationEngine.Builder(identifier -> {
+            throw new IllegalArgumentException("Unknown secret");
+        }).withShards(1).build();
+
+        try {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> failing.verify("identifier", "123456").get());
+            assertThat(e.getCause(), is(instanceOf(IllegalArgumentException.class)));
+        } finally {
+            failing.close();
+        }
+    }
+
+    @Test
+    void verifyWithTimeStepSource_usesStepOfSource() throws Exception {
+        try (TimeStepSource source = new TimeStepSource(Duration.ofSeconds(30), CLOCK)) {
+            TOTPGenerator withSource = new TOTPGenerator.Builder(SECRET).withTimeStepSource(source).build();
+            VerificationEngine sourced = new VerificationEngine.Builder(identifier -> withSource).withShards(1).build();
+
+            try {
+                assertThat(sourced.verify("identifier", generator.now()).get(), is(true));
+            } finally {
+                sourced.close();
+            }
+        }
+    }
+
+    @Test
+    void verifySameCodeConcurrently_onlyOneSucceeds() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int round = 0; round < 50; round++) {
+                String identifier = "identifier-" + round;
+                String code = generator.now();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<CompletableFuture<Boolean>>> submitted = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    submitted.add(executor.submit(() -> {
+                        start.await();
+                        return engine.verify(identifier, code);
+                    }));
+                }
+                start.countDown();
+
+                int succeeded = 0;
+                for (Future<CompletableFuture<Boolean>> future : submitted) {
+                    if (future.get().get()) succeeded++;
+                }
+                assertThat(succeeded, is(1));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void verifyManyIdentifiers_allSucceed() throws Exception {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(engine.verify("identifier-" + i, generator.now()));
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertThat(future.get(), is(true));
+        }
+    }
+
+    @Test
+    void verifyWithFullInbox_rejected() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        VerificationEngine small = new VerificationEngine.Builder(identifier -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return generator;
+        }).withShards(1).withInboxCapacity(2).build();
+
+        try {
+            CompletableFuture<Boolean> first = small.verify("identifier", generator.now());
+            blocked.await();
+            small.verify("identifier", generator.now());
+            small.verify("identifier", generator.now());
+            CompletableFuture<Boolean> rejected = small.verify("identifier", generator.now());
+
+            ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+            assertThat(e.getCause(), is(instanceOf(RejectedExecutionException.class)));
+
+            release.countDown();
+            assertThat(first.get(), is(true));
+        } finally {
+            release.countDown();
+            small.close();
+        }
+    }
+
+    @Test
+    void close_completesAcceptedCodes() throws Exception {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(engine.verify("identifier-" + i, generator.now()));
+        }
+        engine.close();
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertThat(future.get(), is(true));
+        }
+    }
+
+    @Test
+    void closeFromDependentStage_returns() throws Exception {
+        CompletableFuture<Void> closed = engine.verify("identifier", generator.now()).thenRun(engine::close);
+
+        closed.get(5, TimeUnit.SECONDS);
+        assertThrows(IllegalStateException.class, () -> engine.verify("identifier", generator.now()));
+    }
+
+    @Test
+    void verifyAfterClose_throwsIllegalStateException() {
+        engine.close();
+
+        assertThrows(IllegalStateException.class, () -> engine.verify("identifier", generator.now()));
+    }
+
+    @Test
+    void shardOf_sameShardForSameIdentifier() {
+        assertThat(engine.shardOf("identifier"), is(engine.shardOf("identifier")));
+    }
+
+    @Test
+    void buildWithDefaults_shardPerProcessor() {
+        VerificationEngine defaults = new VerificationEngine.Builder(identifier -> null).build();
+
+        try {
+            assertThat(defaults.getShards(), is(Runtime.getRuntime().availableProcessors()));
+        } finally {
+            defaults.close();
+        }
+    }
+
+    @Test
+    void buildWithZeroShards_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new VerificationEngine.Builder(identifier -> null).withShards(0));
+    }
+
+    @Test
+    void buildWithInboxCapacityOfOne_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new VerificationEngine.Builder(identifier -> null).withInboxCapacity(1));
+    }
+
+    @Test
+    void buildWithZeroIdleTimeout_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new VerificationEngine.Builder(identifier -> null).withIdleTimeout(Duration.ZERO));
+    }
+
+    @Test
+    void buildWithNegativeDelayWindow_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new VerificationEngine.Builder(identifier -> null).withDelayWindow(-1));
+    }
+
+    private TOTPGenerator resolve(final String identifier) {
+        if (identifier.equals("unknown")) return null;
+
+        resolved.computeIfAbsent(identifier, key -> new AtomicInteger()).incrementAndGet();
+        return generator;
+    }
+}
@@ -0,0 +1,116 @@
+package com.bastiaanjansen.otp;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class VerifyEventTest {
+
+    private final static String secret = "vv3kox7uqj4kyakohmzpph3us4cjimh6f3zknb5c2oobq6v2kiyhm27q";
+
+    private final static Clock clock = Clock.fixed(Instant.ofEpochSecond(1000), ZoneId.of("UTC"));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void verify_recordsWindowAndMatch() throws IOException {
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret.getBytes()).withClock(clock).build();
+        String previousCode = generator.at(Instant.ofEpochSecond(960));
+
+        List<RecordedEvent> events = record("com.bastiaanjansen.otp.Verify", () -> generator.verify(previousCode, 1));
+
+        assertThat(events, hasSize(1));
+        RecordedEvent event = events.get(0);
+        assertThat(event.getString("algorithm"), is("SHA1"));
+        assertThat(event.getInt("delayWindow"), is(1));
+        assertThat(event.getLong("windowSize"), is(3L));
+        assertThat(event.getLong("hmacCount"), is(1L));
+        assertThat(event.getBoolean("matched"), is(true));
+        assertThat(event.getLong("matchedOffset"), is(-1L));
+        assertThat(event.getBoolean("valid"), is(true));
+    }
+
+    @Test
+    void verify_noMatch_recordsAllHMACs() throws IOException {
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret.getBytes()).withClock(clock).build();
+        String oldCode = generator.at(Instant.ofEpochSecond(300));
+
+        List<RecordedEvent> events = record("com.bastiaanjansen.otp.Verify", () -> generator.verify(oldCode, 2));
+
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getLong("hmacCount"), is(5L));
+        assertThat(events.get(0).getBoolean("matched"), is(false));
+        assertThat(events.get(0).getBoolean("valid"), is(false));
+    }
+
+    @Test
+    void verify_withCounterStorage_recordsStorage() throws IOException {
+        CounterStorage inMemory = new InMemoryCounterStorage().forIdentifier("user");
+        // Without a last used counter, the replay is rejected by the storage instead of skipped by the generator
+        CounterStorage counterStorage = inMemory::markAsUsed;
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret.getBytes())
+                .withClock(clock)
+                .withCounterStorage(counterStorage)
+                .build();
+        String code = generator.now();
+
+        List<RecordedEvent> events = record("com.bastiaanjansen.otp.CounterStorage", () -> {
+            generator.verify(code);
+            generator.verify(code);
+        });
+
+        assertThat(events, hasSize(2));
+        assertThat(events.get(0).getLong("counter"), is(33L));
+        assertThat(events.get(0).getBoolean("markedAsUsed"), is(true));
+        assertThat(events.get(1).getBoolean("markedAsUsed"), is(false));
+    }
+
+    @Test
+    void verify_disabled_recordsNothing() throws IOException {
+        TOTPGenerator generator = new TOTPGenerator.Builder(secret.getBytes()).withClock(clock).build();
+
+        Path file = directory.resolve("disabled.jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            generator.verify(generator.now());
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().startsWith("com.bastiaanjansen.otp."))
+                .collect(Collectors.toList());
+
+        assertThat(events, is(empty()));
+    }
+
+    private List<RecordedEvent> record(String eventName, Runnable action) throws IOException {
+        Path file = directory.resolve("recording.jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable(eventName);
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals(eventName))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,87 @@
+package com.bastiaanjansen.otp.helpers;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Base32Test {
+
+    private static Stream<Arguments> rfc4648TestData() {
+        return Stream.of(
+                Arguments.of("", ""),
+                Arguments.of("f", "MY======"),
+                Arguments.of("fo", "MZXQ===="),
+                Arguments.of("foo", "MZXW6==="),
+                Arguments.of("foob", "MZXW6YQ="),
+                Arguments.of("fooba", "MZXW6YTB"),
+                Arguments.of("foobar", "MZXW6YTBOI======")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("rfc4648TestData")
+    void encode(String decoded, String encoded) {
+        assertThat(new String(Base32.encode(decoded.getBytes(US_ASCII)), US_ASCII), is(encoded));
+    }
+
+    @ParameterizedTest
+    @MethodSource("rfc4648TestData")
+    void decode(String decoded, String encoded) {
+        assertThat(new String(Base32.decode(encoded.getBytes(US_ASCII)), US_ASCII), is(decoded));
+    }
+
+    @ParameterizedTest
+    @MethodSource("rfc4648TestData")
+    void decodeWithoutPadding(String decoded, String encoded) {
+        String unpadded = encoded.replace("=", "");
+
+        assertThat(new String(Base32.decode(unpadded.getBytes(US_ASCII)), US_ASCII), is(decoded));
+    }
+
+    @Test
+    void decodeLowercase() {
+        assertThat(new String(Base32.decode("mzxw6ytboi".getBytes(US_ASCII)), US_ASCII), is("foobar"));
+    }
+
+    @Test
+    void decodeIntoBufferWithOffset() {
+        byte[] destination = new byte[8];
+
+        int length = Base32.decode("MZXW6YTB".getBytes(US_ASCII), destination, 2);
+
+        assertThat(length, is(5));
+        assertThat(new String(destination, 2, 5, US_ASCII), is("fooba"));
+    }
+
+    @Test
+    void decodeIntoTooSmallBuffer_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> Base32.decode("MZXW6YTB".getBytes(US_ASCII), new byte[4], 0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "MZXW6YT1", "MZXW 6YTB", "MZ=W6YTB", "MZXW6YQ==", "M", "MZX", "MZXW6Y", "MZ\u00e9W6YTB" })
+    void decodeInvalidValue_throwsIllegalArgumentException(String value) {
+        assertThrows(IllegalArgumentException.class, () -> Base32.decode(value.getBytes(UTF_8)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "MZXW6YT1", "MZXW 6YTB" })
+    void isValidWithInvalidValue_false(String value) {
+        assertThat(Base32.isValid(value.getBytes(US_ASCII)), is(false));
+    }
+
+    @Test
+    void isValidWithValidValue_true() {
+        assertThat(Base32.isValid("MZXW6YTBOI======".getBytes(US_ASCII)), is(true));
+    }
+}
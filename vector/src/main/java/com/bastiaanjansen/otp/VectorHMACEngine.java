@@ -0,0 +1,360 @@
+package com.bastiaanjansen.otp;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Computes HMAC-SHA1 and HMAC-SHA256 codes in SIMD lanes with the incubating Vector API: every lane of an
+ * {@link IntVector} holds the same word of a different message, so one vector operation advances the hash of as
+ * many HMACs as there are lanes.
+ * <p>
+ * An HMAC of an 8 byte counter takes four compressions per lane: the inner and outer key blocks, the counter, and
+ * the inner hash. Only load this class when the {@code jdk.incubator.vector} module is available, see
+ * {@link BatchGenerator#create()}.
+ * <p>
+ * This class is shipped in its own artifact, in the package of {@link HOTPGenerator} so it can read the key of a
+ * generator, which keeps the incubator module out of the build of the library itself.
+ */
+final class VectorHMACEngine implements HMACBatchEngine {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_WORDS = 16;
+    private static final int SCHEDULE_WORDS = 80;
+    private static final int INNER_PAD = 0x36363636;
+    private static final int OUTER_PAD = 0x5c5c5c5c;
+
+    private static final int[] SHA1_IV = { 0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0 };
+
+    private static final int[] SHA1_K = { 0x5A827999, 0x6ED9EBA1, 0x8F1BBCDC, 0xCA62C1D6 };
+
+    private static final int[] SHA256_IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int[] SHA256_K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000 };
+
+    VectorHMACEngine() {
+        // Fail when instantiated without the module, so BatchGenerator falls back to the scalar generator
+        SPECIES.length();
+    }
+
+    @Override
+    public boolean supports(final HMACAlgorithm algorithm) {
+        return algorithm == HMACAlgorithm.SHA1 || algorithm == HMACAlgorithm.SHA256;
+    }
+
+    @Override
+    public void generate(final HOTPGenerator[] generators, final long[] counters, final int[] codes, final int[] indices, final int count) {
+        int lanes = SPECIES.length();
+        HMACAlgorithm algorithm = generators[indices[0]].getAlgorithm();
+        int hashWords = algorithm == HMACAlgorithm.SHA1 ? SHA1_IV.length : SHA256_IV.length;
+
+        Lanes batch = new Lanes(lanes, hashWords);
+
+        for (int start = 0; start < count; start += lanes) {
+            // Lanes beyond count repeat the last pair, their results are discarded
+            for (int lane = 0; lane < lanes; lane++) {
+                int index = indices[Math.min(start + lane, count - 1)];
+                batch.load(lane, generators[index], counters[index]);
+            }
+
+            batch.compute(algorithm);
+
+            for (int lane = 0; lane < lanes && start + lane < count; lane++) {
+                codes[indices[start + lane]] = batch.codes[lane];
+            }
+        }
+    }
+
+    /**
+     * Per lane input and scratch arrays of one batch, in the word-major layout vectors are loaded from: word i of
+     * every lane is stored at {@code [i * lanes, (i + 1) * lanes)}.
+     * <p>
+     * Every step reads its input vectors from these arrays and stores its output vectors in them, and no method
+     * takes or returns a vector. C2 stops inlining large methods, and a vector passed to a method which is not
+     * inlined is allocated on the heap; passing arrays keeps every vector in registers.
+     */
+    private static final class Lanes {
+
+        private final int lanes;
+
+        private final int hashWords;
+
+        private final int[] keyWords;
+
+        private final int[] counterWords;
+
+        private final int[] divisors;
+
+        private final int[] codes;
+
+        private final int[] schedule;
+
+        private final int[] state;
+
+        private final int[] innerHash;
+
+        private final int[] working;
+
+        /**
+         * Result of the SHA-1 round function
+         */
+        private final int[] function;
+
+        private Lanes(final int lanes, final int hashWords) {
+            this.lanes = lanes;
+            this.hashWords = hashWords;
+            this.keyWords = new int[BLOCK_WORDS * lanes];
+            this.counterWords = new int[2 * lanes];
+            this.divisors = new int[lanes];
+            this.codes = new int[lanes];
+            this.schedule = new int[SCHEDULE_WORDS * lanes];
+            this.state = new int[hashWords * lanes];
+            this.innerHash = new int[hashWords * lanes];
+            this.working = new int[hashWords * lanes];
+            this.function = new int[lanes];
+        }
+
+        void load(final int lane, final HOTPGenerator generator, final long counter) {
+            byte[] key = generator.getKey();
+            if (key.length > BLOCK_SIZE) key = digest(generator.getAlgorithm(), key);
+
+            for (int word = 0; word < BLOCK_WORDS; word++) {
+                keyWords[word * lanes + lane] = 0;
+            }
+            for (int i = 0; i < key.length; i++) {
+                keyWords[(i >>> 2) * lanes + lane] |= (key[i] & 0xFF) << (24 - (i & 3) * 8);
+            }
+
+            counterWords[lane] = (int) (counter >>> 32);
+            counterWords[lanes + lane] = (int) counter;
+            divisors[lane] = POWERS_OF_TEN[generator.getPasswordLength()];
+        }
+
+        void compute(final HMACAlgorithm algorithm) {
+            int hashBytes = hashWords * Integer.BYTES;
+
+            // Inner hash: H((K ^ ipad) || counter)
+            initialize(algorithm);
+            loadKeyBlock(INNER_PAD);
+            compress(algorithm);
+            Arrays.fill(schedule, 0, BLOCK_WORDS * lanes, 0);
+            System.arraycopy(counterWords, 0, schedule, 0, 2 * lanes);
+            fillWord(2, 0x80000000);
+            fillWord(15, (BLOCK_SIZE + Long.BYTES) * Byte.SIZE);
+            compress(algorithm);
+            System.arraycopy(state, 0, innerHash, 0, state.length);
+
+            // Outer hash: H((K ^ opad) || inner hash)
+            initialize(algorithm);
+            loadKeyBlock(OUTER_PAD);
+            compress(algorithm);
+            Arrays.fill(schedule, 0, BLOCK_WORDS * lanes, 0);
+            System.arraycopy(innerHash, 0, schedule, 0, innerHash.length);
+            fillWord(hashWords, 0x80000000);
+            fillWord(15, (BLOCK_SIZE + hashBytes) * Byte.SIZE);
+            compress(algorithm);
+
+            truncate();
+        }
+
+        /**
+         * Dynamic truncation per lane: the low 4 bits of the last byte select 4 bytes of the hash, which span at
+         * most two words
+         */
+        private void truncate() {
+            IntVector offset = IntVector.fromArray(SPECIES, state, (hashWords - 1) * lanes).and(0xF);
+            IntVector wordIndex = offset.lanewise(VectorOperators.LSHR, 2);
+            IntVector shift = offset.and(3).lanewise(VectorOperators.LSHL, 3);
+
+            IntVector word0 = IntVector.fromArray(SPECIES, state, 0);
+            IntVector word1 = IntVector.fromArray(SPECIES, state, lanes);
+            IntVector word2 = IntVector.fromArray(SPECIES, state, 2 * lanes);
+            IntVector word3 = IntVector.fromArray(SPECIES, state, 3 * lanes);
+            IntVector word4 = IntVector.fromArray(SPECIES, state, 4 * lanes);
+
+            VectorMask<Integer> second = wordIndex.eq(1);
+            VectorMask<Integer> third = wordIndex.eq(2);
+            VectorMask<Integer> fourth = wordIndex.eq(3);
+            IntVector high = word0.blend(word1, second).blend(word2, third).blend(word3, fourth);
+            IntVector low = word1.blend(word2, second).blend(word3, third).blend(word4, fourth);
+
+            // A shift by 32 is a shift by 0 in Java, so lanes without a shift take the high word as is
+            IntVector shifted = high.lanewise(VectorOperators.LSHL, shift)
+                    .or(low.lanewise(VectorOperators.LSHR, shift.neg().add(Integer.SIZE)));
+            shifted.blend(high, shift.eq(0)).and(0x7FFFFFFF).intoArray(codes, 0);
+
+            // Integer division is not vectorized on most CPUs
+            for (int lane = 0; lane < lanes; lane++) {
+                codes[lane] %= divisors[lane];
+            }
+        }
+
+        private void initialize(final HMACAlgorithm algorithm) {
+            int[] iv = algorithm == HMACAlgorithm.SHA1 ? SHA1_IV : SHA256_IV;
+            for (int word = 0; word < hashWords; word++) {
+                Arrays.fill(state, word * lanes, (word + 1) * lanes, iv[word]);
+            }
+        }
+
+        private void loadKeyBlock(final int pad) {
+            for (int offset = 0; offset < BLOCK_WORDS * lanes; offset += lanes) {
+                IntVector.fromArray(SPECIES, keyWords, offset).lanewise(VectorOperators.XOR, pad).intoArray(schedule, offset);
+            }
+        }
+
+        private void fillWord(final int word, final int value) {
+            Arrays.fill(schedule, word * lanes, (word + 1) * lanes, value);
+        }
+
+        private void compress(final HMACAlgorithm algorithm) {
+            System.arraycopy(state, 0, working, 0, state.length);
+
+            if (algorithm == HMACAlgorithm.SHA1) compressSHA1();
+            else compressSHA256();
+
+            for (int offset = 0; offset < state.length; offset += lanes) {
+                IntVector.fromArray(SPECIES, state, offset)
+                        .add(IntVector.fromArray(SPECIES, working, offset))
+                        .intoArray(state, offset);
+            }
+        }
+
+        /**
+         * SHA-1 compression of the block in the first 16 schedule words into the working variables
+         */
+        private void compressSHA1() {
+            for (int t = 0; t < 80; t++) {
+                roundSHA1(t);
+            }
+
+            // After 80 rounds, every variable is back in its own slot
+        }
+
+        private void roundSHA1(final int t) {
+            if (t >= BLOCK_WORDS) {
+                IntVector.fromArray(SPECIES, schedule, (t - 3) * lanes)
+                        .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, schedule, (t - 8) * lanes))
+                        .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, schedule, (t - 14) * lanes))
+                        .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, schedule, (t - 16) * lanes))
+                        .lanewise(VectorOperators.ROL, 1)
+                        .intoArray(schedule, t * lanes);
+            }
+
+            IntVector a = IntVector.fromArray(SPECIES, working, slot(0, t, 5));
+            IntVector b = IntVector.fromArray(SPECIES, working, slot(1, t, 5));
+            IntVector c = IntVector.fromArray(SPECIES, working, slot(2, t, 5));
+            IntVector d = IntVector.fromArray(SPECIES, working, slot(3, t, 5));
+            IntVector e = IntVector.fromArray(SPECIES, working, slot(4, t, 5));
+
+            // The round function goes through an array, so no vector has to be merged from the branches
+            if (t < 20) b.and(c).or(b.not().and(d)).intoArray(function, 0);
+            else if (t < 40 || t >= 60) b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.XOR, d).intoArray(function, 0);
+            else b.and(c).or(b.and(d)).or(c.and(d)).intoArray(function, 0);
+
+            IntVector temp = a.lanewise(VectorOperators.ROL, 5)
+                    .add(IntVector.fromArray(SPECIES, function, 0))
+                    .add(e)
+                    .add(SHA1_K[t / 20])
+                    .add(IntVector.fromArray(SPECIES, schedule, t * lanes));
+
+            // The new a takes the slot of e, the new c the slot of b
+            temp.intoArray(working, slot(4, t, 5));
+            b.lanewise(VectorOperators.ROL, 30).intoArray(working, slot(1, t, 5));
+        }
+
+        /**
+         * SHA-256 compression of the block in the first 16 schedule words into the working variables
+         */
+        private void compressSHA256() {
+            for (int t = 0; t < 64; t++) {
+                roundSHA256(t);
+            }
+
+            // After 64 rounds, every variable is back in its own slot
+        }
+
+        private void roundSHA256(final int t) {
+            if (t >= BLOCK_WORDS) {
+                IntVector w15 = IntVector.fromArray(SPECIES, schedule, (t - 15) * lanes);
+                IntVector w2 = IntVector.fromArray(SPECIES, schedule, (t - 2) * lanes);
+                IntVector s0 = w15.lanewise(VectorOperators.ROR, 7)
+                        .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.ROR, 18))
+                        .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.LSHR, 3));
+                IntVector s1 = w2.lanewise(VectorOperators.ROR, 17)
+                        .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.ROR, 19))
+                        .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.LSHR, 10));
+
+                IntVector.fromArray(SPECIES, schedule, (t - 16) * lanes)
+                        .add(s0)
+                        .add(IntVector.fromArray(SPECIES, schedule, (t - 7) * lanes))
+                        .add(s1)
+                        .intoArray(schedule, t * lanes);
+            }
+
+            IntVector a = IntVector.fromArray(SPECIES, working, slot(0, t, 8));
+            IntVector b = IntVector.fromArray(SPECIES, working, slot(1, t, 8));
+            IntVector c = IntVector.fromArray(SPECIES, working, slot(2, t, 8));
+            IntVector d = IntVector.fromArray(SPECIES, working, slot(3, t, 8));
+            IntVector e = IntVector.fromArray(SPECIES, working, slot(4, t, 8));
+            IntVector f = IntVector.fromArray(SPECIES, working, slot(5, t, 8));
+            IntVector g = IntVector.fromArray(SPECIES, working, slot(6, t, 8));
+            IntVector h = IntVector.fromArray(SPECIES, working, slot(7, t, 8));
+
+            IntVector sum1 = e.lanewise(VectorOperators.ROR, 6)
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 11))
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 25));
+            IntVector choice = e.and(f).lanewise(VectorOperators.XOR, e.not().and(g));
+            IntVector temp1 = h.add(sum1).add(choice).add(SHA256_K[t])
+                    .add(IntVector.fromArray(SPECIES, schedule, t * lanes));
+            IntVector sum0 = a.lanewise(VectorOperators.ROR, 2)
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 13))
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 22));
+            IntVector majority = a.and(b).lanewise(VectorOperators.XOR, a.and(c)).lanewise(VectorOperators.XOR, b.and(c));
+
+            // The new a takes the slot of h, the new e the slot of d
+            temp1.add(sum0).add(majority).intoArray(working, slot(7, t, 8));
+            d.add(temp1).intoArray(working, slot(3, t, 8));
+        }
+
+        /**
+         * Instead of shifting every working variable into the next one each round, the variables rotate through the
+         * slots of the working array, and only the new ones are stored
+         *
+         * @param variable index of the variable, 0 for a
+         * @param round round number
+         * @param count amount of working variables
+         * @return offset of the variable in the working array
+         */
+        private int slot(final int variable, final int round, final int count) {
+            return Math.floorMod(variable - round, count) * lanes;
+        }
+
+        private static byte[] digest(final HMACAlgorithm algorithm, final byte[] key) {
+            try {
+                return MessageDigest.getInstance(algorithm == HMACAlgorithm.SHA1 ? "SHA-1" : "SHA-256").digest(key);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
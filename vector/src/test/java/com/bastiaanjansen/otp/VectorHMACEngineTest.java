@@ -0,0 +1,65 @@
+package com.bastiaanjansen.otp;
+
+import com.bastiaanjansen.otp.helpers.Base32;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class VectorHMACEngineTest {
+
+    @Test
+    void create_isVectorizedWithModule() {
+        // The tests run with --add-modules jdk.incubator.vector
+        assertThat(BatchGenerator.create().isVectorized(), is(true));
+    }
+
+    @ParameterizedTest
+    @EnumSource(HMACAlgorithm.class)
+    void generate_vectorized_matchesGenerator(HMACAlgorithm algorithm) {
+        assertMatchesGenerator(new Random(algorithm.ordinal()), algorithm);
+    }
+
+    @Test
+    void generate_mixedAlgorithms_matchesGenerator() {
+        assertMatchesGenerator(new Random(42), HMACAlgorithm.values());
+    }
+
+    @Test
+    void generate_longKey_matchesGenerator() {
+        byte[] secret = Base32.encode(new byte[100]);
+        HOTPGenerator generator = new HOTPGenerator.Builder(secret).withAlgorithm(HMACAlgorithm.SHA256).build();
+
+        int[] codes = BatchGenerator.create().generate(new HOTPGenerator[] { generator }, new long[] { 7 });
+
+        assertThat(codes[0], is(Integer.parseInt(generator.generate(7))));
+    }
+
+    private static void assertMatchesGenerator(Random random, HMACAlgorithm... algorithms) {
+        // An amount which is not a multiple of any vector length, so the last batch has unused lanes
+        int size = 101;
+        HOTPGenerator[] generators = new HOTPGenerator[size];
+        long[] counters = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            byte[] key = new byte[1 + random.nextInt(64)];
+            random.nextBytes(key);
+
+            generators[i] = new HOTPGenerator.Builder(Base32.encode(key))
+                    .withAlgorithm(algorithms[random.nextInt(algorithms.length)])
+                    .withPasswordLength(6 + random.nextInt(3))
+                    .build();
+            counters[i] = random.nextBoolean() ? random.nextInt(100) : random.nextLong() >>> 1;
+        }
+
+        int[] codes = BatchGenerator.create().generate(generators, counters);
+
+        for (int i = 0; i < size; i++) {
+            assertThat(codes[i], is(Integer.parseInt(generators[i].generate(counters[i]))));
+        }
+    }
+}